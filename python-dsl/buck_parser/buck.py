@@ -2025,7 +2025,14 @@ def encode_result(values, diagnostics, profile):
         return json_encoder.encode(result)
 
 
-def process_with_diagnostics(build_file_query, build_file_processor, to_parent):
+def process_with_diagnostics(
+    build_file_query, build_file_processor, to_parent, keep_going=False
+):
+    """Processes a build file, sending its rules and diagnostics to the parent.
+
+    Unless keep_going is set, errors are raised after their diagnostics were sent,
+    which ends the process.
+    """
     start_time = time.time()
     build_file = build_file_query.get("buildFile")
     watch_root = build_file_query.get("watchRoot")
@@ -2064,7 +2071,8 @@ def process_with_diagnostics(build_file_query, build_file_processor, to_parent):
                     exception=sys.exc_info(),
                 )
             )
-        raise
+        if not keep_going or not isinstance(e, Exception):
+            raise
     finally:
         java_process_send_result(to_parent, values, diagnostics, None)
 
@@ -2228,6 +2236,12 @@ def main():
         action="store_true",
         help="Allow user defined rules' primitives in build files.",
     )
+    parser.add_option(
+        "--pipelined",
+        action="store_true",
+        help="Accept queries while previous ones are processed, and keep "
+        "processing queries after a build file fails to parse.",
+    )
     (options, args) = parser.parse_args()
 
     # Even though project_root is absolute path, it may not be concise. For
@@ -2330,7 +2344,9 @@ def main():
             # and File Objects (for line in sys.stdin) which is not
             # influenced by this option. To work around this, you will
             # want to use file.readline() inside a while 1: loop.
-            for line in wait_and_read_build_file_query():
+            for line in wait_and_read_build_file_query(
+                wait_for_input=not options.pipelined
+            ):
                 if line == "":
                     break
                 build_file_query = json.loads(line)
@@ -2338,7 +2354,10 @@ def main():
                     report_profile(options, to_parent, processed_build_file, profiler)
                 else:
                     duration = process_with_diagnostics(
-                        build_file_query, build_file_processor, to_parent
+                        build_file_query,
+                        build_file_processor,
+                        to_parent,
+                        keep_going=options.pipelined,
                     )
                     processed_build_file.append(
                         {
@@ -2363,12 +2382,14 @@ def wait_build_file_query():
     _select([sys.stdin], [], [])
 
 
-def wait_and_read_build_file_query():
+def wait_and_read_build_file_query(wait_for_input=True):
     def default_wait():
         return
 
     wait = default_wait
-    if sys.platform != "win32":
+    # Pipelined queries may already be buffered by sys.stdin, which select.select()
+    # doesn't know about, so waiting for input could wait forever.
+    if wait_for_input and sys.platform != "win32":
         # wait_build_file_query() is useful to attribute time waiting for queries.
         # Since select.select() is not supported on Windows, we currently don't have
         # a reliable way to measure it on this platform. Then, we skip it.
@@ -1563,6 +1563,29 @@ class BuckTest(unittest.TestCase):
             build_file_processor._get_load_path("@foo//bar:baz"),
         )
 
+    def test_parse_errors_are_reported_without_raising_when_keeping_going(self):
+        build_file = ProjectFile(
+            self.project_root, path="BUCK", contents=("undefined_function()",)
+        )
+        self.write_file(build_file)
+        build_file_processor = self.create_build_file_processor()
+        fake_stdout = BytesIO()
+        with build_file_processor.with_builtins(builtins.__dict__):
+            process_with_diagnostics(
+                {
+                    "buildFile": self.build_file_name,
+                    "watchRoot": "",
+                    "projectPrefix": self.project_root,
+                },
+                build_file_processor,
+                fake_stdout,
+                keep_going=True,
+            )
+        decoded_result = json.loads(fake_stdout.getvalue())
+        self.assertEqual([], decoded_result["values"])
+        self.assertEqual("fatal", decoded_result["diagnostics"][0]["level"])
+        self.assertEqual("parse", decoded_result["diagnostics"][0]["source"])
+
     def test_json_encoding_failure(self):
         build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
         fake_stdout = BytesIO()
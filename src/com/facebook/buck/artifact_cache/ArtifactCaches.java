@@ -268,7 +268,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                     unconfiguredBuildTargetFactory,
                     targetConfigurationSerializer,
                     projectFilesystem,
-                    MoreExecutors.newDirectExecutorService()));
+                    MoreExecutors.newDirectExecutorService(),
+                    0,
+                    buckConfig.getMultiFetchLimit(),
+                    false));
   }
 
   private static ArtifactCache newInstanceInternal(
@@ -289,6 +292,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     if (modes.isEmpty()) {
       return new NoopArtifactCache();
     }
+    if (modes.contains(ArtifactCacheMode.dir) && modes.contains(ArtifactCacheMode.dedup_dir)) {
+      throw new HumanReadableException(
+          "Cache modes dir and dedup_dir use the same directories and can't be combined.");
+    }
     ArtifactCacheEntries cacheEntries = buckConfig.getCacheEntries();
     ImmutableList.Builder<ArtifactCache> builder = ImmutableList.builder();
     for (ArtifactCacheMode mode : modes) {
@@ -300,6 +307,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         case unknown:
           break;
         case dir:
+        case dedup_dir:
           initializeDirCaches(
               cacheEntries,
               buckEventBus,
@@ -307,7 +315,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               targetConfigurationSerializer,
               projectFilesystem,
               builder,
-              dirWriteExecutorService);
+              dirWriteExecutorService,
+              buckConfig.getLocalFetchThreads(),
+              buckConfig.getMultiFetchLimit(),
+              mode == ArtifactCacheMode.dedup_dir);
           break;
         case http:
           initializeDistributedCaches(
@@ -332,7 +343,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
               projectFilesystem,
-              builder);
+              builder,
+              buckConfig.getLocalFetchThreads(),
+              buckConfig.getMultiFetchLimit());
           break;
         case thrift_over_http:
         case hybrid_thrift_grpc:
@@ -395,7 +408,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       TargetConfigurationSerializer targetConfigurationSerializer,
       ProjectFilesystem projectFilesystem,
       ImmutableList.Builder<ArtifactCache> builder,
-      ListeningExecutorService storeExecutorService) {
+      ListeningExecutorService storeExecutorService,
+      int fetchThreads,
+      int maxFetchBatchSize,
+      boolean deduplicate) {
     for (DirCacheEntry cacheEntry : artifactCacheEntries.getDirCacheEntries()) {
       builder.add(
           createDirArtifactCache(
@@ -404,7 +420,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
               projectFilesystem,
-              storeExecutorService));
+              storeExecutorService,
+              fetchThreads,
+              maxFetchBatchSize,
+              deduplicate));
     }
   }
 
@@ -456,7 +475,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
       ProjectFilesystem projectFilesystem,
-      ImmutableList.Builder<ArtifactCache> builder) {
+      ImmutableList.Builder<ArtifactCache> builder,
+      int fetchThreads,
+      int maxFetchBatchSize) {
     artifactCacheEntries
         .getSQLiteCacheEntries()
         .forEach(
@@ -467,7 +488,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                         cacheEntry,
                         unconfiguredBuildTargetFactory,
                         targetConfigurationSerializer,
-                        projectFilesystem)));
+                        projectFilesystem,
+                        fetchThreads,
+                        maxFetchBatchSize)));
   }
 
   private static ArtifactCache createDirArtifactCache(
@@ -476,17 +499,32 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
       ProjectFilesystem projectFilesystem,
-      ListeningExecutorService storeExecutorService) {
+      ListeningExecutorService storeExecutorService,
+      int fetchThreads,
+      int maxFetchBatchSize,
+      boolean deduplicate) {
     Path cacheDir = dirCacheConfig.getCacheDir();
     try {
-      DirArtifactCache dirArtifactCache =
-          new DirArtifactCache(
-              "dir",
-              projectFilesystem,
-              cacheDir,
-              dirCacheConfig.getCacheReadMode(),
-              dirCacheConfig.getMaxSizeBytes(),
-              storeExecutorService);
+      ArtifactCache dirArtifactCache =
+          deduplicate
+              ? new DedupDirArtifactCache(
+                  "dedup_dir",
+                  projectFilesystem,
+                  cacheDir,
+                  dirCacheConfig.getCacheReadMode(),
+                  dirCacheConfig.getMaxSizeBytes(),
+                  storeExecutorService,
+                  fetchThreads,
+                  maxFetchBatchSize)
+              : new DirArtifactCache(
+                  "dir",
+                  projectFilesystem,
+                  cacheDir,
+                  dirCacheConfig.getCacheReadMode(),
+                  dirCacheConfig.getMaxSizeBytes(),
+                  storeExecutorService,
+                  fetchThreads,
+                  maxFetchBatchSize);
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -699,7 +737,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       SQLiteCacheEntry cacheConfig,
       Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem,
+      int fetchThreads,
+      int maxFetchBatchSize) {
     Path cacheDir = cacheConfig.getCacheDir();
     try {
       SQLiteArtifactCache sqLiteArtifactCache =
@@ -710,7 +750,11 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getMaxInlinedCacheSizeBytes(),
+              cacheConfig.getCacheReadMode(),
+              fetchThreads,
+              maxFetchBatchSize);
+      sqLiteArtifactCache.start();
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
@@ -61,7 +61,11 @@ import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStr
 public class ArtifactUploader {
   private static final Logger LOG = Logger.get(ArtifactUploader.class);
 
-  /** As method name says */
+  /**
+   * As method name says
+   *
+   * @param compressionLevel the zstd level with which the artifact archive is compressed.
+   */
   public static ListenableFuture<Unit> performUploadToArtifactCache(
       ImmutableSet<RuleKey> ruleKeys,
       ArtifactCache artifactCache,
@@ -69,13 +73,19 @@ public class ArtifactUploader {
       ImmutableMap<String, String> buildMetadata,
       SortedSet<Path> pathsToIncludeInArchive,
       BuildRule buildRule,
-      long buildTimeMs) {
+      long buildTimeMs,
+      int compressionLevel) {
     ProjectFilesystem projectFilesystem = buildRule.getProjectFilesystem();
     NamedTemporaryFile archive;
     try {
       archive =
           getTemporaryArtifactArchive(
-              buildRule, projectFilesystem, ruleKeys, eventBus, pathsToIncludeInArchive);
+              buildRule,
+              projectFilesystem,
+              ruleKeys,
+              eventBus,
+              pathsToIncludeInArchive,
+              compressionLevel);
     } catch (BuckUncheckedExecutionException e) {
       LOG.error(e.getMessage());
       LOG.debug(e.toString() + "\n" + Throwables.getStackTraceAsString(e));
@@ -164,7 +174,8 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem,
       ImmutableSet<RuleKey> ruleKeys,
       BuckEventBus eventBus,
-      SortedSet<Path> pathsToIncludeInArchive) {
+      SortedSet<Path> pathsToIncludeInArchive,
+      int compressionLevel) {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(
             ArtifactCompressionEvent.Operation.COMPRESS, ruleKeys, buildRule);
@@ -176,7 +187,9 @@ public class ArtifactUploader {
         new CloseableHolder<>(
             new NamedTemporaryFile(
                 "buck_artifact_" + MostFiles.sanitize(buildTarget.getShortName()), ".tar.zst"))) {
-      fullSize = compress(projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+      fullSize =
+          compress(
+              projectFilesystem, pathsToIncludeInArchive, archive.get().get(), compressionLevel);
       compressedSize = Files.size(archive.get().get());
       return archive.release();
     } catch (IOException e) {
@@ -194,11 +207,14 @@ public class ArtifactUploader {
   /** Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard. */
   @VisibleForTesting
   static long compress(
-      ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInArchive, Path out)
+      ProjectFilesystem projectFilesystem,
+      Collection<Path> pathsToIncludeInArchive,
+      Path out,
+      int compressionLevel)
       throws IOException {
     long fullSize = 0L;
     try (OutputStream o = new BufferedOutputStream(Files.newOutputStream(out));
-        OutputStream z = new ZstdCompressorOutputStream(o);
+        OutputStream z = new ZstdCompressorOutputStream(o, compressionLevel);
         TarArchiveOutputStream archive = new TarArchiveOutputStream(z)) {
       archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
       for (Path path : pathsToIncludeInArchive) {
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * A local directory cache which stores each distinct artifact only once.
+ *
+ * <p>Artifacts are stored as blobs named after the SHA-1 of their content under {@code blobs/},
+ * and every rule key gets a small index entry under {@code keys/} holding the content hash and the
+ * metadata of the artifact. Identical outputs produced under different rule keys (e.g. input-based
+ * and dep-file rule keys, or the content entries of {@link TwoLevelArtifactCacheDecorator}) thus
+ * share their storage.
+ *
+ * <p>Fetched artifacts are hard-linked to the blob when the cache and the output live on the same
+ * filesystem, which turns a cache hit into a metadata operation. Callers must therefore treat the
+ * fetched file as immutable; the build engine only unzips and deletes it.
+ */
+public class DedupDirArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(DedupDirArtifactCache.class);
+
+  private static final ArtifactCacheMode CACHE_MODE = ArtifactCacheMode.dedup_dir;
+  // Ratio of bytes stored to max size that expresses how many bytes need to be stored after we
+  // attempt to delete old files.
+  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
+  private static final String TMP_EXTENSION = ".tmp";
+  private static final String BLOBS_DIR = "blobs";
+  private static final String KEYS_DIR = "keys";
+
+  private final String name;
+  private final ProjectFilesystem filesystem;
+  private final Path cacheDir;
+  private final Optional<Long> maxCacheSizeBytes;
+  private final CacheReadMode cacheReadMode;
+  private final ListeningExecutorService storeExecutorService;
+  private final Optional<LocalCacheFetchBatcher> fetchBatcher;
+  private final LocalCacheDirectory directory;
+  private long bytesSinceLastDeleteOldFiles;
+  private volatile boolean hardLinksSupported = true;
+
+  public DedupDirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService,
+      int fetchThreads,
+      int maxFetchBatchSize)
+      throws IOException {
+    this.name = name;
+    this.filesystem = filesystem;
+    this.cacheDir = cacheDir;
+    this.maxCacheSizeBytes = maxCacheSizeBytes;
+    this.cacheReadMode = cacheReadMode;
+    this.storeExecutorService = storeExecutorService;
+    this.bytesSinceLastDeleteOldFiles = 0L;
+    this.directory = new LocalCacheDirectory(filesystem, cacheDir, maxCacheSizeBytes);
+    this.fetchBatcher =
+        fetchThreads > 0
+            ? Optional.of(
+                new LocalCacheFetchBatcher(name, fetchThreads, maxFetchBatchSize, this::multiFetch))
+            : Optional.empty();
+
+    // Check first, as mkdirs will fail if the path is a symlink.
+    if (!filesystem.isDirectory(cacheDir)) {
+      filesystem.mkdirs(cacheDir);
+    }
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    if (fetchBatcher.isPresent()) {
+      return fetchBatcher.get().fetch(ruleKey, output);
+    }
+    return Futures.immediateFuture(fetch(ruleKey, output));
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::skipPendingAndFutureFetches);
+  }
+
+  private ImmutableList<CacheResult> multiFetch(
+      ImmutableList<LocalCacheFetchBatcher.Request> requests) {
+    ImmutableList.Builder<CacheResult> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (LocalCacheFetchBatcher.Request request : requests) {
+      results.add(fetch(request.getRuleKey(), request.getOutput()));
+    }
+    return results.build();
+  }
+
+  private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    CacheResult result;
+    Path indexPath = getIndexPath(ruleKey);
+    try {
+      String contentHash;
+      ImmutableMap.Builder<String, String> metadata;
+      try (DataInputStream in = new DataInputStream(filesystem.newFileInputStream(indexPath))) {
+        contentHash = in.readUTF();
+        int sz = in.readInt();
+        metadata = ImmutableMap.builderWithExpectedSize(sz);
+        for (int i = 0; i < sz; i++) {
+          String key = in.readUTF();
+          int valSize = in.readInt();
+          byte[] val = new byte[valSize];
+          ByteStreams.readFully(in, val);
+          metadata.put(key, new String(val, Charsets.UTF_8));
+        }
+      }
+
+      Path blobPath = getBlobPath(contentHash);
+      if (!filesystem.exists(blobPath)) {
+        // The blob was evicted, the index entry is now useless.
+        filesystem.deleteFileAtPathIfExists(indexPath);
+        result = CacheResult.miss();
+      } else {
+        materialize(blobPath, output.get());
+        result =
+            CacheResult.hit(
+                name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      }
+    } catch (NoSuchFileException e) {
+      result = CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
+      result =
+          CacheResult.error(
+              name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+
+    LOG.verbose(
+        "Artifact fetch(%s, %s) cache %s",
+        ruleKey, output, (result.getType().isSuccess() ? "hit" : "miss"));
+    return result;
+  }
+
+  /** Hard-links the blob to the output, or copies it if that isn't possible. */
+  private void materialize(Path blobPath, Path output) throws IOException {
+    Path absoluteBlobPath = filesystem.resolve(blobPath);
+    // Linking doesn't read the blob, so record the access for the LRU eviction ourselves.
+    Files.getFileAttributeView(absoluteBlobPath, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+
+    if (hardLinksSupported) {
+      Path absoluteOutput = filesystem.resolve(output);
+      filesystem.createParentDirs(output);
+      Files.deleteIfExists(absoluteOutput);
+      try {
+        Files.createLink(absoluteOutput, absoluteBlobPath);
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.info(e, "Hard links to %s are not supported, falling back to copies", cacheDir);
+        hardLinksSupported = false;
+      }
+    }
+    filesystem.copyFile(blobPath, output);
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    if (!getCacheReadMode().isWritable()) {
+      return Futures.immediateFuture(Unit.UNIT);
+    }
+
+    return storeExecutorService.submit(
+        () -> {
+          storeSynchronously(info, output);
+          return null;
+        });
+  }
+
+  private void storeSynchronously(ArtifactInfo info, BorrowablePath output) {
+    try {
+      String contentHash = filesystem.computeSha1(output.getPath()).getHash();
+      Path blobPath = getBlobPath(contentHash);
+      if (!filesystem.exists(blobPath)) {
+        filesystem.mkdirs(blobPath.getParent());
+        // Write to a temporary file and move it in place, so that concurrent fetches never see a
+        // partial blob.
+        Path tmp =
+            filesystem.createTempFile(directory.getPreparedTempFolder(), "blob", TMP_EXTENSION);
+        try {
+          if (output.canBorrow()) {
+            filesystem.move(output.getPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+          } else {
+            filesystem.copyFile(output.getPath(), tmp);
+          }
+          filesystem.move(tmp, blobPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+          filesystem.deleteFileAtPathIfExists(tmp);
+        }
+        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(blobPath);
+      }
+
+      for (RuleKey ruleKey : info.getRuleKeys()) {
+        Path indexPath = getIndexPath(ruleKey);
+        filesystem.mkdirs(indexPath.getParent());
+        Path tmp =
+            filesystem.createTempFile(directory.getPreparedTempFolder(), "index", TMP_EXTENSION);
+        try {
+          try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
+            out.writeUTF(contentHash);
+            out.writeInt(info.getMetadata().size());
+            for (Map.Entry<String, String> ent : info.getMetadata().entrySet()) {
+              out.writeUTF(ent.getKey());
+              byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
+              out.writeInt(val.length);
+              out.write(val);
+            }
+          }
+          filesystem.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING);
+          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(indexPath);
+        } finally {
+          filesystem.deleteFileAtPathIfExists(tmp);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
+    }
+
+    if (maxCacheSizeBytes.isPresent()
+        && bytesSinceLastDeleteOldFiles
+            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
+      bytesSinceLastDeleteOldFiles = 0L;
+      deleteOldFiles();
+    }
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      boolean contains = filesystem.exists(getIndexPath(ruleKey));
+      results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
+    }
+    return Futures.immediateFuture(results.build());
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    for (RuleKey ruleKey : ruleKeys) {
+      // Blobs may be shared with other rule keys, they are left to the LRU eviction.
+      try {
+        filesystem.deleteFileAtPathIfExists(getIndexPath(ruleKey));
+      } catch (IOException e) {
+        String message =
+            String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
+        LOG.warn(e, message);
+        throw new RuntimeException(message, e);
+      }
+    }
+
+    ImmutableList<String> cacheNames =
+        ImmutableList.of(DedupDirArtifactCache.class.getSimpleName());
+    return Futures.immediateFuture(CacheDeleteResult.of(cacheNames));
+  }
+
+  private Path getShardedPath(String dir, String key) {
+    Path result = cacheDir.resolve(dir);
+    if (key.length() >= 4) {
+      result = result.resolve(key.substring(0, 2)).resolve(key.substring(2, 4));
+    }
+    return result.resolve(key);
+  }
+
+  @VisibleForTesting
+  Path getBlobPath(String contentHash) {
+    return getShardedPath(BLOBS_DIR, contentHash);
+  }
+
+  @VisibleForTesting
+  Path getIndexPath(RuleKey ruleKey) {
+    return getShardedPath(KEYS_DIR, ruleKey.toString());
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return cacheReadMode;
+  }
+
+  @Override
+  public void close() {
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::close);
+    // Do a cache clean up on exit only if cache was written to.
+    if (bytesSinceLastDeleteOldFiles > 0) {
+      deleteOldFiles();
+    }
+  }
+
+  /**
+   * Deletes files that haven't been accessed recently from the cache. Index entries whose blob got
+   * deleted are removed lazily, by the next fetch of their rule key.
+   */
+  @VisibleForTesting
+  void deleteOldFiles() {
+    directory.deleteOldFiles();
+  }
+}
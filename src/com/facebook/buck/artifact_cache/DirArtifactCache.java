@@ -25,11 +25,9 @@ import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.DirectoryCleaner;
-import com.facebook.buck.util.DirectoryCleanerArgs;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -40,14 +38,9 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -62,8 +55,6 @@ public class DirArtifactCache implements ArtifactCache {
   // Ratio of bytes stored to max size that expresses how many bytes need to be stored after we
   // attempt to delete old files.
   private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
-  // How much of the max size to leave if we decide to delete old files.
-  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
 
   private final String name;
@@ -72,6 +63,8 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final Optional<LocalCacheFetchBatcher> fetchBatcher;
+  private final LocalCacheDirectory directory;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -82,6 +75,23 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Long> maxCacheSizeBytes,
       ListeningExecutorService storeExecutorService)
       throws IOException {
+    this(name, filesystem, cacheDir, cacheReadMode, maxCacheSizeBytes, storeExecutorService, 0, 1);
+  }
+
+  /**
+   * @param fetchThreads if positive, fetches are served asynchronously by this many threads, each
+   *     of them copying out a batch of up to {@code maxFetchBatchSize} artifacts at a time.
+   */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService,
+      int fetchThreads,
+      int maxFetchBatchSize)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -89,6 +99,12 @@ public class DirArtifactCache implements ArtifactCache {
     this.cacheReadMode = cacheReadMode;
     this.storeExecutorService = storeExecutorService;
     this.bytesSinceLastDeleteOldFiles = 0L;
+    this.directory = new LocalCacheDirectory(filesystem, cacheDir, maxCacheSizeBytes);
+    this.fetchBatcher =
+        fetchThreads > 0
+            ? Optional.of(
+                new LocalCacheFetchBatcher(name, fetchThreads, maxFetchBatchSize, this::multiFetch))
+            : Optional.empty();
 
     // Check first, as mkdirs will fail if the path is a symlink.
     if (!filesystem.isDirectory(cacheDir)) {
@@ -99,12 +115,27 @@ public class DirArtifactCache implements ArtifactCache {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    if (fetchBatcher.isPresent()) {
+      return fetchBatcher.get().fetch(ruleKey, output);
+    }
     return Futures.immediateFuture(fetch(ruleKey, output));
   }
 
   @Override
   public void skipPendingAndFutureAsyncFetches() {
-    // Async requests are not supported by DirArtifactCache, so do nothing
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::skipPendingAndFutureFetches);
+  }
+
+  private ImmutableList<CacheResult> multiFetch(
+      ImmutableList<LocalCacheFetchBatcher.Request> requests) {
+    // Every artifact lives in its own file, so there is nothing to share between the lookups of a
+    // batch: the gain comes from several batches copying artifacts out in parallel.
+    ImmutableList.Builder<CacheResult> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (LocalCacheFetchBatcher.Request request : requests) {
+      results.add(fetch(request.getRuleKey(), request.getOutput()));
+    }
+    return results.build();
   }
 
   private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
@@ -190,7 +221,8 @@ public class DirArtifactCache implements ArtifactCache {
         bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
 
         // Now, write the meta data artifact.
-        Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
+        Path tmp =
+            filesystem.createTempFile(directory.getPreparedTempFolder(), "metadata", TMP_EXTENSION);
         try {
           try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
             out.writeInt(info.getMetadata().size());
@@ -266,18 +298,6 @@ public class DirArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(CacheDeleteResult.of(cacheNames));
   }
 
-  private Path getPathToTempFolder() {
-    return cacheDir.resolve("tmp");
-  }
-
-  private Path getPreparedTempFolder() throws IOException {
-    Path tmp = getPathToTempFolder();
-    if (!filesystem.exists(tmp)) {
-      filesystem.mkdirs(tmp);
-    }
-    return tmp;
-  }
-
   private ImmutableList<String> subfolders(RuleKey ruleKey) {
     if (ruleKey.toString().length() < 4) {
       return ImmutableList.of();
@@ -309,6 +329,7 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::close);
     // Do a cache clean up on exit only if cache was written to.
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
@@ -318,83 +339,17 @@ public class DirArtifactCache implements ArtifactCache {
   /** Deletes files that haven't been accessed recently from the directory cache. */
   @VisibleForTesting
   void deleteOldFiles() {
-    if (!maxCacheSizeBytes.isPresent()) {
-      return;
-    }
-
-    Path cacheDirInFs = filesystem.resolve(cacheDir);
-    try {
-      synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
-      }
-    } catch (IOException e) {
-      LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
-    }
+    directory.deleteOldFiles();
   }
 
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
-    List<Path> allFiles = new ArrayList<>();
-    Path tempFolderPath = getPathToTempFolder();
-    try {
-      Files.walkFileTree(
-          filesystem.resolve(cacheDir),
-          ImmutableSet.of(),
-          Integer.MAX_VALUE,
-          new SimpleFileVisitor<Path>() {
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
-                return FileVisitResult.SKIP_SUBTREE;
-              }
-              return super.preVisitDirectory(dir, attrs);
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                throws IOException {
-              allFiles.add(file);
-              return super.visitFile(file, attrs);
-            }
-          });
-    } catch (IOException e) {
-      LOG.error(e, "Error getting a list of files in %s", tempFolderPath);
-    }
-
-    return allFiles;
-  }
-
-  private DirectoryCleaner newDirectoryCleaner() {
-    DirectoryCleanerArgs cleanerArgs =
-        DirectoryCleanerArgs.builder()
-            .setPathSelector(getDirectoryCleanerPathSelector())
-            .setMaxTotalSizeBytes(maxCacheSizeBytes.get())
-            .setMaxBytesAfterDeletion((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO))
-            .setMinAmountOfEntriesToKeep(0)
-            .build();
-
-    return new DirectoryCleaner(cleanerArgs);
+    return directory.getAllFiles();
   }
 
   @VisibleForTesting
   DirectoryCleaner.PathSelector getDirectoryCleanerPathSelector() {
-    return new DirectoryCleaner.PathSelector() {
-      @Override
-      public Iterable<Path> getCandidatesToDelete(Path rootPath) {
-        return getAllFilesInCache();
-      }
-
-      @Override
-      public int comparePaths(DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
-        return ComparisonChain.start()
-            .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
-            .compare(path1.getCreationMillis(), path2.getCreationMillis())
-            .result();
-      }
-    };
+    return directory.getPathSelector();
   }
 
   @VisibleForTesting
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.DirectoryCleaner;
+import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The directory of a local artifact cache: its folder for files which are being written, and the
+ * deletion of the least recently accessed files when it grows over its maximum size.
+ */
+class LocalCacheDirectory {
+
+  private static final Logger LOG = Logger.get(LocalCacheDirectory.class);
+
+  // How much of the max size to leave if we decide to delete old files.
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+
+  private final ProjectFilesystem filesystem;
+  private final Path cacheDir;
+  private final Optional<Long> maxCacheSizeBytes;
+
+  LocalCacheDirectory(
+      ProjectFilesystem filesystem, Path cacheDir, Optional<Long> maxCacheSizeBytes) {
+    this.filesystem = filesystem;
+    this.cacheDir = cacheDir;
+    this.maxCacheSizeBytes = maxCacheSizeBytes;
+  }
+
+  /** @return the folder in which files are written before being moved in place. */
+  Path getPreparedTempFolder() throws IOException {
+    Path tmp = getPathToTempFolder();
+    if (!filesystem.exists(tmp)) {
+      filesystem.mkdirs(tmp);
+    }
+    return tmp;
+  }
+
+  private Path getPathToTempFolder() {
+    return cacheDir.resolve("tmp");
+  }
+
+  /** Deletes files that haven't been accessed recently if the cache has a maximum size. */
+  synchronized void deleteOldFiles() {
+    if (!maxCacheSizeBytes.isPresent()) {
+      return;
+    }
+
+    Path cacheDirInFs = filesystem.resolve(cacheDir);
+    try {
+      newDirectoryCleaner().clean(cacheDirInFs);
+    } catch (IOException e) {
+      LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
+    }
+  }
+
+  /** @return all the files in the cache, except for the ones which are still being written. */
+  List<Path> getAllFiles() {
+    List<Path> allFiles = new ArrayList<>();
+    Path tempFolderPath = filesystem.resolve(getPathToTempFolder());
+    try {
+      Files.walkFileTree(
+          filesystem.resolve(cacheDir),
+          ImmutableSet.of(),
+          Integer.MAX_VALUE,
+          new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                throws IOException {
+              // do not work with files in temp folder as they will be moved later
+              if (dir.equals(tempFolderPath)) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+              return super.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              allFiles.add(file);
+              return super.visitFile(file, attrs);
+            }
+          });
+    } catch (IOException e) {
+      LOG.error(e, "Error getting a list of files in %s", cacheDir);
+    }
+
+    return allFiles;
+  }
+
+  private DirectoryCleaner newDirectoryCleaner() {
+    DirectoryCleanerArgs cleanerArgs =
+        DirectoryCleanerArgs.builder()
+            .setPathSelector(getPathSelector())
+            .setMaxTotalSizeBytes(maxCacheSizeBytes.get())
+            .setMaxBytesAfterDeletion((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO))
+            .setMinAmountOfEntriesToKeep(0)
+            .build();
+
+    return new DirectoryCleaner(cleanerArgs);
+  }
+
+  /** @return a selector which orders the files of the cache from least recently accessed. */
+  DirectoryCleaner.PathSelector getPathSelector() {
+    return new DirectoryCleaner.PathSelector() {
+      @Override
+      public Iterable<Path> getCandidatesToDelete(Path rootPath) {
+        return getAllFiles();
+      }
+
+      @Override
+      public int comparePaths(DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+        return ComparisonChain.start()
+            .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+            .compare(path1.getCreationMillis(), path2.getCreationMillis())
+            .result();
+      }
+    };
+  }
+}
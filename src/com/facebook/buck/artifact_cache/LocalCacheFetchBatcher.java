@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects fetch requests which are issued concurrently to a local cache and hands them over to
+ * the cache in batches, on a dedicated pool of threads.
+ *
+ * <p>This mirrors what {@link AbstractAsynchronousCache} does for remote caches: the build engine
+ * issues one {@link ArtifactCache#fetchAsync} per rule, and a wave of rules becoming ready at the
+ * same time is looked up together, e.g. in a single database transaction, while artifacts are
+ * copied out by several batches in parallel.
+ */
+class LocalCacheFetchBatcher implements AutoCloseable {
+
+  /** Performs the lookup of a batch of requests. */
+  @FunctionalInterface
+  interface MultiFetcher {
+    /** @return one result per request, in the same order as the requests. */
+    ImmutableList<CacheResult> multiFetch(ImmutableList<Request> requests);
+  }
+
+  /** A single fetch request, as handed to the {@link MultiFetcher}. */
+  static class Request {
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> future = SettableFuture.create();
+
+    Request(RuleKey ruleKey, LazyPath output) {
+      this.ruleKey = ruleKey;
+      this.output = output;
+    }
+
+    RuleKey getRuleKey() {
+      return ruleKey;
+    }
+
+    LazyPath getOutput() {
+      return output;
+    }
+  }
+
+  private final BlockingQueue<Request> pendingRequests = new LinkedBlockingQueue<>();
+  private final ListeningExecutorService fetchExecutorService;
+  private final int maxBatchSize;
+  private final MultiFetcher multiFetcher;
+  private volatile boolean skipAllFetches = false;
+
+  LocalCacheFetchBatcher(String name, int numThreads, int maxBatchSize, MultiFetcher multiFetcher) {
+    Preconditions.checkArgument(numThreads > 0);
+    Preconditions.checkArgument(maxBatchSize > 0);
+    this.fetchExecutorService =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor(name + "-fetch", numThreads));
+    this.maxBatchSize = maxBatchSize;
+    this.multiFetcher = multiFetcher;
+  }
+
+  /** Queues the request, which will be looked up with any other pending request. */
+  @SuppressWarnings("CheckReturnValue")
+  ListenableFuture<CacheResult> fetch(RuleKey ruleKey, LazyPath output) {
+    Request request = new Request(ruleKey, output);
+    pendingRequests.add(request);
+    fetchExecutorService.submit(this::processBatch);
+    return request.future;
+  }
+
+  private void processBatch() {
+    List<Request> batch = new ArrayList<>();
+    pendingRequests.drainTo(batch, maxBatchSize);
+    if (batch.isEmpty()) {
+      // Another thread already picked up the request this task was submitted for.
+      return;
+    }
+    ImmutableList<Request> requests = ImmutableList.copyOf(batch);
+    if (skipAllFetches) {
+      requests.forEach(request -> request.future.set(CacheResult.skipped()));
+      return;
+    }
+    try {
+      ImmutableList<CacheResult> results = multiFetcher.multiFetch(requests);
+      Preconditions.checkState(results.size() == requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+        requests.get(i).future.set(results.get(i));
+      }
+    } catch (Throwable t) {
+      // Fail the whole batch, so that no caller waits forever on a request that was drained.
+      requests.forEach(request -> request.future.setException(t));
+      throw t;
+    }
+  }
+
+  /** Makes all pending, and future, requests return skipped results. */
+  void skipPendingAndFutureFetches() {
+    skipAllFetches = true;
+  }
+
+  /** Waits for pending requests to finish, so the cache can safely be closed afterwards. */
+  @Override
+  public void close() {
+    try {
+      MostExecutors.shutdown(fetchExecutorService, 1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
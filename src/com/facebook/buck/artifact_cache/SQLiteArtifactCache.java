@@ -24,11 +24,11 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
-import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
 import com.facebook.buck.util.types.Pair;
@@ -60,12 +60,18 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -76,6 +82,11 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>Content is evicted least recently accessed first, separately for artifacts stored on disk and
+ * artifacts inlined into the database, each against its own share of the cache's size budget.
+ * Eviction runs on a background thread, in small batches, so that it never stalls stores or fetches
+ * for long. The first pass is started by {@link #start()}.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -86,18 +97,29 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
+  // Share of the cache's budget given to inlined artifacts, unless their budget is configured.
+  private static final double DEFAULT_INLINED_CACHE_SIZE_RATIO = 0.1;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  // How many artifacts to evict per transaction, so fetches and stores can run in between.
+  private static final int EVICTION_BATCH_SIZE = 100;
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final BuckEventBus eventBus;
-  private final Optional<Long> maxCacheSizeBytes;
-  private final Optional<Long> maxBytesAfterDeletion;
+  private final Optional<Long> maxDiskCacheSizeBytes;
+  private final Optional<Long> maxInlinedCacheSizeBytes;
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
 
   private final ConnectionInfo db;
+  private final Optional<LocalCacheFetchBatcher> fetchBatcher;
+
+  private final ExecutorService evictionExecutorService;
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+  // Sizes of the content stores, as of the last eviction pass plus whatever was stored since.
+  private final AtomicLong diskSizeBytes = new AtomicLong();
+  private final AtomicLong inlinedSizeBytes = new AtomicLong();
 
   static {
     SQLiteUtils.initialize();
@@ -112,13 +134,79 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        Optional.empty(),
+        cacheMode,
+        0,
+        1);
+  }
+
+  /**
+   * @param maxCacheSizeBytes the budget of all artifacts, whether stored on disk or inlined.
+   * @param maxInlinedSizeBytes artifacts up to this size are inlined into the database.
+   * @param maxInlinedCacheSizeBytes the part of {@code maxCacheSizeBytes} given to artifacts
+   *     inlined into the database, which defaults to a tenth of it.
+   * @param fetchThreads if positive, fetches are served asynchronously by this many threads, each
+   *     of them looking up a batch of up to {@code maxFetchBatchSize} artifacts in a single
+   *     transaction.
+   */
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      Optional<Long> maxInlinedCacheSizeBytes,
+      CacheReadMode cacheMode,
+      int fetchThreads,
+      int maxFetchBatchSize)
+      throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        maxInlinedCacheSizeBytes,
+        cacheMode,
+        fetchThreads,
+        maxFetchBatchSize,
+        MostExecutors.newSingleThreadExecutor(name + "-eviction"));
+  }
+
+  @VisibleForTesting
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      Optional<Long> maxInlinedCacheSizeBytes,
+      CacheReadMode cacheMode,
+      int fetchThreads,
+      int maxFetchBatchSize,
+      ExecutorService evictionExecutorService)
+      throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.eventBus = eventBus;
-    this.maxCacheSizeBytes = maxCacheSizeBytes;
-    this.maxBytesAfterDeletion =
-        maxCacheSizeBytes.map(size -> (long) (size * MAX_BYTES_TRIM_RATIO));
+    this.maxInlinedCacheSizeBytes =
+        maxInlinedCacheSizeBytes.isPresent()
+            ? maxInlinedCacheSizeBytes
+            : maxCacheSizeBytes.map(max -> (long) (max * DEFAULT_INLINED_CACHE_SIZE_RATIO));
+    this.maxDiskCacheSizeBytes =
+        maxCacheSizeBytes.map(
+            max -> Math.max(0, max - this.maxInlinedCacheSizeBytes.orElse(0L)));
     this.maxInlinedBytes = maxInlinedSizeBytes.orElse(DEFAULT_MAX_INLINED_BYTES);
     this.cacheMode = cacheMode;
 
@@ -137,23 +225,84 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     this.db = new ConnectionInfo(cacheDir);
+    this.fetchBatcher =
+        fetchThreads > 0
+            ? Optional.of(
+                new LocalCacheFetchBatcher(name, fetchThreads, maxFetchBatchSize, this::multiFetch))
+            : Optional.empty();
+    this.evictionExecutorService = evictionExecutorService;
+  }
+
+  /** Schedules the first eviction pass, which also finds out how large the content stores are. */
+  void start() {
+    if (evictionScheduled.compareAndSet(false, true)) {
+      evictionExecutorService.execute(this::evict);
+    }
   }
 
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    if (fetchBatcher.isPresent()) {
+      return fetchBatcher.get().fetch(ruleKey, output);
+    }
     return Futures.immediateFuture(fetch(ruleKey, output));
   }
 
   @Override
   public void skipPendingAndFutureAsyncFetches() {
-    // Async requests are not supported by SQLiteArtifactCache, so do nothing
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::skipPendingAndFutureFetches);
   }
 
   private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
-    CacheResult artifactResult = fetchContent(ruleKey, output);
-    CacheResult metadataResult = fetchMetadata(ruleKey, output);
+    return multiFetch(ImmutableList.of(new LocalCacheFetchBatcher.Request(ruleKey, output))).get(0);
+  }
+
+  /**
+   * Looks up the metadata and content of all requests in a single transaction, copies the
+   * artifacts out without holding the database, and then records all accesses in a second
+   * transaction.
+   */
+  private ImmutableList<CacheResult> multiFetch(
+      ImmutableList<LocalCacheFetchBatcher.Request> requests) {
+    List<RuleKey> ruleKeys = new ArrayList<>(requests.size());
+    requests.forEach(request -> ruleKeys.add(request.getRuleKey()));
+
+    List<Pair<Optional<Content>, Optional<byte[]>>> rows;
+    try {
+      rows = db.selectForFetch(ruleKeys);
+    } catch (SQLException e) {
+      LOG.warn(e, "Batch fetch(%s) error", ruleKeys);
+      return ImmutableList.copyOf(
+          Collections.nCopies(
+              requests.size(),
+              CacheResult.error(
+                  name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage()))));
+    }
+
+    List<RuleKey> accessedContent = new ArrayList<>();
+    List<RuleKey> accessedMetadata = new ArrayList<>();
+    ImmutableList.Builder<CacheResult> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (int i = 0; i < requests.size(); i++) {
+      RuleKey ruleKey = ruleKeys.get(i);
+      LazyPath output = requests.get(i).getOutput();
+      CacheResult artifactResult =
+          fetchContent(ruleKey, output, rows.get(i).getFirst(), accessedContent);
+      CacheResult metadataResult =
+          fetchMetadata(ruleKey, output, rows.get(i).getSecond(), accessedMetadata);
+      results.add(combineResults(artifactResult, metadataResult));
+    }
 
+    try {
+      db.access(accessedContent, accessedMetadata);
+    } catch (SQLException e) {
+      LOG.warn(e, "Failed to update access times of %s", ruleKeys);
+    }
+    return results.build();
+  }
+
+  private CacheResult combineResults(CacheResult artifactResult, CacheResult metadataResult) {
     if (artifactResult.getType().isSuccess() && metadataResult.getType().isSuccess()) {
       return CacheResult.hit(
           name, CACHE_MODE, metadataResult.getMetadata(), artifactResult.getArtifactSizeBytes());
@@ -165,14 +314,17 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  private CacheResult fetchContent(RuleKey contentHash, LazyPath output) {
+  private CacheResult fetchContent(
+      RuleKey contentHash,
+      LazyPath output,
+      Optional<Content> content,
+      List<RuleKey> accessedContent) {
     CacheResult result =
         CacheResult.error(
             name,
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -190,7 +342,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
         }
 
         long size = content.get().size;
-        db.accessContent(contentHash);
+        accessedContent.add(contentHash);
 
         return result = CacheResult.hit(name, CACHE_MODE, ImmutableMap.of(), size);
       }
@@ -208,23 +360,26 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  private CacheResult fetchMetadata(RuleKey ruleKey, LazyPath output) {
+  private CacheResult fetchMetadata(
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<byte[]> metadata,
+      List<RuleKey> accessedMetadata) {
     CacheResult result =
         CacheResult.error(
             name,
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
       if (metadata.isPresent()) {
-        db.accessMetadata(ruleKey);
+        accessedMetadata.add(ruleKey);
         output.get(); // for MultiArtifactCache, force evaluation of the output path
 
         return result = CacheResult.hit(name, CACHE_MODE, unmarshalMetadata(metadata.get()), 0);
       }
 
       return result = CacheResult.miss();
-    } catch (IOException | SQLException e) {
+    } catch (IOException e) {
       LOG.warn(e, "Metadata fetch(%s, %s) error", ruleKey, output);
       return result =
           CacheResult.error(
@@ -301,6 +456,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
         db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        inlinedSizeBytes.addAndGet(size * toStore.size());
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -313,7 +469,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
         }
 
         db.storeFilepath(toStore, artifactPath.toString(), size);
+        diskSizeBytes.addAndGet(size * toStore.size());
       }
+      scheduleEvictionIfOverBudget();
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", contentHashes, content);
     }
@@ -321,6 +479,25 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(null);
   }
 
+  private void scheduleEvictionIfOverBudget() {
+    boolean overBudget = false;
+    for (ContentStore store : ContentStore.values()) {
+      Optional<Long> maxSizeBytes = getMaxSizeBytes(store);
+      overBudget |= maxSizeBytes.isPresent() && getSizeBytes(store).get() > maxSizeBytes.get();
+    }
+    if (overBudget && evictionScheduled.compareAndSet(false, true)) {
+      evictionExecutorService.execute(this::evict);
+    }
+  }
+
+  private Optional<Long> getMaxSizeBytes(ContentStore store) {
+    return store == ContentStore.DISK ? maxDiskCacheSizeBytes : maxInlinedCacheSizeBytes;
+  }
+
+  private AtomicLong getSizeBytes(ContentStore store) {
+    return store == ContentStore.DISK ? diskSizeBytes : inlinedSizeBytes;
+  }
+
   private ImmutableSet<RuleKey> notPreexisting(ImmutableSet<RuleKey> contentHashes)
       throws SQLException {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
@@ -413,39 +590,100 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(null);
   }
 
-  /** Deletes files that haven't been accessed recently from the directory cache. */
+  /** An eviction pass, run on the eviction thread. */
+  private void evict() {
+    // Stores from now on have to schedule another pass if they go over budget.
+    evictionScheduled.set(false);
+    removeOldMetadata();
+    removeOldContent();
+  }
+
+  /**
+   * Evicts the least recently accessed content from each store which is over its budget, until it
+   * is back to {@link #MAX_BYTES_TRIM_RATIO} of the budget.
+   */
   @VisibleForTesting
   ListenableFuture<Unit> removeOldContent() {
-    if (!maxCacheSizeBytes.isPresent()) {
-      return Futures.immediateFuture(null);
-    }
+    Optional<SQLiteArtifactCacheEvictionEvent.Started> started = Optional.empty();
+    long evictedArtifacts = 0;
+    long evictedBytes = 0;
+
+    for (ContentStore store : ContentStore.values()) {
+      Optional<Long> maxSizeBytes = getMaxSizeBytes(store);
+      if (!maxSizeBytes.isPresent()) {
+        continue;
+      }
 
-    long totalSizeBytes;
-    try {
-      totalSizeBytes = db.totalSize();
-      if (totalSizeBytes <= maxCacheSizeBytes.get()) {
-        return Futures.immediateFuture(null);
+      long sizeBytes;
+      try {
+        sizeBytes = db.totalSize(store);
+        getSizeBytes(store).set(sizeBytes);
+        if (sizeBytes <= maxSizeBytes.get()) {
+          continue;
+        }
+      } catch (SQLException e) {
+        LOG.error(e, "Failed to find total artifact size.");
+        continue;
       }
-    } catch (SQLException e) {
-      LOG.error(e, "Failed to find total artifact size.");
-      return Futures.immediateFuture(null);
-    }
 
-    try {
-      Pair<Iterable<String>, Timestamp> contentToEvict =
-          db.getContentToEvict(totalSizeBytes - maxBytesAfterDeletion.get());
+      if (!started.isPresent()) {
+        started = Optional.of(SQLiteArtifactCacheEvictionEvent.started(name));
+        eventBus.post(started.get());
+      }
 
-      for (String filepath : contentToEvict.getFirst()) {
-        MostFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
+      long targetSizeBytes = (long) (maxSizeBytes.get() * MAX_BYTES_TRIM_RATIO);
+      long storeEvictedArtifacts = 0;
+      long storeEvictedBytes = 0;
+      try {
+        while (sizeBytes > targetSizeBytes) {
+          List<Pair<RuleKey, Content>> batch =
+              db.selectLeastRecentlyAccessed(store, EVICTION_BATCH_SIZE);
+          if (batch.isEmpty()) {
+            break;
+          }
+
+          List<RuleKey> toDelete = new ArrayList<>(batch.size());
+          long batchBytes = 0;
+          for (Pair<RuleKey, Content> row : batch) {
+            if (sizeBytes - batchBytes <= targetSizeBytes) {
+              break;
+            }
+            String filepath = row.getSecond().filepath;
+            if (Objects.nonNull(filepath)) {
+              LOG.verbose("Deleting path [%s] of size [%d] bytes.", filepath, row.getSecond().size);
+              MostFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
+            }
+            toDelete.add(row.getFirst());
+            batchBytes += row.getSecond().size;
+          }
+
+          db.deleteContent(toDelete);
+          getSizeBytes(store).addAndGet(-batchBytes);
+          sizeBytes -= batchBytes;
+          storeEvictedArtifacts += toDelete.size();
+          storeEvictedBytes += batchBytes;
+          eventBus.post(
+              SQLiteArtifactCacheEvictionEvent.progress(
+                  started.get(),
+                  store.toString(),
+                  storeEvictedArtifacts,
+                  storeEvictedBytes,
+                  sizeBytes));
+        }
+      } catch (IOException | SQLException e) {
+        LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
       }
 
-      Timestamp evictionCutoff = contentToEvict.getSecond();
-      int deleted = db.deleteContent(evictionCutoff);
-      LOG.verbose("Deleted %d cached artifacts last accessed before %s", deleted, evictionCutoff);
-    } catch (IOException | SQLException e) {
-      LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
+      LOG.verbose(
+          "Evicted %d %s artifacts (%d bytes)", storeEvictedArtifacts, store, storeEvictedBytes);
+      evictedArtifacts += storeEvictedArtifacts;
+      evictedBytes += storeEvictedBytes;
     }
 
+    if (started.isPresent()) {
+      eventBus.post(
+          SQLiteArtifactCacheEvictionEvent.finished(started.get(), evictedArtifacts, evictedBytes));
+    }
     return Futures.immediateFuture(null);
   }
 
@@ -456,10 +694,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "sqlite_cache_clean")) {
-      Futures.allAsList(removeOldMetadata(), removeOldContent()).get();
-    } catch (ExecutionException | InterruptedException e) {
-      LOG.error("Failed to clean SQLite cache");
+    fetchBatcher.ifPresent(LocalCacheFetchBatcher::close);
+    try {
+      // Let a pending pass finish, so that the cache is left within its budgets.
+      MostExecutors.shutdown(evictionExecutorService, 1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
 
     db.close();
@@ -553,13 +793,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement storeArtifact;
     private final PreparedStatement storeFilepath;
 
-    private final PreparedStatement selectContentByTime;
-
     private final PreparedStatement deleteMetadataBeforeCutoff;
-    private final PreparedStatement deleteContentBeforeCutoff;
     private final PreparedStatement deleteContentForHash;
 
-    private final PreparedStatement contentSize;
+    private final EnumMap<ContentStore, PreparedStatement> contentSize =
+        new EnumMap<>(ContentStore.class);
+    private final EnumMap<ContentStore, PreparedStatement> selectLeastRecentlyAccessed =
+        new EnumMap<>(ContentStore.class);
 
     private ConnectionInfo(Path cacheDir) throws SQLException {
       // date format must be set to match CURRENT_TIMESTAMP
@@ -602,6 +842,14 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "CONSTRAINT inline CHECK (artifact NOT NULL AND filepath ISNULL "
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
+      // Access time indexes, which eviction walks from the least recently accessed entry.
+      connection
+          .createStatement()
+          .executeUpdate("CREATE INDEX IF NOT EXISTS metadata_accessed ON metadata (accessed)");
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE INDEX IF NOT EXISTS content_accessed ON content (accessed, created)");
 
       fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
       fetchContent =
@@ -624,17 +872,22 @@ public class SQLiteArtifactCache implements ArtifactCache {
           connection.prepareStatement(
               "INSERT INTO content (sha1, filepath, size) VALUES (?, ?, ?)");
 
-      selectContentByTime =
-          connection.prepareStatement(
-              "SELECT filepath, size, accessed FROM content ORDER BY accessed ASC, created ASC");
-
       deleteMetadataBeforeCutoff =
           connection.prepareStatement("DELETE FROM metadata WHERE accessed < ?");
-      deleteContentBeforeCutoff =
-          connection.prepareStatement("DELETE FROM content WHERE accessed < ?");
       deleteContentForHash = connection.prepareStatement("DELETE FROM content WHERE sha1 = ?");
 
-      contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
+      for (ContentStore store : ContentStore.values()) {
+        contentSize.put(
+            store,
+            connection.prepareStatement(
+                "SELECT sum(size) FROM content WHERE " + store.condition));
+        selectLeastRecentlyAccessed.put(
+            store,
+            connection.prepareStatement(
+                "SELECT sha1, filepath, size FROM content WHERE "
+                    + store.condition
+                    + " ORDER BY accessed ASC, created ASC LIMIT ?"));
+      }
 
       BusyHandler.setHandler(connection, new RetryBusyHandler());
     }
@@ -653,9 +906,52 @@ public class SQLiteArtifactCache implements ArtifactCache {
           : Optional.empty();
     }
 
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
-      updateMetadataTime.setBytes(1, getBytes(ruleKey));
-      updateMetadataTime.executeUpdate();
+    private synchronized List<Pair<Optional<Content>, Optional<byte[]>>> selectForFetch(
+        List<RuleKey> ruleKeys) throws SQLException {
+      return inTransaction(
+          () -> {
+            List<Pair<Optional<Content>, Optional<byte[]>>> rows =
+                new ArrayList<>(ruleKeys.size());
+            for (RuleKey ruleKey : ruleKeys) {
+              rows.add(new Pair<>(selectContent(ruleKey), selectMetadata(ruleKey)));
+            }
+            return rows;
+          });
+    }
+
+    private synchronized void access(List<RuleKey> contentHashes, List<RuleKey> ruleKeys)
+        throws SQLException {
+      if (contentHashes.isEmpty() && ruleKeys.isEmpty()) {
+        return;
+      }
+      inTransaction(
+          () -> {
+            for (RuleKey contentHash : contentHashes) {
+              updateContentTime.setBytes(1, getBytes(contentHash));
+              updateContentTime.addBatch();
+            }
+            updateContentTime.executeBatch();
+            for (RuleKey ruleKey : ruleKeys) {
+              updateMetadataTime.setBytes(1, getBytes(ruleKey));
+              updateMetadataTime.addBatch();
+            }
+            updateMetadataTime.executeBatch();
+            return null;
+          });
+    }
+
+    private synchronized <T> T inTransaction(Transaction<T> transaction) throws SQLException {
+      connection.setAutoCommit(false);
+      try {
+        T result = transaction.run();
+        connection.commit();
+        return result;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
     }
 
     private synchronized void accessContent(RuleKey contentHash) throws SQLException {
@@ -700,18 +996,25 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return deleteMetadataBeforeCutoff.executeUpdate();
     }
 
-    private synchronized int deleteContent(Timestamp evictionCutoff) throws SQLException {
-      deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
-      return deleteContentBeforeCutoff.executeUpdate();
-    }
-
     private synchronized void deleteContent(RuleKey contentHash) throws SQLException {
       deleteContentForHash.setBytes(1, getBytes(contentHash));
       deleteContentForHash.executeUpdate();
     }
 
-    private synchronized long totalSize() throws SQLException {
-      ResultSet rs = contentSize.executeQuery();
+    private synchronized void deleteContent(List<RuleKey> contentHashes) throws SQLException {
+      inTransaction(
+          () -> {
+            for (RuleKey contentHash : contentHashes) {
+              deleteContentForHash.setBytes(1, getBytes(contentHash));
+              deleteContentForHash.addBatch();
+            }
+            deleteContentForHash.executeBatch();
+            return null;
+          });
+    }
+
+    private synchronized long totalSize(ContentStore store) throws SQLException {
+      ResultSet rs = contentSize.get(store).executeQuery();
       if (!rs.next()) {
         throw new SQLException("Query failed: total size of artifacts");
       }
@@ -719,35 +1022,20 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return rs.getLong(1);
     }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
-        throws SQLException {
-      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
-      long deleted = 0;
-
-      ResultSet artifacts = selectContentByTime.executeQuery();
-      while (deleted < minToDelete && artifacts.next()) {
-        String filepath = artifacts.getString(1);
-        long sizeBytes = artifacts.getLong(2);
-
-        // from database constraint, exactly one of filepath/artifact is null
-        if (Objects.nonNull(filepath)) {
-          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
-          filepaths.add(filepath);
-        } else {
-          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+    private synchronized List<Pair<RuleKey, Content>> selectLeastRecentlyAccessed(
+        ContentStore store, int limit) throws SQLException {
+      PreparedStatement select = selectLeastRecentlyAccessed.get(store);
+      select.setInt(1, limit);
+      List<Pair<RuleKey, Content>> rows = new ArrayList<>(limit);
+      try (ResultSet rs = select.executeQuery()) {
+        while (rs.next()) {
+          rows.add(
+              new Pair<>(
+                  new RuleKey(HashCode.fromBytes(rs.getBytes(1))),
+                  new Content(null, rs.getString(2), rs.getLong(3))));
         }
-
-        deleted += sizeBytes;
-      }
-
-      Timestamp evictionCutoff;
-      if (artifacts.next()) {
-        evictionCutoff = artifacts.getTimestamp(3);
-      } else {
-        evictionCutoff = Timestamp.from(Instant.now());
       }
-
-      return new Pair<>(filepaths.build(), evictionCutoff);
+      return rows;
     }
 
     private static byte[] getBytes(RuleKey ruleKey) {
@@ -763,6 +1051,30 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
+  /** Where content is stored, each of which is evicted against its own budget. */
+  private enum ContentStore {
+    DISK("disk", "filepath NOTNULL"),
+    INLINED("inlined", "artifact NOTNULL");
+
+    private final String name;
+    private final String condition;
+
+    ContentStore(String name, String condition) {
+      this.name = name;
+      this.condition = condition;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Transaction<T> {
+    T run() throws SQLException;
+  }
+
   private static class Content {
     private final byte[] artifact;
     private final String filepath;
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.facebook.buck.event.LeafEvent;
+
+/**
+ * Events about a background eviction pass of a {@link SQLiteArtifactCache}.
+ *
+ * <p>A pass evicts the least recently accessed content in small batches, and posts a {@link
+ * Progress} event after each batch.
+ */
+public abstract class SQLiteArtifactCacheEvictionEvent extends AbstractBuckEvent
+    implements LeafEvent {
+
+  private final String cacheName;
+
+  private SQLiteArtifactCacheEvictionEvent(EventKey eventKey, String cacheName) {
+    super(eventKey);
+    this.cacheName = cacheName;
+  }
+
+  public String getCacheName() {
+    return cacheName;
+  }
+
+  @Override
+  public String getCategory() {
+    return "sqlite_cache_eviction";
+  }
+
+  @Override
+  protected String getValueString() {
+    return cacheName;
+  }
+
+  public static Started started(String cacheName) {
+    return new Started(cacheName);
+  }
+
+  public static Progress progress(
+      Started started, String store, long evictedArtifacts, long evictedBytes, long sizeBytes) {
+    return new Progress(started, store, evictedArtifacts, evictedBytes, sizeBytes);
+  }
+
+  public static Finished finished(Started started, long evictedArtifacts, long evictedBytes) {
+    return new Finished(started, evictedArtifacts, evictedBytes);
+  }
+
+  public static class Started extends SQLiteArtifactCacheEvictionEvent {
+    private Started(String cacheName) {
+      super(EventKey.unique(), cacheName);
+    }
+
+    @Override
+    public String getEventName() {
+      return "SQLiteArtifactCacheEvictionStarted";
+    }
+  }
+
+  /** Posted after each batch of evicted artifacts. */
+  public static class Progress extends SQLiteArtifactCacheEvictionEvent {
+    private final String store;
+    private final long evictedArtifacts;
+    private final long evictedBytes;
+    private final long sizeBytes;
+
+    private Progress(
+        Started started, String store, long evictedArtifacts, long evictedBytes, long sizeBytes) {
+      super(started.getEventKey(), started.getCacheName());
+      this.store = store;
+      this.evictedArtifacts = evictedArtifacts;
+      this.evictedBytes = evictedBytes;
+      this.sizeBytes = sizeBytes;
+    }
+
+    /** @return which budget is being enforced: "disk" or "inlined". */
+    public String getStore() {
+      return store;
+    }
+
+    /** @return the number of artifacts evicted from this store so far in the pass. */
+    public long getEvictedArtifacts() {
+      return evictedArtifacts;
+    }
+
+    /** @return the number of bytes evicted from this store so far in the pass. */
+    public long getEvictedBytes() {
+      return evictedBytes;
+    }
+
+    /** @return the size of this store after the batch. */
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    @Override
+    public String getEventName() {
+      return "SQLiteArtifactCacheEvictionProgress";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format(
+          "%s %s: evicted %d artifacts (%d bytes), %d bytes left",
+          getCacheName(), store, evictedArtifacts, evictedBytes, sizeBytes);
+    }
+  }
+
+  public static class Finished extends SQLiteArtifactCacheEvictionEvent {
+    private final long evictedArtifacts;
+    private final long evictedBytes;
+
+    private Finished(Started started, long evictedArtifacts, long evictedBytes) {
+      super(started.getEventKey(), started.getCacheName());
+      this.evictedArtifacts = evictedArtifacts;
+      this.evictedBytes = evictedBytes;
+    }
+
+    public long getEvictedArtifacts() {
+      return evictedArtifacts;
+    }
+
+    public long getEvictedBytes() {
+      return evictedBytes;
+    }
+
+    @Override
+    public String getEventName() {
+      return "SQLiteArtifactCacheEvictionFinished";
+    }
+  }
+}
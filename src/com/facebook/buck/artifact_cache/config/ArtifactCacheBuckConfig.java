@@ -105,6 +105,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MODE_FIELD = "sqlite_mode";
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
+  private static final String SQLITE_MAX_INLINED_CACHE_SIZE_FIELD = "sqlite_inlined_max_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
@@ -144,6 +145,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
+  private static final String LOCAL_FETCH_THREADS = "local_fetch_threads";
 
   private static final String ENV_VAR_SUFFIX = "_env_var";
 
@@ -189,6 +191,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_MULTI_FETCH_LIMIT);
   }
 
+  /**
+   * @return the number of threads used by each dir and sqlite cache to serve fetches in batches, or
+   *     0 to serve them synchronously on the calling thread.
+   */
+  public int getLocalFetchThreads() {
+    return buckConfig.getInteger(CACHE_SECTION_NAME, LOCAL_FETCH_THREADS).orElse(0);
+  }
+
   public String getRepository() {
     return buckConfig.getValue(CACHE_SECTION_NAME, REPOSITORY).orElse(DEFAULT_REPOSITORY);
   }
@@ -349,7 +359,9 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
 
     ImmutableList<String> names = getDirCacheNames();
     boolean implicitLegacyCache =
-        names.isEmpty() && getArtifactCacheModes().contains(ArtifactCacheMode.dir);
+        names.isEmpty()
+            && (getArtifactCacheModes().contains(ArtifactCacheMode.dir)
+                || getArtifactCacheModes().contains(ArtifactCacheMode.dedup_dir));
     if (implicitLegacyCache || legacyDirCacheConfigurationFieldsPresent()) {
       result.add(obtainDirEntryForName(Optional.empty()));
     }
@@ -594,8 +606,18 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    Optional<Long> maxInlinedCacheSizeBytes =
+        buckConfig
+            .getValue(section, SQLITE_MAX_INLINED_CACHE_SIZE_FIELD)
+            .map(SizeUnit::parseBytes);
+
     return ImmutableSQLiteCacheEntry.of(
-        Optional.of(cacheName), pathToCacheDir, maxSizeBytes, maxInlinedSizeBytes, readMode);
+        Optional.of(cacheName),
+        pathToCacheDir,
+        maxSizeBytes,
+        maxInlinedSizeBytes,
+        maxInlinedCacheSizeBytes,
+        readMode);
   }
 
   public ImmutableSet<String> getBlacklistedWifiSsids() {
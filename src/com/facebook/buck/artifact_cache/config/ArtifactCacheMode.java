@@ -19,6 +19,7 @@ package com.facebook.buck.artifact_cache.config;
 public enum ArtifactCacheMode {
   unknown(CacheType.local),
   dir(CacheType.local),
+  dedup_dir(CacheType.local),
   http(CacheType.remote),
   sqlite(CacheType.local),
   thrift_over_http(CacheType.remote),
@@ -177,7 +177,8 @@ public abstract class CommandRunnerParams {
         getProjectFilesystemFactory(),
         getBuildInfoStoreManager(),
         getArtifactCacheFactory(),
-        getRuleKeyConfiguration());
+        getRuleKeyConfiguration(),
+        getGlobalState().getDaemonicRemoteExecutionState());
   }
 
   public CommandRunnerParams withArtifactCacheFactory(ArtifactCacheFactory artifactCacheFactory) {
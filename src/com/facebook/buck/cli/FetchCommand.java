@@ -142,6 +142,11 @@ public class FetchCommand extends BuildCommand {
                   cachingBuildEngineBuckConfig.getBuildDepFiles(),
                   cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                   cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  cachingBuildEngineBuckConfig.getBuildArtifactCompressionLevel(),
+                  cachingBuildEngineBuckConfig.getBuildCachePrefetchDepth(),
+                  cachingBuildEngineBuckConfig.getBuildCachePrefetchMaxBytes(),
+                  cachingBuildEngineBuckConfig.isCriticalPathSchedulingEnabled(),
+                  cachingBuildEngineBuckConfig.isBuildHistoryEnabled(),
                   actionGraphAndBuilder.getActionGraphBuilder(),
                   actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                   params.getTargetConfigurationSerializer(),
@@ -129,6 +129,8 @@ import com.facebook.buck.log.LogConfig;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserFactory;
 import com.facebook.buck.parser.ParserPythonInterpreterProvider;
+import com.facebook.buck.parser.PerBuildStateFactory;
+import com.facebook.buck.parser.SpeculativeBuildFileReparser;
 import com.facebook.buck.parser.TargetSpecResolver;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.remoteexecution.MetadataProviderFactory;
@@ -1502,6 +1504,18 @@ public final class MainRunner {
                     "versioned_target_graph_cache",
                     parserAndCaches.getVersionedTargetGraphCache().getCacheStats()));
           }
+
+          if (context.isPresent() && parserConfig.getEnableSpeculativeReparsing()) {
+            startSpeculativeReparsing(
+                buckGlobalState,
+                cells.getRootCell(),
+                parserConfig,
+                watchman,
+                knownRuleTypesProvider,
+                executableFinder,
+                buildTargetFactory,
+                hostConfiguration.orElse(UnconfiguredTargetConfiguration.INSTANCE));
+          }
         } catch (Exception e) {
           exceptionForFix = Optional.of(e);
           throw e;
@@ -1568,7 +1582,8 @@ public final class MainRunner {
             depsAwareExecutorSupplier.get(),
             rootCell.getCellProvider(),
             buckGlobalState.getDirectoryListCaches(),
-            buckGlobalState.getFileTreeCaches());
+            buckGlobalState.getFileTreeCaches(),
+            parserConfig.getNumParsingThreads());
       case WATCHMAN:
         return TargetSpecResolver.createWithWatchmanCrawler(
             buildEventBus, watchman, depsAwareExecutorSupplier.get(), rootCell.getCellProvider());
@@ -1927,6 +1942,34 @@ public final class MainRunner {
         defaultRuleKeyFactoryCacheRecycler);
   }
 
+  /**
+   * Re-parses, in the background, the build files invalidated by the file system changes applied
+   * by this command and which it didn't need, so that the next command doesn't have to.
+   */
+  private static void startSpeculativeReparsing(
+      BuckGlobalState buckGlobalState,
+      Cell rootCell,
+      ParserConfig parserConfig,
+      Watchman watchman,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      ExecutableFinder executableFinder,
+      UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory,
+      TargetConfiguration hostConfiguration) {
+    SpeculativeBuildFileReparser reparser = buckGlobalState.getSpeculativeBuildFileReparser();
+    reparser.start(
+        rootCell,
+        new PerBuildStateFactory(
+            buckGlobalState.getTypeCoercerFactory(),
+            new DefaultConstructorArgMarshaller(),
+            knownRuleTypesProvider,
+            new ParserPythonInterpreterProvider(parserConfig, executableFinder),
+            watchman,
+            reparser.getEventBus(),
+            unconfiguredBuildTargetFactory,
+            hostConfiguration),
+        parserConfig.getNumParsingThreads());
+  }
+
   private static void registerClientDisconnectedListener(
       NGContext context, BuckGlobalState buckGlobalState) {
     Thread mainThread = Thread.currentThread();
@@ -607,6 +607,8 @@ public class TestCommand extends BuildCommand {
                         localCachingBuildEngineDelegate.getFileHashCache(),
                         params.getBuckEventBus(),
                         params.getMetadataProvider(),
+                        params.getGlobalState().getDaemonicRemoteExecutionState(),
+                        localCachingBuildEngineDelegate.getDeferredOutputs(),
                         remoteExecutionAutoEnabled,
                         isRemoteExecutionForceDisabled()),
                     pool.getWeightedListeningExecutorService(),
@@ -614,6 +616,11 @@ public class TestCommand extends BuildCommand {
                     cachingBuildEngineBuckConfig.getBuildDepFiles(),
                     cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                     cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                    cachingBuildEngineBuckConfig.getBuildArtifactCompressionLevel(),
+                    cachingBuildEngineBuckConfig.getBuildCachePrefetchDepth(),
+                    cachingBuildEngineBuckConfig.getBuildCachePrefetchMaxBytes(),
+                    cachingBuildEngineBuckConfig.isCriticalPathSchedulingEnabled(),
+                    cachingBuildEngineBuckConfig.isBuildHistoryEnabled(),
                     actionGraphAndBuilder.getActionGraphBuilder(),
                     actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                     params.getTargetConfigurationSerializer(),
@@ -28,6 +28,8 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
+import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
@@ -108,8 +110,16 @@ public class BuildExecutor {
       Iterable<BuildTarget> targetsToBuild, Optional<Path> pathToBuildReport) throws Exception {
     Preconditions.checkArgument(!isShutdown);
     try {
-      return build.executeAndPrintFailuresToEventBus(
-          targetsToBuild, args.getBuckEventBus(), args.getConsole(), pathToBuildReport);
+      ExitCode exitCode =
+          build.executeAndPrintFailuresToEventBus(
+              targetsToBuild, args.getBuckEventBus(), args.getConsole(), pathToBuildReport);
+      ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator =
+          cachingBuildEngine.getRuleKeyCalculator();
+      args.getBuckEventBus()
+          .post(
+              new RuleKeyCalculationEvent.Totals(
+                  ruleKeyCalculator.getRecomputedCount(), ruleKeyCalculator.getReusedCount()));
+      return exitCode;
     } catch (BuildTargetParseException e) {
       throw new HumanReadableException(
           e.getMessage()
@@ -154,6 +164,8 @@ public class BuildExecutor {
             cachingBuildEngineDelegate.getFileHashCache(),
             args.getBuckEventBus(),
             metadataProvider,
+            args.getDaemonicRemoteExecutionState(),
+            cachingBuildEngineDelegate.getDeferredOutputs(),
             remoteExecutionAutoEnabled,
             forceDisableRemoteExecution),
         executorService,
@@ -161,6 +173,11 @@ public class BuildExecutor {
         engineConfig.getBuildDepFiles(),
         engineConfig.getBuildMaxDepFileCacheEntries(),
         engineConfig.getBuildArtifactCacheSizeLimit(),
+        engineConfig.getBuildArtifactCompressionLevel(),
+        engineConfig.getBuildCachePrefetchDepth(),
+        engineConfig.getBuildCachePrefetchMaxBytes(),
+        engineConfig.isCriticalPathSchedulingEnabled(),
+        engineConfig.isBuildHistoryEnabled(),
         actionGraphAndBuilder.getActionGraphBuilder(),
         actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
         targetConfigurationSerializer,
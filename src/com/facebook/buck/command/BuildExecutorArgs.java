@@ -23,6 +23,7 @@ import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.concurrent.ExecutorPool;
@@ -55,6 +56,8 @@ public abstract class BuildExecutorArgs {
 
   public abstract RuleKeyConfiguration getRuleKeyConfiguration();
 
+  public abstract DaemonicRemoteExecutionState getDaemonicRemoteExecutionState();
+
   public BuckConfig getBuckConfig() {
     return getCells().getRootCell().getBuckConfig();
   }
@@ -69,7 +72,8 @@ public abstract class BuildExecutorArgs {
       ProjectFilesystemFactory projectFilesystemFactory,
       BuildInfoStoreManager buildInfoStoreManager,
       ArtifactCacheFactory artifactCacheFactory,
-      RuleKeyConfiguration ruleKeyConfiguration) {
+      RuleKeyConfiguration ruleKeyConfiguration,
+      DaemonicRemoteExecutionState daemonicRemoteExecutionState) {
     return ImmutableBuildExecutorArgs.of(
         console,
         buckEventBus,
@@ -80,6 +84,7 @@ public abstract class BuildExecutorArgs {
         projectFilesystemFactory,
         buildInfoStoreManager,
         artifactCacheFactory,
-        ruleKeyConfiguration);
+        ruleKeyConfiguration,
+        daemonicRemoteExecutionState);
   }
 }
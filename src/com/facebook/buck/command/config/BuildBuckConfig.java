@@ -251,6 +251,23 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /**
+   * @return whether the daemon should persist its file hash caches in buck-out, so that they can
+   *     be restored after a restart.
+   */
+  @Value.Lazy
+  public boolean shouldSnapshotFileHashCache() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "file_hash_cache_snapshot", false);
+  }
+
+  /** @return the minimum time between two periodic snapshots of the file hash caches. */
+  @Value.Lazy
+  public long getFileHashCacheSnapshotIntervalSeconds() {
+    return getDelegate()
+        .getLong(BUILD_SECTION, "file_hash_cache_snapshot_interval_seconds")
+        .orElse(600L);
+  }
+
   @Value.Lazy
   public boolean shouldBuckOutIncludeTargetConfigHash() {
     return getDelegate()
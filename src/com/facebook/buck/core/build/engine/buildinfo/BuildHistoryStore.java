@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.model.BuildTarget;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Repository of how much time and memory rules took to build locally, kept across builds so that
+ * the scheduler can estimate the resources a rule needs before running it.
+ */
+public interface BuildHistoryStore extends Closeable {
+  Optional<BuildRuleHistory> readHistory(BuildTarget buildTarget);
+
+  /**
+   * Merges the latest builds of some rules into their history, see {@link
+   * BuildRuleHistory#withLatestBuild(BuildRuleHistory)}.
+   */
+  void recordBuilds(Map<BuildTarget, BuildRuleHistory> latestBuilds) throws IOException;
+
+  @Override
+  void close();
+}
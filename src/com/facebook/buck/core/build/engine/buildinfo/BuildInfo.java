@@ -82,6 +82,18 @@ public class BuildInfo {
 
     /** Key for {@link OnDiskBuildInfo} to store the hash of the output. */
     public static final String OUTPUT_HASH = "OUTPUT_HASH";
+
+    /**
+     * Key for {@link OnDiskBuildInfo} to store how long the steps of the rule took to run, in
+     * milliseconds, the last time it was built.
+     */
+    public static final String BUILD_DURATION_MS = "BUILD_DURATION_MS";
+
+    /**
+     * Key for {@link OnDiskBuildInfo} to store the outputs of the rule which weren't written to
+     * disk when it was built, because it was built remotely.
+     */
+    public static final String DEFERRED_OUTPUTS = "DEFERRED_OUTPUTS";
   }
 
   public static final ImmutableSet<String> METADATA_KEYS =
@@ -97,7 +109,8 @@ public class BuildInfo {
           MetadataKey.CONFIGURATION,
           MetadataKey.MANIFEST_KEY,
           MetadataKey.BUILD_ID,
-          MetadataKey.ORIGIN_BUILD_ID);
+          MetadataKey.ORIGIN_BUILD_ID,
+          MetadataKey.BUILD_DURATION_MS);
 
   /** All keys corresponding to rule keys. */
   public static final ImmutableSet<String> RULE_KEY_NAMES =
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+
+/**
+ * How much time and memory it took to build a rule locally, smoothed over the builds recorded in
+ * {@link BuildHistoryStore}.
+ */
+@BuckStyleValue
+public abstract class BuildRuleHistory {
+
+  /** @return the rule key of the most recent build. */
+  public abstract String getRuleKey();
+
+  /** @return the time the steps of the rule took to run. */
+  public abstract long getWallTimeMs();
+
+  /**
+   * @return the user and system CPU time used by the steps, including the processes they ran, or 0
+   *     if it wasn't measured.
+   */
+  public abstract long getCpuTimeMs();
+
+  /** @return the largest resident set size of the processes run by the steps. */
+  public abstract long getPeakRssBytes();
+
+  /** @return the number of builds the estimates are made of. */
+  public abstract long getBuildCount();
+
+  public static BuildRuleHistory of(
+      String ruleKey, long wallTimeMs, long cpuTimeMs, long peakRssBytes, long buildCount) {
+    return ImmutableBuildRuleHistory.of(ruleKey, wallTimeMs, cpuTimeMs, peakRssBytes, buildCount);
+  }
+
+  /**
+   * @return the history updated with a new build. Times are averaged with exponentially decaying
+   *     weights, so they follow the rule as it changes. The peak RSS follows increases right away
+   *     but only decays slowly, since underestimating it risks running out of memory. CPU times of
+   *     0 weren't measured and are left out of the average.
+   */
+  public BuildRuleHistory withLatestBuild(BuildRuleHistory latest) {
+    long cpuTimeMs;
+    if (latest.getCpuTimeMs() == 0) {
+      cpuTimeMs = getCpuTimeMs();
+    } else if (getCpuTimeMs() == 0) {
+      cpuTimeMs = latest.getCpuTimeMs();
+    } else {
+      cpuTimeMs = (getCpuTimeMs() + latest.getCpuTimeMs()) / 2;
+    }
+    long peakRssBytes =
+        latest.getPeakRssBytes() >= getPeakRssBytes()
+            ? latest.getPeakRssBytes()
+            : getPeakRssBytes() - (getPeakRssBytes() - latest.getPeakRssBytes()) / 4;
+    return of(
+        latest.getRuleKey(),
+        (getWallTimeMs() + latest.getWallTimeMs()) / 2,
+        cpuTimeMs,
+        peakRssBytes,
+        getBuildCount() + latest.getBuildCount());
+  }
+}
@@ -33,6 +33,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -278,8 +279,23 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
     ImmutableMap.Builder<String, String> artifactMetadataJson = ImmutableMap.builder();
     artifactMetadataJson.put(BuildInfo.MetadataKey.RECORDED_PATHS, recordedPathsString);
 
-    ImmutableSortedSet<Path> outputPaths = getRecursivePaths(recordedPaths);
-    long outputSize = getOutputSize(outputPaths);
+    // Outputs which were built remotely might not have been written to disk, in which case the
+    // file hash loader still knows about them.
+    ImmutableSortedSet<Path> missingPaths =
+        recordedPaths.stream()
+            .filter(path -> !projectFilesystem.exists(path))
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+    ImmutableSortedSet<Path> existingOutputPaths =
+        getRecursivePaths(ImmutableSortedSet.copyOf(Sets.difference(recordedPaths, missingPaths)));
+    long outputSize = getOutputSize(existingOutputPaths);
+    for (Path path : missingPaths) {
+      outputSize += fileHashLoader.getSize(projectFilesystem, path);
+    }
+    ImmutableSortedSet<Path> outputPaths =
+        ImmutableSortedSet.<Path>naturalOrder()
+            .addAll(existingOutputPaths)
+            .addAll(missingPaths)
+            .build();
     artifactMetadataJson.put(BuildInfo.MetadataKey.OUTPUT_SIZE, String.valueOf(outputSize));
     projectFilesystem.writeContentsToPath(
         String.valueOf(outputSize),
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+
+/** {@link BuildHistoryStore} kept in the same database as {@link SQLiteBuildInfoStore}. */
+public class SQLiteBuildHistoryStore implements BuildHistoryStore {
+  private final Connection connection;
+  private final PreparedStatement selectStmt;
+  private final PreparedStatement updateStmt;
+
+  public SQLiteBuildHistoryStore(ProjectFilesystem filesystem) throws IOException {
+    connection = SQLiteBuildInfoStore.openDatabase(filesystem);
+    try {
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE TABLE IF NOT EXISTS build_history "
+                  + "(target TEXT PRIMARY KEY, rule_key TEXT, wall_time_ms INTEGER, "
+                  + "cpu_time_ms INTEGER, peak_rss_bytes INTEGER, build_count INTEGER) "
+                  + "WITHOUT ROWID");
+      selectStmt =
+          connection.prepareStatement(
+              "SELECT rule_key, wall_time_ms, cpu_time_ms, peak_rss_bytes, build_count "
+                  + "FROM build_history WHERE target = ?");
+      updateStmt =
+          connection.prepareStatement(
+              "INSERT OR REPLACE INTO build_history "
+                  + "(target, rule_key, wall_time_ms, cpu_time_ms, peak_rss_bytes, build_count) "
+                  + "VALUES (?, ?, ?, ?, ?, ?)");
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public synchronized Optional<BuildRuleHistory> readHistory(BuildTarget buildTarget) {
+    try {
+      return select(buildTarget);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public synchronized void recordBuilds(Map<BuildTarget, BuildRuleHistory> latestBuilds)
+      throws IOException {
+    try {
+      connection.setAutoCommit(false);
+      try {
+        for (Map.Entry<BuildTarget, BuildRuleHistory> e : latestBuilds.entrySet()) {
+          BuildRuleHistory history =
+              select(e.getKey())
+                  .map(previous -> previous.withLatestBuild(e.getValue()))
+                  .orElse(e.getValue());
+          updateStmt.setString(1, historyKey(e.getKey()));
+          updateStmt.setString(2, history.getRuleKey());
+          updateStmt.setLong(3, history.getWallTimeMs());
+          updateStmt.setLong(4, history.getCpuTimeMs());
+          updateStmt.setLong(5, history.getPeakRssBytes());
+          updateStmt.setLong(6, history.getBuildCount());
+          updateStmt.executeUpdate();
+        }
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Optional<BuildRuleHistory> select(BuildTarget buildTarget) throws SQLException {
+    selectStmt.setString(1, historyKey(buildTarget));
+    try (ResultSet rs = selectStmt.executeQuery()) {
+      if (!rs.next()) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          BuildRuleHistory.of(
+              rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+    }
+  }
+
+  /**
+   * The same target built for different platforms can take very different times, so their
+   * histories are kept apart.
+   */
+  private static String historyKey(BuildTarget buildTarget) {
+    return buildTarget.toStringWithConfiguration();
+  }
+}
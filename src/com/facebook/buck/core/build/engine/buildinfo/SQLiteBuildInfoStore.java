@@ -39,18 +39,8 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
   private final PreparedStatement deleteStmt;
 
   public SQLiteBuildInfoStore(ProjectFilesystem filesystem) throws IOException {
-    SQLiteUtils.initialize();
-    String dbPath =
-        filesystem
-            .getRootPath()
-            .resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db"))
-            .toString();
-    filesystem.createParentDirs(dbPath);
+    connection = openDatabase(filesystem);
     try {
-      Class.forName("org.sqlite.JDBC");
-      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
       connection
           .createStatement()
           .executeUpdate(
@@ -67,7 +57,27 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
           connection.prepareStatement(
               "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)");
       deleteStmt = connection.prepareStatement("DELETE FROM metadata WHERE target = ?");
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /** Opens a new connection to the metadata database of {@code filesystem}. */
+  static Connection openDatabase(ProjectFilesystem filesystem) throws IOException {
+    SQLiteUtils.initialize();
+    String dbPath =
+        filesystem
+            .getRootPath()
+            .resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db"))
+            .toString();
+    filesystem.createParentDirs(dbPath);
+    try {
+      Class.forName("org.sqlite.JDBC");
+      Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
       BusyHandler.setHandler(connection, new RetryBusyHandler());
+      return connection;
     } catch (ClassNotFoundException | SQLException e) {
       throw new IOException(e);
     }
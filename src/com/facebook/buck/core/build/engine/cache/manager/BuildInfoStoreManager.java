@@ -16,23 +16,33 @@
 
 package com.facebook.buck.core.build.engine.cache.manager;
 
+import com.facebook.buck.core.build.engine.buildinfo.BuildHistoryStore;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
+import com.facebook.buck.core.build.engine.buildinfo.SQLiteBuildHistoryStore;
 import com.facebook.buck.core.build.engine.buildinfo.SQLiteBuildInfoStore;
 import com.facebook.buck.core.filesystems.AbsPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 
-/** Manages the lifetimes of all {@link BuildInfoStore}s used in the build. */
+/**
+ * Manages the lifetimes of all {@link BuildInfoStore}s and {@link BuildHistoryStore}s used in the
+ * build.
+ */
 public class BuildInfoStoreManager implements AutoCloseable {
   private final ConcurrentHashMap<AbsPath, BuildInfoStore> buildInfoStores =
       new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<AbsPath, BuildHistoryStore> buildHistoryStores =
+      new ConcurrentHashMap<>();
 
   @Override
   public void close() {
     for (BuildInfoStore store : buildInfoStores.values()) {
       store.close();
     }
+    for (BuildHistoryStore store : buildHistoryStores.values()) {
+      store.close();
+    }
   }
 
   public BuildInfoStore get(ProjectFilesystem filesystem) {
@@ -46,4 +56,16 @@ public class BuildInfoStoreManager implements AutoCloseable {
           }
         });
   }
+
+  public BuildHistoryStore getHistoryStore(ProjectFilesystem filesystem) {
+    return buildHistoryStores.computeIfAbsent(
+        filesystem.getRootPath(),
+        path -> {
+          try {
+            return new SQLiteBuildHistoryStore(filesystem);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
 }
@@ -22,11 +22,16 @@ import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.util.unit.SizeUnit;
 import java.util.Optional;
 
 @BuckStyleValue
 public abstract class CachingBuildEngineBuckConfig implements ConfigView<BuckConfig> {
 
+  // The default level of zstd, which artifacts have always been compressed with.
+  private static final int DEFAULT_ARTIFACT_COMPRESSION_LEVEL = 3;
+  private static final long DEFAULT_CACHE_PREFETCH_MAX_BYTES = 1024L * 1024 * 1024;
+
   public static CachingBuildEngineBuckConfig of(BuckConfig delegate) {
     return ImmutableCachingBuildEngineBuckConfig.of(delegate);
   }
@@ -63,6 +68,48 @@ public abstract class CachingBuildEngineBuckConfig implements ConfigView<BuckCon
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return the zstd level used to compress artifacts uploaded to the cache. Lower levels trade
+   *     artifact size for compression speed, which pays off with fast links to the cache.
+   */
+  public int getBuildArtifactCompressionLevel() {
+    return getDelegate()
+        .getInteger("build", "artifact_compression_level")
+        .orElse(DEFAULT_ARTIFACT_COMPRESSION_LEVEL);
+  }
+
+  /**
+   * @return how many levels of deps below a rule which is looking itself up in the cache have their
+   *     artifacts fetched speculatively, or 0 if artifacts are never prefetched.
+   */
+  public int getBuildCachePrefetchDepth() {
+    return getDelegate().getInteger("build", "cache_prefetch_depth").orElse(0);
+  }
+
+  /** @return how many bytes of prefetched artifacts may be waiting to be used at any time. */
+  public long getBuildCachePrefetchMaxBytes() {
+    return getDelegate()
+        .getValue("build", "cache_prefetch_max_size")
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_CACHE_PREFETCH_MAX_BYTES);
+  }
+
+  /**
+   * @return whether rules on the longest remaining path of the build, as predicted from their
+   *     durations in earlier builds, should be given resources first.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBooleanValue("build", "critical_path_scheduling", false);
+  }
+
+  /**
+   * @return whether the time, CPU and memory rules take to build should be recorded, and used to
+   *     estimate the resources they need in later builds.
+   */
+  public boolean isBuildHistoryEnabled() {
+    return getDelegate().getBooleanValue("build", "build_history", false);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
     return ResourceAwareSchedulingInfo.of(
@@ -27,6 +27,12 @@ public interface CachingBuildEngineDelegate {
 
   FileHashCache getFileHashCache();
 
+  /**
+   * @return the outputs of rules which were built without being written to disk. {@link
+   *     #getFileHashCache()} already accounts for them.
+   */
+  DeferredOutputs getDeferredOutputs();
+
   /**
    * Called right before the rule is going to be built. This is when direct inputs to the rule would
    * get materialized on disk.
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.delegate;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps track of the outputs of rules which were built somewhere else (e.g. by remote execution)
+ * and haven't been written to disk yet, so that they are only fetched once something needs to read
+ * them.
+ *
+ * <p>The hash and the size of deferred outputs are known, so rule keys and output metadata can be
+ * computed without them through {@link #wrap(FileHashCache)}. Anything else that needs the
+ * contents has to call {@link #materialize(BuildTarget)} first.
+ */
+public class DeferredOutputs {
+  private static final Logger LOG = Logger.get(DeferredOutputs.class);
+
+  private final ConcurrentHashMap<Path, DeferredFile> files = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<BuildTarget, Materialization> materializations =
+      new ConcurrentHashMap<>();
+  /** The roots of the filesystems of the rules with deferred outputs. */
+  private final Set<Path> filesystemRoots = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Records outputs of {@code target} which aren't on disk.
+   *
+   * @param filesystem the filesystem of the rule which produced the outputs.
+   * @param outputs the absolute paths of the outputs.
+   * @param materializer writes all of the outputs to disk when called.
+   */
+  public void defer(
+      BuildTarget target,
+      ProjectFilesystem filesystem,
+      ImmutableMap<Path, DeferredFile> outputs,
+      Supplier<ListenableFuture<Unit>> materializer) {
+    outputs.keySet().forEach(path -> Preconditions.checkArgument(path.isAbsolute()));
+    filesystemRoots.add(filesystem.getRootPath().getPath());
+    Materialization materialization = new Materialization(target, outputs, materializer);
+    Materialization previous = materializations.put(target, materialization);
+    if (previous != null) {
+      previous.outputs.keySet().forEach(files::remove);
+    }
+    files.putAll(outputs);
+  }
+
+  /** @return whether there are no outputs waiting to be written to disk. */
+  public boolean isEmpty() {
+    return materializations.isEmpty();
+  }
+
+  /** @return the deferred output at the given absolute path, if it isn't on disk yet. */
+  public Optional<DeferredFile> getFile(Path path) {
+    return Optional.ofNullable(files.get(path));
+  }
+
+  /** @return the absolute paths of the outputs of {@code target} which aren't on disk yet. */
+  public ImmutableSet<Path> getDeferredPaths(BuildTarget target) {
+    Materialization materialization = materializations.get(target);
+    return materialization == null ? ImmutableSet.of() : materialization.outputs.keySet();
+  }
+
+  /** Writes the deferred outputs of {@code target}, if any, to disk. */
+  public ListenableFuture<Unit> materialize(BuildTarget target) {
+    Materialization materialization = materializations.get(target);
+    if (materialization == null) {
+      return Futures.immediateFuture(Unit.UNIT);
+    }
+    return materialization.start();
+  }
+
+  /**
+   * Returns a {@link FileHashCache} which answers for the deferred outputs, and otherwise forwards
+   * to {@code delegate}.
+   */
+  public FileHashCache wrap(FileHashCache delegate) {
+    return new DeferredOutputsFileHashCache(delegate);
+  }
+
+  /** The known properties of an output which hasn't been written to disk. */
+  public static final class DeferredFile {
+    private final HashCode hash;
+    private final long size;
+    private final boolean executable;
+
+    public DeferredFile(HashCode hash, long size, boolean executable) {
+      this.hash = hash;
+      this.size = size;
+      this.executable = executable;
+    }
+
+    public HashCode getHash() {
+      return hash;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public boolean isExecutable() {
+      return executable;
+    }
+  }
+
+  private class Materialization {
+    private final BuildTarget target;
+    private final ImmutableMap<Path, DeferredFile> outputs;
+    private final Supplier<ListenableFuture<Unit>> materializer;
+    @Nullable private ListenableFuture<Unit> future;
+
+    Materialization(
+        BuildTarget target,
+        ImmutableMap<Path, DeferredFile> outputs,
+        Supplier<ListenableFuture<Unit>> materializer) {
+      this.target = target;
+      this.outputs = outputs;
+      this.materializer = materializer;
+    }
+
+    synchronized ListenableFuture<Unit> start() {
+      if (future != null) {
+        return future;
+      }
+      LOG.debug("Materializing %d deferred outputs of %s.", outputs.size(), target);
+      ListenableFuture<Unit> started = materializer.get();
+      future = started;
+      Futures.addCallback(
+          started,
+          new FutureCallback<Unit>() {
+            @Override
+            public void onSuccess(@Nullable Unit result) {
+              if (materializations.remove(target, Materialization.this)) {
+                outputs.keySet().forEach(files::remove);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              // Let the next caller try again.
+              synchronized (Materialization.this) {
+                future = null;
+              }
+            }
+          },
+          MoreExecutors.directExecutor());
+      return started;
+    }
+  }
+
+  private class DeferredOutputsFileHashCache implements FileHashCache {
+    private final FileHashCache delegate;
+
+    DeferredOutputsFileHashCache(FileHashCache delegate) {
+      this.delegate = delegate;
+    }
+
+    private void materializeIfDeferred(Path path) throws IOException {
+      if (files.containsKey(path)) {
+        materializeOwnerOf(path);
+      }
+    }
+
+    private void materializeOwnerOf(Path path) throws IOException {
+      for (Materialization materialization : materializations.values()) {
+        if (materialization.outputs.containsKey(path)) {
+          try {
+            materialization.start().get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+          } catch (ExecutionException e) {
+            throw new IOException(
+                String.format("Failed to materialize deferred output %s.", path), e.getCause());
+          }
+          return;
+        }
+      }
+    }
+
+    @Override
+    public HashCode get(Path path) throws IOException {
+      DeferredFile file = files.get(path);
+      return file == null ? delegate.get(path) : file.getHash();
+    }
+
+    @Override
+    public long getSize(Path path) throws IOException {
+      DeferredFile file = files.get(path);
+      return file == null ? delegate.getSize(path) : file.getSize();
+    }
+
+    @Override
+    public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
+        throws IOException {
+      // The members of an archive are only known from its contents.
+      if (!files.isEmpty()) {
+        if (relativeArchivePath.isAbsolute()) {
+          materializeIfDeferred(relativeArchivePath);
+        } else {
+          for (Path root : filesystemRoots) {
+            materializeIfDeferred(root.resolve(relativeArchivePath));
+          }
+        }
+      }
+      return delegate.getForArchiveMember(relativeArchivePath, memberPath);
+    }
+
+    @Override
+    public HashCode get(ProjectFilesystem filesystem, Path path) throws IOException {
+      if (!files.isEmpty()) {
+        DeferredFile file = files.get(filesystem.resolve(path));
+        if (file != null) {
+          return file.getHash();
+        }
+      }
+      return delegate.get(filesystem, path);
+    }
+
+    @Override
+    public long getSize(ProjectFilesystem filesystem, Path path) throws IOException {
+      if (!files.isEmpty()) {
+        DeferredFile file = files.get(filesystem.resolve(path));
+        if (file != null) {
+          return file.getSize();
+        }
+      }
+      return delegate.getSize(filesystem, path);
+    }
+
+    @Override
+    public HashCode getForArchiveMember(
+        ProjectFilesystem filesystem, Path relativeArchivePath, Path memberPath)
+        throws IOException {
+      if (!files.isEmpty()) {
+        materializeIfDeferred(filesystem.resolve(relativeArchivePath));
+      }
+      return delegate.getForArchiveMember(filesystem, relativeArchivePath, memberPath);
+    }
+
+    @Override
+    public void invalidate(Path path) {
+      delegate.invalidate(path);
+    }
+
+    @Override
+    public void invalidateAll() {
+      delegate.invalidateAll();
+    }
+
+    @Override
+    public void set(Path path, HashCode hashCode) throws IOException {
+      delegate.set(path, hashCode);
+    }
+
+    @Override
+    public void set(ProjectFilesystem filesystem, Path path, HashCode hashCode)
+        throws IOException {
+      delegate.set(filesystem, path, hashCode);
+    }
+
+    @Override
+    public FileHashCacheVerificationResult verify() throws IOException {
+      return delegate.verify();
+    }
+
+    @Override
+    public Stream<Map.Entry<Path, HashCode>> debugDump() {
+      return delegate.debugDump();
+    }
+  }
+}
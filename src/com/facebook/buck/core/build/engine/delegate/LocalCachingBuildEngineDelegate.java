@@ -22,9 +22,11 @@ import com.facebook.buck.util.cache.FileHashCache;
 /** */
 public class LocalCachingBuildEngineDelegate implements CachingBuildEngineDelegate {
   private final FileHashCache defaultFileHashCache;
+  private final DeferredOutputs deferredOutputs;
 
   public LocalCachingBuildEngineDelegate(FileHashCache defaultFileHashCache) {
-    this.defaultFileHashCache = defaultFileHashCache;
+    this.deferredOutputs = new DeferredOutputs();
+    this.defaultFileHashCache = deferredOutputs.wrap(defaultFileHashCache);
   }
 
   @Override
@@ -32,6 +34,11 @@ public class LocalCachingBuildEngineDelegate implements CachingBuildEngineDelega
     return defaultFileHashCache;
   }
 
+  @Override
+  public DeferredOutputs getDeferredOutputs() {
+    return deferredOutputs;
+  }
+
   @Override
   public void onRuleAboutToBeBuilt(BuildRule buildRule) {
     // no-op.
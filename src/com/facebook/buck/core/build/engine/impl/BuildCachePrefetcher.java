@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheDecorator;
+import com.facebook.buck.artifact_cache.CacheDeleteResult;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Speculatively fetches the artifacts of rules which are likely to be looked up in the cache soon.
+ *
+ * <p>Rules are looked up in the cache top-down: the deps of a rule are only looked at once the rule
+ * itself missed, so each level of the graph waits for a cache round trip of the level above. Rule
+ * keys of the whole graph below a rule are known by the time the rule looks itself up though, so
+ * the prefetcher fetches the artifacts of its deps, up to a given depth, while that lookup is under
+ * way. When a dep then looks itself up, it picks the prefetched artifact up instead of going to the
+ * cache again.
+ *
+ * <p>Each prefetch is kept on behalf of the rules it was requested through. Once all of them are
+ * done, e.g. because they were fetched from the cache and never needed their deps, the prefetch is
+ * dropped along with the prefetches that were requested through it. The size of prefetched
+ * artifacts which haven't been picked up yet, and the number of prefetches in flight, are bounded.
+ */
+class BuildCachePrefetcher {
+  private static final Logger LOG = Logger.get(BuildCachePrefetcher.class);
+
+  private static final int MAX_PREFETCHES_IN_FLIGHT = 64;
+
+  private final int depth;
+  private final long maxBytes;
+  private final RuleDepsCache ruleDeps;
+
+  // All of the following is guarded by this.
+  private final Map<RuleKey, Prefetch> prefetchesByRuleKey = new HashMap<>();
+  private final Map<BuildTarget, Prefetch> prefetchesByTarget = new HashMap<>();
+  private final SetMultimap<BuildTarget, Prefetch> prefetchesByRequester = HashMultimap.create();
+  private final Set<BuildTarget> walkRoots = new HashSet<>();
+  private int inFlight = 0;
+  private long heldBytes = 0;
+  private int issuedCount = 0;
+  private int pickedUpCount = 0;
+  private int droppedCount = 0;
+
+  BuildCachePrefetcher(int depth, long maxBytes, RuleDepsCache ruleDeps) {
+    Preconditions.checkArgument(depth > 0);
+    this.depth = depth;
+    this.maxBytes = maxBytes;
+    this.ruleDeps = ruleDeps;
+  }
+
+  /**
+   * Prefetches the artifacts of the deps of {@code rule}, up to {@link #depth} levels below it.
+   *
+   * @param ruleKeyToPrefetch the default rule key of a dep, or empty if it should not be
+   *     prefetched, e.g. because it is already being built or its outputs are up to date. Nothing
+   *     is prefetched below such deps.
+   */
+  void prefetchDeps(
+      BuildRule rule,
+      ArtifactCache artifactCache,
+      Function<BuildRule, Optional<RuleKey>> ruleKeyToPrefetch) {
+    synchronized (this) {
+      walkRoots.add(rule.getBuildTarget());
+    }
+    Queue<BuildRule> queue = new ArrayDeque<>();
+    Map<BuildRule, Integer> levels = new HashMap<>();
+    queue.add(rule);
+    levels.put(rule, 0);
+    while (!queue.isEmpty()) {
+      BuildRule requester = queue.remove();
+      int level = levels.get(requester);
+      if (level == depth) {
+        continue;
+      }
+      for (BuildRule dep : ruleDeps.get(requester)) {
+        if (levels.containsKey(dep)) {
+          continue;
+        }
+        if (request(dep, requester.getBuildTarget(), artifactCache, ruleKeyToPrefetch)) {
+          levels.put(dep, level + 1);
+          queue.add(dep);
+        }
+      }
+    }
+  }
+
+  /** @return whether there is a prefetch of {@code rule}, which is kept for {@code requester}. */
+  private boolean request(
+      BuildRule rule,
+      BuildTarget requester,
+      ArtifactCache artifactCache,
+      Function<BuildRule, Optional<RuleKey>> ruleKeyToPrefetch) {
+    synchronized (this) {
+      Prefetch existing = prefetchesByTarget.get(rule.getBuildTarget());
+      if (existing != null) {
+        existing.requesters.add(requester);
+        prefetchesByRequester.put(requester, existing);
+        return true;
+      }
+      if (inFlight >= MAX_PREFETCHES_IN_FLIGHT || heldBytes >= maxBytes) {
+        return false;
+      }
+    }
+
+    Optional<RuleKey> ruleKey = ruleKeyToPrefetch.apply(rule);
+    if (!ruleKey.isPresent()) {
+      return false;
+    }
+
+    Prefetch prefetch;
+    synchronized (this) {
+      if (prefetchesByTarget.containsKey(rule.getBuildTarget())
+          || prefetchesByRuleKey.containsKey(ruleKey.get())) {
+        // Raced with another walk, which will take care of this part of the graph.
+        return false;
+      }
+      prefetch = new Prefetch(rule.getBuildTarget(), ruleKey.get());
+      prefetch.requesters.add(requester);
+      prefetchesByRequester.put(requester, prefetch);
+      prefetchesByRuleKey.put(prefetch.ruleKey, prefetch);
+      prefetchesByTarget.put(prefetch.target, prefetch);
+      inFlight++;
+      issuedCount++;
+    }
+
+    prefetch.result.setFuture(
+        artifactCache.fetchAsync(prefetch.target, prefetch.ruleKey, prefetch.path));
+    prefetch.result.addListener(() -> onPrefetchDone(prefetch), MoreExecutors.directExecutor());
+    return true;
+  }
+
+  private synchronized void onPrefetchDone(Prefetch prefetch) {
+    inFlight--;
+    prefetch.done = true;
+    if (prefetch.isHit() && prefetch.createdPath != null) {
+      try {
+        prefetch.sizeBytes = Files.size(prefetch.createdPath);
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to find the size of the prefetched artifact of %s", prefetch.target);
+      }
+    }
+    if (prefetch.dropped) {
+      prefetch.deleteArtifact();
+    } else if (!prefetch.pickedUp) {
+      heldBytes += prefetch.sizeBytes;
+    }
+  }
+
+  /** To be called once {@code target} is done, with whatever outcome. */
+  synchronized void release(BuildTarget target) {
+    walkRoots.remove(target);
+    Prefetch own = prefetchesByTarget.get(target);
+    if (own != null) {
+      drop(own);
+    }
+    dropRequestedThrough(target);
+  }
+
+  private synchronized void dropRequestedThrough(BuildTarget target) {
+    for (Prefetch prefetch : prefetchesByRequester.removeAll(target)) {
+      prefetch.requesters.remove(target);
+      if (prefetch.requesters.isEmpty()) {
+        drop(prefetch);
+      }
+    }
+  }
+
+  private synchronized void drop(Prefetch prefetch) {
+    if (!forget(prefetch)) {
+      return;
+    }
+    prefetch.dropped = true;
+    droppedCount++;
+    if (prefetch.done) {
+      heldBytes -= prefetch.sizeBytes;
+      prefetch.deleteArtifact();
+    }
+    // Whatever was prefetched through this rule won't be needed through it either, unless the rule
+    // is being looked up itself.
+    if (!walkRoots.contains(prefetch.target)) {
+      dropRequestedThrough(prefetch.target);
+    }
+  }
+
+  /** @return whether the prefetch was still outstanding. */
+  private synchronized boolean forget(Prefetch prefetch) {
+    if (prefetchesByRuleKey.get(prefetch.ruleKey) != prefetch) {
+      return false;
+    }
+    prefetchesByRuleKey.remove(prefetch.ruleKey);
+    prefetchesByTarget.remove(prefetch.target);
+    return true;
+  }
+
+  @Nullable
+  private synchronized Prefetch pickUp(RuleKey ruleKey) {
+    Prefetch prefetch = prefetchesByRuleKey.get(ruleKey);
+    if (prefetch == null || !forget(prefetch)) {
+      return null;
+    }
+    prefetch.pickedUp = true;
+    pickedUpCount++;
+    if (prefetch.done) {
+      heldBytes -= prefetch.sizeBytes;
+    }
+    return prefetch;
+  }
+
+  /** Drops all outstanding prefetches. */
+  synchronized void close() {
+    for (Prefetch prefetch : ImmutableList.copyOf(prefetchesByRuleKey.values())) {
+      drop(prefetch);
+    }
+    LOG.debug(
+        "Issued %d prefetches: %d were picked up, %d dropped",
+        issuedCount, pickedUpCount, droppedCount);
+  }
+
+  /**
+   * @return a cache which serves fetches from prefetched artifacts, if there are any, and otherwise
+   *     forwards everything to {@code delegate}.
+   */
+  ArtifactCache withPrefetchedArtifacts(ArtifactCache delegate) {
+    return new PrefetchedArtifactCache(delegate);
+  }
+
+  private static class Prefetch {
+    private final BuildTarget target;
+    private final RuleKey ruleKey;
+    private final LazyPath path;
+    private final Set<BuildTarget> requesters = new HashSet<>();
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+    @Nullable private Path createdPath;
+    private boolean done = false;
+    private boolean pickedUp = false;
+    private boolean dropped = false;
+    private long sizeBytes = 0;
+
+    Prefetch(BuildTarget target, RuleKey ruleKey) {
+      this.target = target;
+      this.ruleKey = ruleKey;
+      this.path =
+          new LazyPath() {
+            @Override
+            protected Path create() throws IOException {
+              createdPath =
+                  Files.createTempFile(
+                      "buck_prefetch_" + MostFiles.sanitize(target.getShortName()), ".zip");
+              return createdPath;
+            }
+          };
+    }
+
+    private boolean isHit() {
+      try {
+        return Futures.getDone(result).getType() == CacheResultType.HIT;
+      } catch (ExecutionException | CancellationException e) {
+        return false;
+      }
+    }
+
+    private void deleteArtifact() {
+      if (createdPath == null) {
+        return;
+      }
+      try {
+        Files.deleteIfExists(createdPath);
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to delete the prefetched artifact of %s", target);
+      }
+    }
+  }
+
+  private class PrefetchedArtifactCache implements ArtifactCache, CacheDecorator {
+    private final ArtifactCache delegate;
+
+    private PrefetchedArtifactCache(ArtifactCache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      Prefetch prefetch = pickUp(ruleKey);
+      if (prefetch == null) {
+        return delegate.fetchAsync(target, ruleKey, output);
+      }
+      return Futures.catchingAsync(
+          Futures.transformAsync(
+              prefetch.result,
+              result -> {
+                if (result.getType() == CacheResultType.HIT) {
+                  Files.move(
+                      prefetch.path.get(), output.get(), StandardCopyOption.REPLACE_EXISTING);
+                  return Futures.immediateFuture(result);
+                }
+                prefetch.deleteArtifact();
+                if (result.getType() == CacheResultType.MISS) {
+                  return Futures.immediateFuture(result);
+                }
+                // Errors may be transient, so give the cache another chance.
+                return delegate.fetchAsync(target, ruleKey, output);
+              },
+              MoreExecutors.directExecutor()),
+          Exception.class,
+          e -> {
+            LOG.debug(e, "Failed to use the prefetched artifact of %s", prefetch.target);
+            return delegate.fetchAsync(target, ruleKey, output);
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void skipPendingAndFutureAsyncFetches() {
+      delegate.skipPendingAndFutureAsyncFetches();
+    }
+
+    @Override
+    public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+      return delegate.store(info, output);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+        ImmutableSet<RuleKey> ruleKeys) {
+      return delegate.multiContainsAsync(ruleKeys);
+    }
+
+    @Override
+    public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+      return delegate.deleteAsync(ruleKeys);
+    }
+
+    @Override
+    public CacheReadMode getCacheReadMode() {
+      return delegate.getCacheReadMode();
+    }
+
+    @Override
+    public ArtifactCache getDelegate() {
+      return delegate;
+    }
+
+    @Override
+    public void close() {
+      // The delegate is owned by whoever created it.
+    }
+  }
+}
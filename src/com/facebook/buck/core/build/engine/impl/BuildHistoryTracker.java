@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.engine.buildinfo.BuildHistoryStore;
+import com.facebook.buck.core.build.engine.buildinfo.BuildRuleHistory;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.perf.ProcessTracker.ProcessResourceConsumptionEvent;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.math.LongMath;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Records how much time, CPU and memory rules take to build locally in the {@link
+ * BuildHistoryStore}, and estimates from it the resources rules need in later builds.
+ *
+ * <p>The CPU time and peak RSS of the processes run by a rule come from the {@link
+ * ProcessResourceConsumptionEvent}s of the process tracker, which are attributed to rules through
+ * the context of their process executors. Without the process tracker, only the CPU time spent on
+ * the build thread is known, and a CPU time of 0 means none was measured. Builds are written out by
+ * {@link #flush()}, once the events of their processes have had a chance to arrive.
+ */
+class BuildHistoryTracker {
+  private static final Logger LOG = Logger.get(BuildHistoryTracker.class);
+
+  private final Function<BuildRule, BuildHistoryStore> stores;
+
+  private final ConcurrentMap<BuildTarget, Optional<BuildRuleHistory>> histories =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildRule, BuildRuleHistory> latestBuilds =
+      new ConcurrentHashMap<>();
+  // Keyed by the fully qualified name of the rule which ran the processes.
+  private final ConcurrentMap<String, Long> processCpuTimesMs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Long> processPeakRssBytes = new ConcurrentHashMap<>();
+
+  BuildHistoryTracker(Function<BuildRule, BuildHistoryStore> stores) {
+    this.stores = stores;
+  }
+
+  /** @return the history of {@code rule} as of the start of this build. */
+  Optional<BuildRuleHistory> getHistory(BuildRule rule) {
+    return histories.computeIfAbsent(
+        rule.getBuildTarget(), target -> stores.apply(rule).readHistory(target));
+  }
+
+  /**
+   * @return the resources {@code rule} used in earlier builds, or {@code configuredAmounts} for
+   *     those which weren't measured. Disk and network IO are never measured.
+   */
+  ResourceAmounts estimateResourceAmounts(BuildRule rule, ResourceAmounts configuredAmounts) {
+    if (configuredAmounts.equals(ResourceAmounts.zero())) {
+      return configuredAmounts;
+    }
+    Optional<BuildRuleHistory> history = getHistory(rule);
+    if (!history.isPresent()) {
+      return configuredAmounts;
+    }
+    BuildRuleHistory buildRuleHistory = history.get();
+    int cpu = configuredAmounts.getCpu();
+    if (buildRuleHistory.getCpuTimeMs() > 0 && buildRuleHistory.getWallTimeMs() > 0) {
+      cpu =
+          toInt(
+              Math.max(
+                  1,
+                  LongMath.divide(
+                      buildRuleHistory.getCpuTimeMs(),
+                      buildRuleHistory.getWallTimeMs(),
+                      RoundingMode.HALF_UP)));
+    }
+    int memory = configuredAmounts.getMemory();
+    if (buildRuleHistory.getPeakRssBytes() > 0) {
+      memory =
+          toInt(
+              LongMath.divide(
+                  buildRuleHistory.getPeakRssBytes(),
+                  ResourceAmountsEstimator.MEMORY_UNIT_BYTES,
+                  RoundingMode.CEILING));
+    }
+    return ResourceAmounts.of(
+        cpu, memory, configuredAmounts.getDiskIO(), configuredAmounts.getNetworkIO());
+  }
+
+  /**
+   * Called when {@code rule} has been built successfully.
+   *
+   * @param threadCpuTimeMs the user and system CPU time the steps spent on the build thread, or 0
+   *     if it wasn't measured.
+   */
+  void recordBuild(BuildRule rule, RuleKey ruleKey, long wallTimeMs, long threadCpuTimeMs) {
+    latestBuilds.put(
+        rule, BuildRuleHistory.of(ruleKey.toString(), wallTimeMs, threadCpuTimeMs, 0, 1));
+  }
+
+  @Subscribe
+  public void processResourceConsumption(ProcessResourceConsumptionEvent event) {
+    if (!event.getContext().isPresent() || !event.getResourceConsumption().isPresent()) {
+      return;
+    }
+    String target = event.getContext().get().get(CachingBuildEngine.BUILD_TARGET_CONTEXT_KEY);
+    if (target == null) {
+      return;
+    }
+    ProcessResourceConsumption consumption = event.getResourceConsumption().get();
+    processCpuTimesMs.merge(target, consumption.getCpuTotal(), Long::sum);
+    processPeakRssBytes.merge(target, consumption.getMemResident(), Math::max);
+  }
+
+  /** Writes the builds recorded so far to the history stores of their rules. */
+  void flush() {
+    Map<BuildHistoryStore, Map<BuildTarget, BuildRuleHistory>> buildsByStore = new HashMap<>();
+    for (BuildRule rule : latestBuilds.keySet()) {
+      BuildRuleHistory build = latestBuilds.remove(rule);
+      String target = rule.getFullyQualifiedName();
+      Long processCpuTimeMs = processCpuTimesMs.remove(target);
+      Long peakRssBytes = processPeakRssBytes.remove(target);
+      buildsByStore
+          .computeIfAbsent(stores.apply(rule), store -> new HashMap<>())
+          .put(
+              rule.getBuildTarget(),
+              BuildRuleHistory.of(
+                  build.getRuleKey(),
+                  build.getWallTimeMs(),
+                  build.getCpuTimeMs() + (processCpuTimeMs == null ? 0 : processCpuTimeMs),
+                  peakRssBytes == null ? 0 : peakRssBytes,
+                  1));
+    }
+    buildsByStore.forEach(
+        (store, builds) -> {
+          try {
+            store.recordBuilds(builds);
+          } catch (IOException e) {
+            LOG.warn(e, "Failed to record the history of %d rules.", builds.size());
+          }
+        });
+  }
+
+  private static int toInt(long amount) {
+    return (int) Math.min(amount, Integer.MAX_VALUE);
+  }
+}
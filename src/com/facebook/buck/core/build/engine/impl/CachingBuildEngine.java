@@ -29,13 +29,16 @@ import com.facebook.buck.core.build.engine.RuleDepsCache;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
+import com.facebook.buck.core.build.engine.buildinfo.BuildRuleHistory;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
+import com.facebook.buck.core.build.event.CriticalPathPredictionEvent;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
 import com.facebook.buck.core.model.BuildTarget;
@@ -46,6 +49,7 @@ import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
@@ -70,6 +74,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -88,6 +93,8 @@ import javax.annotation.Nullable;
  * tries to fetch its output from an {@link ArtifactCache} to avoid doing any computation.
  */
 public class CachingBuildEngine implements BuildEngine, Closeable {
+  private static final Logger LOG = Logger.get(CachingBuildEngine.class);
+
   public static final ResourceAmounts CACHE_CHECK_RESOURCE_AMOUNTS = ResourceAmounts.of(0, 0, 1, 1);
 
   public static final ResourceAmounts RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS =
@@ -97,6 +104,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   static final String BUILD_RULE_TYPE_CONTEXT_KEY = "build_rule_type";
   static final String STEP_TYPE_CONTEXT_KEY = "step_type";
+  static final String BUILD_TARGET_CONTEXT_KEY = "build_target";
   private final ConcurrentLinkedQueue<ListenableFuture<Unit>> asyncCallbacks;
 
   enum StepType {
@@ -127,6 +135,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final BuildRuleResolver resolver;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final int artifactCompressionLevel;
   private final FileHashCache fileHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
@@ -144,6 +153,14 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final Optional<BuildRuleStrategy> customBuildRuleStrategy;
 
+  private final Optional<BuildCachePrefetcher> cachePrefetcher;
+
+  private final Optional<CriticalPathPrioritizer> criticalPathPrioritizer;
+
+  private final Optional<BuildHistoryTracker> buildHistoryTracker;
+  // The event bus the build history tracker listens to process resource consumption on.
+  private final AtomicReference<BuckEventBus> buildHistoryEventBus = new AtomicReference<>();
+
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
       Optional<BuildRuleStrategy> customBuildRuleStrategy,
@@ -152,6 +169,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      int artifactCompressionLevel,
+      int cachePrefetchDepth,
+      long cachePrefetchMaxBytes,
+      boolean criticalPathScheduling,
+      boolean buildHistory,
       BuildRuleResolver resolver,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -167,6 +189,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        artifactCompressionLevel,
+        cachePrefetchDepth,
+        cachePrefetchMaxBytes,
+        criticalPathScheduling,
+        buildHistory,
         resolver,
         buildInfoStoreManager,
         actionToBuildRuleResolver,
@@ -195,6 +222,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      int artifactCompressionLevel,
+      int cachePrefetchDepth,
+      long cachePrefetchMaxBytes,
+      boolean criticalPathScheduling,
+      boolean buildHistory,
       BuildRuleResolver resolver,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
@@ -211,6 +243,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactCompressionLevel = artifactCompressionLevel;
     this.resolver = resolver;
     this.targetConfigurationSerializer = targetConfigurationSerializer;
 
@@ -220,6 +253,21 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.buildInfoStoreManager = buildInfoStoreManager;
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver, actionToBuildRuleResolver);
+    this.cachePrefetcher =
+        cachePrefetchDepth > 0
+            ? Optional.of(
+                new BuildCachePrefetcher(cachePrefetchDepth, cachePrefetchMaxBytes, ruleDeps))
+            : Optional.empty();
+    this.buildHistoryTracker =
+        buildHistory
+            ? Optional.of(
+                new BuildHistoryTracker(
+                    rule -> buildInfoStoreManager.getHistoryStore(rule.getProjectFilesystem())))
+            : Optional.empty();
+    this.criticalPathPrioritizer =
+        criticalPathScheduling
+            ? Optional.of(new CriticalPathPrioritizer(this::getPreviousBuildDurationMillis))
+            : Optional.empty();
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
@@ -245,6 +293,14 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       }
       terminateBuildWithFailure(new CancellationException("Cancelling due to engine shutdown."));
       Futures.allAsList(asyncCallbacks).get();
+      cachePrefetcher.ifPresent(BuildCachePrefetcher::close);
+      if (buildHistoryTracker.isPresent()) {
+        BuckEventBus eventBus = buildHistoryEventBus.getAndSet(null);
+        if (eventBus != null) {
+          eventBus.unregister(buildHistoryTracker.get());
+        }
+        buildHistoryTracker.get().flush();
+      }
     } catch (InterruptedException e) {
       e.printStackTrace();
     } catch (IOException | ExecutionException e) {
@@ -257,6 +313,24 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return ruleKeyCalculator;
   }
 
+  private Optional<Long> getPreviousBuildDurationMillis(BuildRule rule) {
+    if (buildHistoryTracker.isPresent()) {
+      return buildHistoryTracker.get().getHistory(rule).map(BuildRuleHistory::getWallTimeMs);
+    }
+    return buildInfoStoreManager
+        .get(rule.getProjectFilesystem())
+        .readMetadata(rule.getBuildTarget(), BuildInfo.MetadataKey.BUILD_DURATION_MS)
+        .flatMap(
+            durationMs -> {
+              try {
+                return Optional.of(Long.parseLong(durationMs));
+              } catch (NumberFormatException e) {
+                LOG.debug(e, "Invalid build duration recorded for %s", rule.getBuildTarget());
+                return Optional.empty();
+              }
+            });
+  }
+
   /**
    * We have a lot of places where tasks are submitted into a service implicitly. There is no way to
    * assign custom weights to such tasks. By creating a temporary service with adjusted weights it
@@ -308,6 +382,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   // Dispatch and return a future resolving to a list of all results of this rules dependencies.
   private ListenableFuture<List<BuildResult>> getDepResults(
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
+    criticalPathPrioritizer.ifPresent(
+        prioritizer -> prioritizer.registerDeps(rule, rule.getBuildDeps()));
     List<ListenableFuture<BuildResult>> depResults =
         new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
     for (BuildRule dep : shuffled(rule.getBuildDeps())) {
@@ -444,11 +520,87 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    if (buildHistoryTracker.isPresent()
+        && buildHistoryEventBus.compareAndSet(null, buildContext.getEventBus())) {
+      buildContext.getEventBus().register(buildHistoryTracker.get());
+    }
+    criticalPathPrioritizer.ifPresent(prioritizer -> prioritizer.registerTopLevelRule(rule));
     ListenableFuture<BuildResult> resultFuture =
-        getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+        materializeDeferredOutputs(
+            rule, getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext));
+    criticalPathPrioritizer.ifPresent(
+        prioritizer ->
+            resultFuture.addListener(
+                () ->
+                    buildContext
+                        .getEventBus()
+                        .post(
+                            CriticalPathPredictionEvent.of(
+                                prioritizer.getPredictedCriticalPath())),
+                MoreExecutors.directExecutor()));
     return BuildEngine.BuildEngineResult.of(resultFuture);
   }
 
+  /**
+   * Writes the outputs of a top-level rule, and those of its runtime deps, to disk once it's built,
+   * if they were deferred.
+   */
+  private ListenableFuture<BuildResult> materializeDeferredOutputs(
+      BuildRule rule, ListenableFuture<BuildResult> resultFuture) {
+    return Futures.transformAsync(
+        resultFuture,
+        result -> {
+          if (!result.isSuccess() || cachingBuildEngineDelegate.getDeferredOutputs().isEmpty()) {
+            return Futures.immediateFuture(result);
+          }
+          return Futures.catching(
+              Futures.transform(
+                  materializeDeferredOutputsForRunning(rule),
+                  ignored -> result,
+                  MoreExecutors.directExecutor()),
+              Throwable.class,
+              thrown -> BuildResult.failure(rule, thrown),
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Writes the deferred outputs of {@code rule} and of its transitive runtime deps to disk, which
+   * is everything needed to run it.
+   */
+  private ListenableFuture<Unit> materializeDeferredOutputsForRunning(BuildRule rule) {
+    DeferredOutputs deferredOutputs = cachingBuildEngineDelegate.getDeferredOutputs();
+    List<ListenableFuture<Unit>> materializations = new ArrayList<>();
+    Set<BuildRule> seen = new HashSet<>();
+    List<BuildRule> toVisit = Lists.newArrayList(rule);
+    while (!toVisit.isEmpty()) {
+      BuildRule current = toVisit.remove(toVisit.size() - 1);
+      if (seen.add(current)) {
+        materializations.add(deferredOutputs.materialize(current.getBuildTarget()));
+        toVisit.addAll(ruleDeps.getRuntimeDeps(current));
+      }
+    }
+    return Futures.transform(
+        Futures.allAsList(materializations), ignored -> Unit.UNIT, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Writes the deferred outputs of the deps of {@code rule} to disk, so that its steps can read them
+   * when it's built locally.
+   */
+  private ListenableFuture<Unit> materializeDeferredInputs(BuildRule rule) {
+    if (cachingBuildEngineDelegate.getDeferredOutputs().isEmpty()) {
+      return Futures.immediateFuture(Unit.UNIT);
+    }
+    List<ListenableFuture<Unit>> materializations = new ArrayList<>();
+    for (BuildRule dep : ruleDeps.get(rule)) {
+      materializations.add(materializeDeferredOutputsForRunning(dep));
+    }
+    return Futures.transform(
+        Futures.allAsList(materializations), ignored -> Unit.UNIT, MoreExecutors.directExecutor());
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
@@ -480,10 +632,27 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                 ruleKeyFactories.getDefaultRuleKeyFactory().build(rule).toString())
             .addBuildMetadata(BuildInfo.MetadataKey.BUILD_ID, buildContext.getBuildId().toString());
     BuildableContext buildableContext = new DefaultBuildableContext(buildInfoRecorder);
+    BuildEngineBuildContext ruleBuildContext = buildContext;
+    if (cachePrefetcher.isPresent()) {
+      ruleBuildContext =
+          buildContext.withArtifactCache(
+              cachePrefetcher.get().withPrefetchedArtifacts(buildContext.getArtifactCache()));
+      // Fetch the deps while this rule looks itself up in the cache, in case it misses.
+      serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS)
+          .execute(
+              () ->
+                  cachePrefetcher
+                      .get()
+                      .prefetchDeps(
+                          rule,
+                          buildContext.getArtifactCache(),
+                          dep -> getRuleKeyToPrefetch(dep, buildContext)));
+    }
     CachingBuildRuleBuilder cachingBuildRuleBuilder =
         new CachingBuildRuleBuilder(
             new DefaultBuildRuleBuilderDelegate(this, buildContext),
             artifactCacheSizeLimit,
+            artifactCompressionLevel,
             buildInfoStoreManager,
             buildMode,
             buildRuleDurationTracker,
@@ -499,7 +668,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             service,
             this.ruleDeps,
             rule,
-            buildContext,
+            ruleBuildContext,
             executionContext,
             onDiskBuildInfo,
             buildInfoRecorder,
@@ -522,12 +691,64 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
           CachingBuildRuleBuilder removed = liveRuleBuilders.remove(rule.getBuildTarget());
           Preconditions.checkState(
               removed != null, "rule builder must be removed once: %s", rule.getBuildTarget());
+          cachePrefetcher.ifPresent(prefetcher -> prefetcher.release(rule.getBuildTarget()));
+          criticalPathPrioritizer.ifPresent(
+              prioritizer ->
+                  cachingBuildRuleBuilder
+                      .getBuildDurationMillis()
+                      .ifPresent(
+                          durationMs ->
+                              prioritizer.recordActualDuration(
+                                  rule.getBuildTarget(), durationMs)));
+          if (buildHistoryTracker.isPresent() && isSuccessfulBuild(future)) {
+            // The duration is only known if the rule was built, rather than fetched or skipped.
+            cachingBuildRuleBuilder
+                .getBuildDurationMillis()
+                .ifPresent(
+                    durationMs ->
+                        buildHistoryTracker
+                            .get()
+                            .recordBuild(
+                                rule,
+                                ruleKeyFactories.getDefaultRuleKeyFactory().build(rule),
+                                durationMs,
+                                cachingBuildRuleBuilder.getStepsThreadCpuTimeMillis().orElse(0L)));
+          }
         },
         MoreExecutors.directExecutor());
 
     return future;
   }
 
+  private static boolean isSuccessfulBuild(ListenableFuture<BuildResult> future) {
+    try {
+      return Futures.getDone(future).isSuccess();
+    } catch (ExecutionException | CancellationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the default rule key of {@code rule}, unless it is already being built or its outputs
+   *     are up to date, in which case it is not worth prefetching.
+   */
+  private Optional<RuleKey> getRuleKeyToPrefetch(
+      BuildRule rule, BuildEngineBuildContext buildContext) {
+    if (!rule.isCacheable() || results.containsKey(rule.getBuildTarget())) {
+      return Optional.empty();
+    }
+    RuleKey ruleKey = ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(),
+            rule.getProjectFilesystem(),
+            buildInfoStoreManager.get(rule.getProjectFilesystem()));
+    if (ruleKey.equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null))) {
+      return Optional.empty();
+    }
+    return Optional.of(ruleKey);
+  }
+
   public static class DefaultBuildRuleBuilderDelegate
       implements CachingBuildRuleBuilder.BuildRuleBuilderDelegate {
     private final CachingBuildEngine cachingBuildEngine;
@@ -570,5 +791,40 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public DeferredOutputs getDeferredOutputs() {
+      return cachingBuildEngine.cachingBuildEngineDelegate.getDeferredOutputs();
+    }
+
+    @Override
+    public ListenableFuture<Unit> materializeDeferredInputs(BuildRule rule) {
+      return cachingBuildEngine.materializeDeferredInputs(rule);
+    }
+
+    @Override
+    public long getRulePriority(BuildRule rule) {
+      return cachingBuildEngine
+          .criticalPathPrioritizer
+          .map(prioritizer -> prioritizer.getPriority(rule))
+          .orElse(0L);
+    }
+
+    @Override
+    public boolean shouldRecordBuildDuration() {
+      // Build history keeps durations in its own store, so only plain critical-path scheduling
+      // reads them back from the rule metadata.
+      return cachingBuildEngine.criticalPathPrioritizer.isPresent()
+          && !cachingBuildEngine.buildHistoryTracker.isPresent();
+    }
+
+    @Override
+    public ResourceAmounts getRuleResourceAmounts(
+        BuildRule rule, ResourceAmounts configuredAmounts) {
+      return cachingBuildEngine
+          .buildHistoryTracker
+          .map(tracker -> tracker.estimateResourceAmounts(rule, configuredAmounts))
+          .orElse(configuredAmounts);
+    }
   }
 }
@@ -43,6 +43,7 @@ import com.facebook.buck.core.build.engine.cache.manager.ManifestRuleKeyManager;
 import com.facebook.buck.core.build.engine.cache.manager.ManifestRuleKeyService;
 import com.facebook.buck.core.build.engine.cache.manager.ManifestRuleKeyServiceFactory;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine.StepType;
 import com.facebook.buck.core.build.engine.manifest.ManifestFetchResult;
 import com.facebook.buck.core.build.engine.manifest.ManifestStoreResult;
@@ -99,9 +100,11 @@ import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.types.Either;
 import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
@@ -111,7 +114,10 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -120,6 +126,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import javax.annotation.Nonnull;
@@ -164,6 +171,10 @@ class CachingBuildRuleBuilder {
   @Nullable private volatile Pair<Long, Long> inputRuleKeyCacheCheckTimestampsMillis = null;
   @Nullable private volatile Pair<Long, Long> manifestRuleKeyCacheCheckTimestampsMillis = null;
   @Nullable private volatile Pair<Long, Long> buildTimestampsMillis = null;
+  // How long the steps of the rule took to run, excluding the time spent waiting for a thread.
+  @Nullable private volatile Long stepsDurationMillis = null;
+  // The user and system CPU time the steps of the rule spent on the thread that ran them.
+  @Nullable private volatile Long stepsThreadCpuTimeMillis = null;
 
   // This is used to mark that we've invalidated cached state that is no longer valid if this rule's
   // outputs change. When we finish the rule, we verify that that invalidation has happened if this
@@ -192,6 +203,7 @@ class CachingBuildRuleBuilder {
   public CachingBuildRuleBuilder(
       BuildRuleBuilderDelegate buildRuleBuilderDelegate,
       Optional<Long> artifactCacheSizeLimit,
+      int artifactCompressionLevel,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildType buildMode,
       BuildRuleDurationTracker buildRuleDurationTracker,
@@ -305,7 +317,8 @@ class CachingBuildRuleBuilder {
             manifestRuleKeyManager,
             eventBus,
             artifactCache,
-            artifactCacheSizeLimit);
+            artifactCacheSizeLimit,
+            artifactCompressionLevel);
     this.customBuildRuleStrategy = customBuildRuleStrategy;
   }
 
@@ -720,9 +733,33 @@ class CachingBuildRuleBuilder {
       }
     }
 
+    // Remember the outputs which haven't been written to disk, so that the next build doesn't
+    // consider the rule up to date unless they have been since.
+    ImmutableSet<Path> deferredOutputs =
+        buildRuleBuilderDelegate.getDeferredOutputs().getDeferredPaths(rule.getBuildTarget());
+    if (!deferredOutputs.isEmpty()) {
+      getBuildInfoRecorder()
+          .addBuildMetadata(
+              BuildInfo.MetadataKey.DEFERRED_OUTPUTS,
+              ObjectMappers.WRITER.writeValueAsString(
+                  deferredOutputs.stream()
+                      .map(path -> rule.getProjectFilesystem().relativize(path).toString())
+                      .sorted()
+                      .collect(ImmutableList.toImmutableList())));
+    }
+
     // Make sure the origin field is filled in.
     getBuildInfoRecorder()
         .addBuildMetadata(BuildInfo.MetadataKey.ORIGIN_BUILD_ID, buildId.toString());
+    // Remember how long the rule took to build, to schedule it in later builds.
+    if (buildRuleBuilderDelegate.shouldRecordBuildDuration()) {
+      getBuildDurationMillis()
+          .ifPresent(
+              durationMs ->
+                  getBuildInfoRecorder()
+                      .addBuildMetadata(
+                          BuildInfo.MetadataKey.BUILD_DURATION_MS, String.valueOf(durationMs)));
+    }
     // Make sure that all of the local files have the same values they would as if the
     // rule had been built locally.
     getBuildInfoRecorder()
@@ -748,6 +785,39 @@ class CachingBuildRuleBuilder {
     }
   }
 
+  /** @return how long it took to build the rule locally, if it was. */
+  Optional<Long> getBuildDurationMillis() {
+    if (stepsDurationMillis != null) {
+      return Optional.of(stepsDurationMillis);
+    }
+    Pair<Long, Long> timestamps = buildTimestampsMillis;
+    if (timestamps == null) {
+      return Optional.empty();
+    }
+    return Optional.of(timestamps.getSecond() - timestamps.getFirst());
+  }
+
+  /**
+   * @return the user and system CPU time the steps of the rule spent on the thread that ran them,
+   *     if they ran locally and the JVM measures thread CPU time. This doesn't include the
+   *     processes they ran.
+   */
+  Optional<Long> getStepsThreadCpuTimeMillis() {
+    return Optional.ofNullable(stepsThreadCpuTimeMillis);
+  }
+
+  /**
+   * @return the user and system CPU time of the current thread, or -1 if it isn't measured. This is
+   *     independent of build.enable_thread_cpu_time, which only controls the timestamps of events.
+   */
+  private static long getCurrentThreadCpuTimeNanos() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!threadMXBean.isCurrentThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled()) {
+      return -1;
+    }
+    return threadMXBean.getCurrentThreadCpuTime();
+  }
+
   private boolean shouldWriteOutputHashes(long outputSize) {
     Optional<Long> sizeLimit = ruleKeyFactories.getInputBasedRuleKeyFactory().getInputSizeLimit();
     return !sizeLimit.isPresent() || (outputSize <= sizeLimit.get());
@@ -813,8 +883,14 @@ class CachingBuildRuleBuilder {
 
         outputHash = hashString.getLeftOption().map(HashCode::fromString);
 
-        // Determine if this is rule is cacheable.
-        if (outputSize.isPresent()) {
+        // Determine if this is rule is cacheable. Outputs which were never written to disk can't
+        // be uploaded, but whoever built them remotely has cached them already.
+        if (!buildRuleBuilderDelegate
+            .getDeferredOutputs()
+            .getDeferredPaths(rule.getBuildTarget())
+            .isEmpty()) {
+          LOG.debug("Not uploading %s to the cache, its outputs were deferred.", rule);
+        } else if (outputSize.isPresent()) {
           shouldUploadToCache =
               buildCacheArtifactUploader.shouldUploadToCache(success, outputSize.get());
         }
@@ -852,10 +928,14 @@ class CachingBuildRuleBuilder {
           public ListenableFuture<Optional<BuildResult>> runWithDefaultBehavior() {
             if (SupportsPipelining.isSupported(rule)
                 && ((SupportsPipelining<?>) rule).useRulePipelining()) {
-              return pipelinesRunner.runPipelineStartingAt(
-                  buildRuleBuildContext, (SupportsPipelining<?>) rule, service);
+              return Futures.transformAsync(
+                  buildRuleBuilderDelegate.materializeDeferredInputs(rule),
+                  ignored ->
+                      pipelinesRunner.runPipelineStartingAt(
+                          buildRuleBuildContext, (SupportsPipelining<?>) rule, service),
+                  MoreExecutors.directExecutor());
             } else {
-              service.submit(buildRuleSteps::runWithDefaultExecutor);
+              buildRuleSteps.runOnceDeferredInputsAreMaterialized(service);
               return buildRuleSteps.future;
             }
           }
@@ -978,6 +1058,7 @@ class CachingBuildRuleBuilder {
 
     // 1. Check if it's already built.
     try (Scope ignored = buildRuleScope()) {
+      discardMetadataIfDeferredOutputsAreMissing();
       Optional<BuildResult> buildResult = checkMatchingLocalKey();
       if (buildResult.isPresent()) {
         return Futures.immediateFuture(buildResult.get());
@@ -1082,7 +1163,8 @@ class CachingBuildRuleBuilder {
                     service
                         // This needs to adjust the default amounts even in the non-resource-aware
                         // scheduling case so that RuleScheduleInfo works correctly.
-                        .withDefaultAmounts(getRuleResourceAmounts())));
+                        .withDefaultAmounts(getRuleResourceAmounts())
+                        .withPriority(buildRuleBuilderDelegate.getRulePriority(rule))));
 
     if (SupportsPipelining.isSupported(rule)) {
       buildResultFuture.addListener(
@@ -1114,11 +1196,46 @@ class CachingBuildRuleBuilder {
               @Override
               public void run() {
                 onRuleAboutToBeBuilt();
+                // The rules of a pipeline run one after the other on the same thread, so the ones
+                // after the first can only wait there for their deferred inputs.
+                try (Scope ignored = LeafEvents.scope(eventBus, "materializing_deferred_inputs")) {
+                  buildRuleBuilderDelegate.materializeDeferredInputs(rule).get();
+                } catch (Throwable t) {
+                  steps.getFuture().setException(t);
+                  return;
+                }
                 steps.runWithDefaultExecutor();
               }
             });
   }
 
+  /**
+   * The outputs of a rule might have been built remotely without ever being written to disk. In
+   * that case its on-disk metadata doesn't describe outputs that exist, so forget it so that none
+   * of the local keys match.
+   */
+  private void discardMetadataIfDeferredOutputsAreMissing() {
+    Optional<String> deferredOutputs =
+        onDiskBuildInfo.getBuildValue(BuildInfo.MetadataKey.DEFERRED_OUTPUTS);
+    if (!deferredOutputs.isPresent()) {
+      return;
+    }
+    try {
+      ImmutableList<String> paths =
+          ObjectMappers.readValue(
+              deferredOutputs.get(), new TypeReference<ImmutableList<String>>() {});
+      for (String path : paths) {
+        if (!rule.getProjectFilesystem().exists(Paths.get(path))) {
+          LOG.debug("Deferred output %s of %s is missing, rebuilding it.", path, rule);
+          onDiskBuildInfo.deleteExistingMetadata();
+          return;
+        }
+      }
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(e, "When checking the outputs of %s.", rule);
+    }
+  }
+
   private Optional<BuildResult> checkMatchingLocalKey() {
     Optional<RuleKey> cachedRuleKey = onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY);
     if (defaultKey.equals(cachedRuleKey.orElse(null))) {
@@ -1244,6 +1361,8 @@ class CachingBuildRuleBuilder {
                   ImmutableMap.of(
                       CachingBuildEngine.BUILD_RULE_TYPE_CONTEXT_KEY,
                       rule.getType(),
+                      CachingBuildEngine.BUILD_TARGET_CONTEXT_KEY,
+                      rule.getFullyQualifiedName(),
                       CachingBuildEngine.STEP_TYPE_CONTEXT_KEY,
                       CachingBuildEngine.StepType.POST_BUILD_STEP.toString()))),
           step,
@@ -1279,7 +1398,8 @@ class CachingBuildRuleBuilder {
 
   private ResourceAmounts getRuleResourceAmounts() {
     if (resourceAwareSchedulingInfo.isResourceAwareSchedulingEnabled()) {
-      return resourceAwareSchedulingInfo.getResourceAmountsForRule(rule);
+      return buildRuleBuilderDelegate.getRuleResourceAmounts(
+          rule, resourceAwareSchedulingInfo.getResourceAmountsForRule(rule));
     } else {
       return getResourceAmountsForRuleWithCustomScheduleInfo();
     }
@@ -1373,6 +1493,8 @@ class CachingBuildRuleBuilder {
                   ImmutableMap.of(
                       CachingBuildEngine.BUILD_RULE_TYPE_CONTEXT_KEY,
                       rule.getType(),
+                      CachingBuildEngine.BUILD_TARGET_CONTEXT_KEY,
+                      rule.getFullyQualifiedName(),
                       CachingBuildEngine.STEP_TYPE_CONTEXT_KEY,
                       StepType.BUILD_STEP.toString())));
     }
@@ -1381,6 +1503,27 @@ class CachingBuildRuleBuilder {
       return future;
     }
 
+    /**
+     * Runs the steps on {@code service} once the deferred outputs of the dependencies of the rule
+     * are on disk, without holding on to one of its threads while they are being downloaded.
+     */
+    public void runOnceDeferredInputsAreMaterialized(ListeningExecutorService service) {
+      Futures.addCallback(
+          buildRuleBuilderDelegate.materializeDeferredInputs(rule),
+          new FutureCallback<Unit>() {
+            @Override
+            public void onSuccess(Unit result) {
+              service.submit(BuildRuleSteps.this::runWithDefaultExecutor);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              future.setException(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
     public void runWithDefaultExecutor() {
       try {
         if (!shouldKeepGoing()) {
@@ -1391,8 +1534,14 @@ class CachingBuildRuleBuilder {
           LOG.debug("Building locally: %s", rule);
           // Attempt to get an approximation of how long it takes to actually run the command.
           long start = System.nanoTime();
+          long cpuStart = getCurrentThreadCpuTimeNanos();
           executeCommands(ruleExecutionContext, buildRuleBuildContext, buildableContext);
           long end = System.nanoTime();
+          long cpuEnd = getCurrentThreadCpuTimeNanos();
+          stepsDurationMillis = TimeUnit.NANOSECONDS.toMillis(end - start);
+          if (cpuStart >= 0 && cpuEnd >= cpuStart) {
+            stepsThreadCpuTimeMillis = TimeUnit.NANOSECONDS.toMillis(cpuEnd - cpuStart);
+          }
           LOG.debug(
               "Build completed: %s %s (%dns)",
               rule.getType(), rule.getFullyQualifiedName(), end - start);
@@ -1455,5 +1604,29 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Unit> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    /** @return the outputs of rules which were built without being written to disk. */
+    DeferredOutputs getDeferredOutputs();
+
+    /**
+     * Writes the deferred outputs of the deps of the rule to disk, before it's built locally.
+     *
+     * @return a future which completes once they're all on disk.
+     */
+    ListenableFuture<Unit> materializeDeferredInputs(BuildRule rule);
+
+    /** @return the priority with which the steps of the rule should wait for resources. */
+    long getRulePriority(BuildRule rule);
+
+    /**
+     * @return whether the time it took to build a rule should be stored in its metadata, so that
+     *     later builds can schedule it on the critical path.
+     */
+    boolean shouldRecordBuildDuration();
+
+    /**
+     * @return the resources the steps of the rule should acquire, given those configured for it.
+     */
+    ResourceAmounts getRuleResourceAmounts(BuildRule rule, ResourceAmounts configuredAmounts);
   }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.event.CriticalPathPredictionEvent;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.collect.ImmutableList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Computes the priority with which rules are built: the predicted length of the longest path from
+ * a rule up to a top level rule, including the rule itself.
+ *
+ * <p>Durations are predicted from how long rules took in earlier builds. Rules are discovered top
+ * down, as their dependents request them, so a rule's priority only accounts for the dependents
+ * discovered so far. That is all of them in the common case where the rule is built after all of
+ * its dependents missed the cache.
+ */
+class CriticalPathPrioritizer {
+
+  private final Function<BuildRule, Optional<Long>> durationHistory;
+
+  private final ConcurrentMap<BuildTarget, Long> predictedDurations = new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildTarget, Long> actualDurations = new ConcurrentHashMap<>();
+  // Guarded by this.
+  private final Map<BuildTarget, RemainingPath> remainingPaths = new HashMap<>();
+
+  /**
+   * @param durationHistory how long a rule took to build the last time it was built, in
+   *     milliseconds, if known. Rules with no history are predicted to take no time.
+   */
+  CriticalPathPrioritizer(Function<BuildRule, Optional<Long>> durationHistory) {
+    this.durationHistory = durationHistory;
+  }
+
+  void registerTopLevelRule(BuildRule rule) {
+    update(rule, 0, null);
+  }
+
+  /** Called when {@code rule} needs {@code deps} to be built. */
+  void registerDeps(BuildRule rule, Iterable<BuildRule> deps) {
+    long remainingPathMs = getPriority(rule);
+    for (BuildRule dep : deps) {
+      update(dep, remainingPathMs, rule.getBuildTarget());
+    }
+  }
+
+  /** @return the priority of {@code rule}: rules with higher priorities should be built first. */
+  long getPriority(BuildRule rule) {
+    RemainingPath remainingPath;
+    synchronized (this) {
+      remainingPath = remainingPaths.get(rule.getBuildTarget());
+    }
+    return remainingPath == null ? predictDuration(rule) : remainingPath.lengthMs;
+  }
+
+  void recordActualDuration(BuildTarget target, long durationMs) {
+    actualDurations.put(target, durationMs);
+  }
+
+  /** @return the longest predicted path of the build, from the bottom of the graph up. */
+  synchronized ImmutableList<CriticalPathPredictionEvent.Node> getPredictedCriticalPath() {
+    RemainingPath longest = null;
+    for (RemainingPath remainingPath : remainingPaths.values()) {
+      if (longest == null || remainingPath.lengthMs > longest.lengthMs) {
+        longest = remainingPath;
+      }
+    }
+    ImmutableList.Builder<CriticalPathPredictionEvent.Node> criticalPath = ImmutableList.builder();
+    for (RemainingPath current = longest;
+        current != null;
+        current = current.dependent == null ? null : remainingPaths.get(current.dependent)) {
+      criticalPath.add(
+          new CriticalPathPredictionEvent.Node(
+              current.target,
+              current.predictedDurationMs,
+              Optional.ofNullable(actualDurations.get(current.target))));
+    }
+    return criticalPath.build();
+  }
+
+  private void update(BuildRule rule, long remainingAboveMs, @Nullable BuildTarget dependent) {
+    long predictedDurationMs = predictDuration(rule);
+    long lengthMs = predictedDurationMs + remainingAboveMs;
+    synchronized (this) {
+      RemainingPath existing = remainingPaths.get(rule.getBuildTarget());
+      if (existing == null || existing.lengthMs < lengthMs) {
+        remainingPaths.put(
+            rule.getBuildTarget(),
+            new RemainingPath(rule.getBuildTarget(), lengthMs, predictedDurationMs, dependent));
+      }
+    }
+  }
+
+  private long predictDuration(BuildRule rule) {
+    return predictedDurations.computeIfAbsent(
+        rule.getBuildTarget(), target -> durationHistory.apply(rule).orElse(0L));
+  }
+
+  private static class RemainingPath {
+    private final BuildTarget target;
+    private final long lengthMs;
+    private final long predictedDurationMs;
+    // The next rule up the path, or null if this is a top level rule.
+    @Nullable private final BuildTarget dependent;
+
+    RemainingPath(
+        BuildTarget target,
+        long lengthMs,
+        long predictedDurationMs,
+        @Nullable BuildTarget dependent) {
+      this.target = target;
+      this.lengthMs = lengthMs;
+      this.predictedDurationMs = predictedDurationMs;
+      this.dependent = dependent;
+    }
+  }
+}
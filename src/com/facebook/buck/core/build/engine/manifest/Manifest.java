@@ -27,6 +27,7 @@ import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
@@ -40,18 +41,42 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
+/**
+ * Maps the hashes of the inputs that a rule actually used to the dep file rule keys they resulted
+ * in, so that a rule can be fetched from the cache without knowing its dep file up front.
+ *
+ * <p>Inputs and hashes are deduplicated between entries, and each entry is a sorted array of hash
+ * indices. Entries also keep a small bloom filter of their hash indices, which lets {@link #lookup}
+ * skip an entry as soon as one of the hashes it needs is known not to match, without going through
+ * the entry. Manifests with thousands of inputs and hundreds of entries are common for C++ rules.
+ *
+ * <p>The serialized form is streamed in a single pass: inputs are front coded, hashes are kept as
+ * raw bytes and hash indices are delta coded variable length ints.
+ */
 public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  private static final int VERSION = 1;
+
+  /** The version written before hashes and indices were stored in a compact form. */
+  private static final int LEGACY_VERSION = 0;
+
+  /** Roughly 8 bits per hash index, for a false positive rate of about 5% with two probes. */
+  private static final int FILTER_HASH_INDICES_PER_WORD = 8;
+
+  private static final byte HASH_UNKNOWN = 0;
+  private static final byte HASH_MATCHES = 1;
+  private static final byte HASH_DIFFERS = 2;
 
   private final RuleKey key;
 
@@ -62,6 +87,7 @@ public class Manifest {
   private final Map<HashCode, Integer> hashIndices;
 
   @VisibleForTesting final List<Pair<RuleKey, int[]>> entries;
+  private final List<long[]> entryFilters;
 
   /** Create an empty manifest. */
   public Manifest(RuleKey key) {
@@ -71,6 +97,7 @@ public class Manifest {
     hashes = new ArrayList<>();
     hashIndices = new HashMap<>();
     entries = new ArrayList<>();
+    entryFilters = new ArrayList<>();
   }
 
   /** Deserialize an existing manifest from the given {@link InputStream}. */
@@ -79,43 +106,60 @@ public class Manifest {
 
     // Verify the manifest version.
     int version = input.readInt();
-    Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+    Preconditions.checkState(
+        version == VERSION || version == LEGACY_VERSION,
+        "invalid version: %s != %s",
+        version,
+        VERSION);
+    boolean legacy = version == LEGACY_VERSION;
 
     key = new RuleKey(input.readUTF());
 
-    int numberOfHeaders = input.readInt();
+    int numberOfHeaders = legacy ? input.readInt() : readVarInt(input);
     LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
     inputs = new ArrayList<>(numberOfHeaders);
     inputIndices = new HashMap<>(numberOfHeaders);
+    String previousInput = "";
     for (int index = 0; index < numberOfHeaders; index++) {
-      String inputName = input.readUTF();
+      String inputName =
+          legacy
+              ? input.readUTF()
+              : previousInput.substring(0, readVarInt(input)).concat(input.readUTF());
       inputs.add(inputName);
       inputIndices.put(inputName, index);
+      previousInput = inputName;
     }
 
-    int numberOfHashes = input.readInt();
+    int numberOfHashes = legacy ? input.readInt() : readVarInt(input);
     LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
     hashes = new ArrayList<>(numberOfHashes);
     hashIndices = new HashMap<>(numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
-      int inputIndex = input.readInt();
-      HashCode inputHash = HashCode.fromString(input.readUTF());
+      int inputIndex = legacy ? input.readInt() : readVarInt(input);
+      HashCode inputHash = legacy ? HashCode.fromString(input.readUTF()) : readHashCode(input);
       hashes.add(new Pair<>(inputIndex, inputHash));
       hashIndices.put(inputHash, index);
     }
 
-    int numberOfEntries = input.readInt();
+    int numberOfEntries = legacy ? input.readInt() : readVarInt(input);
     LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
     entries = new ArrayList<>(numberOfEntries);
+    entryFilters = new ArrayList<>(numberOfEntries);
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
-      int numberOfEntryHashes = input.readInt();
+      int numberOfEntryHashes = legacy ? input.readInt() : readVarInt(input);
       int[] entryHashes = new int[numberOfEntryHashes];
+      int previousHashIndex = 0;
       for (int hashIndex = 0; hashIndex < numberOfEntryHashes; hashIndex++) {
-        entryHashes[hashIndex] = input.readInt();
+        if (legacy) {
+          entryHashes[hashIndex] = input.readInt();
+        } else {
+          previousHashIndex += readVarInt(input);
+          entryHashes[hashIndex] = previousHashIndex;
+        }
       }
-      RuleKey key = new RuleKey(input.readUTF());
+      RuleKey key = legacy ? new RuleKey(input.readUTF()) : new RuleKey(readHashCode(input));
       LOG.verbose("%s: loaded entry for dep file rule key %s", this.key, key);
-      entries.add(new Pair<>(key, entryHashes));
+      addEntry(key, entryHashes);
     }
   }
 
@@ -142,6 +186,38 @@ public class Manifest {
     return hashIndex;
   }
 
+  /** Records an entry, taking ownership of {@code hashIndices}. */
+  @VisibleForTesting
+  void addEntry(RuleKey key, int[] hashIndices) {
+    Arrays.sort(hashIndices);
+    long[] filter = new long[hashIndices.length / FILTER_HASH_INDICES_PER_WORD + 1];
+    for (int hashIndex : hashIndices) {
+      long mixed = hashIndex * 0x9E3779B97F4A7C15L;
+      setBit(filter, (int) (mixed >>> 32));
+      setBit(filter, (int) mixed);
+    }
+    entries.add(new Pair<>(key, hashIndices));
+    entryFilters.add(filter);
+  }
+
+  private static void setBit(long[] filter, int hash) {
+    int bit = Math.floorMod(hash, filter.length * Long.SIZE);
+    filter[bit / Long.SIZE] |= 1L << bit;
+  }
+
+  private static boolean isBitSet(long[] filter, int hash) {
+    int bit = Math.floorMod(hash, filter.length * Long.SIZE);
+    return (filter[bit / Long.SIZE] & (1L << bit)) != 0;
+  }
+
+  /** @return whether the entry definitely contains the hash index. */
+  private static boolean entryContains(long[] filter, int[] hashIndices, int hashIndex) {
+    long mixed = hashIndex * 0x9E3779B97F4A7C15L;
+    return isBitSet(filter, (int) (mixed >>> 32))
+        && isBitSet(filter, (int) mixed)
+        && Arrays.binarySearch(hashIndices, hashIndex) >= 0;
+  }
+
   /** Hash the files pointed to by the source paths. */
   @VisibleForTesting
   static HashCode hashSourcePathGroup(
@@ -179,33 +255,6 @@ public class Manifest {
         resolver.getRelativePath(archivePath.getArchiveSourcePath()), archivePath.getMemberPath());
   }
 
-  private boolean hashesMatch(
-      FileHashLoader fileHashLoader,
-      SourcePathResolverAdapter resolver,
-      ImmutableListMultimap<String, SourcePath> universe,
-      int[] hashIndices)
-      throws IOException {
-    for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String input = inputs.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(input);
-      if (candidates.isEmpty()) {
-        return false;
-      }
-      HashCode onDiskHeaderHash;
-      try {
-        onDiskHeaderHash = hashSourcePathGroup(fileHashLoader, resolver, candidates);
-      } catch (NoSuchFileException e) {
-        return false;
-      }
-      HashCode inputHash = hashEntry.getSecond();
-      if (!inputHash.equals(onDiskHeaderHash)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
   /**
    * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
    *     fileHashLoader}.
@@ -215,31 +264,73 @@ public class Manifest {
       SourcePathResolverAdapter resolver,
       ImmutableSet<SourcePath> universe)
       throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(inputs.get(hashes.get(hashIndex).getFirst()));
-      }
-    }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
-
     // Create a multimap from paths we care about to SourcePaths that maps to them.
     ImmutableListMultimap<String, SourcePath> mappedUniverse =
         index(
             universe,
             path -> sourcePathToManifestHeader(path, resolver),
-            interestingPaths::contains);
+            inputIndices::containsKey);
+
+    // Each input is hashed at most once, and only when an entry that isn't already known to
+    // differ needs it.
+    byte[] hashStates = new byte[hashes.size()];
+    HashCode[] onDiskHashes = new HashCode[inputs.size()];
+    boolean[] inputsHashed = new boolean[inputs.size()];
+    int[] differingHashes = new int[hashes.size()];
+    int numberOfDifferingHashes = 0;
 
     // Find a matching entry.
-    for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
-        return Optional.of(entry.getFirst());
+    entries:
+    for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+      Pair<RuleKey, int[]> entry = entries.get(entryIndex);
+      long[] filter = entryFilters.get(entryIndex);
+      for (int i = 0; i < numberOfDifferingHashes; i++) {
+        if (entryContains(filter, entry.getSecond(), differingHashes[i])) {
+          continue entries;
+        }
+      }
+      for (int hashIndex : entry.getSecond()) {
+        if (hashStates[hashIndex] == HASH_UNKNOWN) {
+          Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
+          int inputIndex = hashEntry.getFirst();
+          if (!inputsHashed[inputIndex]) {
+            onDiskHashes[inputIndex] =
+                hashInput(fileHashLoader, resolver, mappedUniverse.get(inputs.get(inputIndex)));
+            inputsHashed[inputIndex] = true;
+          }
+          if (hashEntry.getSecond().equals(onDiskHashes[inputIndex])) {
+            hashStates[hashIndex] = HASH_MATCHES;
+          } else {
+            hashStates[hashIndex] = HASH_DIFFERS;
+            differingHashes[numberOfDifferingHashes++] = hashIndex;
+          }
+        }
+        if (hashStates[hashIndex] == HASH_DIFFERS) {
+          continue entries;
+        }
       }
+      return Optional.of(entry.getFirst());
     }
     return Optional.empty();
   }
 
+  /** @return the on disk hash of an input, or null if it's not in the universe or on disk. */
+  @Nullable
+  private static HashCode hashInput(
+      FileHashLoader fileHashLoader,
+      SourcePathResolverAdapter resolver,
+      ImmutableList<SourcePath> candidates)
+      throws IOException {
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    try {
+      return hashSourcePathGroup(fileHashLoader, resolver, candidates);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
   private static String sourcePathToManifestHeader(
       SourcePath input, SourcePathResolverAdapter resolver) {
     return sourcePathToManifestPathKey(input, resolver).toString();
@@ -286,7 +377,7 @@ public class Manifest {
       hashIndices[index++] =
           addHash(relativePath.toString(), hashSourcePathGroup(fileHashLoader, resolver, paths));
     }
-    entries.add(new Pair<>(key, hashIndices));
+    addEntry(key, hashIndices);
   }
 
   /** Serializes the manifest to the given {@link OutputStream}. */
@@ -297,25 +388,68 @@ public class Manifest {
 
     output.writeUTF(key.toString());
 
-    output.writeInt(inputs.size());
+    // Inputs are mostly headers from a handful of directories, so only write what differs from
+    // the previous one.
+    writeVarInt(output, inputs.size());
+    String previousInput = "";
     for (String input : inputs) {
-      output.writeUTF(input);
+      int commonPrefix = Strings.commonPrefix(previousInput, input).length();
+      writeVarInt(output, commonPrefix);
+      output.writeUTF(input.substring(commonPrefix));
+      previousInput = input;
     }
 
-    output.writeInt(hashes.size());
+    writeVarInt(output, hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
-      output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      writeVarInt(output, hash.getFirst());
+      writeHashCode(output, hash.getSecond());
     }
 
-    output.writeInt(entries.size());
+    writeVarInt(output, entries.size());
     for (Pair<RuleKey, int[]> entry : entries) {
-      output.writeInt(entry.getSecond().length);
+      writeVarInt(output, entry.getSecond().length);
+      int previousHashIndex = 0;
       for (int hashIndex : entry.getSecond()) {
-        output.writeInt(hashIndex);
+        writeVarInt(output, hashIndex - previousHashIndex);
+        previousHashIndex = hashIndex;
+      }
+      writeHashCode(output, entry.getFirst().getHashCode());
+    }
+  }
+
+  private static void writeHashCode(DataOutputStream output, HashCode hashCode)
+      throws IOException {
+    byte[] bytes = hashCode.asBytes();
+    writeVarInt(output, bytes.length);
+    output.write(bytes);
+  }
+
+  private static HashCode readHashCode(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[readVarInt(input)];
+    input.readFully(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  /** Writes a non-negative int in as few bytes as possible, 7 bits at a time. */
+  private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+    Preconditions.checkArgument(value >= 0, "negative value: %s", value);
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+      byte b = input.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
       }
-      output.writeUTF(entry.getFirst().toString());
     }
+    throw new IOException("malformed variable length int");
   }
 
   public int size() {
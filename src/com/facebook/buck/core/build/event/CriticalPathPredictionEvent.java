@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.event;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.google.common.collect.ImmutableList;
+import java.util.Optional;
+
+/**
+ * The critical path that the build engine predicted from the durations of rules in earlier builds,
+ * and used to decide which rules to run first, along with how long its rules actually took.
+ *
+ * <p>Posted each time a top level rule finishes, so the last one covers the whole build.
+ */
+public class CriticalPathPredictionEvent extends AbstractBuckEvent {
+
+  private final ImmutableList<Node> criticalPath;
+
+  private CriticalPathPredictionEvent(ImmutableList<Node> criticalPath) {
+    super(EventKey.unique());
+    this.criticalPath = criticalPath;
+  }
+
+  public static CriticalPathPredictionEvent of(ImmutableList<Node> criticalPath) {
+    return new CriticalPathPredictionEvent(criticalPath);
+  }
+
+  /** @return the rules on the predicted critical path, from the bottom of the graph up. */
+  public ImmutableList<Node> getCriticalPath() {
+    return criticalPath;
+  }
+
+  /** @return the predicted duration of the critical path. */
+  public long getPredictedDurationMs() {
+    return criticalPath.stream().mapToLong(Node::getPredictedDurationMs).sum();
+  }
+
+  /**
+   * @return how long the rules on the predicted critical path took to build. Rules which weren't
+   *     built locally, e.g. because they were fetched from the cache, count as taking no time.
+   */
+  public long getActualDurationMs() {
+    return criticalPath.stream().mapToLong(node -> node.getActualDurationMs().orElse(0L)).sum();
+  }
+
+  @Override
+  public String getEventName() {
+    return CriticalPathPredictionEvent.class.getSimpleName();
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format(
+        "%d rules, predicted %dms, took %dms",
+        criticalPath.size(), getPredictedDurationMs(), getActualDurationMs());
+  }
+
+  /** A rule on the predicted critical path. */
+  public static class Node {
+    private final BuildTarget buildTarget;
+    private final long predictedDurationMs;
+    private final Optional<Long> actualDurationMs;
+
+    public Node(
+        BuildTarget buildTarget, long predictedDurationMs, Optional<Long> actualDurationMs) {
+      this.buildTarget = buildTarget;
+      this.predictedDurationMs = predictedDurationMs;
+      this.actualDurationMs = actualDurationMs;
+    }
+
+    public BuildTarget getBuildTarget() {
+      return buildTarget;
+    }
+
+    public long getPredictedDurationMs() {
+      return predictedDurationMs;
+    }
+
+    /** @return how long the rule took to build, if it was built locally. */
+    public Optional<Long> getActualDurationMs() {
+      return actualDurationMs;
+    }
+  }
+}
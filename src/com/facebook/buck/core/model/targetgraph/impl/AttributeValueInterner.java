@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.targetgraph.impl;
+
+import com.facebook.buck.core.model.UnconfiguredBuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Ordering;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Deduplicates the attribute values of {@link ImmutableUnconfiguredTargetNode}s, which the daemon
+ * keeps for every target of every parsed package. The parser also uses it to share the values that
+ * configurable attributes resolve to between target configurations.
+ *
+ * <p>Most of those values are strings, build targets and small lists which are repeated across
+ * many targets, like labels, licenses and dependencies on common libraries. Equal strings and
+ * collections are replaced by a single daemon-wide instance, held weakly so that it goes away with
+ * the last node using it. {@link UnconfiguredBuildTarget}s are interned when they are created.
+ *
+ * <p>Only collections whose equality takes the iteration order into account, down to the
+ * collections they contain, are interned, so that a set or a map can never be replaced by an equal
+ * one which iterates in a different order, even inside a list. Elements of other collections are
+ * interned, and the collection is rebuilt only when an element was replaced. Values of other types
+ * are kept as they are.
+ */
+public final class AttributeValueInterner {
+
+  /** Larger collections are rarely repeated and expensive to hash, so they are not interned. */
+  private static final int MAX_INTERNED_COLLECTION_SIZE = 32;
+
+  @SuppressWarnings("unchecked")
+  private static final Ordering<Object> NATURAL_ORDER =
+      (Ordering<Object>) (Ordering<?>) Ordering.natural();
+
+  private static final Interner<String> STRING_INTERNER = Interners.newWeakInterner();
+  private static final Interner<ImmutableList<?>> LIST_INTERNER = Interners.newWeakInterner();
+  private static final Interner<ImmutableSortedSet<?>> SORTED_SET_INTERNER =
+      Interners.newWeakInterner();
+  private static final Interner<ImmutableSortedMap<?, ?>> SORTED_MAP_INTERNER =
+      Interners.newWeakInterner();
+
+  private AttributeValueInterner() {}
+
+  /** @return {@code attributes} with interned keys and values. */
+  static ImmutableMap<String, Object> internAttributes(ImmutableMap<String, Object> attributes) {
+    ImmutableMap.Builder<String, Object> builder =
+        ImmutableMap.builderWithExpectedSize(attributes.size());
+    for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+      builder.put(STRING_INTERNER.intern(attribute.getKey()), intern(attribute.getValue()));
+    }
+    return builder.build();
+  }
+
+  /** @return an interned list of build targets. */
+  @SuppressWarnings("unchecked")
+  static ImmutableList<UnconfiguredBuildTarget> internTargets(
+      ImmutableList<UnconfiguredBuildTarget> targets) {
+    return (ImmutableList<UnconfiguredBuildTarget>) intern(targets);
+  }
+
+  /** @return a value equal to {@code value}, shared with other attributes when possible. */
+  public static Object intern(Object value) {
+    if (value instanceof String) {
+      return STRING_INTERNER.intern((String) value);
+    }
+    if (value instanceof ImmutableList) {
+      return internList((ImmutableList<?>) value);
+    }
+    if (value instanceof ImmutableSortedSet) {
+      return internSortedSet((ImmutableSortedSet<?>) value);
+    }
+    if (value instanceof ImmutableSet) {
+      return internElements((ImmutableSet<?>) value);
+    }
+    if (value instanceof ImmutableSortedMap) {
+      return internSortedMap((ImmutableSortedMap<?, ?>) value);
+    }
+    if (value instanceof ImmutableMap) {
+      return internEntries((ImmutableMap<?, ?>) value);
+    }
+    if (value instanceof Optional) {
+      Optional<?> optional = (Optional<?>) value;
+      if (optional.isPresent()) {
+        Object element = intern(optional.get());
+        return element == optional.get() ? optional : Optional.of(element);
+      }
+    }
+    return value;
+  }
+
+  private static ImmutableList<?> internList(ImmutableList<?> list) {
+    if (list.size() > MAX_INTERNED_COLLECTION_SIZE) {
+      return list;
+    }
+    ImmutableList<Object> elements = internAll(list);
+    ImmutableList<?> interned = elements == null ? list : elements;
+    return equalityImpliesOrder(interned) ? LIST_INTERNER.intern(interned) : interned;
+  }
+
+  private static ImmutableSortedSet<?> internSortedSet(ImmutableSortedSet<?> set) {
+    if (set.size() > MAX_INTERNED_COLLECTION_SIZE
+        || !NATURAL_ORDER.equals(set.comparator())) {
+      return set;
+    }
+    ImmutableList<Object> elements = internAll(set);
+    ImmutableSortedSet<?> interned =
+        elements == null ? set : ImmutableSortedSet.copyOf(NATURAL_ORDER, elements);
+    return equalityImpliesOrder(interned) ? SORTED_SET_INTERNER.intern(interned) : interned;
+  }
+
+  private static ImmutableSet<?> internElements(ImmutableSet<?> set) {
+    ImmutableList<Object> elements = internAll(set);
+    return elements == null ? set : ImmutableSet.copyOf(elements);
+  }
+
+  private static ImmutableSortedMap<?, ?> internSortedMap(ImmutableSortedMap<?, ?> map) {
+    if (map.size() > MAX_INTERNED_COLLECTION_SIZE
+        || !NATURAL_ORDER.equals(map.comparator())) {
+      return map;
+    }
+    ImmutableMap<?, ?> entries = internEntries(map);
+    ImmutableSortedMap<?, ?> interned =
+        entries == map ? map : ImmutableSortedMap.copyOf(entries, NATURAL_ORDER);
+    return equalityImpliesOrder(interned) ? SORTED_MAP_INTERNER.intern(interned) : interned;
+  }
+
+  /**
+   * @return whether values equal to {@code value} iterate in the same order as it, which isn't the
+   *     case if it contains a map or a set which isn't sorted by the natural order.
+   */
+  private static boolean equalityImpliesOrder(Object value) {
+    if (value instanceof ImmutableSortedSet) {
+      ImmutableSortedSet<?> set = (ImmutableSortedSet<?>) value;
+      return NATURAL_ORDER.equals(set.comparator()) && allImplyOrder(set);
+    }
+    if (value instanceof ImmutableSortedMap) {
+      ImmutableSortedMap<?, ?> map = (ImmutableSortedMap<?, ?>) value;
+      return NATURAL_ORDER.equals(map.comparator())
+          && allImplyOrder(map.keySet())
+          && allImplyOrder(map.values());
+    }
+    if (value instanceof List) {
+      return allImplyOrder((List<?>) value);
+    }
+    if (value instanceof Optional) {
+      Optional<?> optional = (Optional<?>) value;
+      return !optional.isPresent() || equalityImpliesOrder(optional.get());
+    }
+    return !(value instanceof Collection || value instanceof Map);
+  }
+
+  private static boolean allImplyOrder(Iterable<?> values) {
+    for (Object value : values) {
+      if (!equalityImpliesOrder(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static ImmutableMap<?, ?> internEntries(ImmutableMap<?, ?> map) {
+    ImmutableList<Object> keys = internAll(map.keySet());
+    ImmutableList<Object> values = internAll(map.values());
+    if (keys == null && values == null) {
+      return map;
+    }
+    ImmutableMap.Builder<Object, Object> builder = ImmutableMap.builderWithExpectedSize(map.size());
+    int index = 0;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      builder.put(
+          keys == null ? entry.getKey() : keys.get(index),
+          values == null ? entry.getValue() : values.get(index));
+      index++;
+    }
+    return builder.build();
+  }
+
+  /** @return the interned elements, or {@code null} if all of them were already interned. */
+  @Nullable
+  private static ImmutableList<Object> internAll(Iterable<?> elements) {
+    ImmutableList.Builder<Object> builder = ImmutableList.builder();
+    boolean changed = false;
+    for (Object element : elements) {
+      Object interned = intern(element);
+      changed |= interned != element;
+      builder.add(interned);
+    }
+    return changed ? builder.build() : null;
+  }
+}
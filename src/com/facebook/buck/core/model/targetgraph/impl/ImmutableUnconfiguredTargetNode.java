@@ -63,6 +63,10 @@ public abstract class ImmutableUnconfiguredTargetNode implements UnconfiguredTar
   @JsonProperty("compatibleWith")
   public abstract ImmutableList<UnconfiguredBuildTarget> getCompatibleWith();
 
+  /**
+   * Creates a node whose attribute values and {@code compatible_with} targets are shared with
+   * equal values of other nodes, see {@link AttributeValueInterner}.
+   */
   public static UnconfiguredTargetNode of(
       UnconfiguredBuildTarget buildTarget,
       RuleType ruleType,
@@ -74,10 +78,10 @@ public abstract class ImmutableUnconfiguredTargetNode implements UnconfiguredTar
     return ImmutableImmutableUnconfiguredTargetNode.of(
         buildTarget,
         ruleType,
-        attributes,
+        AttributeValueInterner.internAttributes(attributes),
         visibilityPatterns,
         withinViewPatterns,
         defaultTargetPlatform,
-        compatibleWith);
+        AttributeValueInterner.internTargets(compatibleWith));
   }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.parser;
+
+import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.files.DirectoryList;
+import com.facebook.buck.core.files.DirectoryListComputation;
+import com.facebook.buck.core.files.DirectoryListKey;
+import com.facebook.buck.core.graph.transformation.GraphTransformationEngine;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Discovers packages below a folder by walking its directory tree in parallel, reporting every
+ * package as soon as its build file is found rather than once the whole tree has been listed like
+ * {@link BuildTargetPatternToBuildPackagePathComputation} does. This lets callers start parsing the
+ * first packages while the rest of the tree is still being walked.
+ *
+ * <p>Each folder is walked by its own fork-join task, so idle threads steal the subtrees left by
+ * busy ones. Folders are listed with {@link DirectoryListComputation} through the given {@link
+ * GraphTransformationEngine}, so listings are cached and invalidated like those used to compute
+ * file trees. Tasks wait for listings as {@link ForkJoinPool.ManagedBlocker}s, so that the pool
+ * can start other threads to keep walking meanwhile.
+ *
+ * <p>Walkers with the same parallelism share a pool, whose threads are only kept while walks are
+ * running.
+ */
+public class ParallelBuildPackageWalker {
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+  private final ForkJoinPool pool;
+
+  /** @param parallelism how many folders to list at once, like the number of parsing threads */
+  public ParallelBuildPackageWalker(int parallelism) {
+    this.pool = POOLS.computeIfAbsent(Math.max(1, parallelism), ForkJoinPool::new);
+  }
+
+  /**
+   * Walks {@code basePath} and reports the packages found below it, in no particular order.
+   *
+   * @param engine an engine which can compute {@link DirectoryListKey}s
+   * @param basePath path of the folder to walk, relative to the root of the cell
+   * @param buildFileName name of the build file which makes a folder a package, like 'BUCK'
+   * @param packageRootConsumer called with the relative path of each package, possibly from many
+   *     threads at once
+   */
+  public void walk(
+      GraphTransformationEngine engine,
+      Path basePath,
+      String buildFileName,
+      Consumer<Path> packageRootConsumer) {
+    pool.invoke(new WalkDirectoryAction(engine, basePath, buildFileName, packageRootConsumer));
+  }
+
+  private static class WalkDirectoryAction extends RecursiveAction {
+    private final GraphTransformationEngine engine;
+    private final Path directory;
+    private final String buildFileName;
+    private final Consumer<Path> packageRootConsumer;
+
+    WalkDirectoryAction(
+        GraphTransformationEngine engine,
+        Path directory,
+        String buildFileName,
+        Consumer<Path> packageRootConsumer) {
+      this.engine = engine;
+      this.directory = directory;
+      this.buildFileName = buildFileName;
+      this.packageRootConsumer = packageRootConsumer;
+    }
+
+    @Override
+    protected void compute() {
+      DirectoryListBlocker blocker = new DirectoryListBlocker(engine, directory);
+      try {
+        ForkJoinPool.managedBlock(blocker);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new BuckUncheckedExecutionException(e, "When listing %s.", directory);
+      }
+      DirectoryList dirList = Objects.requireNonNull(blocker.dirList);
+
+      // Like FileTreeFileNameIterator, assume that a symlink with the name of the build file is
+      // a build file, as a folder with that name would be an error anyway.
+      Path buildFile = directory.resolve(buildFileName);
+      if (dirList.getFiles().contains(buildFile) || dirList.getSymlinks().contains(buildFile)) {
+        packageRootConsumer.accept(directory);
+      }
+
+      List<WalkDirectoryAction> subdirectories = new ArrayList<>(dirList.getDirectories().size());
+      for (Path subdirectory : dirList.getDirectories()) {
+        subdirectories.add(
+            new WalkDirectoryAction(engine, subdirectory, buildFileName, packageRootConsumer));
+      }
+      invokeAll(subdirectories);
+    }
+  }
+
+  /** Lists a folder, which may have to wait for the engine to compute the listing. */
+  private static class DirectoryListBlocker implements ForkJoinPool.ManagedBlocker {
+    private final GraphTransformationEngine engine;
+    private final Path directory;
+    @Nullable private DirectoryList dirList;
+
+    DirectoryListBlocker(GraphTransformationEngine engine, Path directory) {
+      this.engine = engine;
+      this.directory = directory;
+    }
+
+    @Override
+    public boolean block() {
+      dirList = engine.computeUnchecked(DirectoryListKey.of(directory));
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return dirList != null;
+    }
+  }
+}
@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import javax.annotation.Nonnull;
 
@@ -47,6 +48,8 @@ public class ParallelRuleKeyCalculator<T> {
   private final BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope;
 
   private final ConcurrentMap<BuildTarget, ListenableFuture<T>> ruleKeys = Maps.newConcurrentMap();
+  private final LongAdder recomputedCount = new LongAdder();
+  private final LongAdder reusedCount = new LongAdder();
 
   public ParallelRuleKeyCalculator(
       ListeningExecutorService service,
@@ -81,6 +84,7 @@ public class ParallelRuleKeyCalculator<T> {
 
     T fromInternalCache = ruleKeyFactory.getFromCache(rule);
     if (fromInternalCache != null) {
+      reusedCount.increment();
       // Record the rule key future.
       future.set(fromInternalCache);
       // Because a rule key will be invalidated from the internal cache any time one of its
@@ -108,6 +112,7 @@ public class ParallelRuleKeyCalculator<T> {
         Futures.transform(
             depKeys,
             (List<T> input) -> {
+              recomputedCount.increment();
               try (Scope scope = ruleKeyCalculationScope.apply(buckEventBus, rule)) {
                 return ruleKeyFactory.build(rule);
               } catch (Exception e) {
@@ -121,6 +126,19 @@ public class ParallelRuleKeyCalculator<T> {
     return future;
   }
 
+  /** @return the number of rule keys which weren't in the rule key cache, and were calculated. */
+  public long getRecomputedCount() {
+    return recomputedCount.sum();
+  }
+
+  /**
+   * @return the number of rule keys found in the rule key cache, e.g. because none of their inputs
+   *     changed since an earlier build. The deps of these rules aren't visited, so aren't counted.
+   */
+  public long getReusedCount() {
+    return reusedCount.sum();
+  }
+
   public Set<BuildTarget> getAllKnownTargets() {
     return ruleKeys.keySet();
   }
@@ -99,6 +99,40 @@ public interface RuleKeyCalculationEvent extends LeafEvent, WorkAdvanceEvent {
     }
   }
 
+  /**
+   * Posted when a build is done with rule keys: how many of them had to be calculated, and how many
+   * were reused from the rule key cache of earlier builds because none of their inputs changed.
+   */
+  class Totals extends AbstractBuckEvent {
+
+    private final long recomputedCount;
+    private final long reusedCount;
+
+    public Totals(long recomputedCount, long reusedCount) {
+      super(EventKey.unique());
+      this.recomputedCount = recomputedCount;
+      this.reusedCount = reusedCount;
+    }
+
+    public long getRecomputedCount() {
+      return recomputedCount;
+    }
+
+    public long getReusedCount() {
+      return reusedCount;
+    }
+
+    @Override
+    public String getEventName() {
+      return RuleKeyCalculationEvent.class.getSimpleName() + "Totals";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("recomputed %d, reused %d", recomputedCount, reusedCount);
+    }
+  }
+
   static Scope scope(BuckEventBus buckEventBus, Type type, BuildTarget target) {
     EventKey eventKey = EventKey.unique();
     buckEventBus.post(new DefaultStarted(eventKey, type, target));
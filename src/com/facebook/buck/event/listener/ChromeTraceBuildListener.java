@@ -21,6 +21,7 @@ import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.core.build.event.BuildEvent;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
+import com.facebook.buck.core.build.event.CriticalPathPredictionEvent;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.BuildTarget;
@@ -335,6 +336,38 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     }
   }
 
+  @Subscribe
+  public void criticalPathPredicted(CriticalPathPredictionEvent event) {
+    writeChromeTraceEvent(
+        "critical_path",
+        "predicted_critical_path",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "rules",
+            event.getCriticalPath().stream()
+                .map(node -> node.getBuildTarget().getFullyQualifiedName())
+                .collect(Collectors.joining(" -> ")),
+            "predicted_ms",
+            event.getPredictedDurationMs(),
+            "actual_ms",
+            event.getActualDurationMs()),
+        event);
+  }
+
+  @Subscribe
+  public void ruleKeyCalculationTotals(RuleKeyCalculationEvent.Totals totals) {
+    writeChromeTraceEvent(
+        "buck",
+        "rule_keys",
+        ChromeTraceEvent.Phase.COUNTER,
+        ImmutableMap.of(
+            "recomputed",
+            Long.toString(totals.getRecomputedCount()),
+            "reused",
+            Long.toString(totals.getReusedCount())),
+        totals);
+  }
+
   @Subscribe
   public void buildStarted(BuildEvent.Started started) {
     writeChromeTraceEvent(
@@ -472,6 +505,20 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  @Subscribe
+  public void buildFilesDiscovered(ParseEvent.BuildFilesDiscovered discovered) {
+    writeChromeTraceEvent(
+        "buck",
+        "build_files_discovered",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "build_files", discovered.getBuildFiles(),
+            "parsed_build_files", discovered.getParsedBuildFiles(),
+            "discovery_time_ms", discovered.getDiscoveryTimeMs(),
+            "parse_overlap_time_ms", discovered.getParseOverlapTimeMs()),
+        discovered);
+  }
+
   @Subscribe
   public void simplePerfEvent(SimplePerfEvent perfEvent) {
     ChromeTraceEvent.Phase phase = null;
@@ -169,6 +169,11 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     writeToLog("ParseFinished", event);
   }
 
+  @Subscribe
+  public void buildFilesDiscovered(ParseEvent.BuildFilesDiscovered event) {
+    writeToLog("BuildFilesDiscovered", event);
+  }
+
   /** @ BuildFinished event handler */
   @Subscribe
   public void buildFinished(BuildEvent.Finished event) {
@@ -17,6 +17,7 @@
 package com.facebook.buck.event.listener;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
+import com.facebook.buck.core.build.event.CriticalPathPredictionEvent;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.test.event.TestRunEvent;
@@ -69,6 +70,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.logging.Level;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /** Console that provides rich, updating ansi output about the current build. */
@@ -131,6 +133,8 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   // way the user can know that their changes, if they made any, were not picked up from Watchman.
   private boolean isZeroFileChanges = false;
 
+  @Nullable private volatile CriticalPathPredictionEvent criticalPathPrediction = null;
+
   private long minimumDurationMillisecondsToShowParse;
   private long minimumDurationMillisecondsToShowActionGraph;
   private long minimumDurationMillisecondsToShowWatchman;
@@ -377,6 +381,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
     getTotalTimeLine(lines);
     showTopSlowBuildRules(lines);
+    showCriticalPathPrediction(lines);
 
     if (totalBuildMs == UNFINISHED_EVENT_PAIR) {
       MultiStateRenderer renderer =
@@ -464,6 +469,19 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  private void showCriticalPathPrediction(ImmutableList.Builder<String> lines) {
+    CriticalPathPredictionEvent prediction = criticalPathPrediction;
+    if (buildFinished == null || prediction == null || prediction.getCriticalPath().isEmpty()) {
+      return;
+    }
+    lines.add(
+        String.format(
+            "  Critical path: %d rules, predicted %s, took %s",
+            prediction.getCriticalPath().size(),
+            formatElapsedTime(prediction.getPredictedDurationMs()),
+            formatElapsedTime(prediction.getActualDurationMs())));
+  }
+
   private void getTotalTimeLine(ImmutableList.Builder<String> lines) {
     if (projectGenerationStarted == null) {
       // project generation never started
@@ -774,6 +792,11 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  @Subscribe
+  public void criticalPathPredicted(CriticalPathPredictionEvent event) {
+    criticalPathPrediction = event;
+  }
+
   @Subscribe
   public void forceRender(@SuppressWarnings("unused") FlushConsoleEvent event) {
     renderingConsole.render();
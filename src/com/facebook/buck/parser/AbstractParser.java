@@ -32,6 +32,7 @@ import com.facebook.buck.core.util.graph.GraphTraversableWithPayloadAndDependenc
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.parser.spec.TargetNodeSpec;
@@ -45,6 +46,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -176,6 +178,25 @@ abstract class AbstractParser implements Parser {
       return TargetGraphCreationResult.of(TargetGraph.EMPTY, toExplore);
     }
 
+    boolean incrementalTargetGraph =
+        state
+            .getParsingContext()
+            .getCell()
+            .getBuckConfigView(ParserConfig.class)
+            .getEnableIncrementalTargetGraph();
+    Optional<TargetGraphCreationResult> previousResult =
+        incrementalTargetGraph ? permState.getLastTargetGraph() : Optional.empty();
+    Optional<ReusableTargetGraph> reusableGraph =
+        previousResult.map(
+            result ->
+                new ReusableTargetGraph(
+                    result.getTargetGraph(),
+                    target ->
+                        state
+                            .lookupComputedTargetNode(target)
+                            .flatMap(TargetNodeMaybeIncompatible::getTargetNodeOptional)));
+    Map<BuildTarget, TargetNode<?>> reusedNodes = new HashMap<>();
+
     MutableDirectedGraph<TargetNode<?>> graph = new MutableDirectedGraph<>();
     Map<BuildTarget, TargetNode<?>> index = new HashMap<>();
     TemporaryUnconfiguredTargetToTargetUniquenessChecker checker =
@@ -186,6 +207,15 @@ abstract class AbstractParser implements Parser {
 
     GraphTraversableWithPayloadAndDependencyStack<BuildTarget, TargetNode<?>> traversable =
         (target, dependencyStack) -> {
+          // Nodes whose dependencies didn't change are copied along with their dependencies from
+          // the previous graph once the traversal is done.
+          Optional<TargetNode<?>> reusableNode =
+              reusableGraph.flatMap(reusable -> reusable.getReusableNode(target));
+          if (reusableNode.isPresent()) {
+            reusedNodes.put(target, reusableNode.get());
+            return new Pair<>(reusableNode.get(), Collections.emptyIterator());
+          }
+
           TargetNode<?> node;
           try {
             TargetNodeMaybeIncompatible nodeMaybe = state.getTargetNode(target, dependencyStack);
@@ -229,6 +259,9 @@ abstract class AbstractParser implements Parser {
       for (Map.Entry<BuildTarget, Pair<TargetNode<?>, DependencyStack>> targetAndNode :
           targetNodeTraversal.traverse(toExplore).entrySet()) {
         BuildTarget target = targetAndNode.getKey();
+        if (reusedNodes.containsKey(target)) {
+          continue;
+        }
         TargetNode<?> targetNode = targetAndNode.getValue().getFirst();
         DependencyStack dependencyStack = targetAndNode.getValue().getSecond();
 
@@ -250,8 +283,23 @@ abstract class AbstractParser implements Parser {
         }
       }
 
+      if (previousResult.isPresent()
+          && previousResult.get().getBuildTargets().equals(toExplore)
+          && reusedNodes.keySet().containsAll(toExplore)) {
+        // The previous graph has the same top level targets, none of whose nodes or transitive
+        // dependencies changed since, so it is the graph being built.
+        targetGraph = previousResult.get().getTargetGraph();
+        return previousResult.get();
+      }
+      reusableGraph.ifPresent(
+          reusable -> reusable.copySubgraphs(reusedNodes.values(), graph, index, checker));
+
       targetGraph = new TargetGraph(graph, ImmutableMap.copyOf(index));
-      return TargetGraphCreationResult.of(targetGraph, toExplore);
+      TargetGraphCreationResult result = TargetGraphCreationResult.of(targetGraph, toExplore);
+      if (incrementalTargetGraph) {
+        permState.setLastTargetGraph(result);
+      }
+      return result;
     } catch (CycleException e) {
       throw new HumanReadableException(e.getMessage());
     } catch (RuntimeException e) {
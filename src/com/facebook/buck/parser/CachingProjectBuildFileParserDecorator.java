@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ForwardingProjectBuildFileParserDecorator;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.cache.impl.ParserCache;
+import com.facebook.buck.parser.exceptions.BuildFileParseException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Serves build files from the {@link ParserCache} when the files they were parsed from haven't
+ * changed, and stores the build files it has to parse in it.
+ *
+ * <p>The delegate has to be able to check glob results with {@link
+ * ProjectBuildFileParser#globResultsMatchCurrentState}.
+ */
+public class CachingProjectBuildFileParserDecorator
+    extends ForwardingProjectBuildFileParserDecorator {
+
+  private final ParserCache parserCache;
+
+  private CachingProjectBuildFileParserDecorator(
+      ProjectBuildFileParser delegate, ParserCache parserCache) {
+    super(delegate);
+    this.parserCache = parserCache;
+  }
+
+  public static CachingProjectBuildFileParserDecorator of(
+      ProjectBuildFileParser delegate, ParserCache parserCache) {
+    return new CachingProjectBuildFileParserDecorator(delegate, parserCache);
+  }
+
+  @Override
+  public BuildFileManifest getManifest(Path buildFile)
+      throws BuildFileParseException, InterruptedException, IOException {
+    Optional<BuildFileManifest> cachedManifest =
+        parserCache.getBuildFileManifest(buildFile, delegate);
+    if (cachedManifest.isPresent()) {
+      return cachedManifest.get();
+    }
+    BuildFileManifest manifest = delegate.getManifest(buildFile);
+    parserCache.storeBuildFileManifest(buildFile, manifest);
+    return manifest;
+  }
+}
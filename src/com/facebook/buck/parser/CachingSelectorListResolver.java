@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.exceptions.DependencyStack;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.TargetConfiguration;
+import com.facebook.buck.core.model.targetgraph.impl.AttributeValueInterner;
+import com.facebook.buck.core.rules.configsetting.ConfigSettingSelectableConfigurationContext;
+import com.facebook.buck.core.select.SelectableConfigurationContext;
+import com.facebook.buck.core.select.SelectorList;
+import com.facebook.buck.core.select.SelectorListResolver;
+import com.facebook.buck.rules.coercer.concat.Concatable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SelectorListResolver} which memoizes the value each select expression resolves to in
+ * each target configuration, so that targets and configurations sharing a select expression only
+ * match its conditions once.
+ *
+ * <p>Resolved values are interned, so that configured nodes share them when they don't depend on
+ * the configuration, like the flags of a target built for several platforms.
+ *
+ * <p>The memoized values outlive this resolver, which is created for every build. They remain valid
+ * as long as the configuration rules and the buck config don't change: the daemon is restarted when
+ * the latter do, and the parser state invalidates the values when the former do.
+ */
+class CachingSelectorListResolver implements SelectorListResolver {
+
+  private final SelectorListResolver delegate;
+  private final ResolvedSelectorLists resolvedSelectorLists;
+
+  CachingSelectorListResolver(
+      SelectorListResolver delegate, ResolvedSelectorLists resolvedSelectorLists) {
+    this.delegate = delegate;
+    this.resolvedSelectorLists = resolvedSelectorLists;
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T resolveList(
+      SelectableConfigurationContext configurationContext,
+      BuildTarget buildTarget,
+      String attributeName,
+      SelectorList<T> selectorList,
+      Concatable<T> concatable,
+      DependencyStack dependencyStack) {
+    if (!(configurationContext instanceof ConfigSettingSelectableConfigurationContext)) {
+      return delegate.resolveList(
+          configurationContext,
+          buildTarget,
+          attributeName,
+          selectorList,
+          concatable,
+          dependencyStack);
+    }
+    Key key =
+        new Key(
+            selectorList,
+            ((ConfigSettingSelectableConfigurationContext) configurationContext)
+                .getTargetConfiguration(),
+            concatable);
+    Optional<Object> value = resolvedSelectorLists.values.getIfPresent(key);
+    if (value == null) {
+      // Failures are not memoized: their messages refer to the target and the attribute.
+      value =
+          Optional.ofNullable(
+                  delegate.resolveList(
+                      configurationContext,
+                      buildTarget,
+                      attributeName,
+                      selectorList,
+                      concatable,
+                      dependencyStack))
+              .map(AttributeValueInterner::intern);
+      resolvedSelectorLists.values.put(key, value);
+    }
+    return (T) value.orElse(null);
+  }
+
+  /** The values select expressions resolved to, shared by the resolvers of a daemon. */
+  static class ResolvedSelectorLists {
+    /** Enough for the select expressions of large multi-platform builds. */
+    private static final int MAX_SIZE = 1_000_000;
+
+    private final Cache<Key, Optional<Object>> values =
+        CacheBuilder.newBuilder().maximumSize(MAX_SIZE).build();
+
+    void invalidateAll() {
+      values.invalidateAll();
+    }
+
+    long size() {
+      return values.size();
+    }
+  }
+
+  /**
+   * A select expression in a target configuration. The way the values of the expression are
+   * concatenated is part of the key, as equal values can be concatenated to different types.
+   */
+  private static class Key {
+    private final SelectorList<?> selectorList;
+    private final TargetConfiguration targetConfiguration;
+    private final Concatable<?> concatable;
+    private final int hashCode;
+
+    Key(
+        SelectorList<?> selectorList,
+        TargetConfiguration targetConfiguration,
+        Concatable<?> concatable) {
+      this.selectorList = selectorList;
+      this.targetConfiguration = targetConfiguration;
+      this.concatable = concatable;
+      this.hashCode = Objects.hash(selectorList, targetConfiguration, concatable);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return hashCode == that.hashCode
+          && concatable == that.concatable
+          && targetConfiguration.equals(that.targetConfiguration)
+          && selectorList.equals(that.selectorList);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
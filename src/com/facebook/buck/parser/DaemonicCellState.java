@@ -28,6 +28,8 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.PackageFileManifest;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.WatchmanGlobIndex;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
 import com.google.common.base.Preconditions;
@@ -46,6 +48,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import javax.annotation.concurrent.GuardedBy;
 
@@ -156,6 +159,13 @@ class DaemonicCellState {
   @GuardedBy("cachesLock")
   private final Set<UnflavoredBuildTarget> allRawNodeTargets;
 
+  /**
+   * Build files whose cached manifest was invalidated since the last call to {@link
+   * #drainInvalidatedBuildFiles()}, which are worth re-parsing before they are requested again.
+   */
+  @GuardedBy("cachesLock")
+  private final Set<AbsPath> invalidatedBuildFiles;
+
   /** Type-safe accessor to one of state caches */
   static class CellCacheType<K, T> {
     private final Function<DaemonicCellState, Cache<K, T>> getCache;
@@ -197,6 +207,12 @@ class DaemonicCellState {
 
   private final Cache<UnconfiguredBuildTarget, UnconfiguredTargetNode> rawTargetNodeCache;
 
+  /** Extensions evaluated by the Skylark parsers of the cell, shared by all of them. */
+  private final SkylarkExtensionCache skylarkExtensionCache;
+
+  /** Files of the cell, used by Skylark parsers to answer globs. */
+  private final WatchmanGlobIndex watchmanGlobIndex;
+
   private final AutoCloseableReadWriteUpdateLock cachesLock;
   private final int parsingThreads;
 
@@ -211,9 +227,12 @@ class DaemonicCellState {
     this.allBuildFileManifests = new ConcurrentMapCache<>(parsingThreads);
     this.allPackageFileManifests = new ConcurrentMapCache<>(parsingThreads);
     this.allRawNodeTargets = new HashSet<>();
+    this.invalidatedBuildFiles = new HashSet<>();
     this.cachesLock = new AutoCloseableReadWriteUpdateLock();
     this.targetNodeCache = new Cache<>(TARGET_NODE_CACHE_TYPE);
     this.rawTargetNodeCache = new Cache<>(RAW_TARGET_NODE_CACHE_TYPE);
+    this.skylarkExtensionCache = new SkylarkExtensionCache();
+    this.watchmanGlobIndex = new WatchmanGlobIndex();
   }
 
   // TODO(mzlee): Only needed for invalidateBasedOn which does not have access to cell metadata
@@ -225,6 +244,14 @@ class DaemonicCellState {
     return cellRoot;
   }
 
+  SkylarkExtensionCache getSkylarkExtensionCache() {
+    return skylarkExtensionCache;
+  }
+
+  WatchmanGlobIndex getWatchmanGlobIndex() {
+    return watchmanGlobIndex;
+  }
+
   public <K, T> Cache<K, T> getCache(CellCacheType<K, T> type) {
     return type.getCache.apply(this);
   }
@@ -240,7 +267,27 @@ class DaemonicCellState {
       BuildFileManifest buildFileManifest,
       ImmutableSet<AbsPath> dependentsOfEveryNode,
       ImmutableMap<String, Optional<String>> env) {
+    return putBuildFileManifestIfNotPresent(
+        buildFile, buildFileManifest, dependentsOfEveryNode, env, () -> false);
+  }
+
+  /**
+   * Like {@link #putBuildFileManifestIfNotPresent(AbsPath, BuildFileManifest, ImmutableSet,
+   * ImmutableMap)}, but doesn't cache the manifest if {@code isStale} is true. It is checked while
+   * no path of this cell can be invalidated, so a manifest which is cached is either still valid or
+   * removed by an invalidation which comes after it.
+   */
+  BuildFileManifest putBuildFileManifestIfNotPresent(
+      AbsPath buildFile,
+      BuildFileManifest buildFileManifest,
+      ImmutableSet<AbsPath> dependentsOfEveryNode,
+      ImmutableMap<String, Optional<String>> env,
+      BooleanSupplier isStale) {
     try (AutoCloseableLock writeLock = cachesLock.writeLock()) {
+      if (isStale.getAsBoolean()) {
+        LOG.debug("Not caching the manifest of %s, which was parsed before it changed", buildFile);
+        return buildFileManifest;
+      }
       BuildFileManifest updated =
           allBuildFileManifests.putIfAbsentAndGet(buildFile, buildFileManifest);
       for (Map<String, Object> node : updated.getTargets().values()) {
@@ -341,6 +388,9 @@ class DaemonicCellState {
       // invalidate the build targets in the manifest.
       int invalidatedRawNodes = invalidateNodesInPath(path, true);
 
+      if (allBuildFileManifests.getIfPresent(path) != null) {
+        invalidatedBuildFiles.add(path);
+      }
       allBuildFileManifests.invalidate(path);
       allPackageFileManifests.invalidate(path);
 
@@ -384,6 +434,18 @@ class DaemonicCellState {
     }
   }
 
+  /**
+   * @return the build files whose cached manifest was invalidated by {@link #invalidatePath} since
+   *     the last call, forgetting about them.
+   */
+  ImmutableSet<AbsPath> drainInvalidatedBuildFiles() {
+    try (AutoCloseableLock writeLock = cachesLock.writeLock()) {
+      ImmutableSet<AbsPath> buildFiles = ImmutableSet.copyOf(invalidatedBuildFiles);
+      invalidatedBuildFiles.clear();
+      return buildFiles;
+    }
+  }
+
   Optional<MapDifference<String, String>> invalidateIfEnvHasChanged(Cell cell, AbsPath buildFile) {
     // Invalidate if env vars have changed.
     ImmutableMap<String, Optional<String>> usedEnv;
@@ -25,6 +25,7 @@ import com.facebook.buck.core.model.BuildFileTree;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.UnconfiguredBuildTarget;
 import com.facebook.buck.core.model.impl.FilesystemBackedBuildFileTree;
+import com.facebook.buck.core.model.targetgraph.TargetGraphCreationResult;
 import com.facebook.buck.core.model.targetgraph.TargetNodeMaybeIncompatible;
 import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
 import com.facebook.buck.core.util.log.Logger;
@@ -33,6 +34,7 @@ import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.counters.TagSetCounter;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ParsingEvent;
+import com.facebook.buck.io.pathformat.PathFormatter;
 import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
@@ -41,6 +43,8 @@ import com.facebook.buck.parser.api.PackageFileManifest;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.WatchmanGlobIndex;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
 import com.google.common.annotations.VisibleForTesting;
@@ -52,6 +56,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
@@ -61,10 +66,12 @@ import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -177,6 +184,16 @@ public class DaemonicParserState {
   private class DaemonicRawCacheView
       implements PipelineNodeCache.Cache<AbsPath, BuildFileManifest> {
 
+    /**
+     * The value of {@link #invalidationCount} when parsing started, if manifests parsed before a
+     * later invalidation must not be cached.
+     */
+    private final OptionalLong parsedAsOfInvalidationCount;
+
+    private DaemonicRawCacheView(OptionalLong parsedAsOfInvalidationCount) {
+      this.parsedAsOfInvalidationCount = parsedAsOfInvalidationCount;
+    }
+
     @Override
     public Optional<BuildFileManifest> lookupComputedNode(
         Cell cell, AbsPath buildFile, BuckEventBus eventBus) throws BuildTargetException {
@@ -231,7 +248,10 @@ public class DaemonicParserState {
               buildFile,
               manifest,
               dependentsOfEveryNode.build(),
-              manifest.getEnv().orElse(ImmutableMap.of()));
+              manifest.getEnv().orElse(ImmutableMap.of()),
+              () ->
+                  parsedAsOfInvalidationCount.isPresent()
+                      && parsedAsOfInvalidationCount.getAsLong() != invalidationCount.get());
     }
   }
 
@@ -353,6 +373,12 @@ public class DaemonicParserState {
 
   private final DaemonicRawCacheView rawNodeCache;
 
+  /**
+   * Incremented before cached state is invalidated, so that manifests parsed in the background
+   * before an invalidation are not cached after it.
+   */
+  private final AtomicLong invalidationCount = new AtomicLong();
+
   private final DaemonicPackageCache packageFileCache;
 
   private final int parsingThreads;
@@ -369,6 +395,13 @@ public class DaemonicParserState {
   private final AutoCloseableReadWriteLock cachedStateLock;
   private final AutoCloseableReadWriteLock cellStateLock;
 
+  /** The last target graph built with this state, which the next ones may reuse parts of. */
+  @Nullable private volatile TargetGraphCreationResult lastTargetGraph;
+
+  /** The values select expressions resolved to, see {@link CachingSelectorListResolver}. */
+  private final CachingSelectorListResolver.ResolvedSelectorLists resolvedSelectorLists =
+      new CachingSelectorListResolver.ResolvedSelectorLists();
+
   public DaemonicParserState(int parsingThreads) {
     this.parsingThreads = parsingThreads;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
@@ -408,7 +441,7 @@ public class DaemonicParserState {
     this.cellPathToDaemonicState =
         new ConcurrentHashMap<>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, parsingThreads);
 
-    this.rawNodeCache = new DaemonicRawCacheView();
+    this.rawNodeCache = new DaemonicRawCacheView(OptionalLong.empty());
     this.packageFileCache = new DaemonicPackageCache();
 
     this.cachedStateLock = new AutoCloseableReadWriteLock();
@@ -447,6 +480,24 @@ public class DaemonicParserState {
     return rawNodeCache;
   }
 
+  /**
+   * @return the number of invalidations of cached state so far, to pass to {@link
+   *     #getRawNodeCacheAsOf(long)}.
+   */
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  /**
+   * @return a view of the cache of build file manifests which drops the manifests put in it after
+   *     cached state was invalidated again, as they may have been parsed from the previous contents
+   *     of the files.
+   */
+  public PipelineNodeCache.Cache<AbsPath, BuildFileManifest> getRawNodeCacheAsOf(
+      long invalidationCount) {
+    return new DaemonicRawCacheView(OptionalLong.of(invalidationCount));
+  }
+
   public PipelineNodeCache.Cache<AbsPath, PackageFileManifest> getPackageFileCache() {
     return packageFileCache;
   }
@@ -456,6 +507,19 @@ public class DaemonicParserState {
     return targetNodeCache;
   }
 
+  /** @return the last target graph built with this state, if it was recorded. */
+  Optional<TargetGraphCreationResult> getLastTargetGraph() {
+    return Optional.ofNullable(lastTargetGraph);
+  }
+
+  void setLastTargetGraph(TargetGraphCreationResult targetGraph) {
+    lastTargetGraph = targetGraph;
+  }
+
+  CachingSelectorListResolver.ResolvedSelectorLists getResolvedSelectorLists() {
+    return resolvedSelectorLists;
+  }
+
   @Nullable
   private DaemonicCellState getCellState(Cell cell) {
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
@@ -463,6 +527,22 @@ public class DaemonicParserState {
     }
   }
 
+  /**
+   * @return the extensions evaluated by the Skylark parsers of {@code cell}, which are kept until
+   *     they change or the cell state is invalidated.
+   */
+  public SkylarkExtensionCache getSkylarkExtensionCache(Cell cell) {
+    return getOrCreateCellState(cell).getSkylarkExtensionCache();
+  }
+
+  /**
+   * @return the index of the files of {@code cell}, which is kept current by file system events
+   *     until the cell state is invalidated.
+   */
+  public WatchmanGlobIndex getWatchmanGlobIndex(Cell cell) {
+    return getOrCreateCellState(cell).getWatchmanGlobIndex();
+  }
+
   private DaemonicCellState getOrCreateCellState(Cell cell) {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
@@ -494,6 +574,8 @@ public class DaemonicParserState {
     RelPath path = event.getPath();
     AbsPath fullPath = event.getCellPath().resolve(event.getPath());
 
+    updateWatchmanGlobIndexes(event);
+
     // We only care about creation and deletion events because modified should result in a
     // rule key change.  For parsing, these are the only events we need to care about.
     if (isPathCreateOrDeleteEvent(event)) {
@@ -540,6 +622,25 @@ public class DaemonicParserState {
     }
   }
 
+  /** Keeps the index of the files of the cell which reported the event current. */
+  private void updateWatchmanGlobIndexes(WatchmanPathEvent event) {
+    if (!isPathCreateOrDeleteEvent(event)) {
+      return;
+    }
+    String path = PathFormatter.pathWithUnixSeparators(event.getPath().getPath());
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      DaemonicCellState state = cellPathToDaemonicState.get(event.getCellPath());
+      if (state == null) {
+        return;
+      }
+      if (event.getKind() == Kind.CREATE) {
+        state.getWatchmanGlobIndex().onFileCreated(path);
+      } else {
+        state.getWatchmanGlobIndex().onFileDeleted(path);
+      }
+    }
+  }
+
   /**
    * Check whether at least one build file in {@link #configurationBuildFiles} depends on the given
    * file.
@@ -630,8 +731,24 @@ public class DaemonicParserState {
 
     // Paths passed in may not be absolute.
     path = state.getCellRoot().resolve(path.getPath());
+    invalidationCount.incrementAndGet();
     int invalidatedNodes = state.invalidatePath(path);
     rulesInvalidatedByWatchEventsCounter.inc(invalidatedNodes);
+    state.getSkylarkExtensionCache().invalidate(path.toString());
+  }
+
+  /**
+   * @return the build files whose cached manifest was invalidated since the last call, by the root
+   *     of their cell
+   */
+  public ImmutableSetMultimap<AbsPath, AbsPath> drainInvalidatedBuildFiles() {
+    ImmutableSetMultimap.Builder<AbsPath, AbsPath> buildFiles = ImmutableSetMultimap.builder();
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        buildFiles.putAll(state.getCellRoot(), state.drainInvalidatedBuildFiles());
+      }
+    }
+    return buildFiles.build();
   }
 
   public static boolean isPathCreateOrDeleteEvent(WatchmanPathEvent event) {
@@ -708,6 +825,7 @@ public class DaemonicParserState {
     LOG.debug("Starting to invalidate caches for %s..", cell.getRoot());
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
+      invalidationCount.incrementAndGet();
       cellPathToDaemonicState.remove(cell.getRoot());
       if (invalidated) {
         LOG.debug("Cell cache data invalidated.");
@@ -723,9 +841,14 @@ public class DaemonicParserState {
     LOG.debug("Starting to invalidate all caches..");
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
+      invalidationCount.incrementAndGet();
       cellPathToDaemonicState.clear();
       buildFileTrees.invalidateAll();
       configurationBuildFiles.clear();
+      // None of its nodes are cached anymore, so it can't be reused.
+      lastTargetGraph = null;
+      // Configuration rules may have changed, which changes what select expressions resolve to.
+      resolvedSelectorLists.invalidateAll();
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
       } else {
@@ -34,6 +34,7 @@ import com.facebook.buck.json.TargetCountVerificationParserDecorator;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.parser.api.UserDefinedRuleLoader;
+import com.facebook.buck.parser.cache.impl.ParserCache;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.config.ParserConfig.SkylarkGlobHandler;
 import com.facebook.buck.parser.decorators.EventReportingProjectBuildFileParser;
@@ -43,13 +44,17 @@ import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.function.SkylarkBuildModule;
 import com.facebook.buck.skylark.io.GlobberFactory;
 import com.facebook.buck.skylark.io.impl.HybridGlobberFactory;
+import com.facebook.buck.skylark.io.impl.IndexedGlobberFactory;
 import com.facebook.buck.skylark.io.impl.NativeGlobber;
 import com.facebook.buck.skylark.io.impl.SyncCookieState;
+import com.facebook.buck.skylark.io.impl.WatchmanGlobIndex;
 import com.facebook.buck.skylark.parser.BuckGlobals;
 import com.facebook.buck.skylark.parser.RuleFunctionFactory;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.skylark.parser.SkylarkProjectBuildFileParser;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.events.EventKind;
@@ -59,6 +64,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class DefaultProjectBuildFileParserFactory implements ProjectBuildFileParserFactory {
@@ -68,20 +74,32 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final KnownRuleTypesProvider knownRuleTypesProvider;
   private final boolean enableProfiling;
   private final Optional<AtomicLong> processedBytes;
+  private final Function<Cell, Optional<SkylarkExtensionCache>> skylarkExtensionCaches;
+  private final Function<Cell, Optional<WatchmanGlobIndex>> watchmanGlobIndexes;
 
+  /**
+   * @param skylarkExtensionCaches the caches of extensions that the Skylark parsers of a cell
+   *     share with each other, if any.
+   * @param watchmanGlobIndexes the indexes of the files of a cell that the Skylark parsers of the
+   *     cell can use to answer globs, if any.
+   */
   public DefaultProjectBuildFileParserFactory(
       TypeCoercerFactory typeCoercerFactory,
       Console console,
       ParserPythonInterpreterProvider pythonInterpreterProvider,
       KnownRuleTypesProvider knownRuleTypesProvider,
       boolean enableProfiling,
-      Optional<AtomicLong> processedBytes) {
+      Optional<AtomicLong> processedBytes,
+      Function<Cell, Optional<SkylarkExtensionCache>> skylarkExtensionCaches,
+      Function<Cell, Optional<WatchmanGlobIndex>> watchmanGlobIndexes) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.console = console;
     this.pythonInterpreterProvider = pythonInterpreterProvider;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.enableProfiling = enableProfiling;
     this.processedBytes = processedBytes;
+    this.skylarkExtensionCaches = skylarkExtensionCaches;
+    this.watchmanGlobIndexes = watchmanGlobIndexes;
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -96,7 +114,9 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         pythonInterpreterProvider,
         knownRuleTypesProvider,
         enableProfiling,
-        processedBytes);
+        processedBytes,
+        cell -> Optional.empty(),
+        cell -> Optional.empty());
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -110,7 +130,9 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         pythonInterpreterProvider,
         knownRuleTypesProvider,
         false,
-        Optional.empty());
+        Optional.empty(),
+        cell -> Optional.empty(),
+        cell -> Optional.empty());
   }
 
   /**
@@ -159,6 +181,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
             .setUserDefinedRulesState(parserConfig.getUserDefinedRulesState())
             .setWarnAboutDeprecatedSyntax(parserConfig.isWarnAboutDeprecatedSyntax())
             .setPackageImplicitIncludes(parserConfig.getPackageImplicitIncludes())
+            .setEnablePipelining(parserConfig.getPythonDslPipelineDepth() > 1)
             .build();
     return EventReportingProjectBuildFileParser.of(
         createProjectBuildFileParser(
@@ -201,7 +224,9 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
               knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
               eventBus,
               buildFileParserOptions,
-              parserConfig.getSkylarkGlobHandler());
+              parserConfig.getSkylarkGlobHandler(),
+              skylarkExtensionCaches.apply(cell),
+              watchmanGlobIndexes.apply(cell));
       Optional<UserDefinedRuleLoader> udrLoader = Optional.empty();
       if (parserConfig.getUserDefinedRulesState() == UserDefinedRulesState.ENABLED) {
         udrLoader = Optional.of(skylark);
@@ -219,19 +244,23 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                       threadSafe,
                       udrLoader),
                   Syntax.SKYLARK,
-                  skylark),
+                  withParserCache(cell, skylark)),
               defaultBuildFileSyntax);
     } else {
       switch (defaultBuildFileSyntax) {
         case SKYLARK:
           parser =
-              newSkylarkParser(
+              withParserCache(
                   cell,
-                  typeCoercerFactory,
-                  knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
-                  eventBus,
-                  buildFileParserOptions,
-                  parserConfig.getSkylarkGlobHandler());
+                  newSkylarkParser(
+                      cell,
+                      typeCoercerFactory,
+                      knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
+                      eventBus,
+                      buildFileParserOptions,
+                      parserConfig.getSkylarkGlobHandler(),
+                      skylarkExtensionCaches.apply(cell),
+                      watchmanGlobIndexes.apply(cell)));
           break;
         case PYTHON_DSL:
           parser =
@@ -258,6 +287,19 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     return parser;
   }
 
+  /**
+   * Wraps the Skylark parser with the parser cache, if it is enabled. The Python DSL parser doesn't
+   * record the globs it evaluates, so its results can't be checked when they are read back.
+   */
+  private static ProjectBuildFileParser withParserCache(
+      Cell cell, SkylarkProjectBuildFileParser parser) {
+    Optional<ParserCache> parserCache = ParserCache.of(cell.getBuckConfig());
+    if (!parserCache.isPresent()) {
+      return parser;
+    }
+    return CachingProjectBuildFileParserDecorator.of(parser, parserCache.get());
+  }
+
   private ProjectBuildFileParser newPythonParser(
       Cell cell,
       TypeCoercerFactory typeCoercerFactory,
@@ -288,10 +330,13 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       KnownUserDefinedRuleTypes knownUserDefinedRuleTypes,
       BuckEventBus eventBus,
       ProjectBuildFileParserOptions buildFileParserOptions,
-      SkylarkGlobHandler skylarkGlobHandler) {
+      SkylarkGlobHandler skylarkGlobHandler,
+      Optional<SkylarkExtensionCache> skylarkExtensionCache,
+      Optional<WatchmanGlobIndex> watchmanGlobIndex) {
     GlobberFactory globberFactory;
     try {
-      globberFactory = getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler);
+      globberFactory =
+          getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler, watchmanGlobIndex);
     } catch (IOException e) {
       throw new RuntimeException(
           "Watchman glob handler was requested, but Watchman client cannot be created", e);
@@ -330,13 +375,22 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
               ImmutableSet.copyOf(buckGlobals.getNativeModule().getFieldNames()),
               augmentor);
       SkylarkProjectBuildFileParser skylarkParser =
-          SkylarkProjectBuildFileParser.using(
-              buildFileParserOptions,
-              eventBus,
-              SkylarkFilesystem.using(cell.getFilesystem()),
-              buckGlobals,
-              eventHandler,
-              globberFactory);
+          skylarkExtensionCache.isPresent()
+              ? SkylarkProjectBuildFileParser.using(
+                  buildFileParserOptions,
+                  eventBus,
+                  SkylarkFilesystem.using(cell.getFilesystem()),
+                  buckGlobals,
+                  eventHandler,
+                  globberFactory,
+                  skylarkExtensionCache.get())
+              : SkylarkProjectBuildFileParser.using(
+                  buildFileParserOptions,
+                  eventBus,
+                  SkylarkFilesystem.using(cell.getFilesystem()),
+                  buckGlobals,
+                  eventHandler,
+                  globberFactory);
 
       // All built-ins should have already been discovered. Freezing improves performance by
       // avoiding synchronization during query operations. This operation is idempotent, so it's
@@ -355,16 +409,31 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   }
 
   private static GlobberFactory getSkylarkGlobberFactory(
-      ProjectBuildFileParserOptions buildFileParserOptions, SkylarkGlobHandler skylarkGlobHandler)
+      ProjectBuildFileParserOptions buildFileParserOptions,
+      SkylarkGlobHandler skylarkGlobHandler,
+      Optional<WatchmanGlobIndex> watchmanGlobIndex)
       throws IOException {
     SyncCookieState syncCookieState = new SyncCookieState();
-    return skylarkGlobHandler == SkylarkGlobHandler.JAVA
-            || buildFileParserOptions.getWatchman() == WatchmanFactory.NULL_WATCHMAN
-        ? NativeGlobber::create
-        : HybridGlobberFactory.using(
-            buildFileParserOptions.getWatchman().createClient(),
-            syncCookieState,
-            buildFileParserOptions.getProjectRoot().getPath(),
-            buildFileParserOptions.getWatchman().getProjectWatches());
+    Watchman watchman = buildFileParserOptions.getWatchman();
+    if (skylarkGlobHandler == SkylarkGlobHandler.JAVA
+        || watchman == WatchmanFactory.NULL_WATCHMAN) {
+      return NativeGlobber::create;
+    }
+    if (skylarkGlobHandler == SkylarkGlobHandler.WATCHMAN_INDEX && watchmanGlobIndex.isPresent()) {
+      return IndexedGlobberFactory.using(
+          watchmanGlobIndex.get(),
+          watchman.createClient(),
+          syncCookieState,
+          buildFileParserOptions.getProjectRoot().getPath(),
+          watchman.getProjectWatches(),
+          buildFileParserOptions.getIgnorePaths().stream()
+              .map(ignorePath -> ignorePath.toWatchmanMatchQuery(watchman.getCapabilities()))
+              .collect(ImmutableList.toImmutableList()));
+    }
+    return HybridGlobberFactory.using(
+        watchman.createClient(),
+        syncCookieState,
+        buildFileParserOptions.getProjectRoot().getPath(),
+        watchman.getProjectWatches());
   }
 }
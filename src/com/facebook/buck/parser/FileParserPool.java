@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -92,15 +93,20 @@ abstract class FileParserPool<T extends FileManifest> implements AutoCloseable {
     return parserResourcePools.computeIfAbsent(
         cell,
         c ->
-            new ResourcePool<>(
-                maxParsersPerCell,
-                // If the Python process garbles the output stream then the bser codec doesn't
-                // always
-                // recover and subsequent attempts at invoking the parser will fail.
-                ResourcePool.ResourceUsageErrorPolicy.RETIRE,
+            createResourcePool(
                 () -> fileParserFactory.createFileParser(buckEventBus, c, watchman, false)));
   }
 
+  /** Creates the pool of parsers of a cell for which {@link #shouldUsePoolForCell} is true. */
+  ResourcePool<FileParser<T>> createResourcePool(Supplier<FileParser<T>> parserSupplier) {
+    return new ResourcePool<>(
+        maxParsersPerCell,
+        // If the Python process garbles the output stream then the bser codec doesn't always
+        // recover and subsequent attempts at invoking the parser will fail.
+        ResourcePool.ResourceUsageErrorPolicy.RETIRE,
+        parserSupplier);
+  }
+
   private synchronized FileParser<T> getParserForCell(
       BuckEventBus buckEventBus, Cell cell, Watchman watchman) {
     return nonPooledCells.computeIfAbsent(
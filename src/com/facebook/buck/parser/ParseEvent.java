@@ -61,6 +61,12 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
     return new Finished(started, processedBytes, graph);
   }
 
+  public static BuildFilesDiscovered buildFilesDiscovered(
+      int buildFiles, int parsedBuildFiles, long discoveryTimeMs, long parseOverlapTimeMs) {
+    return new BuildFilesDiscovered(
+        buildFiles, parsedBuildFiles, discoveryTimeMs, parseOverlapTimeMs);
+  }
+
   public static class Started extends ParseEvent {
     protected Started(ImmutableSet<BuildTarget> buildTargets) {
       super(EventKey.unique(), buildTargets);
@@ -97,4 +103,55 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
       return graph;
     }
   }
+
+  /**
+   * Reports how long discovering the build files of recursive target patterns took, and how much
+   * of their parsing overlapped with it.
+   */
+  public static class BuildFilesDiscovered extends ParseEvent {
+    private final int buildFiles;
+    private final int parsedBuildFiles;
+    private final long discoveryTimeMs;
+    private final long parseOverlapTimeMs;
+
+    protected BuildFilesDiscovered(
+        int buildFiles, int parsedBuildFiles, long discoveryTimeMs, long parseOverlapTimeMs) {
+      super(EventKey.unique(), ImmutableSet.of());
+      this.buildFiles = buildFiles;
+      this.parsedBuildFiles = parsedBuildFiles;
+      this.discoveryTimeMs = discoveryTimeMs;
+      this.parseOverlapTimeMs = parseOverlapTimeMs;
+    }
+
+    @Override
+    public String getEventName() {
+      return "BuildFilesDiscovered";
+    }
+
+    @Override
+    public String getValueString() {
+      return String.format(
+          "%d build files in %d ms, %d of them parsed in the last %d ms of it",
+          buildFiles, discoveryTimeMs, parsedBuildFiles, parseOverlapTimeMs);
+    }
+
+    public int getBuildFiles() {
+      return buildFiles;
+    }
+
+    /** @return how many of the build files were parsed before discovery finished. */
+    public int getParsedBuildFiles() {
+      return parsedBuildFiles;
+    }
+
+    /** @return the time from the start of discovery until the last build file was found. */
+    public long getDiscoveryTimeMs() {
+      return discoveryTimeMs;
+    }
+
+    /** @return the time from the first build file being parsed until the end of discovery. */
+    public long getParseOverlapTimeMs() {
+      return parseOverlapTimeMs;
+    }
+  }
 }
@@ -78,6 +78,13 @@ public class PerBuildState implements AutoCloseable {
         .assertGetTargetNode(dependencyStack);
   }
 
+  /** @return the node of {@code target} if the parser state caches it, without computing it. */
+  Optional<TargetNodeMaybeIncompatible> lookupComputedTargetNode(BuildTarget target) {
+    Cell owningCell = cellManager.getCell(target.getCell());
+
+    return targetNodeParsePipeline.lookupComputedNode(owningCell, target);
+  }
+
   ListenableFuture<TargetNode<?>> getTargetNodeJobAssertCompatible(
       BuildTarget target, DependencyStack dependencyStack) throws BuildTargetException {
     Cell owningCell = cellManager.getCell(target.getCell());
@@ -21,6 +21,7 @@ import com.facebook.buck.core.cell.DefaultCellNameResolverProvider;
 import com.facebook.buck.core.cell.name.CanonicalCellName;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.exceptions.DependencyStack;
+import com.facebook.buck.core.filesystems.AbsPath;
 import com.facebook.buck.core.model.TargetConfiguration;
 import com.facebook.buck.core.model.impl.MultiPlatformTargetConfigurationTransformer;
 import com.facebook.buck.core.model.platform.impl.ThrowingPlatformResolver;
@@ -42,11 +43,13 @@ import com.facebook.buck.core.select.impl.UnconfiguredSelectorListResolver;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.log.GlobalStateManager;
+import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.detector.TargetConfigurationDetector;
 import com.facebook.buck.parser.detector.TargetConfigurationDetectorFactory;
 import com.facebook.buck.rules.coercer.ConstructorArgMarshaller;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.util.Console;
 import com.facebook.buck.util.concurrent.CommandThreadFactory;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -92,6 +95,7 @@ public class PerBuildStateFactory {
   private PerBuildState create(
       ParsingContext parsingContext,
       DaemonicParserState daemonicParserState,
+      PipelineNodeCache.Cache<AbsPath, BuildFileManifest> rawNodeCache,
       Optional<AtomicLong> parseProcessedBytes) {
 
     Cells cells = new Cells(parsingContext.getCell().getCell(CanonicalCellName.rootCell()));
@@ -113,13 +117,18 @@ public class PerBuildStateFactory {
     DefaultProjectBuildFileParserFactory projectBuildFileParserFactory =
         new DefaultProjectBuildFileParserFactory(
             typeCoercerFactory,
+            Console.createNullConsole(),
             parserPythonInterpreterProvider,
+            knownRuleTypesProvider,
             parsingContext.isProfilingEnabled(),
             parseProcessedBytes,
-            knownRuleTypesProvider);
+            cell -> Optional.of(daemonicParserState.getSkylarkExtensionCache(cell)),
+            cell -> Optional.of(daemonicParserState.getWatchmanGlobIndex(cell)));
     ProjectBuildFileParserPool projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
+            parserConfig.getPythonDslPipelineDepth(),
+            parserConfig.getEnableAdaptivePythonDslParserPool(),
             projectBuildFileParserFactory,
             parsingContext.isProfilingEnabled());
 
@@ -131,7 +140,7 @@ public class PerBuildStateFactory {
 
     BuildFileRawNodeParsePipeline buildFileRawNodeParsePipeline =
         new BuildFileRawNodeParsePipeline(
-            new PipelineNodeCache<>(daemonicParserState.getRawNodeCache(), n -> false),
+            new PipelineNodeCache<>(rawNodeCache, n -> false),
             projectBuildFileParserPool,
             executorService,
             eventBus,
@@ -242,6 +251,11 @@ public class PerBuildStateFactory {
       selectorListResolver = new UnconfiguredSelectorListResolver(selectableResolver);
     } else {
       selectorListResolver = new DefaultSelectorListResolver(selectableResolver);
+      if (parserConfig.getEnableSelectResolutionCache()) {
+        selectorListResolver =
+            new CachingSelectorListResolver(
+                selectorListResolver, daemonicParserState.getResolvedSelectorLists());
+      }
     }
 
     UnconfiguredTargetNodeToTargetNodeFactory unconfiguredTargetNodeToTargetNodeFactory =
@@ -318,13 +332,39 @@ public class PerBuildStateFactory {
 
   public PerBuildState create(
       ParsingContext parsingContext, DaemonicParserState daemonicParserState) {
-    return create(parsingContext, daemonicParserState, Optional.empty());
+    return create(
+        parsingContext,
+        daemonicParserState,
+        daemonicParserState.getRawNodeCache(),
+        Optional.empty());
   }
 
   public PerBuildState create(
       ParsingContext parsingContext,
       DaemonicParserState daemonicParserState,
       AtomicLong processedBytes) {
-    return create(parsingContext, daemonicParserState, Optional.of(processedBytes));
+    return create(
+        parsingContext,
+        daemonicParserState,
+        daemonicParserState.getRawNodeCache(),
+        Optional.of(processedBytes));
+  }
+
+  /**
+   * Creates the state to parse build files in the background, which doesn't cache the manifests
+   * it parses once {@code daemonicParserState} was invalidated again after {@code
+   * invalidationCount}.
+   *
+   * @see DaemonicParserState#getRawNodeCacheAsOf(long)
+   */
+  public PerBuildState createAsOf(
+      ParsingContext parsingContext,
+      DaemonicParserState daemonicParserState,
+      long invalidationCount) {
+    return create(
+        parsingContext,
+        daemonicParserState,
+        daemonicParserState.getRawNodeCacheAsOf(invalidationCount),
+        Optional.empty());
   }
 }
@@ -86,6 +86,12 @@ class PipelineNodeCache<K, T> {
     return resultFuture;
   }
 
+  /** @return the result for the given key if it was computed before, without computing it. */
+  protected final Optional<T> lookupComputedNode(Cell cell, K key, BuckEventBus eventBus)
+      throws BuildTargetException {
+    return cache.lookupComputedNode(cell, key, eventBus);
+  }
+
   protected interface JobSupplier<V> {
     ListenableFuture<V> get() throws BuildTargetException;
   }
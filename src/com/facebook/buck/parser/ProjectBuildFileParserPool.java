@@ -17,28 +17,209 @@
 package com.facebook.buck.parser;
 
 import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.filesystems.AbsPath;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.FileParser;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.util.concurrent.ResourcePool;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.sun.management.OperatingSystemMXBean;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Parser pool for {@link BuildFileManifest}s. */
+/**
+ * Parser pool for {@link BuildFileManifest}s.
+ *
+ * <p>Pipelined Python DSL parsers are shared by up to pipelineDepth requests at once, once every
+ * parser of the cell is busy. The number of parsers of each cell may also follow the CPU
+ * utilization of the machine: parsers are added while CPUs are idle, and retired when they are
+ * saturated, for example by Skylark parsing or other cells, so that parser processes don't compete
+ * with each other for CPUs. As the parsers themselves load the CPUs, the pool only changes size
+ * once utilization stayed high or low for a few checks in a row, and keeps at least half of the
+ * configured parsers, so that it doesn't shrink and grow back every time parsing saturates the
+ * CPUs.
+ */
 class ProjectBuildFileParserPool extends FileParserPool<BuildFileManifest> {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
+  /** How often the CPU utilization is checked to resize the pools of parsers. */
+  private static final long RESIZE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** CPU utilization under which parsers are added. */
+  private static final double LOW_CPU_UTILIZATION = 0.75;
+
+  /** CPU utilization over which parsers are retired. */
+  private static final double HIGH_CPU_UTILIZATION = 0.95;
+
+  /** Number of checks in a row for which CPU utilization must be high or low to resize. */
+  private static final int CHECKS_BEFORE_RESIZE = 3;
+
   private final boolean enableProfiler;
+  private final int maxParsersPerCell;
+  private final int minParsersPerCell;
+  private final int pipelineDepth;
+  private final Optional<DoubleSupplier> cpuUtilization;
+  private final LongSupplier nanoTime;
+  private final AtomicLong nextResizeNanos;
+
+  @GuardedBy("this")
+  private int parsersPerCell;
+
+  /** Positive for checks in a row with idle CPUs, negative for checks with saturated ones. */
+  @GuardedBy("this")
+  private int consecutiveChecks;
 
   /** @param maxParsersPerCell maximum number of parsers to create for a single cell. */
   public ProjectBuildFileParserPool(
       int maxParsersPerCell,
       ProjectBuildFileParserFactory projectBuildFileParserFactory,
       boolean enableProfiler) {
+    this(maxParsersPerCell, 1, false, projectBuildFileParserFactory, enableProfiler);
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param pipelineDepth maximum number of build files to parse at once with a single parser.
+   * @param adaptivePoolSize whether the number of parsers of each cell follows CPU utilization.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      int pipelineDepth,
+      boolean adaptivePoolSize,
+      ProjectBuildFileParserFactory projectBuildFileParserFactory,
+      boolean enableProfiler) {
+    this(
+        maxParsersPerCell,
+        pipelineDepth,
+        adaptivePoolSize
+            ? Optional.of(ProjectBuildFileParserPool::getSystemCpuUtilization)
+            : Optional.empty(),
+        System::nanoTime,
+        projectBuildFileParserFactory,
+        enableProfiler);
+  }
+
+  @VisibleForTesting
+  ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      int pipelineDepth,
+      Optional<DoubleSupplier> cpuUtilization,
+      LongSupplier nanoTime,
+      ProjectBuildFileParserFactory projectBuildFileParserFactory,
+      boolean enableProfiler) {
     super(maxParsersPerCell, projectBuildFileParserFactory);
+    Preconditions.checkArgument(pipelineDepth > 0);
     this.enableProfiler = enableProfiler;
+    this.maxParsersPerCell = maxParsersPerCell;
+    this.minParsersPerCell = Math.max(1, (maxParsersPerCell + 1) / 2);
+    this.pipelineDepth = pipelineDepth;
+    this.cpuUtilization = cpuUtilization;
+    this.nanoTime = nanoTime;
+    this.nextResizeNanos = new AtomicLong(nanoTime.getAsLong());
+    this.parsersPerCell = maxParsersPerCell;
+  }
+
+  @Override
+  public ListenableFuture<BuildFileManifest> getManifest(
+      BuckEventBus buckEventBus,
+      Cell cell,
+      Watchman watchman,
+      AbsPath parseFile,
+      ListeningExecutorService executorService) {
+    resizePoolsIfNeeded();
+    return super.getManifest(buckEventBus, cell, watchman, parseFile, executorService);
+  }
+
+  @Override
+  synchronized ResourcePool<FileParser<BuildFileManifest>> createResourcePool(
+      Supplier<FileParser<BuildFileManifest>> parserSupplier) {
+    if (pipelineDepth == 1) {
+      ResourcePool<FileParser<BuildFileManifest>> resourcePool =
+          super.createResourcePool(parserSupplier);
+      resourcePool.setMaxResources(parsersPerCell);
+      return resourcePool;
+    }
+    // Pipelined parsers start a new buck.py process themselves when theirs can't be used anymore,
+    // and retiring a parser would fail the other requests it is serving.
+    return new ResourcePool<>(
+        parsersPerCell,
+        pipelineDepth,
+        ResourcePool.ResourceUsageErrorPolicy.RECYCLE,
+        parserSupplier);
+  }
+
+  /**
+   * Adds or retires a parser of each cell if CPUs have been idle or saturated for the last few
+   * checks, which happen at most once a second.
+   */
+  private void resizePoolsIfNeeded() {
+    if (!cpuUtilization.isPresent()) {
+      return;
+    }
+    long now = nanoTime.getAsLong();
+    long nextResize = nextResizeNanos.get();
+    if (now - nextResize < 0
+        || !nextResizeNanos.compareAndSet(nextResize, now + RESIZE_INTERVAL_NANOS)) {
+      return;
+    }
+    double utilization = cpuUtilization.get().getAsDouble();
+    if (utilization < 0) {
+      // Not available on this platform.
+      return;
+    }
+    synchronized (this) {
+      if (utilization < LOW_CPU_UTILIZATION) {
+        consecutiveChecks = Math.max(0, consecutiveChecks) + 1;
+      } else if (utilization > HIGH_CPU_UTILIZATION) {
+        consecutiveChecks = Math.min(0, consecutiveChecks) - 1;
+      } else {
+        consecutiveChecks = 0;
+      }
+      int newParsersPerCell = parsersPerCell;
+      if (consecutiveChecks >= CHECKS_BEFORE_RESIZE && parsersPerCell < maxParsersPerCell) {
+        newParsersPerCell++;
+      } else if (consecutiveChecks <= -CHECKS_BEFORE_RESIZE
+          && parsersPerCell > minParsersPerCell) {
+        newParsersPerCell--;
+      }
+      if (newParsersPerCell == parsersPerCell) {
+        return;
+      }
+      consecutiveChecks = 0;
+      LOG.debug(
+          "CPU utilization is %.2f, using up to %d parsers per cell",
+          utilization, newParsersPerCell);
+      parsersPerCell = newParsersPerCell;
+      for (ResourcePool<FileParser<BuildFileManifest>> resourcePool :
+          parserResourcePools.values()) {
+        resourcePool.setMaxResources(newParsersPerCell);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getParsersPerCell() {
+    return parsersPerCell;
+  }
+
+  private static double getSystemCpuUtilization() {
+    return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+        .getSystemCpuLoad();
   }
 
   @Override
@@ -87,6 +87,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Delegates to buck.py for parsing of buck build files. Constructed on demand for the parsing phase
@@ -124,6 +125,21 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
   private boolean isInitialized;
   private boolean isClosed;
 
+  /**
+   * Counts the buck.py processes started by this parser, so that pipelined requests sent to a
+   * process which was shut down can tell that their result will never come.
+   */
+  @GuardedBy("this")
+  private long processGeneration;
+
+  /** The number of pipelined requests sent to the current buck.py process. */
+  @GuardedBy("this")
+  private long sentRequests;
+
+  /** The number of results of pipelined requests read from the current buck.py process. */
+  @GuardedBy("this")
+  private long receivedResults;
+
   @Nullable private FutureTask<Unit> stderrConsumerTerminationFuture;
   @Nullable private Thread stderrConsumerThread;
 
@@ -201,7 +217,7 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
    * parse phase.
    */
   @VisibleForTesting
-  public void initIfNeeded() throws IOException {
+  public synchronized void initIfNeeded() throws IOException {
     ensureNotClosed();
     if (!isInitialized) {
       init();
@@ -377,6 +393,10 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       argBuilder.add("--enable_user_defined_rules");
     }
 
+    if (options.getEnablePipelining()) {
+      argBuilder.add("--pipelined");
+    }
+
     return argBuilder.build();
   }
 
@@ -414,10 +434,14 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       // well and does not crash the process, but at this moment it is unclear of all the
       // consequences if we made it such.
 
-      try {
-        shutdown();
-      } catch (Throwable tex) {
-        ex.addSuppressed(tex);
+      // Pipelined buck.py processes keep going after parsing errors, since they may already be
+      // parsing the build files of other requests.
+      if (!options.getEnablePipelining()) {
+        try {
+          shutdown();
+        } catch (Throwable tex) {
+          ex.addSuppressed(tex);
+        }
       }
       throw ex;
     } finally {
@@ -428,14 +452,6 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
   @VisibleForTesting
   protected BuildFileManifest getAllRulesInternal(Path buildFile)
       throws IOException, BuildFileParseException {
-    ensureNotClosed();
-    initIfNeeded();
-
-    // Check isInitialized implications (to avoid Eradicate warnings).
-    Objects.requireNonNull(buckPyProcess);
-    Objects.requireNonNull(buckPyProcessInput);
-    long alreadyReadBytes = buckPyProcessInput.getCount();
-
     ParseBuckFileEvent.Started parseBuckFileStarted =
         ParseBuckFileEvent.started(
             buildFile, ParseBuckFileEvent.ParserKind.PYTHON_DSL, this.getClass());
@@ -443,7 +459,9 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
 
     ImmutableList<Map<String, Object>> values = ImmutableList.of();
     Optional<String> profile = Optional.empty();
-    try (AssertScopeExclusiveAccess.Scope scope = assertSingleThreadedParsing.scope()) {
+    AtomicLong parsedBytes = new AtomicLong();
+    try (AssertScopeExclusiveAccess.Scope scope =
+        options.getEnablePipelining() ? () -> {} : assertSingleThreadedParsing.scope()) {
       AbsPath cellPath = options.getProjectRoot();
       String watchRoot = cellPath.toString();
       String projectPrefix = "";
@@ -468,7 +486,8 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
               "projectPrefix",
               projectPrefix,
               "packageImplicitLoad",
-              packageImplicitIncludeFinder.findIncludeForBuildFile(getBasePath(buildFile))));
+              packageImplicitIncludeFinder.findIncludeForBuildFile(getBasePath(buildFile))),
+            parsedBytes);
       } catch (IllegalArgumentException iae) {
         throw BuildFileParseException.createForBuildFileParseError(
           buildFile, createParseException(buildFile, buckPyPath.getParent(), iae.getMessage(), null));
@@ -496,10 +515,10 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       }
       return toBuildFileManifest(values);
     } finally {
-      long parsedBytes = buckPyProcessInput.getCount() - alreadyReadBytes;
-      processedBytes.ifPresent(processedBytes -> processedBytes.addAndGet(parsedBytes));
+      processedBytes.ifPresent(processedBytes -> processedBytes.addAndGet(parsedBytes.get()));
       buckEventBus.post(
-          ParseBuckFileEvent.finished(parseBuckFileStarted, values.size(), parsedBytes, profile));
+          ParseBuckFileEvent.finished(
+              parseBuckFileStarted, values.size(), parsedBytes.get(), profile));
     }
   }
 
@@ -616,8 +635,105 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
     }
   }
 
-  private BuildFilePythonResult performJsonRequest(ImmutableMap<String, Object> request)
-      throws IOException {
+  /**
+   * Sends a request to buck.py and reads its result.
+   *
+   * @param readBytes incremented by the number of bytes read from buck.py
+   */
+  private BuildFilePythonResult performJsonRequest(
+      ImmutableMap<String, Object> request, AtomicLong readBytes) throws IOException {
+    if (options.getEnablePipelining()) {
+      return performPipelinedJsonRequest(request, readBytes);
+    }
+    ensureNotClosed();
+    initIfNeeded();
+    sendRequest(request);
+    return readResult(request, readBytes);
+  }
+
+  /**
+   * Sends a request to buck.py without waiting for the results of the requests sent before it,
+   * which other threads are waiting for, so that buck.py always has a build file to parse. buck.py
+   * returns results in the order of requests, so the result of the request is read once the results
+   * of the requests sent before it were read.
+   */
+  private BuildFilePythonResult performPipelinedJsonRequest(
+      ImmutableMap<String, Object> request, AtomicLong readBytes) throws IOException {
+    long generation;
+    long requestIndex;
+    synchronized (this) {
+      ensureNotClosed();
+      initIfNeeded();
+      try {
+        sendRequest(request);
+      } catch (IOException e) {
+        // The process is gone. Unless a request is waiting for a result, which then fails and shuts
+        // the process down, the next request would fail the same way.
+        if (receivedResults == sentRequests) {
+          shutdownAfterFailure(e);
+        }
+        throw e;
+      }
+      generation = processGeneration;
+      requestIndex = sentRequests++;
+    }
+
+    boolean interrupted = false;
+    try {
+      synchronized (this) {
+        while (generation == processGeneration && receivedResults != requestIndex) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            // The result has to be read anyway for the results of later requests to be read.
+            interrupted = true;
+          }
+        }
+        if (generation != processGeneration) {
+          throw new IOException(
+              String.format(
+                  "buck.py exited before returning the result of %s",
+                  request.getOrDefault("buildFile", "[unknown]")));
+        }
+      }
+
+      // Other requests wait for this result, so reading doesn't need to hold the lock, which would
+      // keep other threads from sending requests.
+      BuildFilePythonResult result;
+      try {
+        result = readResult(request, readBytes);
+      } catch (IOException | RuntimeException e) {
+        // The output of buck.py can't be read any further, so the requests waiting for their result
+        // fail, and the next request starts a new process.
+        synchronized (this) {
+          shutdownAfterFailure(e);
+        }
+        throw e;
+      }
+      synchronized (this) {
+        receivedResults++;
+        notifyAll();
+      }
+      return result;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private synchronized void shutdownAfterFailure(Exception failure) {
+    try {
+      shutdown();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.addSuppressed(e);
+    } catch (IOException | RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  private void sendRequest(ImmutableMap<String, Object> request) throws IOException {
     Objects.requireNonNull(request);
     Objects.requireNonNull(buckPyProcessJsonGenerator);
     buckPyProcessJsonGenerator.writeObject(request);
@@ -640,11 +756,22 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       LOG.debug(e, "Swallowing exception on flush");
     }
 
+  }
+
+  private BuildFilePythonResult readResult(
+      ImmutableMap<String, Object> request, AtomicLong readBytes) throws IOException {
     if (LOG.isVerboseEnabled()) {
       LOG.verbose(
           "Parsing output of buck.py for %s...", request.getOrDefault("buildFile", "[unknown]"));
     }
-    return buckPyProcessJsonParser.readValueAs(BuildFilePythonResult.class);
+    ParserInputStream input = Objects.requireNonNull(buckPyProcessInput);
+    long alreadyReadBytes = input.getCount();
+    try {
+      return Objects.requireNonNull(buckPyProcessJsonParser)
+          .readValueAs(BuildFilePythonResult.class);
+    } finally {
+      readBytes.addAndGet(input.getCount() - alreadyReadBytes);
+    }
   }
 
   private static void handleDiagnostics(
@@ -849,7 +976,7 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
   @Override
   public void reportProfile() throws IOException {
     BuildFilePythonResult resultObject =
-        performJsonRequest(ImmutableMap.of("command", "report_profile"));
+        performJsonRequest(ImmutableMap.of("command", "report_profile"), new AtomicLong());
     Optional<String> profile = resultObject.getProfile();
     if (profile.isPresent()) {
       LOG.debug("buck parser profiler trace available");
@@ -888,6 +1015,14 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       return;
     }
 
+    synchronized (this) {
+      // Pipelined requests waiting for the results of this process fail.
+      processGeneration++;
+      sentRequests = 0;
+      receivedResults = 0;
+      notifyAll();
+    }
+
     // Check isInitialized implications (to avoid Eradicate warnings).
     Objects.requireNonNull(buckPyProcess);
 
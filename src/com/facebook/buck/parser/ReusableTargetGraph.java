@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.exceptions.DependencyStack;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
+import com.facebook.buck.core.util.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.core.util.graph.CycleException;
+import com.facebook.buck.core.util.graph.MutableDirectedGraph;
+import com.facebook.buck.parser.temporarytargetuniquenesschecker.TemporaryUnconfiguredTargetToTargetUniquenessChecker;
+import com.facebook.buck.util.MoreMaps;
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Finds the parts of a previously built {@link TargetGraph} that a new target graph can reuse as
+ * they are, without resolving their nodes and dependencies again.
+ *
+ * <p>A node is reusable if the parser state still caches that very node, which it doesn't once the
+ * build file defining the node is invalidated, and if all of its transitive dependencies are
+ * reusable too. Reusability is decided lazily, so only the parts of the previous graph that the new
+ * graph reaches are checked.
+ */
+class ReusableTargetGraph {
+  private final TargetGraph previousGraph;
+  private final Function<BuildTarget, Optional<TargetNode<?>>> cachedNodes;
+  private final Map<BuildTarget, Boolean> reusableTargets;
+
+  /**
+   * @param previousGraph the graph to reuse parts of.
+   * @param cachedNodes returns the node of a target that is currently cached by the parser state,
+   *     if any, without computing it.
+   */
+  ReusableTargetGraph(
+      TargetGraph previousGraph, Function<BuildTarget, Optional<TargetNode<?>>> cachedNodes) {
+    this.previousGraph = previousGraph;
+    this.cachedNodes = cachedNodes;
+    this.reusableTargets = new HashMap<>();
+  }
+
+  /** @return the node of {@code target} in the previous graph, if it can be reused. */
+  Optional<TargetNode<?>> getReusableNode(BuildTarget target) {
+    Optional<TargetNode<?>> node = previousGraph.getExactOptional(target);
+    if (!node.isPresent()) {
+      return Optional.empty();
+    }
+    try {
+      // Dependencies are visited before their dependents, so they are decided by then.
+      for (TargetNode<?> visited :
+          new AcyclicDepthFirstPostOrderTraversal<TargetNode<?>>(
+                  n ->
+                      reusableTargets.containsKey(n.getBuildTarget())
+                          ? Collections.emptyIterator()
+                          : previousGraph.getAll(n.getTotalDeps()).iterator())
+              .traverse(ImmutableList.of(node.get()))) {
+        reusableTargets.computeIfAbsent(visited.getBuildTarget(), t -> isReusable(visited));
+      }
+    } catch (CycleException e) {
+      throw new IllegalStateException("Previous target graph has a cycle", e);
+    }
+    return reusableTargets.get(target) ? node : Optional.empty();
+  }
+
+  private boolean isReusable(TargetNode<?> node) {
+    BuildTarget target = node.getBuildTarget();
+    if (!isCached(target, node)) {
+      return false;
+    }
+    if (target.isFlavored()) {
+      BuildTarget unflavoredTarget = target.withoutFlavors();
+      Optional<TargetNode<?>> unflavoredNode = previousGraph.getExactOptional(unflavoredTarget);
+      if (!unflavoredNode.isPresent() || !isCached(unflavoredTarget, unflavoredNode.get())) {
+        return false;
+      }
+    }
+    for (BuildTarget dep : node.getTotalDeps()) {
+      if (!reusableTargets.get(dep)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isCached(BuildTarget target, TargetNode<?> node) {
+    Optional<TargetNode<?>> cachedNode = cachedNodes.apply(target);
+    return cachedNode.isPresent() && cachedNode.get() == node;
+  }
+
+  /**
+   * Adds reusable nodes, and the nodes and edges of their transitive dependencies in the previous
+   * graph, to a new graph.
+   */
+  void copySubgraphs(
+      Iterable<TargetNode<?>> reusableNodes,
+      MutableDirectedGraph<TargetNode<?>> graph,
+      Map<BuildTarget, TargetNode<?>> index,
+      TemporaryUnconfiguredTargetToTargetUniquenessChecker checker) {
+    new AbstractBreadthFirstTraversal<TargetNode<?>>(reusableNodes) {
+      @Override
+      public Iterable<TargetNode<?>> visit(TargetNode<?> node) {
+        BuildTarget target = node.getBuildTarget();
+        graph.addNode(node);
+        MoreMaps.putCheckEquals(index, target, node);
+        checker.addTarget(target, DependencyStack.root());
+        if (target.isFlavored()) {
+          BuildTarget unflavoredTarget = target.withoutFlavors();
+          MoreMaps.putCheckEquals(index, unflavoredTarget, previousGraph.get(unflavoredTarget));
+        }
+        for (TargetNode<?> dep : previousGraph.getOutgoingNodesFor(node)) {
+          graph.addEdge(node, dep);
+        }
+        // Configuration dependencies are nodes of the graph, but not edges.
+        return previousGraph.getAll(node.getTotalDeps());
+      }
+    }.start();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Re-parses, in the background, the build files whose cached manifest was invalidated by file
+ * system changes, so that the next command finds them in {@link DaemonicParserState} instead of
+ * parsing them itself.
+ *
+ * <p>File system changes are only applied to the daemon state when a command starts, so re-parsing
+ * starts once that command is done, and covers the invalidated build files the command didn't
+ * parse again. Build files which were invalidated because an extension they load changed are
+ * re-parsed as well. Parsing runs on low priority threads and is cancelled before the next command
+ * applies new changes, so that it never competes with a command. Cancelling doesn't wait for build
+ * files which are being parsed: their manifests are not cached if files changed in the meantime.
+ */
+@ThreadSafe
+public class SpeculativeBuildFileReparser implements AutoCloseable {
+  private static final Logger LOG = Logger.get(SpeculativeBuildFileReparser.class);
+
+  private final DaemonicParserState daemonicParserState;
+
+  /**
+   * Receives the events of background parsing, as the event bus of the command which started it is
+   * closed by the time it runs.
+   */
+  private final DefaultBuckEventBus eventBus;
+
+  /** The re-parsing which is running, if any. */
+  private final AtomicReference<Reparse> reparse = new AtomicReference<>();
+
+  public SpeculativeBuildFileReparser(DaemonicParserState daemonicParserState) {
+    this.daemonicParserState = daemonicParserState;
+    this.eventBus =
+        new DefaultBuckEventBus(new DefaultClock(), new BuildId("speculative-reparse"));
+  }
+
+  /** @return the event bus to create the {@link PerBuildStateFactory} passed to {@link #start}. */
+  public BuckEventBus getEventBus() {
+    return eventBus;
+  }
+
+  /**
+   * Starts re-parsing the build files invalidated since the last call to this method or to {@link
+   * #cancel()}, in the background.
+   *
+   * @param rootCell the root cell of the command which is done
+   * @param perBuildStateFactory creates the state used to parse, whose events should be posted to
+   *     {@link #getEventBus()}
+   * @param numThreads the number of build files to parse at once
+   */
+  public synchronized void start(
+      Cell rootCell, PerBuildStateFactory perBuildStateFactory, int numThreads) {
+    stop();
+
+    long invalidationCount = daemonicParserState.getInvalidationCount();
+    ImmutableSetMultimap<AbsPath, AbsPath> buildFiles =
+        daemonicParserState.drainInvalidatedBuildFiles();
+    if (buildFiles.isEmpty()) {
+      return;
+    }
+    ImmutableMap<AbsPath, Cell> cells =
+        rootCell.getAllCells().stream()
+            .collect(ImmutableMap.toImmutableMap(Cell::getRoot, Function.identity()));
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("speculative-reparse-%d")
+                    .setPriority(Thread.MIN_PRIORITY)
+                    .setDaemon(true)
+                    .build(),
+                numThreads));
+    PerBuildState perBuildState =
+        perBuildStateFactory.createAsOf(
+            ParsingContext.builder(rootCell, executor).build(),
+            daemonicParserState,
+            invalidationCount);
+    Reparse started = new Reparse(executor, perBuildState);
+    reparse.set(started);
+
+    List<ListenableFuture<?>> jobs = new ArrayList<>(buildFiles.size());
+    for (Map.Entry<AbsPath, AbsPath> entry : buildFiles.entries()) {
+      Cell cell = cells.get(entry.getKey());
+      AbsPath buildFile = entry.getValue();
+      // Deleted build files don't need to be parsed again, and cells may have gone away with a
+      // configuration change.
+      if (cell == null || !cell.getFilesystem().isFile(buildFile.getPath())) {
+        continue;
+      }
+      // Already parsed build files, like those the command needed, are looked up in the cache.
+      try {
+        jobs.add(perBuildState.getBuildFileManifestJob(cell, buildFile));
+      } catch (RuntimeException e) {
+        LOG.debug(e, "Not re-parsing %s", buildFile);
+      }
+    }
+    LOG.debug("Speculatively re-parsing %d invalidated build files", jobs.size());
+
+    // Errors are not reported: the build files are parsed again, and errors reported, when a
+    // command needs them.
+    Futures.successfulAsList(jobs)
+        .addListener(() -> finish(started), MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Stops re-parsing, without waiting for build files being parsed, and forgets about the build
+   * files invalidated since the last call to {@link #start}.
+   */
+  public synchronized void cancel() {
+    stop();
+    daemonicParserState.drainInvalidatedBuildFiles();
+  }
+
+  private void stop() {
+    Reparse running = reparse.getAndSet(null);
+    if (running != null) {
+      LOG.debug("Cancelling speculative re-parsing");
+      running.cancel();
+    }
+  }
+
+  /** Called by a parser thread, so it must neither block nor wait for parser threads. */
+  private void finish(Reparse finished) {
+    if (reparse.compareAndSet(finished, null)) {
+      LOG.debug("Speculative re-parsing is done");
+      finished.finish();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    cancel();
+    eventBus.close();
+  }
+
+  /** @return whether build files are being re-parsed. */
+  boolean isRunning() {
+    return reparse.get() != null;
+  }
+
+  /** Resources used to re-parse build files, which only live as long as re-parsing. */
+  private static class Reparse {
+    private final ListeningExecutorService executor;
+    private final PerBuildState perBuildState;
+
+    Reparse(ListeningExecutorService executor, PerBuildState perBuildState) {
+      this.executor = executor;
+      this.perBuildState = perBuildState;
+    }
+
+    void finish() {
+      perBuildState.close();
+      executor.shutdown();
+    }
+
+    void cancel() {
+      // Closing the state first makes queued jobs give up before they start parsing.
+      perBuildState.close();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -18,7 +18,6 @@ package com.facebook.buck.parser;
 
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellProvider;
-import com.facebook.buck.core.cell.name.CanonicalCellName;
 import com.facebook.buck.core.exceptions.HumanReadableExceptions;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.DirectoryListComputation;
@@ -34,9 +33,9 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.HasBuildTarget;
 import com.facebook.buck.core.model.TargetConfiguration;
 import com.facebook.buck.core.model.targetgraph.TargetNodeMaybeIncompatible;
-import com.facebook.buck.core.parser.BuildPackagePaths;
 import com.facebook.buck.core.parser.BuildTargetPatternToBuildPackagePathComputation;
 import com.facebook.buck.core.parser.BuildTargetPatternToBuildPackagePathKey;
+import com.facebook.buck.core.parser.ParallelBuildPackageWalker;
 import com.facebook.buck.core.parser.WatchmanBuildPackageComputation;
 import com.facebook.buck.core.parser.buildtargetpattern.BuildTargetPattern;
 import com.facebook.buck.event.BuckEventBus;
@@ -72,7 +71,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /** Responsible for discovering all the build targets that match a set of {@link TargetNodeSpec}. */
 public class TargetSpecResolver implements AutoCloseable {
@@ -86,6 +90,10 @@ public class TargetSpecResolver implements AutoCloseable {
   // in a scope of a Cell only
   private final LoadingCache<AbsPath, GraphTransformationEngine> graphEngineForRecursiveSpecPerRoot;
 
+  // walks the directory trees of recursive specs in parallel when the engines can list directories,
+  // otherwise build files are discovered by the engines all at once
+  private final Optional<ParallelBuildPackageWalker> packageWalker;
+
   @FunctionalInterface
   private interface EngineFactory {
     GraphTransformationEngine makeEngine(
@@ -94,13 +102,18 @@ public class TargetSpecResolver implements AutoCloseable {
 
   private TargetSpecResolver(
       BuckEventBus eventBus,
-      LoadingCache<AbsPath, GraphTransformationEngine> graphEngineForRecursiveSpecPerRoot) {
+      LoadingCache<AbsPath, GraphTransformationEngine> graphEngineForRecursiveSpecPerRoot,
+      Optional<ParallelBuildPackageWalker> packageWalker) {
     this.eventBus = eventBus;
     this.graphEngineForRecursiveSpecPerRoot = graphEngineForRecursiveSpecPerRoot;
+    this.packageWalker = packageWalker;
   }
 
   private TargetSpecResolver(
-      BuckEventBus eventBus, CellProvider cellProvider, EngineFactory engineFactory) {
+      BuckEventBus eventBus,
+      CellProvider cellProvider,
+      EngineFactory engineFactory,
+      Optional<ParallelBuildPackageWalker> packageWalker) {
     this(
         eventBus,
         CacheBuilder.newBuilder()
@@ -113,7 +126,8 @@ public class TargetSpecResolver implements AutoCloseable {
                       ProjectFilesystemView fileSystemView = cell.getFilesystemViewForSourceFiles();
                       return engineFactory.makeEngine(
                           path.getPath(), buildFileName, fileSystemView);
-                    })));
+                    })),
+        packageWalker);
   }
 
   /**
@@ -129,13 +143,15 @@ public class TargetSpecResolver implements AutoCloseable {
    *     all directory structures under that cell
    * @param fileTreeCachePerRoot Global cache that stores a mapping of cell root path to a cache of
    *     all file tree structures under that cell
+   * @param numParsingThreads How many threads to walk the folders of recursive patterns with
    */
   public static TargetSpecResolver createWithFileSystemCrawler(
       BuckEventBus eventBus,
       DepsAwareExecutor<? super ComputeResult, ?> executor,
       CellProvider cellProvider,
       LoadingCache<Path, DirectoryListCache> dirListCachePerRoot,
-      LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot) {
+      LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot,
+      int numParsingThreads) {
     // For each cell we create a separate graph engine. The purpose of graph engine is to
     // recursively build a file tree with all files in appropriate cell for appropriate path.
     // This file tree will later be used to resolve target pattern to a list of build files
@@ -145,6 +161,8 @@ public class TargetSpecResolver implements AutoCloseable {
     // under [cellroot]/project/folder recursively as FileTree object. We then traverse FileTree
     // object looking for a build file name in all subfolders recursively.
     // Graph Engines automatically ensures right amount of parallelism and does caching of the data.
+    // Recursive patterns are resolved by walking the directory listings cached by those engines in
+    // parallel instead, so that build files can be parsed as soon as they are found.
     return new TargetSpecResolver(
         eventBus,
         cellProvider,
@@ -171,7 +189,8 @@ public class TargetSpecResolver implements AutoCloseable {
                   new GraphComputationStage<>(FileTreeComputation.of(), fileTreeCache)),
               16,
               executor);
-        });
+        },
+        Optional.of(new ParallelBuildPackageWalker(numParsingThreads)));
   }
 
   /**
@@ -198,7 +217,8 @@ public class TargetSpecResolver implements AutoCloseable {
                         new WatchmanBuildPackageComputation(
                             buildFileName, fileSystemView, watchman))),
                 1,
-                executor));
+                executor),
+        Optional.empty());
   }
 
   /**
@@ -226,11 +246,7 @@ public class TargetSpecResolver implements AutoCloseable {
     for (AbsPath buildFile : perBuildFileSpecs.keySet()) {
       Collection<Integer> buildFileSpecs = perBuildFileSpecs.get(buildFile);
       TargetNodeSpec firstSpec = orderedSpecs.get(Iterables.get(buildFileSpecs, 0));
-      Cell cell =
-          rootCell
-              .getCellProvider()
-              .getCellByCanonicalCellName(
-                  firstSpec.getBuildFileSpec().getCellRelativeBaseName().getCellName());
+      Cell cell = getCell(rootCell, firstSpec);
 
       // Format a proper error message for non-existent build files.
       if (!cell.getFilesystem().isFile(buildFile)) {
@@ -240,73 +256,149 @@ public class TargetSpecResolver implements AutoCloseable {
 
       for (int index : buildFileSpecs) {
         TargetNodeSpec spec = orderedSpecs.get(index);
-        handleTargetNodeSpec(
-            flavorEnhancer,
-            perBuildState,
-            targetNodeFilter,
-            targetFutures,
-            cell,
-            buildFile,
-            targetConfiguration,
-            index,
-            spec);
+        targetFutures.add(
+            handleTargetNodeSpec(
+                flavorEnhancer,
+                perBuildState,
+                targetNodeFilter,
+                cell,
+                buildFile,
+                targetConfiguration,
+                index,
+                spec));
       }
     }
 
+    // Build files of recursive specs are parsed as they are discovered.
+    BuildFileDiscoveryStats discoveryStats = new BuildFileDiscoveryStats();
+    for (int index = 0; index < orderedSpecs.size(); index++) {
+      TargetNodeSpec spec = orderedSpecs.get(index);
+      if (spec.getBuildFileSpec().isRecursive()) {
+        targetFutures.addAll(
+            discoverAndParseBuildFiles(
+                flavorEnhancer,
+                perBuildState,
+                targetNodeFilter,
+                getCell(rootCell, spec),
+                targetConfiguration,
+                index,
+                spec,
+                discoveryStats));
+      }
+    }
+    if (discoveryStats.isStarted()) {
+      eventBus.post(discoveryStats.toEvent());
+    }
+
     return collectTargets(orderedSpecs.size(), targetFutures);
   }
 
-  // Resolve all the build files from all the target specs.  We store these into a multi-map which
-  // maps the path to the build file to the index of it's spec file in the ordered spec list.
+  private static Cell getCell(Cell rootCell, TargetNodeSpec spec) {
+    return rootCell
+        .getCellProvider()
+        .getCellByCanonicalCellName(
+            spec.getBuildFileSpec().getCellRelativeBaseName().getCellName());
+  }
+
+  // Resolve the build files of all the non-recursive target specs.  We store these into a
+  // multi-map which maps the path to the build file to the index of it's spec file in the ordered
+  // spec list.
   private Multimap<AbsPath, Integer> groupSpecsByBuildFile(
       Cell rootCell, ImmutableList<TargetNodeSpec> orderedSpecs) {
 
     Multimap<AbsPath, Integer> perBuildFileSpecs = LinkedHashMultimap.create();
     for (int index = 0; index < orderedSpecs.size(); index++) {
       TargetNodeSpec spec = orderedSpecs.get(index);
-      CanonicalCellName cellName = spec.getBuildFileSpec().getCellRelativeBaseName().getCellName();
-      Cell cell = rootCell.getCellProvider().getCellByCanonicalCellName(cellName);
-      try (SimplePerfEvent.Scope perfEventScope =
-          SimplePerfEvent.scope(
-              eventBus, SimplePerfEvent.PerfEventId.of("FindBuildFiles"), "targetNodeSpec", spec)) {
-
-        BuildFileSpec buildFileSpec = spec.getBuildFileSpec();
-        ProjectFilesystemView projectFilesystemView = cell.getFilesystemViewForSourceFiles();
-        if (!buildFileSpec.isRecursive()) {
-          // If spec is not recursive, i.e. //path/to:something, then we only need to look for
-          // build file under base path
-          AbsPath buildFile =
-              AbsPath.of(
-                  projectFilesystemView.resolve(
+      BuildFileSpec buildFileSpec = spec.getBuildFileSpec();
+      if (buildFileSpec.isRecursive()) {
+        continue;
+      }
+      Cell cell = getCell(rootCell, spec);
+      // If spec is not recursive, i.e. //path/to:something, then we only need to look for
+      // build file under base path
+      AbsPath buildFile =
+          AbsPath.of(
+              cell.getFilesystemViewForSourceFiles()
+                  .resolve(
                       buildFileSpec
                           .getCellRelativeBaseName()
                           .getPath()
                           .resolve(cell.getBuckConfigView(ParserConfig.class).getBuildFileName())));
-          perBuildFileSpecs.put(buildFile, index);
-        } else {
-          // For recursive spec, i.e. //path/to/... we use cached file tree
-          BuildTargetPattern pattern = spec.getBuildTargetPattern(cell);
-          BuildPackagePaths paths =
-              graphEngineForRecursiveSpecPerRoot
-                  .getUnchecked(cell.getRoot())
-                  .computeUnchecked(BuildTargetPatternToBuildPackagePathKey.of(pattern));
-
-          String buildFileName = cell.getBuckConfigView(ParserConfig.class).getBuildFileName();
-          for (Path path : paths.getPackageRoots()) {
-            perBuildFileSpecs.put(
-                AbsPath.of(projectFilesystemView.resolve(path).resolve(buildFileName)), index);
-          }
-        }
-      }
+      perBuildFileSpecs.put(buildFile, index);
     }
     return perBuildFileSpecs;
   }
 
-  private void handleTargetNodeSpec(
+  // Find all the build files of a recursive target spec, i.e. //path/to/..., and start parsing
+  // each of them as soon as it is found.
+  private List<ListenableFuture<Map.Entry<Integer, ImmutableSet<BuildTarget>>>>
+      discoverAndParseBuildFiles(
+          FlavorEnhancer flavorEnhancer,
+          PerBuildState perBuildState,
+          TargetNodeFilterForSpecResolver targetNodeFilter,
+          Cell cell,
+          Optional<TargetConfiguration> targetConfiguration,
+          int index,
+          TargetNodeSpec spec,
+          BuildFileDiscoveryStats discoveryStats) {
+    // Keyed by package root, so that targets are returned in the same order however the build
+    // files were discovered.
+    ConcurrentSkipListMap<Path, ListenableFuture<Map.Entry<Integer, ImmutableSet<BuildTarget>>>>
+        packageFutures = new ConcurrentSkipListMap<>();
+    try (SimplePerfEvent.Scope perfEventScope =
+        SimplePerfEvent.scope(
+            eventBus, SimplePerfEvent.PerfEventId.of("FindBuildFiles"), "targetNodeSpec", spec)) {
+      ProjectFilesystemView projectFilesystemView = cell.getFilesystemViewForSourceFiles();
+      String buildFileName = cell.getBuckConfigView(ParserConfig.class).getBuildFileName();
+      Consumer<Path> parsePackage =
+          path -> {
+            discoveryStats.buildFileFound();
+            ListenableFuture<Map.Entry<Integer, ImmutableSet<BuildTarget>>> packageFuture =
+                handleTargetNodeSpec(
+                    flavorEnhancer,
+                    perBuildState,
+                    targetNodeFilter,
+                    cell,
+                    AbsPath.of(projectFilesystemView.resolve(path).resolve(buildFileName)),
+                    targetConfiguration,
+                    index,
+                    spec);
+            packageFuture.addListener(
+                discoveryStats::buildFileParsed, MoreExecutors.directExecutor());
+            packageFutures.put(path, packageFuture);
+          };
+
+      BuildTargetPattern pattern = spec.getBuildTargetPattern(cell);
+      GraphTransformationEngine engine =
+          graphEngineForRecursiveSpecPerRoot.getUnchecked(cell.getRoot());
+      discoveryStats.discoveryStarted();
+      if (packageWalker.isPresent()) {
+        packageWalker
+            .get()
+            .walk(
+                engine,
+                pattern
+                    .getCellRelativeBasePath()
+                    .getPath()
+                    .toPath(projectFilesystemView.getRootPath().getFileSystem()),
+                buildFileName,
+                parsePackage);
+      } else {
+        // For example Watchman returns all the build files of a pattern at once.
+        engine
+            .computeUnchecked(BuildTargetPatternToBuildPackagePathKey.of(pattern))
+            .getPackageRoots()
+            .forEach(parsePackage);
+      }
+      discoveryStats.discoveryFinished();
+    }
+    return new ArrayList<>(packageFutures.values());
+  }
+
+  private ListenableFuture<Map.Entry<Integer, ImmutableSet<BuildTarget>>> handleTargetNodeSpec(
       FlavorEnhancer flavorEnhancer,
       PerBuildState perBuildState,
       TargetNodeFilterForSpecResolver targetNodeFilter,
-      List<ListenableFuture<Map.Entry<Integer, ImmutableSet<BuildTarget>>>> targetFutures,
       Cell cell,
       AbsPath buildFile,
       Optional<TargetConfiguration> targetConfiguration,
@@ -314,8 +406,7 @@ public class TargetSpecResolver implements AutoCloseable {
       TargetNodeSpec spec) {
     if (spec instanceof BuildTargetSpec) {
       BuildTargetSpec buildTargetSpec = (BuildTargetSpec) spec;
-      targetFutures.add(
-          Futures.transform(
+      return Futures.transform(
               perBuildState.getRequestedTargetNodeJob(
                   buildTargetSpec.getUnconfiguredBuildTarget(), targetConfiguration),
               node -> {
@@ -328,16 +419,15 @@ public class TargetSpecResolver implements AutoCloseable {
                     node.getBuildTarget());
                 return new AbstractMap.SimpleEntry<>(index, buildTargets);
               },
-              MoreExecutors.directExecutor()));
+              MoreExecutors.directExecutor());
     } else {
       // Build up a list of all target nodes from the build file.
-      targetFutures.add(
-          Futures.transform(
-              perBuildState.getRequestedTargetNodesJob(cell, buildFile, targetConfiguration),
-              nodes ->
-                  new AbstractMap.SimpleEntry<>(
-                      index, applySpecFilter(spec, nodes, flavorEnhancer, targetNodeFilter)),
-              MoreExecutors.directExecutor()));
+      return Futures.transform(
+          perBuildState.getRequestedTargetNodesJob(cell, buildFile, targetConfiguration),
+          nodes ->
+              new AbstractMap.SimpleEntry<>(
+                  index, applySpecFilter(spec, nodes, flavorEnhancer, targetNodeFilter)),
+          MoreExecutors.directExecutor());
     }
   }
 
@@ -391,6 +481,58 @@ public class TargetSpecResolver implements AutoCloseable {
     graphEngineForRecursiveSpecPerRoot.asMap().values().forEach(engine -> engine.close());
   }
 
+  /**
+   * Counts the build files of recursive specs, and measures how long discovering them takes and
+   * for how much of that time their targets were already being parsed.
+   */
+  private static class BuildFileDiscoveryStats {
+    private final AtomicInteger buildFiles = new AtomicInteger();
+    private final AtomicInteger parsedBuildFiles = new AtomicInteger();
+    private final AtomicLong firstParsedNanos = new AtomicLong(Long.MAX_VALUE);
+    private long discoveryStartNanos = Long.MAX_VALUE;
+    private long discoveryTimeNanos;
+    private int parsedDuringDiscovery;
+
+    boolean isStarted() {
+      return discoveryStartNanos != Long.MAX_VALUE;
+    }
+
+    void discoveryStarted() {
+      if (!isStarted()) {
+        discoveryStartNanos = System.nanoTime();
+      }
+    }
+
+    void buildFileFound() {
+      buildFiles.incrementAndGet();
+    }
+
+    /** Called once the targets of a discovered build file have been parsed. */
+    void buildFileParsed() {
+      firstParsedNanos.compareAndSet(Long.MAX_VALUE, System.nanoTime());
+      parsedBuildFiles.incrementAndGet();
+    }
+
+    void discoveryFinished() {
+      discoveryTimeNanos = System.nanoTime() - discoveryStartNanos;
+      parsedDuringDiscovery = parsedBuildFiles.get();
+    }
+
+    /**
+     * The overlap runs from when the first build file finished parsing until the end of
+     * discovery, or is 0 if none finished before discovery did.
+     */
+    ParseEvent.BuildFilesDiscovered toEvent() {
+      long discoveryEndNanos = discoveryStartNanos + discoveryTimeNanos;
+      long parseOverlapNanos = Math.max(0, discoveryEndNanos - firstParsedNanos.get());
+      return ParseEvent.buildFilesDiscovered(
+          buildFiles.get(),
+          parsedDuringDiscovery,
+          TimeUnit.NANOSECONDS.toMillis(discoveryTimeNanos),
+          TimeUnit.NANOSECONDS.toMillis(parseOverlapNanos));
+    }
+  }
+
   /** Allows to change flavors of some targets while performing the resolution. */
   public interface FlavorEnhancer {
     BuildTarget enhanceFlavors(
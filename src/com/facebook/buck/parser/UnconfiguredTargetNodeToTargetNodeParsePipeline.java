@@ -399,6 +399,17 @@ public class UnconfiguredTargetNodeToTargetNodeParsePipeline implements AutoClos
     }
   }
 
+  /**
+   * Obtain a {@link TargetNode} if it is cached, without computing it otherwise.
+   *
+   * @param cell the {@link Cell} that the {@link BuildTarget} belongs to.
+   * @param buildTarget name of the node we're looking for.
+   */
+  public Optional<TargetNodeMaybeIncompatible> lookupComputedNode(
+      Cell cell, BuildTarget buildTarget) throws BuildTargetException {
+    return cache.lookupComputedNode(cell, buildTarget, eventBus);
+  }
+
   private static RuntimeException handleFutureGetException(Exception e) {
     if (e instanceof ExecutionException) {
       HumanReadableExceptions.throwIfHumanReadableUnchecked(e.getCause());
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+/** Whether the parser cache is read from and written to. */
+public enum ParserCacheAccessMode {
+  NONE(false, false),
+  READONLY(true, false),
+  WRITEONLY(false, true),
+  READWRITE(true, true);
+
+  private final boolean readable;
+  private final boolean writable;
+
+  ParserCacheAccessMode(boolean readable, boolean writable) {
+    this.readable = readable;
+    this.writable = writable;
+  }
+
+  public boolean isReadable() {
+    return readable;
+  }
+
+  public boolean isWritable() {
+    return writable;
+  }
+}
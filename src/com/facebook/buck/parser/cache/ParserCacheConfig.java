@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.ConfigView;
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.util.unit.SizeUnit;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** Settings of the cache of parsed build files. */
+@BuckStyleValue
+public abstract class ParserCacheConfig implements ConfigView<BuckConfig> {
+
+  private static final String PARSER_SECTION = "parser";
+  private static final String CACHE_MODE = "cache_mode";
+  private static final String CACHE_DIR = "cache_dir";
+  private static final String CACHE_MAX_SIZE = "cache_max_size";
+  private static final String DEFAULT_CACHE_DIR = "parser_cache";
+  private static final long DEFAULT_CACHE_MAX_SIZE_BYTES = SizeUnit.GIGABYTES.toBytes(1);
+
+  public static ParserCacheConfig of(BuckConfig delegate) {
+    return ImmutableParserCacheConfig.of(delegate);
+  }
+
+  /** @return whether parsed build files are read from and written to the cache. */
+  public ParserCacheAccessMode getCacheAccessMode() {
+    return getDelegate()
+        .getEnum(PARSER_SECTION, CACHE_MODE, ParserCacheAccessMode.class)
+        .orElse(ParserCacheAccessMode.NONE);
+  }
+
+  /**
+   * @return the directory parsed build files are kept in. It can be shared between repositories
+   *     and machines, e.g. by restoring it from a previous CI job, as entries are keyed by the
+   *     contents of the files they were parsed from.
+   */
+  public Path getCacheDir() {
+    Path defaultCacheDir =
+        getDelegate().getFilesystem().getBuckPaths().getBuckOut().resolve(DEFAULT_CACHE_DIR);
+    Path cacheDir =
+        getDelegate().getValue(PARSER_SECTION, CACHE_DIR).map(Paths::get).orElse(defaultCacheDir);
+    return getDelegate().resolveNonNullPathOutsideTheProjectFilesystem(cacheDir);
+  }
+
+  /**
+   * @return the size the cache directory is allowed to grow to before the least recently used
+   *     entries are deleted.
+   */
+  public long getCacheMaxSizeBytes() {
+    return getDelegate()
+        .getValue(PARSER_SECTION, CACHE_MAX_SIZE)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_CACHE_MAX_SIZE_BYTES);
+  }
+}
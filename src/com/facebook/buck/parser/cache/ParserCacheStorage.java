@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.google.common.hash.HashCode;
+import java.util.Optional;
+
+/** Keeps serialized parser cache entries by the weak fingerprint of their build file. */
+public interface ParserCacheStorage {
+
+  /** @return the entry stored for {@code weakFingerprint}, if any. */
+  Optional<byte[]> getCacheEntry(HashCode weakFingerprint) throws ParserCacheException;
+
+  /** Stores {@code entry}, replacing any entry previously stored for {@code weakFingerprint}. */
+  void storeCacheEntry(HashCode weakFingerprint, byte[] entry) throws ParserCacheException;
+}
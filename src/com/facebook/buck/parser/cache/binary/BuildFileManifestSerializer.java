@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.syntax.Runtime;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Serializes the {@link BuildFileManifest} to a compact binary form that can be stored and read
+ * from disk.
+ *
+ * <p>Attribute values are written as a tag byte followed by their contents, with integers and
+ * lengths as variable length integers. Each distinct string is written once: the first occurrence
+ * adds it to a table, and later ones refer to it by its index in the table. Since the same names,
+ * labels and paths come up over and over in the targets of a build file, this makes manifests much
+ * smaller than their JSON form, and faster to read, as each distinct string is only decoded once.
+ */
+public class BuildFileManifestSerializer {
+
+  private static final byte VERSION = 2;
+
+  private static final byte NULL = 0;
+  private static final byte NONE = 1;
+  private static final byte FALSE = 2;
+  private static final byte TRUE = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte STRING_REFERENCE = 8;
+  private static final byte LIST = 9;
+  private static final byte SET = 10;
+  private static final byte SORTED_SET = 11;
+  private static final byte MAP = 12;
+  private static final byte SORTED_MAP = 13;
+  private static final byte EMPTY_OPTIONAL = 14;
+  private static final byte OPTIONAL = 15;
+  private static final byte SELECTOR_VALUE = 16;
+  private static final byte LIST_WITH_SELECTS = 17;
+
+  /**
+   * Types of lists with selects, which are written as their index in this list. Consumers only tell
+   * lists and maps apart by their interface, see {@code JsonTypeConcatenatingCoercerFactory}, so
+   * implementations of those are written as the interface.
+   */
+  private static final ImmutableList<Class<?>> LIST_WITH_SELECTS_TYPES =
+      ImmutableList.of(
+          List.class,
+          Map.class,
+          String.class,
+          Integer.class,
+          Long.class,
+          Double.class,
+          Boolean.class,
+          Runtime.NONE.getClass());
+
+  @SuppressWarnings("unchecked")
+  private static final Comparator<Object> NATURAL_ORDER =
+      (Comparator<Object>) (Comparator<?>) Ordering.natural();
+
+  private BuildFileManifestSerializer() {}
+
+  /**
+   * Serializes an instance of {@link BuildFileManifest} to a byte array.
+   *
+   * @param buildFileManifest the instance of {@link BuildFileManifest} to be serialized.
+   * @return a byte array with the serialized manifest.
+   * @throws IllegalArgumentException if the manifest contains a value of an unsupported type.
+   */
+  public static byte[] serialize(BuildFileManifest buildFileManifest) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Writer writer = new Writer(new DataOutputStream(bytes));
+    writer.output.writeByte(VERSION);
+    writer.writeValue(buildFileManifest.getTargets());
+    writer.writeStrings(buildFileManifest.getIncludes());
+    writer.writeValue(buildFileManifest.getConfigs());
+    writer.writeValue(buildFileManifest.getEnv());
+    writer.writeVarInt(buildFileManifest.getGlobManifest().size());
+    for (GlobSpecWithResult globSpecWithResult : buildFileManifest.getGlobManifest()) {
+      GlobSpec globSpec = globSpecWithResult.getGlobSpec();
+      writer.writeStrings(globSpec.getInclude());
+      writer.writeStrings(globSpec.getExclude());
+      writer.output.writeBoolean(globSpec.getExcludeDirectories());
+      writer.writeStrings(globSpecWithResult.getFilePaths());
+    }
+    writer.writeVarInt(buildFileManifest.getErrors().size());
+    for (ParsingError error : buildFileManifest.getErrors()) {
+      writer.writeString(error.getMessage());
+      writer.writeStrings(error.getStackTrace());
+    }
+    writer.output.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes an instance of {@link BuildFileManifest} from a byte array.
+   *
+   * @param buildFileManifestBytes the bytes for the manifest to be deserialized.
+   * @return a new instance of {@link BuildFileManifest} serialized from the {@code
+   *     buildFileManifestBytes}.
+   * @throws IOException if the bytes are not a manifest serialized by this version of the class,
+   *     including if they are truncated or otherwise malformed.
+   */
+  public static BuildFileManifest deserialize(byte[] buildFileManifestBytes) throws IOException {
+    Reader reader =
+        new Reader(new DataInputStream(new ByteArrayInputStream(buildFileManifestBytes)));
+    try {
+      return readManifest(reader);
+    } catch (RuntimeException e) {
+      // Such as values of the wrong type, duplicate keys or nulls in collections.
+      throw new IOException("Malformed manifest.", e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BuildFileManifest readManifest(Reader reader) throws IOException {
+    int version = reader.input.readByte();
+    if (version != VERSION) {
+      throw new IOException(String.format("Unsupported manifest version %d.", version));
+    }
+    ImmutableMap<String, ImmutableMap<String, Object>> targets =
+        (ImmutableMap<String, ImmutableMap<String, Object>>) reader.readValue();
+    ImmutableSortedSet<String> includes = ImmutableSortedSet.copyOf(reader.readStrings());
+    ImmutableMap<String, Object> configs = (ImmutableMap<String, Object>) reader.readValue();
+    Optional<ImmutableMap<String, Optional<String>>> env =
+        (Optional<ImmutableMap<String, Optional<String>>>) reader.readValue();
+    int numberOfGlobs = reader.readLength();
+    ImmutableList.Builder<GlobSpecWithResult> globManifest =
+        ImmutableList.builderWithExpectedSize(numberOfGlobs);
+    for (int i = 0; i < numberOfGlobs; i++) {
+      ImmutableList<String> include = reader.readStrings();
+      ImmutableList<String> exclude = reader.readStrings();
+      boolean excludeDirectories = reader.input.readBoolean();
+      globManifest.add(
+          GlobSpecWithResult.of(
+              GlobSpec.of(include, exclude, excludeDirectories),
+              ImmutableSet.copyOf(reader.readStrings())));
+    }
+    ImmutableList.Builder<ParsingError> errors = ImmutableList.builder();
+    for (int i = reader.readLength(); i > 0; i--) {
+      errors.add(ParsingError.of(reader.readString(), reader.readStrings()));
+    }
+    return BuildFileManifest.of(
+        targets, includes, configs, env, globManifest.build(), errors.build());
+  }
+
+  private static class Writer {
+    private final DataOutputStream output;
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+
+    private Writer(DataOutputStream output) {
+      this.output = output;
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if (value == null) {
+        output.writeByte(NULL);
+      } else if (value == Runtime.NONE) {
+        output.writeByte(NONE);
+      } else if (value instanceof String) {
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        output.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        output.writeByte(INTEGER);
+        writeVarLong(zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        output.writeByte(LONG);
+        writeVarLong(zigZag((Long) value));
+      } else if (value instanceof Double) {
+        output.writeByte(DOUBLE);
+        output.writeDouble((Double) value);
+      } else if (value instanceof List) {
+        output.writeByte(LIST);
+        writeValues((List<?>) value);
+      } else if (value instanceof ImmutableSortedSet
+          && ((ImmutableSortedSet<?>) value).comparator().equals(Ordering.natural())) {
+        output.writeByte(SORTED_SET);
+        writeValues((Collection<?>) value);
+      } else if (value instanceof Collection) {
+        output.writeByte(SET);
+        writeValues((Collection<?>) value);
+      } else if (value instanceof ImmutableSortedMap
+          && ((ImmutableSortedMap<?, ?>) value).comparator().equals(Ordering.natural())) {
+        output.writeByte(SORTED_MAP);
+        writeEntries((Map<?, ?>) value);
+      } else if (value instanceof Map) {
+        output.writeByte(MAP);
+        writeEntries((Map<?, ?>) value);
+      } else if (value instanceof Optional) {
+        Optional<?> optional = (Optional<?>) value;
+        if (optional.isPresent()) {
+          output.writeByte(OPTIONAL);
+          writeValue(optional.get());
+        } else {
+          output.writeByte(EMPTY_OPTIONAL);
+        }
+      } else if (value instanceof SelectorValue) {
+        SelectorValue selectorValue = (SelectorValue) value;
+        output.writeByte(SELECTOR_VALUE);
+        writeEntries(selectorValue.getDictionary());
+        writeString(selectorValue.getNoMatchError());
+      } else if (value instanceof ListWithSelects) {
+        ListWithSelects listWithSelects = (ListWithSelects) value;
+        output.writeByte(LIST_WITH_SELECTS);
+        writeValues(listWithSelects.getElements());
+        writeVarInt(listWithSelectsTypeIndex(listWithSelects.getType()));
+      } else {
+        throw new IllegalArgumentException(
+            "Cannot serialize a value of type " + value.getClass().getName());
+      }
+    }
+
+    private static int listWithSelectsTypeIndex(Class<?> type) {
+      for (int i = 0; i < LIST_WITH_SELECTS_TYPES.size(); i++) {
+        if (LIST_WITH_SELECTS_TYPES.get(i).isAssignableFrom(type)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException(
+          "Cannot serialize a list with selects of type " + type.getName());
+    }
+
+    private void writeValues(Collection<?> values) throws IOException {
+      writeVarInt(values.size());
+      for (Object value : values) {
+        writeValue(value);
+      }
+    }
+
+    private void writeEntries(Map<?, ?> map) throws IOException {
+      writeVarInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeStrings(Collection<String> strings) throws IOException {
+      writeVarInt(strings.size());
+      for (String string : strings) {
+        writeString(string);
+      }
+    }
+
+    private void writeString(String string) throws IOException {
+      Integer index = stringIndices.get(string);
+      if (index != null) {
+        output.writeByte(STRING_REFERENCE);
+        writeVarInt(index);
+        return;
+      }
+      stringIndices.put(string, stringIndices.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      output.writeByte(STRING);
+      writeVarInt(bytes.length);
+      output.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        output.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      output.writeByte((int) value);
+    }
+
+    private static long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+  }
+
+  private static class Reader {
+    private final DataInputStream input;
+    private final List<String> strings = new ArrayList<>();
+
+    private Reader(DataInputStream input) {
+      this.input = input;
+    }
+
+    private Object readValue() throws IOException {
+      byte tag = input.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case NONE:
+          return Runtime.NONE;
+        case FALSE:
+          return false;
+        case TRUE:
+          return true;
+        case INTEGER:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case DOUBLE:
+          return input.readDouble();
+        case STRING:
+        case STRING_REFERENCE:
+          return readString(tag);
+        case LIST:
+          return readValues(ImmutableList.builder());
+        case SET:
+          return readValues(ImmutableSet.builder());
+        case SORTED_SET:
+          return readValues(new ImmutableSortedSet.Builder<>(NATURAL_ORDER));
+        case MAP:
+          return readEntries(ImmutableMap.builder());
+        case SORTED_MAP:
+          return readEntries(new ImmutableSortedMap.Builder<>(NATURAL_ORDER));
+        case EMPTY_OPTIONAL:
+          return Optional.empty();
+        case OPTIONAL:
+          return Optional.of(readValue());
+        case SELECTOR_VALUE:
+          @SuppressWarnings("unchecked")
+          Map<String, Object> dictionary =
+              (Map<String, Object>) (Map<?, ?>) readEntries(ImmutableMap.builder());
+          return SelectorValue.of(dictionary, readString());
+        case LIST_WITH_SELECTS:
+          ImmutableList<Object> elements =
+              (ImmutableList<Object>) readValues(ImmutableList.builder());
+          int type = readVarInt();
+          if (type < 0 || type >= LIST_WITH_SELECTS_TYPES.size()) {
+            throw new IOException("Unknown type of list with selects " + type);
+          }
+          return ListWithSelects.of(elements, LIST_WITH_SELECTS_TYPES.get(type));
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    }
+
+    private ImmutableCollection<Object> readValues(ImmutableCollection.Builder<Object> builder)
+        throws IOException {
+      for (int i = readLength(); i > 0; i--) {
+        builder.add(readValue());
+      }
+      return builder.build();
+    }
+
+    private ImmutableMap<Object, Object> readEntries(ImmutableMap.Builder<Object, Object> builder)
+        throws IOException {
+      for (int i = readLength(); i > 0; i--) {
+        builder.put(readValue(), readValue());
+      }
+      return builder.build();
+    }
+
+    private ImmutableList<String> readStrings() throws IOException {
+      int size = readLength();
+      ImmutableList.Builder<String> builder = ImmutableList.builderWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        builder.add(readString());
+      }
+      return builder.build();
+    }
+
+    private String readString() throws IOException {
+      return readString(input.readByte());
+    }
+
+    private String readString(byte tag) throws IOException {
+      if (tag == STRING_REFERENCE) {
+        int index = readVarInt();
+        if (index < 0 || index >= strings.size()) {
+          throw new IOException("Unknown string reference " + index);
+        }
+        return strings.get(index);
+      }
+      if (tag != STRING) {
+        throw new IOException("Expected a string, got tag " + tag);
+      }
+      byte[] bytes = new byte[readLength()];
+      input.readFully(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    private int readVarInt() throws IOException {
+      return (int) readVarLong();
+    }
+
+    /**
+     * Reads the size of a string or collection, which can't be more than the number of bytes left
+     * as every byte or element takes at least one byte.
+     */
+    private int readLength() throws IOException {
+      int length = readVarInt();
+      if (length < 0 || length > input.available()) {
+        throw new IOException("Invalid length " + length);
+      }
+      return length;
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < Long.SIZE; shift += 7) {
+        byte b = input.readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer");
+    }
+
+    private static long unZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
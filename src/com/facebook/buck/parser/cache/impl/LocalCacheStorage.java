@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.parser.cache.ParserCacheException;
+import com.facebook.buck.parser.cache.ParserCacheStorage;
+import com.facebook.buck.util.DirectoryCleaner;
+import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link ParserCacheStorage} that keeps each entry in a file of a local directory, named after its
+ * fingerprint. Entries are written to a temporary file first and moved in place, so concurrent
+ * readers, including other Buck processes sharing the directory, never see partial entries.
+ *
+ * <p>Once enough has been written to the directory, the least recently accessed entries are
+ * deleted until it is back to two thirds of its maximum size.
+ */
+public class LocalCacheStorage implements ParserCacheStorage {
+  private static final Logger LOG = Logger.get(LocalCacheStorage.class);
+
+  private static final String TMP_EXTENSION = ".tmp";
+  // Ratio of bytes stored to max size that expresses how many bytes need to be stored after we
+  // attempt to delete old entries.
+  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
+  // How much of the max size to leave if we decide to delete old entries.
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final AtomicLong bytesSinceLastDeleteOldEntries = new AtomicLong();
+
+  public LocalCacheStorage(Path cacheDir, long maxSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  @Override
+  public Optional<byte[]> getCacheEntry(HashCode weakFingerprint) throws ParserCacheException {
+    Path entryPath = getEntryPath(weakFingerprint);
+    try {
+      return Optional.of(Files.readAllBytes(entryPath));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new ParserCacheException(e, "Failed to read parser cache entry %s.", entryPath);
+    }
+  }
+
+  @Override
+  public void storeCacheEntry(HashCode weakFingerprint, byte[] entry) throws ParserCacheException {
+    Path entryPath = getEntryPath(weakFingerprint);
+    try {
+      Files.createDirectories(entryPath.getParent());
+      Path tmpPath =
+          Files.createTempFile(
+              entryPath.getParent(), entryPath.getFileName() + ".", TMP_EXTENSION);
+      try {
+        Files.write(tmpPath, entry);
+        Files.move(
+            tmpPath,
+            entryPath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpPath);
+      }
+    } catch (IOException e) {
+      throw new ParserCacheException(e, "Failed to write parser cache entry %s.", entryPath);
+    }
+
+    if (bytesSinceLastDeleteOldEntries.addAndGet(entry.length)
+        > maxSizeBytes * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER) {
+      bytesSinceLastDeleteOldEntries.set(0);
+      deleteOldEntries();
+    }
+  }
+
+  /** Deletes entries that haven't been accessed recently from the cache directory. */
+  synchronized void deleteOldEntries() {
+    DirectoryCleaner cleaner =
+        new DirectoryCleaner(
+            DirectoryCleanerArgs.builder()
+                .setPathSelector(new EntrySelector())
+                .setMaxTotalSizeBytes(maxSizeBytes)
+                .setMaxBytesAfterDeletion((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO))
+                .setMinAmountOfEntriesToKeep(0)
+                .build());
+    try {
+      cleaner.clean(cacheDir);
+    } catch (IOException e) {
+      // Entries may also be deleted by other processes sharing the directory.
+      LOG.warn(e, "Failed to delete old entries from %s.", cacheDir);
+    }
+  }
+
+  private Path getEntryPath(HashCode weakFingerprint) {
+    String name = weakFingerprint.toString();
+    // Spread entries over subdirectories to keep directories small with tens of thousands of
+    // build files.
+    return cacheDir.resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  /** Selects entries, but not the temporary files of entries being written, oldest first. */
+  private static class EntrySelector implements DirectoryCleaner.PathSelector {
+    @Override
+    public Iterable<Path> getCandidatesToDelete(Path rootPath) throws IOException {
+      try (Stream<Path> paths = Files.walk(rootPath)) {
+        return paths
+            .filter(Files::isRegularFile)
+            .filter(path -> !path.toString().endsWith(TMP_EXTENSION))
+            .collect(Collectors.toList());
+      }
+    }
+
+    @Override
+    public int comparePaths(DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+      return ComparisonChain.start()
+          .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+          .compare(path1.getCreationMillis(), path2.getCreationMillis())
+          .result();
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import com.facebook.buck.command.config.ConfigIgnoredByDaemon;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.pathformat.PathFormatter;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.cache.ParserCacheAccessMode;
+import com.facebook.buck.parser.cache.ParserCacheConfig;
+import com.facebook.buck.parser.cache.ParserCacheException;
+import com.facebook.buck.parser.cache.ParserCacheStorage;
+import com.facebook.buck.parser.cache.binary.BuildFileManifestSerializer;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent cache of parsed build files, which lets fresh daemons and other machines skip
+ * evaluating build files that haven't changed.
+ *
+ * <p>Entries are looked up by a weak fingerprint of the build file path, the Buck version and the
+ * configuration visible to the parser. An entry is only used if the strong fingerprint it was
+ * stored with, which covers the contents of the build file and of every file it loaded, still
+ * matches the files on disk, and if its globs still expand to the same files. Paths are kept
+ * relative to the cell root, so that entries can be shared between checkouts in different places.
+ *
+ * <p>A cache is used by a single parser, so the hashes of the files it reads are kept for its
+ * lifetime, which is that of a command.
+ */
+public class ParserCache {
+  private static final Logger LOG = Logger.get(ParserCache.class);
+
+  /** Bumped whenever the layout of entries or the serialization of manifests changes. */
+  private static final int ENTRY_VERSION = 3;
+
+  private final ParserCacheStorage storage;
+  private final ParserCacheAccessMode accessMode;
+  private final HashCode configFingerprint;
+  private final Path cellRoot;
+  private final ConcurrentMap<Path, HashCode> fileHashes = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  ParserCache(
+      ParserCacheStorage storage,
+      ParserCacheAccessMode accessMode,
+      HashCode configFingerprint,
+      Path cellRoot) {
+    this.storage = storage;
+    this.accessMode = accessMode;
+    this.configFingerprint = configFingerprint;
+    this.cellRoot = cellRoot;
+  }
+
+  /** @return the cache configured for the cell of {@code buckConfig}, if it is enabled. */
+  public static Optional<ParserCache> of(BuckConfig buckConfig) {
+    ParserCacheConfig parserCacheConfig = buckConfig.getView(ParserCacheConfig.class);
+    if (parserCacheConfig.getCacheAccessMode() == ParserCacheAccessMode.NONE) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new ParserCache(
+            new LocalCacheStorage(
+                parserCacheConfig.getCacheDir(), parserCacheConfig.getCacheMaxSizeBytes()),
+            parserCacheConfig.getCacheAccessMode(),
+            getConfigFingerprint(
+                buckConfig.getView(ConfigIgnoredByDaemon.class).getRawConfigForParser()),
+            buckConfig.getFilesystem().getRootPath().getPath()));
+  }
+
+  @VisibleForTesting
+  static HashCode getConfigFingerprint(ImmutableMap<String, ImmutableMap<String, String>> config) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(ENTRY_VERSION);
+    hasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+    for (Map.Entry<String, ImmutableMap<String, String>> section :
+        ImmutableSortedMap.copyOf(config).entrySet()) {
+      for (Map.Entry<String, String> field :
+          ImmutableSortedMap.copyOf(section.getValue()).entrySet()) {
+        hasher.putString(section.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(field.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(field.getValue(), StandardCharsets.UTF_8).putByte((byte) 0);
+      }
+    }
+    return hasher.hash();
+  }
+
+  private HashCode getWeakFingerprint(Path buildFile) {
+    return Hashing.sha1()
+        .newHasher()
+        .putBytes(configFingerprint.asBytes())
+        .putString(relativize(buildFile), StandardCharsets.UTF_8)
+        .hash();
+  }
+
+  /**
+   * @param includes the paths of the includes, relative to the cell root.
+   * @return the hash of the contents of the build file and its includes, if they all exist.
+   */
+  private Optional<HashCode> getStrongFingerprint(
+      Path buildFile, ImmutableSortedSet<String> includes) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    try {
+      hasher.putBytes(getFileHash(buildFile).asBytes());
+      for (String include : includes) {
+        hasher.putString(include, StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putBytes(getFileHash(cellRoot.resolve(include)).asBytes());
+      }
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  /** Build files share most of their includes, so these are only read once. */
+  private HashCode getFileHash(Path path) throws IOException {
+    HashCode hash = fileHashes.get(path);
+    if (hash == null) {
+      hash = MoreFiles.asByteSource(path).hash(Hashing.sha1());
+      fileHashes.put(path, hash);
+    }
+    return hash;
+  }
+
+  private String relativize(Path path) {
+    return PathFormatter.pathWithUnixSeparators(cellRoot.relativize(path));
+  }
+
+  private String resolve(String relativePath) {
+    return cellRoot.resolve(relativePath).normalize().toString();
+  }
+
+  /**
+   * @param parser the parser of {@code buildFile}, used to check if its globs are up to date.
+   * @return the manifest cached for {@code buildFile}, if the files it was parsed from haven't
+   *     changed since.
+   */
+  public Optional<BuildFileManifest> getBuildFileManifest(
+      Path buildFile, ProjectBuildFileParser parser) throws IOException, InterruptedException {
+    if (!accessMode.isReadable()) {
+      return Optional.empty();
+    }
+
+    Optional<byte[]> entry;
+    try {
+      entry = storage.getCacheEntry(getWeakFingerprint(buildFile));
+    } catch (ParserCacheException e) {
+      LOG.warn(e, "Failed to look up %s in the parser cache.", buildFile);
+      return Optional.empty();
+    }
+    if (!entry.isPresent()) {
+      LOG.verbose("Parser cache miss for %s.", buildFile);
+      return Optional.empty();
+    }
+
+    BuildFileManifest manifest;
+    try {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(entry.get()));
+      if (input.readInt() != ENTRY_VERSION) {
+        return Optional.empty();
+      }
+      byte[] strongFingerprint = new byte[readLength(input)];
+      input.readFully(strongFingerprint);
+      int numberOfIncludes = input.readInt();
+      ImmutableSortedSet.Builder<String> includes = ImmutableSortedSet.naturalOrder();
+      for (int i = 0; i < numberOfIncludes; i++) {
+        includes.add(input.readUTF());
+      }
+      Optional<HashCode> currentStrongFingerprint =
+          getStrongFingerprint(buildFile, includes.build());
+      if (!currentStrongFingerprint.isPresent()
+          || !currentStrongFingerprint.get().equals(HashCode.fromBytes(strongFingerprint))) {
+        LOG.verbose("Parser cache entry for %s is out of date.", buildFile);
+        return Optional.empty();
+      }
+      byte[] serializedManifest = new byte[readLength(input)];
+      input.readFully(serializedManifest);
+      manifest =
+          withIncludes(
+              BuildFileManifestSerializer.deserialize(serializedManifest),
+              includes.build().stream()
+                  .map(this::resolve)
+                  .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural())));
+    } catch (IOException | RuntimeException e) {
+      // The cache may be shared, so an entry written by another version, or a corrupt one,
+      // shouldn't fail the parse.
+      LOG.warn(e, "Ignoring the unreadable parser cache entry for %s.", buildFile);
+      return Optional.empty();
+    }
+
+    if (!parser.globResultsMatchCurrentState(buildFile, manifest.getGlobManifest())) {
+      LOG.verbose("Globs of the parser cache entry for %s are out of date.", buildFile);
+      return Optional.empty();
+    }
+    return Optional.of(manifest);
+  }
+
+  /**
+   * Stores the manifest that {@code buildFile} was just parsed into. Manifests with errors aren't
+   * stored, so that the errors are reported again.
+   */
+  public void storeBuildFileManifest(Path buildFile, BuildFileManifest manifest) {
+    if (!accessMode.isWritable() || !manifest.getErrors().isEmpty()) {
+      return;
+    }
+    try {
+      ImmutableSortedSet<String> includes =
+          manifest.getIncludes().stream()
+              .map(include -> relativize(cellRoot.getFileSystem().getPath(include)))
+              .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+      Optional<HashCode> strongFingerprint = getStrongFingerprint(buildFile, includes);
+      if (!strongFingerprint.isPresent()) {
+        return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeInt(ENTRY_VERSION);
+      output.writeInt(strongFingerprint.get().bits() / Byte.SIZE);
+      output.write(strongFingerprint.get().asBytes());
+      output.writeInt(includes.size());
+      for (String include : includes) {
+        output.writeUTF(include);
+      }
+      // The includes are restored from the entry, relative to the cell they are read in.
+      byte[] serializedManifest =
+          BuildFileManifestSerializer.serialize(withIncludes(manifest, ImmutableSortedSet.of()));
+      output.writeInt(serializedManifest.length);
+      output.write(serializedManifest);
+      storage.storeCacheEntry(getWeakFingerprint(buildFile), bytes.toByteArray());
+    } catch (IOException | ParserCacheException e) {
+      LOG.warn(e, "Failed to store %s in the parser cache.", buildFile);
+    }
+  }
+
+  /** Reads the length of an array, which can't be more than the number of bytes left. */
+  private static int readLength(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length < 0 || length > input.available()) {
+      throw new IOException("Invalid length " + length);
+    }
+    return length;
+  }
+
+  private static BuildFileManifest withIncludes(
+      BuildFileManifest manifest, ImmutableSortedSet<String> includes) {
+    return BuildFileManifest.of(
+        manifest.getTargets(),
+        includes,
+        manifest.getConfigs(),
+        manifest.getEnv(),
+        manifest.getGlobManifest(),
+        manifest.getErrors());
+  }
+}
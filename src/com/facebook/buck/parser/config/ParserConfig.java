@@ -64,6 +64,12 @@ public abstract class ParserConfig implements ConfigView<BuckConfig> {
   public enum SkylarkGlobHandler {
     JAVA,
     WATCHMAN,
+    /**
+     * Answers globs from an in-memory index of the files of each cell, populated with a single
+     * Watchman query and kept current by Watchman events, and uses Watchman queries otherwise.
+     * Files ignored by the cell are not indexed, so they are never returned by these globs.
+     */
+    WATCHMAN_INDEX,
     ;
   }
 
@@ -471,6 +477,53 @@ public abstract class ParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("parser", "enable_package_files", false);
   }
 
+  /**
+   * @return Whether the daemon should re-parse, in the background, the build files invalidated by
+   *     file system changes once the command which noticed the changes is done.
+   */
+  @Value.Lazy
+  public boolean getEnableSpeculativeReparsing() {
+    return getDelegate().getBooleanValue("parser", "speculative_reparsing", false);
+  }
+
+  /**
+   * @return How many build files each Python DSL parser process may be asked to parse at once. With
+   *     more than one, build files are queued to the process so that it doesn't wait for Buck to
+   *     read a result before parsing the next build file.
+   */
+  @Value.Lazy
+  public int getPythonDslPipelineDepth() {
+    return Math.max(1, getDelegate().getInteger("parser", "python_dsl_pipeline_depth").orElse(1));
+  }
+
+  /**
+   * @return Whether the number of Python DSL parser processes of each cell should follow the CPU
+   *     utilization of the machine, between half of {@link #getNumParsingThreads()} and all of
+   *     them.
+   */
+  @Value.Lazy
+  public boolean getEnableAdaptivePythonDslParserPool() {
+    return getDelegate().getBooleanValue("parser", "adaptive_python_dsl_parser_pool", false);
+  }
+
+  /**
+   * @return Whether the daemon should build target graphs from the previous one, reusing the parts
+   *     whose target nodes didn't change since.
+   */
+  @Value.Lazy
+  public boolean getEnableIncrementalTargetGraph() {
+    return getDelegate().getBooleanValue("parser", "incremental_target_graph", false);
+  }
+
+  /**
+   * @return Whether the daemon should memoize the value each {@code select()} expression resolves
+   *     to in each target configuration, and share equal resolved values between configurations.
+   */
+  @Value.Lazy
+  public boolean getEnableSelectResolutionCache() {
+    return getDelegate().getBooleanValue("parser", "select_resolution_cache", false);
+  }
+
   @Value.Lazy
   public int getMissingTargetLevenshteinDistance() {
     return getDelegate().getInteger("parser", "missing_target_levenshtein_distance").orElse(5);
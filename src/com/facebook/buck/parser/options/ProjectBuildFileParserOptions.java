@@ -105,6 +105,12 @@ public abstract class ProjectBuildFileParserOptions {
     return true;
   }
 
+  /** Whether the Python DSL parser may be asked to parse several build files at once. */
+  @Value.Default
+  public boolean getEnablePipelining() {
+    return false;
+  }
+
   public static Builder builder() {
     return new Builder();
   }
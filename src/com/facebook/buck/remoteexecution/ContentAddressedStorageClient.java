@@ -24,6 +24,7 @@ import com.facebook.buck.util.types.Unit;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -54,5 +55,20 @@ public interface ContentAddressedStorageClient {
 
     /** Make the directory and all parent directories. */
     void makeDirectories(Path dirRoot) throws IOException;
+
+    /**
+     * Materializes the file at the provided path with the contents of a local file, marking it
+     * executable if appropriate. Implementations may link to the local file rather than copy it.
+     */
+    default void materializeFrom(Path path, Path source, boolean executable) throws IOException {
+      try (FileChannel input = FileChannel.open(source);
+          WritableByteChannel output = getOutputChannel(path, executable)) {
+        long size = input.size();
+        long position = 0;
+        while (position < size) {
+          position += input.transferTo(position, size - position, output);
+        }
+      }
+    }
   }
 }
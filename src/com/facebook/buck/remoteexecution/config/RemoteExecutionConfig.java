@@ -29,6 +29,7 @@ import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.remoteexecution.proto.RESessionID;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.remoteexecution.util.RemoteExecutionUtil;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -158,6 +159,36 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
   public static final String USE_REMOTE_EXECUTION_FOR_GENRULE_IF_REQUESTED_FORMAT =
       "use_remote_execution_for_%s_if_requested";
 
+  /**
+   * Number of merkle tree nodes of action inputs the daemon keeps between builds. If unset, no
+   * nodes are kept.
+   */
+  public static final String MERKLE_TREE_CACHE_SIZE_KEY = "merkle_tree_cache_size";
+
+  /**
+   * Number of seconds a blob is assumed to remain in the CAS after it was uploaded or found there,
+   * so that the daemon doesn't look it up again. If unset, blobs are always looked up.
+   */
+  public static final String KNOWN_CAS_DIGESTS_TTL_SECONDS_KEY = "known_cas_digests_ttl_seconds";
+
+  /**
+   * Directory in which blobs fetched from the CAS are kept, so that they aren't fetched again. It
+   * may be shared by all the users of a host. If unset, blobs are always fetched from the CAS.
+   */
+  public static final String LOCAL_CAS_CACHE_DIR_KEY = "local_cas_cache_dir";
+
+  /** Maximum size of the blobs kept in the local CAS cache directory, e.g. "10GB". */
+  public static final String LOCAL_CAS_CACHE_MAX_SIZE_KEY = "local_cas_cache_max_size";
+
+  /**
+   * Only write the output files of remote actions to disk when they are read by a local action,
+   * are outputs of a requested target, or are needed to run one. Intermediate outputs consumed by
+   * other remote actions are never downloaded.
+   */
+  public static final String LAZY_OUTPUT_MATERIALIZATION_KEY = "lazy_output_materialization";
+
+  private static final long DEFAULT_LOCAL_CAS_CACHE_MAX_SIZE_BYTES = 10L * 1024 * 1024 * 1024;
+
   // A non-exhaustive list of characters that might indicate that we're about to deal with a glob.
   private static final Pattern GLOB_CHARS = Pattern.compile("[*?{\\[]");
 
@@ -300,6 +331,26 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(SECTION, "debug", false);
   }
 
+  public long getMerkleTreeCacheSize() {
+    return getValue(MERKLE_TREE_CACHE_SIZE_KEY).map(Long::parseLong).orElse(0L);
+  }
+
+  public long getKnownCasDigestsTtlSeconds() {
+    return getValue(KNOWN_CAS_DIGESTS_TTL_SECONDS_KEY).map(Long::parseLong).orElse(0L);
+  }
+
+  public Optional<Path> getLocalCasCacheDir() {
+    return getValue(LOCAL_CAS_CACHE_DIR_KEY)
+        .map(Paths::get)
+        .map(getDelegate()::resolvePathThatMayBeOutsideTheProjectFilesystem);
+  }
+
+  public long getLocalCasCacheMaxSizeBytes() {
+    return getValue(LOCAL_CAS_CACHE_MAX_SIZE_KEY)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_LOCAL_CAS_CACHE_MAX_SIZE_BYTES);
+  }
+
   @Value.Derived
   public RemoteExecutionStrategyConfig getStrategyConfig() {
     int workerThreads =
@@ -382,6 +433,9 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
     boolean tryLargerWorkerOnOom =
         getDelegate().getBoolean(SECTION, TRY_LARGER_WORKER_ON_OOM).orElse(false);
 
+    boolean lazyOutputMaterialization =
+        getDelegate().getBooleanValue(SECTION, LAZY_OUTPUT_MATERIALIZATION_KEY, false);
+
     // Some of these values are also limited by other ones (e.g. synchronous work is limited by the
     // number of threads). We detect some of these cases and log an error to the user to help them
     // understand the behavior.
@@ -477,6 +531,11 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
       public ImmutableSet<PathMatcher> getIgnorePaths() {
         return ignorePaths;
       }
+
+      @Override
+      public boolean isLazyOutputMaterializationEnabled() {
+        return lazyOutputMaterialization;
+      }
     };
   }
 
@@ -49,4 +49,10 @@ public interface RemoteExecutionStrategyConfig {
   boolean tryLargerWorkerOnOom();
 
   ImmutableSet<PathMatcher> getIgnorePaths();
+
+  /**
+   * Whether the output files of remotely executed actions are only written to disk once something
+   * reads them locally, instead of as soon as the action completes.
+   */
+  boolean isLazyOutputMaterializationEnabled();
 }
@@ -22,6 +22,7 @@ import com.facebook.buck.event.EventKey;
 import com.facebook.buck.event.WorkAdvanceEvent;
 import com.facebook.buck.util.Scope;
 import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.TimeUnit;
 
 /** Started/Finished event pairs for CAS blob uploads . */
 public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements WorkAdvanceEvent {
@@ -76,9 +77,23 @@ public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements Wo
       return startedEvent;
     }
 
+    /** @return the average upload throughput between the Started event and this one. */
+    public long getBytesPerSecond() {
+      long elapsedNanos = getNanoTime() - startedEvent.getNanoTime();
+      if (elapsedNanos <= 0) {
+        return 0;
+      }
+      return (long)
+          (startedEvent.getSizeBytes() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
     @Override
     protected String getValueString() {
-      return getStartedEvent().getValueString();
+      if (!isConfigured() || !startedEvent.isConfigured()) {
+        return getStartedEvent().getValueString();
+      }
+      return String.format(
+          "%s BytesPerSecond=[%d]", getStartedEvent().getValueString(), getBytesPerSecond());
     }
   }
 
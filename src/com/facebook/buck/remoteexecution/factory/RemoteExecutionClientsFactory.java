@@ -18,14 +18,20 @@ package com.facebook.buck.remoteexecution.factory;
 
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
+import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionType;
 import com.facebook.buck.remoteexecution.grpc.GrpcExecutionFactory;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.util.LocalCachingContentAddressedStorage;
 import com.facebook.buck.remoteexecution.util.OutOfProcessIsolatedExecutionClients;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
 
 /**
  * Factory for creating all manner of different remote execution clients (grpc, in-process, etc).
@@ -48,20 +54,21 @@ public class RemoteExecutionClientsFactory {
             "Remote execution implementation required but not configured. Please set an appropriate %s.type.",
             RemoteExecutionConfig.SECTION);
       case GRPC:
-        return GrpcExecutionFactory.createRemote(
-            remoteExecutionConfig.getRemoteHost(),
-            remoteExecutionConfig.getRemotePort(),
-            remoteExecutionConfig.getCasHost(),
-            remoteExecutionConfig.getCasPort(),
-            remoteExecutionConfig.getCasDeadline(),
-            remoteExecutionConfig.getInsecure(),
-            remoteExecutionConfig.getCasInsecure(),
-            remoteExecutionConfig.getCertFile(),
-            remoteExecutionConfig.getKeyFile(),
-            remoteExecutionConfig.getCertificateAuthoritiesFile(),
-            remoteExecutionConfig.getStrategyConfig(),
-            metadataProvider,
-            eventBus);
+        return withLocalCasCache(
+            GrpcExecutionFactory.createRemote(
+                remoteExecutionConfig.getRemoteHost(),
+                remoteExecutionConfig.getRemotePort(),
+                remoteExecutionConfig.getCasHost(),
+                remoteExecutionConfig.getCasPort(),
+                remoteExecutionConfig.getCasDeadline(),
+                remoteExecutionConfig.getInsecure(),
+                remoteExecutionConfig.getCasInsecure(),
+                remoteExecutionConfig.getCertFile(),
+                remoteExecutionConfig.getKeyFile(),
+                remoteExecutionConfig.getCertificateAuthoritiesFile(),
+                remoteExecutionConfig.getStrategyConfig(),
+                metadataProvider,
+                eventBus));
       case DEBUG_GRPC_IN_PROCESS:
         return OutOfProcessIsolatedExecutionClients.create(new GrpcProtocol(), eventBus);
       case DEBUG_GRPC_LOCAL:
@@ -70,4 +77,43 @@ public class RemoteExecutionClientsFactory {
     }
     throw new IllegalStateException(String.format("Something went wrong (%s).", type));
   }
+
+  /**
+   * Puts a local cache in front of the CAS of the provided clients, if the config specifies a
+   * directory for it.
+   */
+  private RemoteExecutionClients withLocalCasCache(RemoteExecutionClients clients) {
+    Optional<Path> cacheDir = remoteExecutionConfig.getLocalCasCacheDir();
+    if (!cacheDir.isPresent()) {
+      return clients;
+    }
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(
+            clients.getContentAddressedStorage(),
+            clients.getProtocol(),
+            cacheDir.get(),
+            remoteExecutionConfig.getLocalCasCacheMaxSizeBytes());
+    return new RemoteExecutionClients() {
+      @Override
+      public RemoteExecutionServiceClient getRemoteExecutionService() {
+        return clients.getRemoteExecutionService();
+      }
+
+      @Override
+      public ContentAddressedStorageClient getContentAddressedStorage() {
+        return storage;
+      }
+
+      @Override
+      public Protocol getProtocol() {
+        return clients.getProtocol();
+      }
+
+      @Override
+      public void close() throws IOException {
+        storage.close();
+        clients.close();
+      }
+    };
+  }
 }
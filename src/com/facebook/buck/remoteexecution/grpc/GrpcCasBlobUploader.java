@@ -37,14 +37,19 @@ import com.google.bytestream.ByteStreamProto;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /** GRPC implementation of the CasBlobUploader. */
@@ -52,6 +57,11 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
 
   private static final Logger LOG = Logger.get(GrpcCasBlobUploader.class);
   private static final int CHUNK_SIZE = 65536; // 64 KiB
+  private static final int MAX_WRITE_ATTEMPTS = 3;
+  private static final long READY_POLL_INTERVAL_MS = 100;
+  /** Writes which failed with these codes are resumed from where the server got to. */
+  private static final ImmutableSet<Status.Code> RESUMABLE_CODES =
+      ImmutableSet.of(Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED, Status.Code.ABORTED);
 
   private final ContentAddressableStorageFutureStub storageStub;
   private final BuckEventBus buckEventBus;
@@ -130,41 +140,87 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
   public UploadResult uploadFromStream(UploadDataSupplier blob) throws IOException {
     long uploadSize = blob.getDigest().getSize();
     try (Scope ignored = CasBlobUploadEvent.sendEvent(buckEventBus, 1, uploadSize)) {
-      InputStream dataStream = blob.get();
       String name = GrpcRemoteExecutionClients.getResourceName(instanceName, blob.getDigest());
+      long writeOffset = 0;
+      for (int attempt = 1; ; attempt++) {
+        UploadResult result = writeFromOffset(blob, name, writeOffset);
+        if (result.status == Status.Code.OK.value()
+            || attempt == MAX_WRITE_ATTEMPTS
+            || !RESUMABLE_CODES.contains(Status.fromCodeValue(result.status).getCode())) {
+          return result;
+        }
+        writeOffset = getCommittedSize(name);
+        if (writeOffset == uploadSize) {
+          return new UploadResult(blob.getDigest(), Status.OK.getCode().value(), "");
+        }
+        LOG.info("Resuming write of %s from offset %d.", blob.getDigest(), writeOffset);
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      MoreThrowables.throwIfInitialCauseInstanceOf(e, BuckUncheckedExecutionException.class);
+      throw new BuckUncheckedExecutionException(
+          e, "When uploading a blob: <%s>. Digests: %s.", blob.describe(), blob.getDigest());
+    }
+  }
+
+  /**
+   * Streams the blob, starting at {@code offset}, to the byte stream service. Chunks are only sent
+   * when the channel is ready for them so that large blobs aren't buffered in memory.
+   */
+  private UploadResult writeFromOffset(UploadDataSupplier blob, String name, long offset)
+      throws IOException, InterruptedException, ExecutionException {
+    SettableFuture<UploadResult> result = SettableFuture.create();
+    Semaphore ready = new Semaphore(0);
+    ClientResponseObserver<ByteStreamProto.WriteRequest, ByteStreamProto.WriteResponse>
+        responseObserver =
+            new ClientResponseObserver<
+                ByteStreamProto.WriteRequest, ByteStreamProto.WriteResponse>() {
+              @Override
+              public void beforeStart(
+                  ClientCallStreamObserver<ByteStreamProto.WriteRequest> requestStream) {
+                requestStream.setOnReadyHandler(ready::release);
+              }
+
+              @Override
+              public void onNext(ByteStreamProto.WriteResponse value) {}
+
+              @Override
+              public void onError(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                LOG.warn(
+                    "Writing Digest "
+                        + blob.getDigest()
+                        + " to byte stream service failed: "
+                        + status);
+                result.set(
+                    new UploadResult(blob.getDigest(), status.getCode().value(), t.getMessage()));
+                ready.release();
+              }
 
-      SettableFuture<UploadResult> result = SettableFuture.create();
-      StreamObserver<ByteStreamProto.WriteResponse> responseObserver =
-          new StreamObserver<ByteStreamProto.WriteResponse>() {
-            @Override
-            public void onNext(ByteStreamProto.WriteResponse value) {}
-
-            @Override
-            public void onError(Throwable t) {
-              Status status = Status.fromThrowable(t);
-              LOG.warn(
-                  "Writing Digest "
-                      + blob.getDigest()
-                      + " to byte stream service failed: "
-                      + status);
-              result.set(
-                  new UploadResult(blob.getDigest(), status.getCode().value(), t.getMessage()));
-            }
-
-            @Override
-            public void onCompleted() {
-              result.set(new UploadResult(blob.getDigest(), Status.OK.getCode().value(), ""));
-            }
-          };
-      StreamObserver<ByteStreamProto.WriteRequest> requestObserver =
-          byteStreamStub.write(responseObserver);
+              @Override
+              public void onCompleted() {
+                result.set(new UploadResult(blob.getDigest(), Status.OK.getCode().value(), ""));
+                ready.release();
+              }
+            };
+    ClientCallStreamObserver<ByteStreamProto.WriteRequest> requestObserver =
+        (ClientCallStreamObserver<ByteStreamProto.WriteRequest>)
+            byteStreamStub.write(responseObserver);
 
+    try (InputStream dataStream = blob.get()) {
+      ByteStreams.skipFully(dataStream, offset);
       // ByteString's readFrom InputStream will drain the stream - since these are large objects we
       // want read and send chunks at a time. So read byte[CHUNK_SIZE] from the InputStream and copy
       // them into the ByteString for upload.
       byte[] buffer = new byte[CHUNK_SIZE];
-      int len, writeOffset = 0;
-      while ((len = dataStream.read(buffer)) > 0) {
+      int len;
+      long writeOffset = offset;
+      while (!result.isDone() && (len = dataStream.read(buffer)) > 0) {
+        while (!requestObserver.isReady() && !result.isDone()) {
+          ready.tryAcquire(READY_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        if (result.isDone()) {
+          break;
+        }
         requestObserver.onNext(
             ByteStreamProto.WriteRequest.newBuilder()
                 .setResourceName(name)
@@ -173,17 +229,46 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
                 .build());
         writeOffset += len;
       }
-      requestObserver.onNext(
-          ByteStreamProto.WriteRequest.newBuilder()
-              .setResourceName(name)
-              .setFinishWrite(true)
-              .build());
-      requestObserver.onCompleted();
-      return result.get();
-    } catch (InterruptedException | ExecutionException e) {
-      MoreThrowables.throwIfInitialCauseInstanceOf(e, BuckUncheckedExecutionException.class);
-      throw new BuckUncheckedExecutionException(
-          e, "When uploading a blob: <%s>. Digests: %s.", blob.describe(), blob.getDigest());
+      if (!result.isDone()) {
+        requestObserver.onNext(
+            ByteStreamProto.WriteRequest.newBuilder()
+                .setResourceName(name)
+                .setWriteOffset(writeOffset)
+                .setFinishWrite(true)
+                .build());
+        requestObserver.onCompleted();
+      }
+    } catch (IOException | RuntimeException e) {
+      requestObserver.cancel("Failed to read the blob.", e);
+      throw e;
+    }
+    return result.get();
+  }
+
+  /** Asks the byte stream service how much of a write it has already received. */
+  private long getCommittedSize(String name) throws InterruptedException {
+    SettableFuture<ByteStreamProto.QueryWriteStatusResponse> response = SettableFuture.create();
+    byteStreamStub.queryWriteStatus(
+        ByteStreamProto.QueryWriteStatusRequest.newBuilder().setResourceName(name).build(),
+        new StreamObserver<ByteStreamProto.QueryWriteStatusResponse>() {
+          @Override
+          public void onNext(ByteStreamProto.QueryWriteStatusResponse value) {
+            response.set(value);
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            response.setException(t);
+          }
+
+          @Override
+          public void onCompleted() {}
+        });
+    try {
+      return response.get().getCommittedSize();
+    } catch (ExecutionException e) {
+      LOG.warn(e.getCause(), "Failed to query the status of %s, restarting the write.", name);
+      return 0;
     }
   }
 }
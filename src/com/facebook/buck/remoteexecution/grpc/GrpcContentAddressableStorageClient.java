@@ -25,27 +25,38 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.proto.RemoteExecutionMetadata;
+import com.facebook.buck.remoteexecution.util.AdaptiveConcurrencyLimit;
 import com.facebook.buck.remoteexecution.util.MultiThreadedBlobUploader;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer;
 import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.types.Unit;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamStub;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /** Implementation of a CAS client using GRPC. */
-public class GrpcContentAddressableStorageClient implements ContentAddressedStorageClient {
+public class GrpcContentAddressableStorageClient
+    implements ContentAddressedStorageClient, Closeable {
 
   private static final int SIZE_LIMIT = 10 * 1024 * 1024; // 10MB
   private static final int FIND_MISSING_CHECK_LIMIT = 1000;
   private static final int EXECUTOR_THREADS = 4;
+  private static final int MAX_CONCURRENT_LARGE_UPLOADS = 8;
+  private static final int INITIAL_CONCURRENT_LARGE_UPLOADS = 2;
 
   private final MultiThreadedBlobUploader uploader;
   private final OutputsMaterializer outputsMaterializer;
   private final GrpcAsyncBlobFetcher fetcher;
+  private final ExecutorService uploadService;
+  private final ExecutorService largeUploadService;
+  private final ExecutorService materializerService;
 
   public GrpcContentAddressableStorageClient(
       ContentAddressableStorageFutureStub storageStub,
@@ -56,11 +67,23 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
       BuckEventBus buckEventBus,
       RemoteExecutionMetadata metadata,
       int outputMaterializationThreads) {
+    this.uploadService = MostExecutors.newMultiThreadExecutor("blob-uploader", EXECUTOR_THREADS);
+    this.largeUploadService =
+        MostExecutors.newMultiThreadExecutor("large-blob-uploader", MAX_CONCURRENT_LARGE_UPLOADS);
+    this.materializerService =
+        MostExecutors.newMultiThreadExecutor("output-materializer", outputMaterializationThreads);
     this.uploader =
         new MultiThreadedBlobUploader(
             FIND_MISSING_CHECK_LIMIT,
             SIZE_LIMIT,
-            MostExecutors.newMultiThreadExecutor("blob-uploader", EXECUTOR_THREADS),
+            uploadService,
+            largeUploadService,
+            new AdaptiveConcurrencyLimit(
+                INITIAL_CONCURRENT_LARGE_UPLOADS,
+                MAX_CONCURRENT_LARGE_UPLOADS,
+                1,
+                TimeUnit.SECONDS,
+                new DefaultClock()),
             new GrpcCasBlobUploader(
                 instanceName, storageStub, byteStreamStub, buckEventBus, metadata));
 
@@ -74,13 +97,7 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
             protocol,
             casDeadline);
     this.outputsMaterializer =
-        new OutputsMaterializer(
-            SIZE_LIMIT,
-            MostExecutors.newMultiThreadExecutor(
-                "output-materializer", outputMaterializationThreads),
-            fetcher,
-            protocol,
-            buckEventBus);
+        new OutputsMaterializer(SIZE_LIMIT, materializerService, fetcher, protocol, buckEventBus);
   }
 
   @Override
@@ -106,4 +123,11 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
   public ListenableFuture<ByteBuffer> fetch(Digest digest) {
     return fetcher.fetch(digest);
   }
+
+  @Override
+  public void close() {
+    uploadService.shutdown();
+    largeUploadService.shutdown();
+    materializerService.shutdown();
+  }
 }
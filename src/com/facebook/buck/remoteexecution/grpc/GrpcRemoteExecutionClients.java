@@ -49,7 +49,7 @@ import java.util.concurrent.TimeUnit;
 /** A RemoteExecution that sends jobs to a grpc-based remote execution service. */
 public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
   public static final Protocol PROTOCOL = new GrpcProtocol();
-  private final ContentAddressedStorageClient storage;
+  private final GrpcContentAddressableStorageClient storage;
   private final GrpcRemoteExecutionServiceClient executionService;
   private final ManagedChannel executionEngineChannel;
   private final ManagedChannel casChannel;
@@ -166,6 +166,7 @@ public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
 
   @Override
   public void close() throws IOException {
+    storage.close();
     closeChannel(casChannel);
     closeChannel(executionEngineChannel);
   }
@@ -179,7 +180,7 @@ public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
     }
   }
 
-  private ContentAddressedStorageClient createStorage(
+  private GrpcContentAddressableStorageClient createStorage(
       ContentAddressableStorageFutureStub storageStub,
       ByteStreamStub byteStreamStub,
       int casDeadline,
@@ -17,6 +17,8 @@
 package com.facebook.buck.remoteexecution.grpc;
 
 import build.bazel.remote.execution.v2.Digest;
+import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol.GrpcDigest;
 import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamImplBase;
@@ -27,11 +29,15 @@ import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /** A simple ByteStream server backed by a {@link LocalContentAddressedStorage}. */
 class LocalBackedByteStreamServer extends ByteStreamImplBase {
@@ -46,6 +52,9 @@ class LocalBackedByteStreamServer extends ByteStreamImplBase {
 
   private final LocalContentAddressedStorage storage;
 
+  /** Data received for writes which haven't been finished yet, by resource name. */
+  private final ConcurrentHashMap<String, ByteString> partialWrites = new ConcurrentHashMap<>();
+
   LocalBackedByteStreamServer(LocalContentAddressedStorage storage) {
     this.storage = storage;
   }
@@ -86,14 +95,99 @@ class LocalBackedByteStreamServer extends ByteStreamImplBase {
 
   @Override
   public StreamObserver<WriteRequest> write(StreamObserver<WriteResponse> responseObserver) {
-    // Unimplemented, Buck client doesn't use this.
-    return super.write(responseObserver);
+    return new StreamObserver<WriteRequest>() {
+      @Nullable private String resourceName;
+      private boolean finished = false;
+
+      @Override
+      public void onNext(WriteRequest request) {
+        if (finished) {
+          return;
+        }
+        if (resourceName == null) {
+          resourceName = request.getResourceName();
+        }
+        ByteString committed = partialWrites.getOrDefault(resourceName, ByteString.EMPTY);
+        if (request.getWriteOffset() != committed.size()) {
+          fail(
+              Status.INVALID_ARGUMENT.withDescription(
+                  String.format(
+                      "Expected write offset %d for %s, got %d.",
+                      committed.size(), resourceName, request.getWriteOffset())));
+          return;
+        }
+        committed = committed.concat(request.getData());
+        partialWrites.put(resourceName, committed);
+        if (request.getFinishWrite()) {
+          finish(committed);
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // Whatever was received so far is kept so that the client can resume the write.
+        finished = true;
+      }
+
+      @Override
+      public void onCompleted() {
+        if (!finished) {
+          fail(Status.INVALID_ARGUMENT.withDescription("Write was not finished."));
+        }
+      }
+
+      private void finish(ByteString data) {
+        finished = true;
+        partialWrites.remove(resourceName);
+        Digest digest = parseResourceName(resourceName).getDigest();
+        if (!GrpcRemoteExecutionClients.PROTOCOL
+            .computeDigest(data.toByteArray())
+            .getHash()
+            .equals(digest.getHash())) {
+          responseObserver.onError(
+              Status.INVALID_ARGUMENT
+                  .withDescription("Data doesn't match the digest of " + resourceName)
+                  .asException());
+          return;
+        }
+        UploadResult result =
+            storage
+                .batchUpdateBlobs(
+                    ImmutableList.of(
+                        UploadDataSupplier.of(
+                            resourceName, new GrpcDigest(digest), data::newInput)))
+                .get(0);
+        if (result.status != Status.Code.OK.value()) {
+          responseObserver.onError(
+              Status.fromCodeValue(result.status).withDescription(result.message).asException());
+          return;
+        }
+        responseObserver.onNext(WriteResponse.newBuilder().setCommittedSize(data.size()).build());
+        responseObserver.onCompleted();
+      }
+
+      private void fail(Status status) {
+        finished = true;
+        responseObserver.onError(status.asException());
+      }
+    };
   }
 
   @Override
   public void queryWriteStatus(
       QueryWriteStatusRequest request, StreamObserver<QueryWriteStatusResponse> responseObserver) {
-    // Unimplemented, Buck client doesn't use this.
-    super.queryWriteStatus(request, responseObserver);
+    Digest digest = parseResourceName(request.getResourceName()).getDigest();
+    boolean complete =
+        !storage.findMissing(ImmutableList.of(new GrpcDigest(digest))).findAny().isPresent();
+    long committedSize =
+        complete
+            ? digest.getSizeBytes()
+            : partialWrites.getOrDefault(request.getResourceName(), ByteString.EMPTY).size();
+    responseObserver.onNext(
+        QueryWriteStatusResponse.newBuilder()
+            .setCommittedSize(committedSize)
+            .setComplete(complete)
+            .build());
+    responseObserver.onCompleted();
   }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many transfers should run at the same time based on the throughput they achieve.
+ *
+ * <p>Throughput is measured over windows: bytes are credited to the window in which they are
+ * transferred, so callers should report them as each chunk is sent rather than once a transfer
+ * completes, otherwise transfers much longer than a window make the measurement swing between
+ * windows which did and didn't see one complete. A window ends with the first bytes credited after
+ * its duration has elapsed. At the end of each window the limit takes one more step in the same
+ * direction if throughput went up, and turns around if it went down. Failed transfers halve the
+ * limit.
+ */
+public class AdaptiveConcurrencyLimit {
+  private static final Logger LOG = Logger.get(AdaptiveConcurrencyLimit.class);
+
+  /** Changes in throughput smaller than this are considered noise. */
+  private static final double TOLERANCE = 0.05;
+
+  private final boolean isFixed;
+  private final int maxLimit;
+  private final long windowNanos;
+  private final Clock clock;
+
+  private int limit;
+  private int direction = 1;
+  private double previousBytesPerSecond = 0;
+  private long windowStartNanos;
+  private long windowBytes = 0;
+
+  public AdaptiveConcurrencyLimit(
+      int initialLimit, int maxLimit, long window, TimeUnit windowUnit, Clock clock) {
+    this(initialLimit, maxLimit, window, windowUnit, clock, false);
+  }
+
+  private AdaptiveConcurrencyLimit(
+      int initialLimit,
+      int maxLimit,
+      long window,
+      TimeUnit windowUnit,
+      Clock clock,
+      boolean isFixed) {
+    Preconditions.checkArgument(maxLimit > 0);
+    Preconditions.checkArgument(initialLimit > 0 && initialLimit <= maxLimit);
+    this.isFixed = isFixed;
+    this.limit = initialLimit;
+    this.maxLimit = maxLimit;
+    this.windowNanos = windowUnit.toNanos(window);
+    this.clock = clock;
+    this.windowStartNanos = clock.nanoTime();
+  }
+
+  /** @return a limit which stays at {@code limit} regardless of the observed throughput. */
+  public static AdaptiveConcurrencyLimit fixed(int limit) {
+    return new AdaptiveConcurrencyLimit(
+        limit, limit, 0, TimeUnit.SECONDS, new DefaultClock(), true);
+  }
+
+  /** @return the number of transfers which may currently run at the same time. */
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  /** Records that {@code bytes} more were transferred, by a transfer which may still be running. */
+  public synchronized void onBytesTransferred(long bytes) {
+    if (isFixed) {
+      return;
+    }
+    windowBytes += bytes;
+    long now = clock.nanoTime();
+    long elapsed = now - windowStartNanos;
+    if (elapsed < windowNanos) {
+      return;
+    }
+    double bytesPerSecond = windowBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    if (bytesPerSecond < previousBytesPerSecond * (1 - TOLERANCE)) {
+      direction = -direction;
+      step();
+    } else if (bytesPerSecond > previousBytesPerSecond * (1 + TOLERANCE)) {
+      step();
+    }
+    LOG.debug("Observed %.0f bytes/s, concurrency limit is now %d.", bytesPerSecond, limit);
+    previousBytesPerSecond = bytesPerSecond;
+    windowStartNanos = now;
+    windowBytes = 0;
+  }
+
+  /** Records that a transfer failed, which is taken as a sign of overloading the remote end. */
+  public synchronized void onFailure() {
+    if (isFixed) {
+      return;
+    }
+    limit = Math.max(1, limit / 2);
+    direction = 1;
+    previousBytesPerSecond = 0;
+    windowStartNanos = clock.nanoTime();
+    windowBytes = 0;
+  }
+
+  private void step() {
+    int next = limit + direction;
+    if (next < 1 || next > maxLimit) {
+      direction = -direction;
+      return;
+    }
+    limit = next;
+  }
+}
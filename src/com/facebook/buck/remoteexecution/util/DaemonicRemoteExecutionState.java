@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
+import com.facebook.buck.io.watchman.WatchmanPathEvent;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Remote execution state which the daemon keeps between builds, so that preparing the actions of a
+ * build doesn't start from scratch:
+ *
+ * <ul>
+ *   <li>the merkle tree nodes of action inputs, with their encoded data, see {@link
+ *       MerkleTreeNodeCache};
+ *   <li>the file nodes of input files, which are used as long as the file hash cache reports the
+ *       same hash for the file and Watchman doesn't report a change to it;
+ *   <li>the digests which the CAS is known to contain, so that they aren't looked up again.
+ * </ul>
+ */
+public class DaemonicRemoteExecutionState {
+  private static final Logger LOG = Logger.get(DaemonicRemoteExecutionState.class);
+
+  /** At about 100 bytes a digest, this bounds the known digests to 100MB. */
+  private static final long MAX_KNOWN_DIGESTS = 1_000_000;
+
+  private final long maxCachedNodes;
+  private final ConcurrentMap<Class<?>, MerkleTreeNodeCache> nodeCaches;
+  @Nullable private final Cache<Path, CachedFileNode> fileNodes;
+  @Nullable private final Cache<String, Boolean> digestsKnownToCas;
+
+  /**
+   * @param maxCachedNodes how many merkle tree nodes, and how many file nodes, are kept between
+   *     builds. Nothing is kept when it's not positive.
+   * @param knownDigestsTtlSeconds how long a digest is assumed to remain in the CAS after it was
+   *     uploaded. Digests aren't remembered between builds when it's not positive.
+   */
+  public DaemonicRemoteExecutionState(long maxCachedNodes, long knownDigestsTtlSeconds) {
+    this.maxCachedNodes = maxCachedNodes;
+    this.nodeCaches = new ConcurrentHashMap<>();
+    this.fileNodes =
+        maxCachedNodes > 0 ? CacheBuilder.newBuilder().maximumSize(maxCachedNodes).build() : null;
+    this.digestsKnownToCas =
+        knownDigestsTtlSeconds > 0
+            ? CacheBuilder.newBuilder()
+                .maximumSize(MAX_KNOWN_DIGESTS)
+                .expireAfterWrite(knownDigestsTtlSeconds, TimeUnit.SECONDS)
+                .build()
+            : null;
+  }
+
+  /** @return a state which keeps nothing between builds. */
+  public static DaemonicRemoteExecutionState disabled() {
+    return new DaemonicRemoteExecutionState(0, 0);
+  }
+
+  /**
+   * @return the node cache to build the merkle trees of a build with. It is shared with the next
+   *     builds, unless nodes aren't kept between builds.
+   */
+  public MerkleTreeNodeCache getMerkleTreeNodeCache(Protocol protocol) {
+    if (maxCachedNodes <= 0) {
+      return new MerkleTreeNodeCache(protocol);
+    }
+    return nodeCaches.computeIfAbsent(
+        protocol.getClass(), ignored -> new MerkleTreeNodeCache(protocol, maxCachedNodes));
+  }
+
+  /** @return the file node of the file at {@code path}, if it was cached with the same hash. */
+  public Optional<FileNode> getFileNode(Path path, HashCode hash) {
+    if (fileNodes == null) {
+      return Optional.empty();
+    }
+    CachedFileNode cached = fileNodes.getIfPresent(path);
+    return cached != null && cached.hash.equals(hash)
+        ? Optional.of(cached.fileNode)
+        : Optional.empty();
+  }
+
+  /** Caches the file node of the file at {@code path}, which has the given hash. */
+  public void putFileNode(Path path, HashCode hash, FileNode fileNode) {
+    if (fileNodes != null) {
+      fileNodes.put(path, new CachedFileNode(hash, fileNode));
+    }
+  }
+
+  /** @return whether the CAS recently contained the blob with the given digest. */
+  public boolean isKnownToCas(Digest digest) {
+    return digestsKnownToCas != null && digestsKnownToCas.getIfPresent(digest.getHash()) != null;
+  }
+
+  /** Records that the CAS contains the blob with the given digest. */
+  public void recordKnownToCas(Digest digest) {
+    if (digestsKnownToCas != null) {
+      digestsKnownToCas.put(digest.getHash(), true);
+    }
+  }
+
+  /**
+   * Forgets all the digests the CAS was known to contain, as when an execution failed, which may
+   * be because the CAS evicted one of its inputs.
+   */
+  public void forgetKnownToCas() {
+    if (digestsKnownToCas != null) {
+      digestsKnownToCas.invalidateAll();
+    }
+  }
+
+  /** Invalidates the file node of the changed path. */
+  @Subscribe
+  public void invalidateBasedOn(WatchmanPathEvent event) {
+    if (fileNodes != null) {
+      fileNodes.invalidate(event.getCellPath().resolve(event.getPath()).getPath());
+    }
+  }
+
+  /** Invalidates all file nodes, as Watchman can't tell which files changed. */
+  @Subscribe
+  public void invalidateBasedOn(@SuppressWarnings("unused") WatchmanOverflowEvent event) {
+    if (fileNodes != null) {
+      LOG.debug("Invalidating all cached file nodes.");
+      fileNodes.invalidateAll();
+    }
+  }
+
+  private static class CachedFileNode {
+    private final HashCode hash;
+    private final FileNode fileNode;
+
+    CachedFileNode(HashCode hash, FileNode fileNode) {
+      this.hash = hash;
+      this.fileNode = fileNode;
+    }
+  }
+}
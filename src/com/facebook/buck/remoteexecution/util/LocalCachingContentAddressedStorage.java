@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Tree;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.concurrent.KeyedLocker.AutoUnlocker;
+import com.google.devtools.build.lib.concurrent.StripedKeyedLocker;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ContentAddressedStorageClient} which keeps the blobs it fetches from another one in a
+ * local directory, with the same layout as {@link LocalContentAddressedStorage}.
+ *
+ * <p>Blobs which are already in the directory aren't fetched again, and concurrent fetches of the
+ * same blob are only sent once. Outputs are materialized from the directory, by hardlink when the
+ * {@link FileMaterializer} supports it, so blobs are made read-only before they are added to it.
+ * The directory may be shared by several daemons, as blobs are written to temporary files and
+ * moved into place. When it grows over its maximum size, the least recently used blobs are deleted
+ * in the background. Its size is first computed in the background too, once a blob is added to it.
+ * As linked outputs share the blobs' timestamps, use is recorded in the access
+ * time, which reading an output changes anyway, rather than in the modification time.
+ */
+public class LocalCachingContentAddressedStorage
+    implements ContentAddressedStorageClient, Closeable {
+  private static final Logger LOG = Logger.get(LocalCachingContentAddressedStorage.class);
+
+  private static final String EXECUTABLE_SUFFIX = ".x";
+  private static final String TEMP_SUFFIX = ".tmp.";
+
+  /** Eviction deletes blobs until the directory is at most this fraction of its maximum size. */
+  private static final double EVICTION_TARGET_RATIO = 0.9;
+
+  private final ContentAddressedStorageClient delegate;
+  private final Protocol protocol;
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final String tempSuffix;
+  private final ExecutorService evictionService;
+  private final StripedKeyedLocker<String> fileLock = new StripedKeyedLocker<>(8);
+  private final ConcurrentMap<String, ListenableFuture<Path>> pendingFetches =
+      new ConcurrentHashMap<>();
+  /** The size of the cache directory, only counting added blobs until it was first computed. */
+  private final AtomicLong cacheSizeBytes = new AtomicLong();
+
+  private final AtomicBoolean cacheSizeComputed = new AtomicBoolean();
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+  public LocalCachingContentAddressedStorage(
+      ContentAddressedStorageClient delegate,
+      Protocol protocol,
+      Path cacheDir,
+      long maxSizeBytes) {
+    this(
+        delegate,
+        protocol,
+        cacheDir,
+        maxSizeBytes,
+        MostExecutors.newSingleThreadExecutor("local-cas-eviction"));
+  }
+
+  @VisibleForTesting
+  LocalCachingContentAddressedStorage(
+      ContentAddressedStorageClient delegate,
+      Protocol protocol,
+      Path cacheDir,
+      long maxSizeBytes,
+      ExecutorService evictionService) {
+    this.delegate = delegate;
+    this.protocol = protocol;
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+    this.tempSuffix = TEMP_SUFFIX + UUID.randomUUID();
+    this.evictionService = evictionService;
+  }
+
+  @Override
+  public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) throws IOException {
+    return delegate.addMissing(data);
+  }
+
+  @Override
+  public boolean containsDigest(Digest digest) {
+    return delegate.containsDigest(digest);
+  }
+
+  @Override
+  public ListenableFuture<ByteBuffer> fetch(Digest digest) {
+    return Futures.transformAsync(
+        getCachedPaths(ImmutableList.of(digest)).get(digest.getHash()),
+        path -> {
+          try {
+            return Futures.immediateFuture(ByteBuffer.wrap(Files.readAllBytes(path)));
+          } catch (NoSuchFileException e) {
+            LOG.debug("%s was evicted before it could be read, fetching it again.", path);
+            return delegate.fetch(digest);
+          } catch (IOException e) {
+            throw new BuckUncheckedExecutionException(e, "When reading %s.", path);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<Unit> materializeOutputs(
+      List<OutputDirectory> outputDirectories,
+      List<OutputFile> outputFiles,
+      FileMaterializer materializer)
+      throws IOException {
+    List<ListenableFuture<Unit>> pending = new ArrayList<>();
+    pending.add(materializeFiles(outputFiles, materializer));
+    for (OutputDirectory directory : outputDirectories) {
+      Path dirRoot = Paths.get(directory.getPath());
+      // If a directory is empty, we need to still ensure that it is created.
+      materializer.makeDirectories(dirRoot);
+      pending.add(
+          Futures.transformAsync(
+              fetch(directory.getTreeDigest()),
+              data -> {
+                Tree tree = protocol.parseTree(data);
+                Map<Digest, Directory> childMap = new HashMap<>();
+                for (Directory child : tree.getChildrenList()) {
+                  childMap.put(protocol.computeDigest(child), child);
+                }
+                List<OutputFile> files = new ArrayList<>();
+                collectFiles(materializer, childMap, tree.getRoot(), dirRoot, files);
+                return materializeFiles(files, materializer);
+              },
+              MoreExecutors.directExecutor()));
+    }
+    return Futures.whenAllSucceed(pending).call(() -> null, MoreExecutors.directExecutor());
+  }
+
+  private void collectFiles(
+      FileMaterializer materializer,
+      Map<Digest, Directory> childMap,
+      Directory directory,
+      Path root,
+      List<OutputFile> files)
+      throws IOException {
+    materializer.makeDirectories(root);
+    for (Protocol.DirectoryNode childNode : directory.getDirectoriesList()) {
+      collectFiles(
+          materializer,
+          childMap,
+          Objects.requireNonNull(
+              childMap.get(childNode.getDigest()),
+              String.format("Data for dir [%s] not found in merkle-tree.", root)),
+          root.resolve(childNode.getName()),
+          files);
+    }
+    for (FileNode file : directory.getFilesList()) {
+      files.add(
+          protocol.newOutputFile(
+              root.resolve(file.getName()), file.getDigest(), file.getIsExecutable()));
+    }
+  }
+
+  private ListenableFuture<Unit> materializeFiles(
+      List<OutputFile> files, FileMaterializer materializer) throws IOException {
+    if (files.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    ImmutableMap<String, ListenableFuture<Path>> cachedPaths =
+        getCachedPaths(
+            files.stream().map(OutputFile::getDigest).collect(ImmutableList.toImmutableList()));
+    List<ListenableFuture<Unit>> pending = new ArrayList<>();
+    for (OutputFile file : files) {
+      Path path = Paths.get(file.getPath());
+      Path parent = path.getParent();
+      if (parent != null) {
+        materializer.makeDirectories(parent);
+      }
+      pending.add(
+          Futures.transformAsync(
+              Objects.requireNonNull(cachedPaths.get(file.getDigest().getHash())),
+              cachedPath -> {
+                try {
+                  Path source =
+                      file.getIsExecutable() ? getExecutableVariant(cachedPath) : cachedPath;
+                  materializer.materializeFrom(path, source, file.getIsExecutable());
+                  return Futures.immediateFuture(null);
+                } catch (NoSuchFileException e) {
+                  // The blob may have been evicted since it was found in the cache.
+                  LOG.debug("%s was evicted before it could be linked, fetching it again.", path);
+                  return delegate.materializeOutputs(
+                      ImmutableList.of(), ImmutableList.of(file), materializer);
+                } catch (IOException e) {
+                  throw new BuckUncheckedExecutionException(e, "When materializing %s.", path);
+                }
+              },
+              MoreExecutors.directExecutor()));
+    }
+    return Futures.whenAllSucceed(pending).call(() -> null, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Ensures that the blobs with the provided digests are in the cache directory, fetching the
+   * missing ones from the delegate in one request.
+   *
+   * @return the paths of the blobs in the cache directory, keyed by their hash.
+   */
+  private ImmutableMap<String, ListenableFuture<Path>> getCachedPaths(
+      ImmutableList<Digest> digests) {
+    Map<String, ListenableFuture<Path>> cachedPaths = new HashMap<>();
+    Map<Digest, SettableFuture<Path>> toFetch = new LinkedHashMap<>();
+    for (Digest digest : digests) {
+      String hash = digest.getHash();
+      if (cachedPaths.containsKey(hash)) {
+        continue;
+      }
+      Path path = getPath(hash);
+      if (touch(path)) {
+        cachedPaths.put(hash, Futures.immediateFuture(path));
+        continue;
+      }
+      SettableFuture<Path> future = SettableFuture.create();
+      ListenableFuture<Path> pendingFetch = pendingFetches.putIfAbsent(hash, future);
+      if (pendingFetch != null) {
+        cachedPaths.put(hash, pendingFetch);
+        continue;
+      }
+      cachedPaths.put(hash, future);
+      toFetch.put(digest, future);
+    }
+
+    if (!toFetch.isEmpty()) {
+      ListenableFuture<Unit> fetched;
+      try {
+        fetched =
+            delegate.materializeOutputs(
+                ImmutableList.of(),
+                toFetch.keySet().stream()
+                    .map(
+                        digest ->
+                            protocol.newOutputFile(Paths.get(digest.getHash()), digest, false))
+                    .collect(ImmutableList.toImmutableList()),
+                new CacheDirectoryMaterializer());
+      } catch (IOException e) {
+        fetched = Futures.immediateFailedFuture(e);
+      }
+      ListenableFuture<Unit> finalFetched = fetched;
+      fetched.addListener(
+          () -> toFetch.forEach((digest, future) -> completeFetch(digest, future, finalFetched)),
+          MoreExecutors.directExecutor());
+    }
+    return ImmutableMap.copyOf(cachedPaths);
+  }
+
+  private void completeFetch(
+      Digest digest, SettableFuture<Path> future, ListenableFuture<Unit> fetched) {
+    String hash = digest.getHash();
+    Path tempPath = getTempPath(hash);
+    try {
+      Futures.getDone(fetched);
+      Path path = getPath(hash);
+      // Outputs may be linked to the blob, which must not be changed through them.
+      Preconditions.checkState(tempPath.toFile().setWritable(false, false));
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      future.set(path);
+      addToCacheSize(digest.getSize());
+    } catch (Exception e) {
+      future.setException(e);
+      try {
+        Files.deleteIfExists(tempPath);
+      } catch (IOException deleteException) {
+        LOG.warn(deleteException, "Couldn't delete %s.", tempPath);
+      }
+    } finally {
+      pendingFetches.remove(hash, future);
+    }
+  }
+
+  /**
+   * Marks the blob at the provided path as recently used, if it exists. Only the access time is
+   * updated, as the blob shares its timestamps with the outputs that are linked to it.
+   */
+  private static boolean touch(Path path) {
+    try {
+      Files.getFileAttributeView(path, BasicFileAttributeView.class)
+          .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      LOG.debug(e, "Couldn't touch %s.", path);
+      return Files.exists(path);
+    }
+  }
+
+  /**
+   * As links to a file share its permissions and it could be materialized as both executable and
+   * non-executable, executable files are materialized from an executable copy of the blob.
+   */
+  private Path getExecutableVariant(Path path) throws IOException {
+    Path exePath = path.resolveSibling(path.getFileName() + EXECUTABLE_SUFFIX);
+    if (touch(exePath)) {
+      return exePath;
+    }
+    try (AutoUnlocker ignored = fileLock.writeLock(exePath.toString())) {
+      if (!Files.exists(exePath)) {
+        Path tempPath = exePath.resolveSibling(exePath.getFileName() + tempSuffix);
+        Files.copy(path, tempPath, StandardCopyOption.REPLACE_EXISTING);
+        Preconditions.checkState(tempPath.toFile().setExecutable(true, false));
+        Preconditions.checkState(tempPath.toFile().setWritable(false, false));
+        Files.move(
+            tempPath, exePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        addToCacheSize(Files.size(exePath));
+      }
+    }
+    return exePath;
+  }
+
+  /**
+   * Records that blobs were added to the cache directory, and evicts blobs if it is now too large.
+   * Eviction also computes the size of the directory, so it is started for the first added blob.
+   */
+  private void addToCacheSize(long bytes) {
+    if (cacheSizeBytes.addAndGet(bytes) > maxSizeBytes || !cacheSizeComputed.get()) {
+      scheduleEviction();
+    }
+  }
+
+  private void scheduleEviction() {
+    if (evictionScheduled.compareAndSet(false, true)) {
+      evictionService.submit(
+          () -> {
+            try {
+              evict();
+            } catch (IOException e) {
+              LOG.warn(e, "Couldn't evict blobs from %s.", cacheDir);
+            } finally {
+              evictionScheduled.set(false);
+            }
+          });
+    }
+  }
+
+  /**
+   * Computes the size of the cache directory and, if it is over the maximum size, deletes the least
+   * recently used blobs until it is small enough.
+   */
+  @VisibleForTesting
+  void evict() throws IOException {
+    List<CachedBlob> blobs = listBlobs();
+    long size = blobs.stream().mapToLong(blob -> blob.size).sum();
+    long targetSize = size > maxSizeBytes ? (long) (maxSizeBytes * EVICTION_TARGET_RATIO) : size;
+    blobs.sort(Comparator.comparing(blob -> blob.lastAccessTime));
+    int evicted = 0;
+    for (CachedBlob blob : blobs) {
+      if (size <= targetSize) {
+        break;
+      }
+      // Outputs linked to the blob are left untouched.
+      if (Files.deleteIfExists(blob.path)) {
+        size -= blob.size;
+        evicted++;
+      }
+    }
+    cacheSizeBytes.set(size);
+    cacheSizeComputed.set(true);
+    LOG.debug("Evicted %d blobs from %s, which now holds %d bytes.", evicted, cacheDir, size);
+  }
+
+  private List<CachedBlob> listBlobs() throws IOException {
+    List<CachedBlob> blobs = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return blobs;
+    }
+    try (Stream<Path> paths = Files.walk(cacheDir)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (path.getFileName().toString().contains(TEMP_SUFFIX)) {
+          continue;
+        }
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        if (attributes.isRegularFile()) {
+          blobs.add(new CachedBlob(path, attributes.size(), attributes.lastAccessTime()));
+        }
+      }
+    }
+    return blobs;
+  }
+
+  /** Stops evicting blobs once a running eviction is done. Cached blobs are kept. */
+  @Override
+  public void close() {
+    evictionService.shutdown();
+  }
+
+  private Path getPath(String hash) {
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  private Path getTempPath(String hash) {
+    Path path = getPath(hash);
+    return path.resolveSibling(path.getFileName() + tempSuffix);
+  }
+
+  /** Writes blobs, whose outputs paths are their hashes, to temporary files in the cache. */
+  private class CacheDirectoryMaterializer implements FileMaterializer {
+    @Override
+    public WritableByteChannel getOutputChannel(Path path, boolean executable) throws IOException {
+      Path tempPath = getTempPath(path.toString());
+      MoreFiles.createParentDirectories(tempPath);
+      return FileChannel.open(
+          tempPath,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void makeDirectories(Path dirRoot) {}
+  }
+
+  private static class CachedBlob {
+    private final Path path;
+    private final long size;
+    private final FileTime lastAccessTime;
+
+    CachedBlob(Path path, long size, FileTime lastAccessTime) {
+      this.path = path;
+      this.size = size;
+      this.lastAccessTime = lastAccessTime;
+    }
+  }
+}
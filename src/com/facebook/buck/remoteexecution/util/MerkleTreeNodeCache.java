@@ -26,6 +26,8 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.TreeNode;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
@@ -47,13 +49,34 @@ import javax.annotation.Nullable;
  *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
  * (these values are cached once computed for a node).
+ *
+ * <p>Interned nodes are only weakly referenced, so a cache which outlives a build can retain the
+ * nodes whose data was most recently requested. Trees built later share the retained subtrees and
+ * their encoded data, as long as the files in them didn't change.
  */
 public class MerkleTreeNodeCache {
   private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
   private final Protocol protocol;
+  @Nullable private final Cache<MerkleTreeNode, MerkleTreeNode> retainedNodes;
 
   public MerkleTreeNodeCache(Protocol protocol) {
+    this(protocol, 0);
+  }
+
+  /**
+   * @param maxRetainedNodes how many of the nodes whose data was requested are kept alive, along
+   *     with their children.
+   */
+  public MerkleTreeNodeCache(Protocol protocol, long maxRetainedNodes) {
     this.protocol = protocol;
+    this.retainedNodes =
+        maxRetainedNodes > 0
+            ? CacheBuilder.newBuilder().maximumSize(maxRetainedNodes).build()
+            : null;
+  }
+
+  public Protocol getProtocol() {
+    return protocol;
   }
 
   /**
@@ -115,6 +138,9 @@ public class MerkleTreeNodeCache {
 
   /** Gets the {@link Protocol} encoded data for the provided tree. */
   public NodeData getData(MerkleTreeNode node) {
+    if (retainedNodes != null) {
+      retainedNodes.put(node, node);
+    }
     return node.getData(protocol);
   }
 
@@ -35,6 +35,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.grpc.Status;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.util.Objects;
 import java.util.Optional;
@@ -47,6 +48,7 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A simple multi-threaded blob uploader for uploading inputs/outputs to the CAS.
@@ -58,6 +60,11 @@ import java.util.stream.Stream;
  * does/doesn't contain. Any that are missing will be added to a queue to be uploaded. Work threads
  * will then pull those off and upload them. When the upload is finished, the future for that digest
  * will be fulfilled.
+ *
+ * <p>Missing blobs are split by size. Blobs up to uploadSizeLimit are batched together, while larger
+ * ones are streamed individually on a separate executor, so that a few very large blobs don't hold
+ * up the batches. The number of large blobs streamed at the same time is adjusted based on the
+ * observed throughput.
  */
 public class MultiThreadedBlobUploader {
   private static final Logger LOG = Logger.get(MultiThreadedBlobUploader.class);
@@ -73,9 +80,16 @@ public class MultiThreadedBlobUploader {
 
   private final BlockingQueue<PendingUpload> waitingMissingCheck = new LinkedBlockingQueue<>();
 
+  private final BlockingQueue<PendingUpload> waitingLargeUploads = new LinkedBlockingQueue<>();
+
   private final ExecutorService uploadService;
+  private final ExecutorService largeUploadService;
+  private final AdaptiveConcurrencyLimit largeUploadConcurrency;
   private final CasBlobUploader asyncBlobUploader;
 
+  @GuardedBy("this")
+  private int activeLargeUploads = 0;
+
   private static class PendingUpload {
     private final UploadDataSupplier uploadData;
     private final SettableFuture<Unit> future;
@@ -94,14 +108,41 @@ public class MultiThreadedBlobUploader {
     }
   }
 
+  /**
+   * Streams large blobs on uploadService as well, as many at a time as it has threads for, like the
+   * smaller ones.
+   */
+  public MultiThreadedBlobUploader(
+      int missingCheckLimit,
+      int uploadSizeLimit,
+      ExecutorService uploadService,
+      CasBlobUploader delegate) {
+    this(
+        missingCheckLimit,
+        uploadSizeLimit,
+        uploadService,
+        uploadService,
+        AdaptiveConcurrencyLimit.fixed(Integer.MAX_VALUE),
+        delegate);
+  }
+
+  /**
+   * @param largeUploadService the executor on which blobs larger than uploadSizeLimit are streamed.
+   * @param largeUploadConcurrency decides how many of those are streamed at the same time, it
+   *     shouldn't allow more than the number of threads of largeUploadService.
+   */
   public MultiThreadedBlobUploader(
       int missingCheckLimit,
       int uploadSizeLimit,
       ExecutorService uploadService,
+      ExecutorService largeUploadService,
+      AdaptiveConcurrencyLimit largeUploadConcurrency,
       CasBlobUploader delegate) {
     this.missingCheckLimit = missingCheckLimit;
     this.uploadSizeLimit = uploadSizeLimit;
     this.uploadService = uploadService;
+    this.largeUploadService = largeUploadService;
+    this.largeUploadConcurrency = largeUploadConcurrency;
     this.asyncBlobUploader = delegate;
   }
 
@@ -192,10 +233,12 @@ public class MultiThreadedBlobUploader {
       Set<String> missing = asyncBlobUploader.getMissingHashes(requiredDigests);
 
       for (PendingUpload entry : data) {
-        if (missing.contains(entry.getHash())) {
-          waitingUploads.add(entry);
-        } else {
+        if (!missing.contains(entry.getHash())) {
           entry.future.set(null);
+        } else if (entry.getSize() > uploadSizeLimit) {
+          waitingLargeUploads.add(entry);
+        } else {
+          waitingUploads.add(entry);
         }
       }
     } catch (Throwable e) {
@@ -203,8 +246,72 @@ public class MultiThreadedBlobUploader {
     }
   }
 
+  private synchronized void startLargeUploads() {
+    while (activeLargeUploads < largeUploadConcurrency.getLimit()) {
+      PendingUpload upload = waitingLargeUploads.poll();
+      if (upload == null) {
+        return;
+      }
+      activeLargeUploads++;
+      largeUploadService.submit(() -> processLargeUpload(upload));
+    }
+  }
+
+  private void processLargeUpload(PendingUpload upload) {
+    try {
+      LOG.debug("Starting Uploading: " + upload.getHash() + ", size: " + upload.getSize());
+      UploadResult uploadResult =
+          asyncBlobUploader.uploadFromStream(creditingReadBytes(upload.uploadData));
+      if (uploadResult.status != Status.Code.OK.value()) {
+        largeUploadConcurrency.onFailure();
+      }
+      setPendingUploadResult(upload, uploadResult);
+      LOG.debug("Finished Uploading: " + upload.getHash() + ", size: " + upload.getSize());
+    } catch (Exception e) {
+      largeUploadConcurrency.onFailure();
+      upload.future.setException(e);
+    } finally {
+      synchronized (this) {
+        activeLargeUploads--;
+      }
+      startLargeUploads();
+    }
+  }
+
+  /**
+   * Credits the bytes of a large blob to {@link #largeUploadConcurrency} as the uploader reads
+   * them, since it only reads a chunk once the previous one could be sent. Skipped bytes, like
+   * those already written when a write is resumed, aren't credited.
+   */
+  private UploadDataSupplier creditingReadBytes(UploadDataSupplier uploadData) {
+    return UploadDataSupplier.of(
+        uploadData.describe(),
+        uploadData.getDigest(),
+        () ->
+            new FilterInputStream(uploadData.get()) {
+              @Override
+              public int read() throws IOException {
+                int value = super.read();
+                if (value != -1) {
+                  largeUploadConcurrency.onBytesTransferred(1);
+                }
+                return value;
+              }
+
+              @Override
+              public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                  largeUploadConcurrency.onBytesTransferred(read);
+                }
+                return read;
+              }
+            });
+  }
+
   private void processUploads() {
     processMissing();
+    startLargeUploads();
     ImmutableMap.Builder<String, PendingUpload> dataBuilder = ImmutableMap.builder();
     int size = 0;
     while (!waitingUploads.isEmpty()) {
@@ -234,29 +341,20 @@ public class MultiThreadedBlobUploader {
                 + size
                 + ". "
                 + String.join(", ", data.keySet()));
-        if (size > uploadSizeLimit) {
-          // This should only happen when we're trying to upload a single large object
-          Preconditions.checkState(data.size() == 1);
-          PendingUpload largeDataUpload = data.entrySet().iterator().next().getValue();
-          UploadResult uploadResult =
-              asyncBlobUploader.uploadFromStream(largeDataUpload.uploadData);
-          setPendingUploadResult(largeDataUpload, uploadResult);
-        } else {
-          ImmutableList<UploadDataSupplier> blobs =
-              data.values().stream()
-                  .map(e -> e.uploadData)
-                  .collect(ImmutableList.toImmutableList());
-
-          ImmutableList<UploadResult> results = asyncBlobUploader.batchUpdateBlobs(blobs);
-          Preconditions.checkState(results.size() == blobs.size());
-          results.forEach(
-              result -> {
-                PendingUpload pendingUpload =
-                    Objects.requireNonNull(data.get(result.digest.getHash()));
-                setPendingUploadResult(pendingUpload, result);
-              });
-          data.forEach((k, pending) -> pending.future.setException(new RuntimeException("idk")));
-        }
+        ImmutableList<UploadDataSupplier> blobs =
+            data.values().stream()
+                .map(e -> e.uploadData)
+                .collect(ImmutableList.toImmutableList());
+
+        ImmutableList<UploadResult> results = asyncBlobUploader.batchUpdateBlobs(blobs);
+        Preconditions.checkState(results.size() == blobs.size());
+        results.forEach(
+            result -> {
+              PendingUpload pendingUpload =
+                  Objects.requireNonNull(data.get(result.digest.getHash()));
+              setPendingUploadResult(pendingUpload, result);
+            });
+        data.forEach((k, pending) -> pending.future.setException(new RuntimeException("idk")));
         LOG.debug("Finished Uploading: " + data.size() + " requests, size: " + size);
       } catch (Exception e) {
         data.forEach((k, pending) -> pending.future.setException(e));
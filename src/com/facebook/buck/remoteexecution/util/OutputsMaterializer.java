@@ -42,6 +42,7 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -99,6 +100,20 @@ public class OutputsMaterializer {
       return channel;
     }
 
+    @Override
+    public void materializeFrom(Path path, Path source, boolean executable) throws IOException {
+      Path target = root.resolve(path);
+      MoreFiles.createParentDirectories(target);
+      try {
+        // The source is expected to already have the right permissions.
+        Files.createLink(target, source);
+      } catch (FileSystemException | UnsupportedOperationException e) {
+        // The source may be on another file system.
+        LOG.debug(e, "Couldn't link %s to %s, copying it instead.", target, source);
+        FileMaterializer.super.materializeFrom(path, source, executable);
+      }
+    }
+
     private void setExecutable(boolean isExecutable, Path path) {
       if (isExecutable) {
         Preconditions.checkState(path.toFile().setExecutable(true, false));
@@ -30,9 +30,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -45,6 +47,11 @@ import javax.annotation.Nullable;
  * keys are tracked to allow for invalidations based on changed inputs. As such, this cache is
  * usable between multiple build runs.
  *
+ * <p>The reverse edges from inputs and dependencies to the keys using them are kept exact: a key
+ * that is invalidated is unlinked from the inputs and dependencies it used, so that a changed input
+ * only invalidates the keys which currently depend on it, and repeated builds don't accumulate
+ * stale edges.
+ *
  * @param <V> The rule key type.
  */
 public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
@@ -60,17 +67,23 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   private final ConcurrentHashMap<IdentityWrapper<Object>, Node<Object, V>> cache =
       new ConcurrentHashMap<>();
 
-  /** A map for rule key inputs to nodes that use them. */
-  private final ConcurrentHashMap<RuleKeyInput, Stream.Builder<Object>> inputsIndex =
+  /**
+   * A map for rule key inputs to nodes that use them.
+   *
+   * <p>The sets are only modified by the compute* functions on ConcurrentHashMap.
+   */
+  private final ConcurrentHashMap<RuleKeyInput, Set<IdentityWrapper<Object>>> inputsIndex =
       new ConcurrentHashMap<>();
 
-  private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create) {
+  private <K> V calculateNode(
+      K node, Node<Object, V> cacheNode, Function<K, RuleKeyResult<V>> create) {
     Preconditions.checkArgument(
         node instanceof BuildEngineAction || node instanceof AddsToRuleKey,
         "%s must be one of either a `BuildEngineAction` or `AddsToRuleKey`",
         node.getClass());
 
     RuleKeyResult<V> result = create.apply(node);
+    IdentityWrapper<Object> nodeKey = new IdentityWrapper<>(node);
     for (Object dependency : result.deps) {
       cache.compute(
           new IdentityWrapper<>(dependency),
@@ -78,21 +91,23 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
             if (value == null) {
               value = new Node<>();
             }
-            value.dependents.add(node);
+            value.dependents.add(nodeKey);
             return value;
           });
     }
     for (RuleKeyInput input : result.inputs) {
       inputsIndex.compute(
           input,
-          (key, builder) -> {
-            if (builder == null) {
-              builder = Stream.builder();
+          (key, nodes) -> {
+            if (nodes == null) {
+              nodes = new HashSet<>();
             }
-            builder.add(node);
-            return builder;
+            nodes.add(nodeKey);
+            return nodes;
           });
     }
+    cacheNode.deps = result.deps;
+    cacheNode.inputs = result.inputs;
 
     return result.result;
   }
@@ -109,7 +124,9 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
                   }
                   if (value.value == null) {
                     request.recordMiss();
-                    value.value = MoreSuppliers.memoize(() -> calculateNode(node, create));
+                    Node<Object, V> cacheNode = value;
+                    value.value =
+                        MoreSuppliers.memoize(() -> calculateNode(node, cacheNode, create));
                     request.recordLoadSuccess();
                   } else {
                     request.recordHit();
@@ -164,36 +181,59 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   }
 
   /** Recursively invalidate nodes up the dependency tree. */
-  private void invalidateNodes(Stream<Object> nodes, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> dependents = new ArrayList<>();
+  private void invalidateNodes(
+      Stream<IdentityWrapper<Object>> nodes, CacheStatsTracker statsTracker) {
+    List<IdentityWrapper<Object>> dependents = new ArrayList<>();
     nodes.forEach(
         key -> {
-          Node<Object, V> node = cache.remove(new IdentityWrapper<>(key));
+          Node<Object, V> node = cache.remove(key);
           // This node may have already been removed due to being someone else's reverse dependency.
           if (node != null) {
-            LOG.verbose("invalidating node %s", key);
-            dependents.add(node.dependents.build());
+            LOG.verbose("invalidating node %s", key.delegate);
+            unlink(key, node);
+            dependents.addAll(node.dependents);
             statsTracker.recordEviction();
           }
         });
     if (!dependents.isEmpty()) {
-      invalidateNodes(dependents.stream().flatMap(x -> x), statsTracker);
+      invalidateNodes(dependents.stream(), statsTracker);
+    }
+  }
+
+  /** Removes the reverse edges from the inputs and deps of an invalidated node to it. */
+  private void unlink(IdentityWrapper<Object> key, Node<Object, V> node) {
+    for (RuleKeyInput input : node.inputs) {
+      inputsIndex.computeIfPresent(
+          input,
+          (ignored, nodes) -> {
+            nodes.remove(key);
+            return nodes.isEmpty() ? null : nodes;
+          });
+    }
+    for (Object dependency : node.deps) {
+      cache.computeIfPresent(
+          new IdentityWrapper<>(dependency),
+          (ignored, value) -> {
+            value.dependents.remove(key);
+            // Drop nodes which were only created to record dependents.
+            return value.value == null && value.dependents.isEmpty() ? null : value;
+          });
     }
   }
 
   /** Invalidate the given inputs and all their transitive dependents. */
   @Override
   public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> nodes = new ArrayList<>();
+    List<IdentityWrapper<Object>> nodes = new ArrayList<>();
     for (RuleKeyInput input : inputs) {
       LOG.verbose("invalidating input %s", input);
-      Stream.Builder<Object> inputNodes = inputsIndex.remove(input);
+      Set<IdentityWrapper<Object>> inputNodes = inputsIndex.remove(input);
       if (inputNodes != null) {
-        nodes.add(inputNodes.build());
+        nodes.addAll(inputNodes);
       }
     }
     if (!nodes.isEmpty()) {
-      invalidateNodes(nodes.stream().flatMap(x -> x), statsTracker);
+      invalidateNodes(nodes.stream(), statsTracker);
     }
   }
 
@@ -252,10 +292,15 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
 
   private static final class Node<T, V> {
     /**
-     * Accumulator of nodes that depends on this one. Used to invalidate those nodes when this node
-     * is invalidated.
+     * The nodes that depend on this one. Used to invalidate those nodes when this node is
+     * invalidated. Only modified by the compute* functions on ConcurrentHashMap.
      */
-    private final Stream.Builder<T> dependents;
+    private final Set<IdentityWrapper<T>> dependents;
+
+    /** The deps and inputs the value was calculated from, to unlink the node when invalidated. */
+    private volatile Iterable<?> deps = ImmutableList.of();
+
+    private volatile Iterable<RuleKeyInput> inputs = ImmutableList.of();
 
     /**
      * The cached value, stored in a memoized supplier. A memoized supplier is used to allow the
@@ -268,7 +313,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     @Nullable private volatile Supplier<V> value;
 
     public Node() {
-      this.dependents = Stream.builder();
+      this.dependents = new HashSet<>();
       this.value = null;
     }
   }
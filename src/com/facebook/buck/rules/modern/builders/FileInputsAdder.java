@@ -57,6 +57,9 @@ class FileInputsAdder {
 
     @Nullable
     Path getSymlinkTarget(Path path) throws IOException;
+
+    /** Returns whether the path is a regular file, which may not be on disk yet. */
+    boolean isRegularFile(Path path);
   }
 
   private final Set<Path> addedInputs = new HashSet<>();
@@ -157,7 +160,7 @@ class FileInputsAdder {
       return target;
     }
 
-    if (Files.isRegularFile(path)) {
+    if (delegate.isRegularFile(path)) {
       delegate.addFile(path);
     }
     map.put(path, path);
@@ -183,5 +186,10 @@ class FileInputsAdder {
     public Path getSymlinkTarget(Path path) throws IOException {
       return Files.isSymbolicLink(path) ? Files.readSymbolicLink(path) : null;
     }
+
+    @Override
+    public boolean isRegularFile(Path path) {
+      return Files.isRegularFile(path);
+    }
   }
 }
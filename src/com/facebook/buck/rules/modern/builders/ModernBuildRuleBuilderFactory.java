@@ -17,6 +17,7 @@
 package com.facebook.buck.rules.modern.builders;
 
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
@@ -31,6 +32,7 @@ import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.factory.RemoteExecutionClientsFactory;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.rules.modern.config.HybridLocalBuildStrategyConfig;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleBuildStrategy;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleStrategyConfig;
@@ -56,6 +58,8 @@ public class ModernBuildRuleBuilderFactory {
       FileHashLoader hashLoader,
       BuckEventBus eventBus,
       MetadataProvider metadataProvider,
+      DaemonicRemoteExecutionState daemonicRemoteExecutionState,
+      DeferredOutputs deferredOutputs,
       boolean remoteExecutionAutoEnabled,
       boolean forceDisableRemoteExecution) {
     ModernBuildRuleBuildStrategy strategy;
@@ -87,6 +91,8 @@ public class ModernBuildRuleBuilderFactory {
                   hashLoader,
                   eventBus,
                   metadataProvider,
+                  daemonicRemoteExecutionState,
+                  deferredOutputs,
                   remoteExecutionAutoEnabled,
                   forceDisableRemoteExecution,
                   workerRequirementsProvider));
@@ -100,7 +106,9 @@ public class ModernBuildRuleBuilderFactory {
                   rootCell,
                   hashLoader,
                   metadataProvider,
-                  workerRequirementsProvider));
+                  workerRequirementsProvider,
+                  daemonicRemoteExecutionState,
+                  deferredOutputs));
       }
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(e, "When creating MBR build strategy.");
@@ -117,6 +125,8 @@ public class ModernBuildRuleBuilderFactory {
       FileHashLoader hashLoader,
       BuckEventBus eventBus,
       MetadataProvider metadataProvider,
+      DaemonicRemoteExecutionState daemonicRemoteExecutionState,
+      DeferredOutputs deferredOutputs,
       boolean remoteExecutionAutoEnabled,
       boolean forceDisableRemoteExecution,
       WorkerRequirementsProvider workerRequirementsProvider) {
@@ -130,6 +140,8 @@ public class ModernBuildRuleBuilderFactory {
                 hashLoader,
                 eventBus,
                 metadataProvider,
+                daemonicRemoteExecutionState,
+                deferredOutputs,
                 remoteExecutionAutoEnabled,
                 forceDisableRemoteExecution)
             .orElseThrow(
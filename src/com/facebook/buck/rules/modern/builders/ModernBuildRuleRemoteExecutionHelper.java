@@ -16,6 +16,8 @@
 
 package com.facebook.buck.rules.modern.builders;
 
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs.DeferredFile;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.cell.name.CanonicalCellName;
@@ -40,6 +42,7 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.DirectoryNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.NodeData;
@@ -83,6 +86,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiPredicate;
@@ -176,6 +180,8 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
   private final ThrowingSupplier<MerkleTreeNode, IOException> sharedFilesNode;
 
   private final MerkleTreeNodeCache nodeCache;
+  private final DaemonicRemoteExecutionState daemonicState;
+  private final DeferredOutputs deferredOutputs;
 
   private final BuckEventBus eventBus;
 
@@ -199,6 +205,32 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
       Cell rootCell,
       FileHashLoader fileHasher,
       ImmutableSet<PathMatcher> ignorePaths) {
+    this(
+        eventBus,
+        protocol,
+        ruleFinder,
+        rootCell,
+        fileHasher,
+        ignorePaths,
+        DaemonicRemoteExecutionState.disabled(),
+        new DeferredOutputs());
+  }
+
+  /**
+   * @param daemonicState the state kept by the daemon between builds, which provides the merkle
+   *     tree nodes and input file nodes computed by earlier builds.
+   * @param deferredOutputs the outputs of rules built earlier in the build which are not on disk.
+   *     They can still be used as inputs since they're in the CAS.
+   */
+  public ModernBuildRuleRemoteExecutionHelper(
+      BuckEventBus eventBus,
+      Protocol protocol,
+      SourcePathRuleFinder ruleFinder,
+      Cell rootCell,
+      FileHashLoader fileHasher,
+      ImmutableSet<PathMatcher> ignorePaths,
+      DaemonicRemoteExecutionState daemonicState,
+      DeferredOutputs deferredOutputs) {
     this.ignorePaths = ignorePaths;
     ImmutableSet<CanonicalCellName> cellNames = getCellNames(rootCell);
     this.cellResolver = rootCell.getCellPathResolver();
@@ -232,7 +264,9 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
         };
     this.serializer = new Serializer(ruleFinder, cellResolver, delegate);
 
-    this.nodeCache = new MerkleTreeNodeCache(protocol);
+    this.daemonicState = daemonicState;
+    this.deferredOutputs = deferredOutputs;
+    this.nodeCache = daemonicState.getMerkleTreeNodeCache(protocol);
 
     this.classPath = prepareClassPath(BuckClasspath::getClasspath);
     this.bootstrapClassPath = prepareClassPath(BuckClasspath::getBootstrapClasspath);
@@ -559,13 +593,18 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                             return;
                           }
                         }
-                        files.put(
-                            cellPathPrefix.relativize(path),
-                            protocol.newFileNode(
-                                protocol.newDigest(
-                                    fileHasher.get(path).toString(), (int) Files.size(path)),
-                                path.getFileName().toString(),
-                                Files.isExecutable(path)));
+                        HashCode hash = fileHasher.get(path);
+                        FileNode fileNode =
+                            daemonicState
+                                .getFileNode(path, hash)
+                                .orElseGet(() -> newFileNode(path, hash));
+                        files.put(cellPathPrefix.relativize(path), fileNode);
+                      }
+
+                      @Override
+                      public boolean isRegularFile(Path path) {
+                        return deferredOutputs.getFile(path).isPresent()
+                            || super.isRegularFile(path);
                       }
 
                       @Override
@@ -600,6 +639,27 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
         });
   }
 
+  private FileNode newFileNode(Path path, HashCode hash) {
+    Optional<DeferredFile> deferredFile = deferredOutputs.getFile(path);
+    if (deferredFile.isPresent()) {
+      return protocol.newFileNode(
+          protocol.newDigest(hash.toString(), (int) deferredFile.get().getSize()),
+          path.getFileName().toString(),
+          deferredFile.get().isExecutable());
+    }
+    try {
+      FileNode fileNode =
+          protocol.newFileNode(
+              protocol.newDigest(hash.toString(), (int) Files.size(path)),
+              path.getFileName().toString(),
+              Files.isExecutable(path));
+      daemonicState.putFileNode(path, hash, fileNode);
+      return fileNode;
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(e, "When creating the file node of %s.", path);
+    }
+  }
+
   private Digest getEmptyDirectoryDigest() {
     return emptyDirectoryDigestMemoizer.get(
         () -> {
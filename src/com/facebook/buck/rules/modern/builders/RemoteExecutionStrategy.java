@@ -21,11 +21,16 @@ import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildRuleStatus;
 import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs;
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs.DeferredFile;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.HasPostBuildSteps;
+import com.facebook.buck.core.rules.attr.InitializableFromDisk;
+import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
@@ -35,6 +40,7 @@ import com.facebook.buck.remoteexecution.MetadataProviderFactory;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionHandle;
 import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionResult;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
@@ -45,6 +51,7 @@ import com.facebook.buck.remoteexecution.event.RemoteExecutionSessionEvent;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
@@ -58,8 +65,10 @@ import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
+import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -92,6 +101,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final BuckEventBus eventBus;
   private final RemoteExecutionClients executionClients;
   private final RemoteExecutionHelper mbrHelper;
+  private final DaemonicRemoteExecutionState daemonicState;
+  private final DeferredOutputs deferredOutputs;
 
   private final ListeningExecutorService service;
 
@@ -101,6 +112,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final JobLimiter handleResultLimiter;
   private final OptionalLong maxInputSizeBytes;
   private final OptionalLong largeBlobSizeBytes;
+  private final boolean lazyOutputMaterialization;
   private final WorkerRequirementsProvider requirementsProvider;
   private final MetadataProvider metadataProvider;
   private final String auxiliaryBuildTag;
@@ -115,6 +127,30 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       WorkerRequirementsProvider requirementsProvider,
       ListeningExecutorService service,
       String auxiliaryBuildTag) {
+    this(
+        eventBus,
+        strategyConfig,
+        executionClients,
+        metadataProvider,
+        mbrHelper,
+        requirementsProvider,
+        service,
+        auxiliaryBuildTag,
+        DaemonicRemoteExecutionState.disabled(),
+        new DeferredOutputs());
+  }
+
+  RemoteExecutionStrategy(
+      BuckEventBus eventBus,
+      RemoteExecutionStrategyConfig strategyConfig,
+      RemoteExecutionClients executionClients,
+      MetadataProvider metadataProvider,
+      RemoteExecutionHelper mbrHelper,
+      WorkerRequirementsProvider requirementsProvider,
+      ListeningExecutorService service,
+      String auxiliaryBuildTag,
+      DaemonicRemoteExecutionState daemonicState,
+      DeferredOutputs deferredOutputs) {
     this.executionClients = executionClients;
     this.service = service;
     this.computeActionLimiter = new JobLimiter(strategyConfig.getMaxConcurrentActionComputations());
@@ -123,9 +159,12 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.handleResultLimiter = new JobLimiter(strategyConfig.getMaxConcurrentResultHandling());
     this.maxInputSizeBytes = strategyConfig.maxInputSizeBytes();
     this.largeBlobSizeBytes = strategyConfig.largeBlobSizeBytes();
+    this.lazyOutputMaterialization = strategyConfig.isLazyOutputMaterializationEnabled();
     this.eventBus = eventBus;
     this.metadataProvider = metadataProvider;
     this.mbrHelper = mbrHelper;
+    this.daemonicState = daemonicState;
+    this.deferredOutputs = deferredOutputs;
     this.requirementsProvider = requirementsProvider;
     this.auxiliaryBuildTag = auxiliaryBuildTag;
     this.remoteExecutionSessionStartedEvent = RemoteExecutionSessionEvent.started();
@@ -145,7 +184,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       Cell rootCell,
       FileHashLoader fileHasher,
       MetadataProvider metadataProvider,
-      WorkerRequirementsProvider workerRequirementsProvider) {
+      WorkerRequirementsProvider workerRequirementsProvider,
+      DaemonicRemoteExecutionState daemonicState,
+      DeferredOutputs deferredOutputs) {
     RemoteExecutionStrategyConfig strategyConfig = remoteExecutionConfig.getStrategyConfig();
     return new LocalFallbackStrategy(
         new RemoteExecutionStrategy(
@@ -159,11 +200,15 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                 ruleFinder,
                 rootCell,
                 fileHasher,
-                strategyConfig.getIgnorePaths()),
+                strategyConfig.getIgnorePaths(),
+                daemonicState,
+                deferredOutputs),
             workerRequirementsProvider,
             MoreExecutors.listeningDecorator(
                 MostExecutors.newMultiThreadExecutor("remote-exec", strategyConfig.getThreads())),
-            remoteExecutionConfig.getAuxiliaryBuildTag()),
+            remoteExecutionConfig.getAuxiliaryBuildTag(),
+            daemonicState,
+            deferredOutputs),
         eventBus,
         strategyConfig.isLocalFallbackEnabled(),
         strategyConfig.isLocalFallbackDisabledOnCorruptedArtifacts(),
@@ -373,6 +418,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     return Futures.transform(
         inputsUploadedFuture,
         ignored -> {
+          for (UploadDataSupplier data : actionInfo.getRequiredData()) {
+            daemonicState.recordKnownToCas(data.getDigest());
+          }
           // The actionInfo may be very large, so explicitly clear out the unneeded parts.
           // actionInfo.getRequiredData() in particular may be very, very large and is unneeded once
           // uploading has completed.
@@ -436,7 +484,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                     largeBlobs.add(
                         new RemoteExecutionActionEvent.InputsUploaded.LargeBlob(path, digest));
                   }
-                  return !executionClients.getContentAddressedStorage().containsDigest(digest);
+                  return !daemonicState.isKnownToCas(digest)
+                      && !executionClients.getContentAddressedStorage().containsDigest(digest);
                 },
                 requirementsProvider.resolveRequirements(rule.getBuildTarget(), auxiliaryBuildTag));
       }
@@ -488,6 +537,22 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
               executionHandle
                   .getResult()
                   .addListener(executingScope::close, MoreExecutors.directExecutor());
+              Futures.addCallback(
+                  executionHandle.getResult(),
+                  new FutureCallback<ExecutionResult>() {
+                    @Override
+                    public void onSuccess(@Nullable ExecutionResult result) {}
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                      // The failure may be because the CAS evicted inputs which we skipped
+                      // uploading, so look them up again from now on.
+                      if (!guardContext.isCancelled()) {
+                        daemonicState.forgetKnownToCas();
+                      }
+                    }
+                  },
+                  MoreExecutors.directExecutor());
               return Futures.transform(
                   executionHandle.getResult(),
                   result -> {
@@ -575,6 +640,10 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
 
     List<Protocol.OutputFile> files = new ArrayList<>();
     ListenableFuture<Unit> metadata = stripMetadata(result.getOutputFiles(), files, buildRule);
+    if (lazyOutputMaterialization && canDeferOutputs(buildRule)) {
+      deferOutputFiles(buildRule, files);
+      files.clear();
+    }
     ListenableFuture<Unit> materializationFuture =
         executionClients
             .getContentAddressedStorage()
@@ -587,6 +656,52 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
         .call(() -> result, MoreExecutors.directExecutor());
   }
 
+  /**
+   * Rules which read their own outputs once they're built have to get them on disk right away.
+   * Output directories are always materialized, only output files are deferred.
+   */
+  private static boolean canDeferOutputs(BuildRule buildRule) {
+    return !(buildRule instanceof InitializableFromDisk)
+        && !(buildRule instanceof HasPostBuildSteps)
+        && !(buildRule instanceof SupportsDependencyFileRuleKey
+            && ((SupportsDependencyFileRuleKey) buildRule).useDependencyFileRuleKeys());
+  }
+
+  /**
+   * Records the output files in {@link DeferredOutputs} instead of fetching them, they're fetched
+   * once something reads them locally.
+   */
+  private void deferOutputFiles(BuildRule buildRule, List<Protocol.OutputFile> files) {
+    ImmutableMap.Builder<Path, DeferredFile> outputs = ImmutableMap.builder();
+    for (Protocol.OutputFile file : files) {
+      outputs.put(
+          mbrHelper.getCellPathPrefix().resolve(file.getPath()),
+          new DeferredFile(
+              HashCode.fromString(file.getDigest().getHash()),
+              file.getDigest().getSize(),
+              file.getIsExecutable()));
+      // Dependents built remotely will reference the outputs as inputs.
+      daemonicState.recordKnownToCas(file.getDigest());
+    }
+    ImmutableList<Protocol.OutputFile> deferredFiles = ImmutableList.copyOf(files);
+    deferredOutputs.defer(
+        buildRule.getBuildTarget(),
+        buildRule.getProjectFilesystem(),
+        outputs.build(),
+        () -> {
+          try {
+            return executionClients
+                .getContentAddressedStorage()
+                .materializeOutputs(
+                    ImmutableList.of(),
+                    deferredFiles,
+                    new FilesystemFileMaterializer(mbrHelper.getCellPathPrefix()));
+          } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+          }
+        });
+  }
+
   private ListenableFuture<Unit> stripMetadata(
       List<Protocol.OutputFile> outputFiles, List<Protocol.OutputFile> files, BuildRule buildRule) {
     Digest metadataDigest = null;
@@ -59,6 +59,7 @@ public class DefaultWorkerToolRule extends WriteFile
       SourcePathRuleFinder ruleFinder,
       Tool tool,
       int maxWorkers,
+      int maxJobsPerWorker,
       boolean isAsync,
       boolean isPersistent) {
     super(
@@ -72,6 +73,7 @@ public class DefaultWorkerToolRule extends WriteFile
         new DefaultWorkerTool(
             new DefaultWorkerToolDelegatingTool(tool, getSourcePathToOutput()),
             maxWorkers,
+            maxJobsPerWorker,
             isAsync,
             isPersistent,
             buildTarget,
@@ -143,6 +145,13 @@ public class DefaultWorkerToolRule extends WriteFile
     @CustomFieldBehavior(DefaultFieldSerialization.class)
     private final Integer maxWorkers;
 
+    /**
+     * Important : Do not add this field into RuleKey. Rule key should not change in case of max
+     * jobs per worker variable modification.
+     */
+    @CustomFieldBehavior(DefaultFieldSerialization.class)
+    private final int maxJobsPerWorker;
+
     /**
      * Important : Do not add this field into RuleKey. Rule key should not change in case of async
      * variable modification.
@@ -160,12 +169,14 @@ public class DefaultWorkerToolRule extends WriteFile
     DefaultWorkerTool(
         Tool tool,
         int maxWorkers,
+        int maxJobsPerWorker,
         boolean isAsync,
         boolean isPersistent,
         BuildTarget buildTarget,
         UUID uuid) {
       this.tool = tool;
       this.maxWorkers = maxWorkers;
+      this.maxJobsPerWorker = maxJobsPerWorker;
       this.isPersistent = isPersistent;
       this.buildTarget = buildTarget;
       this.isAsync = isAsync;
@@ -195,6 +206,11 @@ public class DefaultWorkerToolRule extends WriteFile
       return maxWorkers;
     }
 
+    @Override
+    public int getMaxJobsPerWorker() {
+      return maxJobsPerWorker;
+    }
+
     @Override
     public boolean isAsync() {
       return isAsync;
@@ -31,6 +31,9 @@ public interface WorkerTool extends AddsToRuleKey {
 
   int getMaxWorkers();
 
+  /** Returns the number of jobs each worker process may run at the same time. */
+  int getMaxJobsPerWorker();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
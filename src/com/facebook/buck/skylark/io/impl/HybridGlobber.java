@@ -51,7 +51,7 @@ public class HybridGlobber implements Globber {
     return fallbackGlobber.run(include, exclude, excludeDirectories);
   }
 
-  private void checkPatternsForError(Collection<String> include) {
+  static void checkPatternsForError(Collection<String> include) {
     for (String pattern : include) {
       String error = UnixGlob.checkPatternForError(pattern);
       if (error != null) {
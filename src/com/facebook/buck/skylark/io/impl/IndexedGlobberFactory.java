@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.watchman.ProjectWatch;
+import com.facebook.buck.io.watchman.WatchmanClient;
+import com.facebook.buck.skylark.io.Globber;
+import com.facebook.buck.skylark.io.GlobberFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Provides {@link Globber}s which answer globs from a {@link WatchmanGlobIndex} of the cell, and
+ * use {@link HybridGlobber}s for globs the index can't answer, like globs returning directories.
+ */
+public class IndexedGlobberFactory implements GlobberFactory {
+  private static final Logger LOG = Logger.get(IndexedGlobberFactory.class);
+
+  private final WatchmanGlobIndex index;
+  private final WatchmanClient watchmanClient;
+  private final java.nio.file.Path projectRoot;
+  private final String watchRoot;
+  private final Optional<String> projectPrefix;
+  private final ImmutableList<?> excludeExpressions;
+  private final HybridGlobberFactory fallbackGlobberFactory;
+
+  private IndexedGlobberFactory(
+      WatchmanGlobIndex index,
+      WatchmanClient watchmanClient,
+      java.nio.file.Path projectRoot,
+      String watchRoot,
+      Optional<String> projectPrefix,
+      ImmutableList<?> excludeExpressions,
+      HybridGlobberFactory fallbackGlobberFactory) {
+    this.index = index;
+    this.watchmanClient = watchmanClient;
+    this.projectRoot = projectRoot;
+    this.watchRoot = watchRoot;
+    this.projectPrefix = projectPrefix;
+    this.excludeExpressions = excludeExpressions;
+    this.fallbackGlobberFactory = fallbackGlobberFactory;
+  }
+
+  @Override
+  public Globber create(Path basePath) {
+    Globber fallbackGlobber = fallbackGlobberFactory.create(basePath);
+    String relativeBasePath;
+    try {
+      relativeBasePath =
+          basePath.relativeTo(basePath.getFileSystem().getPath(projectRoot.toString())).toString();
+    } catch (IllegalArgumentException e) {
+      // The package isn't in the indexed cell.
+      return fallbackGlobber;
+    }
+    return new IndexedGlobber(relativeBasePath, fallbackGlobber);
+  }
+
+  /** @return whether the index is populated, populating it if needed. */
+  private boolean populateIndex() throws InterruptedException {
+    if (index.isPopulated()) {
+      return true;
+    }
+    try {
+      return index.populate(watchmanClient, watchRoot, projectPrefix, excludeExpressions);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to index files of %s, using Watchman queries for globs", projectRoot);
+      return false;
+    }
+  }
+
+  private class IndexedGlobber implements Globber {
+    /** Path of the package relative to the root of the cell. */
+    private final String basePath;
+
+    private final Globber fallbackGlobber;
+
+    IndexedGlobber(String basePath, Globber fallbackGlobber) {
+      this.basePath = basePath;
+      this.fallbackGlobber = fallbackGlobber;
+    }
+
+    @Override
+    public Set<String> run(
+        Collection<String> include, Collection<String> exclude, boolean excludeDirectories)
+        throws IOException, InterruptedException {
+      if (excludeDirectories && populateIndex()) {
+        HybridGlobber.checkPatternsForError(include);
+        HybridGlobber.checkPatternsForError(exclude);
+        Optional<ImmutableSet<String>> result = index.glob(basePath, include, exclude);
+        if (result.isPresent()) {
+          return result.get();
+        }
+      }
+      return fallbackGlobber.run(include, exclude, excludeDirectories);
+    }
+  }
+
+  /**
+   * @param index the index of the files of the cell at {@code projectRoot}
+   * @param ignoreExpressions Watchman expressions matching files ignored by the cell, which are not
+   *     indexed
+   */
+  public static IndexedGlobberFactory using(
+      WatchmanGlobIndex index,
+      WatchmanClient watchmanClient,
+      SyncCookieState syncCookieState,
+      java.nio.file.Path projectRoot,
+      ImmutableMap<AbsPath, ProjectWatch> projectWatches,
+      ImmutableList<?> ignoreExpressions) {
+    AbsPath cellPath = AbsPath.of(projectRoot.toAbsolutePath());
+    @Nullable ProjectWatch projectWatch = projectWatches.get(cellPath);
+    return new IndexedGlobberFactory(
+        index,
+        watchmanClient,
+        projectRoot,
+        projectWatch == null ? cellPath.toString() : projectWatch.getWatchRoot(),
+        projectWatch == null ? Optional.empty() : projectWatch.getProjectPrefix(),
+        ignoreExpressions,
+        HybridGlobberFactory.using(watchmanClient, syncCookieState, projectRoot, projectWatches));
+  }
+}
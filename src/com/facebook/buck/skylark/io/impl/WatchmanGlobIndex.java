@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.io.watchman.WatchmanClient;
+import com.facebook.buck.io.watchman.WatchmanQueryFailedException;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An in-memory index of the files of a cell, which answers globs without any I/O.
+ *
+ * <p>The index is populated with a single Watchman query the first time it is needed, and is then
+ * kept current by {@link #onFileCreated} and {@link #onFileDeleted}, which should be called for
+ * every file change Watchman reports for the cell. If changes may have been missed, the index must
+ * be {@link #invalidate() invalidated} so that it is populated again. If the query fails or times
+ * out, which happens in cells with too many files, the index isn't populated again for a while, so
+ * that globs don't keep waiting for it.
+ *
+ * <p>Only files and symbolic links are indexed, so globs which return directories can't be
+ * answered. Globs follow the semantics of Watchman's {@code glob} generator: {@code *} and {@code
+ * ?} don't match {@code /}, {@code **} matches any number of directories, and wildcards don't match
+ * names starting with a dot. Names are matched case-sensitively.
+ */
+@ThreadSafe
+public class WatchmanGlobIndex {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /** How long globs are answered without the index after it couldn't be populated. */
+  private static final long RETRY_AFTER_FAILURE_NANOS = TimeUnit.MINUTES.toNanos(10);
+  private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+  private final AutoCloseableReadWriteLock lock = new AutoCloseableReadWriteLock();
+
+  /** The root folder of the cell, or {@code null} if the index needs to be populated. */
+  @GuardedBy("lock")
+  @Nullable
+  private Directory root;
+
+  /** When the index last failed to be populated, if it did since it was last invalidated. */
+  @GuardedBy("lock")
+  private OptionalLong lastFailureNanos = OptionalLong.empty();
+
+  /** @return whether the index was populated and can answer globs. */
+  public boolean isPopulated() {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return root != null;
+    }
+  }
+
+  /**
+   * Populates the index with the files Watchman knows about, unless it is already populated.
+   *
+   * @param watchRoot the Watchman watch which contains the cell
+   * @param relativeRoot the path of the cell relative to {@code watchRoot}, if it is not the root
+   *     of the watch
+   * @param excludeExpressions Watchman expressions matching files which should not be indexed, like
+   *     files ignored by the cell
+   * @return whether the index is populated, which it isn't if the query timed out or it failed to
+   *     be populated recently
+   */
+  public boolean populate(
+      WatchmanClient watchmanClient,
+      String watchRoot,
+      Optional<String> relativeRoot,
+      ImmutableList<?> excludeExpressions)
+      throws IOException, InterruptedException {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      if (root != null || failedRecently()) {
+        return root != null;
+      }
+    }
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      if (root != null || failedRecently()) {
+        return root != null;
+      }
+      ImmutableList.Builder<Object> expression = ImmutableList.builder();
+      expression.add(
+          "allof",
+          ImmutableList.of("anyof", ImmutableList.of("type", "f"), ImmutableList.of("type", "l")));
+      if (!excludeExpressions.isEmpty()) {
+        expression.add(
+            ImmutableList.of(
+                "not", ImmutableList.builder().add("anyof").addAll(excludeExpressions).build()));
+      }
+      ImmutableMap.Builder<String, Object> query = ImmutableMap.builder();
+      query.put("expression", expression.build()).put("fields", ImmutableList.of("name"));
+      relativeRoot.ifPresent(prefix -> query.put("relative_root", prefix));
+
+      Optional<? extends Map<String, ?>> result;
+      try {
+        result = watchmanClient.queryWithTimeout(TIMEOUT_NANOS, "query", watchRoot, query.build());
+      } catch (IOException e) {
+        lastFailureNanos = OptionalLong.of(System.nanoTime());
+        throw e;
+      }
+      if (!result.isPresent()) {
+        lastFailureNanos = OptionalLong.of(System.nanoTime());
+        return false;
+      }
+      @Nullable Object error = result.get().get("error");
+      if (error != null) {
+        lastFailureNanos = OptionalLong.of(System.nanoTime());
+        throw new WatchmanQueryFailedException(error.toString());
+      }
+      @SuppressWarnings("unchecked")
+      List<String> files = (List<String>) result.get().get("files");
+      Directory populated = new Directory();
+      for (String file : files) {
+        populated.addFile(PATH_SPLITTER.splitToList(file));
+      }
+      root = populated;
+      return true;
+    }
+  }
+
+  @GuardedBy("lock")
+  private boolean failedRecently() {
+    return lastFailureNanos.isPresent()
+        && System.nanoTime() - lastFailureNanos.getAsLong() < RETRY_AFTER_FAILURE_NANOS;
+  }
+
+  /** Drops the indexed files, so that the index is populated again when it is next needed. */
+  public void invalidate() {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      root = null;
+      lastFailureNanos = OptionalLong.empty();
+    }
+  }
+
+  /** Records that a file or symbolic link was created at {@code path}, relative to the cell. */
+  public void onFileCreated(String path) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      if (root != null) {
+        root.addFile(PATH_SPLITTER.splitToList(path));
+      }
+    }
+  }
+
+  /** Records that the file or symbolic link at {@code path}, relative to the cell, was deleted. */
+  public void onFileDeleted(String path) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      if (root != null) {
+        root.removeFile(PATH_SPLITTER.splitToList(path));
+      }
+    }
+  }
+
+  /**
+   * @param basePath the folder patterns are relative to, relative to the cell
+   * @param include File patterns that should be included in the resulting set.
+   * @param exclude File patterns that should be excluded from the resulting set.
+   * @return The sorted set of files matching include patterns minus those matching exclude
+   *     patterns, relative to {@code basePath}, or nothing if the index is not populated or the
+   *     patterns use syntax it doesn't support.
+   */
+  public Optional<ImmutableSet<String>> glob(
+      String basePath, Collection<String> include, Collection<String> exclude) {
+    List<List<String>> includePatterns = parsePatterns(include);
+    List<List<String>> excludePatterns = parsePatterns(exclude);
+    if (includePatterns == null || excludePatterns == null) {
+      return Optional.empty();
+    }
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      if (root == null) {
+        return Optional.empty();
+      }
+      Directory base = root.getDirectory(PATH_SPLITTER.splitToList(basePath));
+      TreeSet<String> matches = new TreeSet<>();
+      if (base != null) {
+        for (List<String> pattern : includePatterns) {
+          base.collectMatches(pattern, 0, "", matches);
+        }
+      }
+      if (!excludePatterns.isEmpty()) {
+        matches.removeIf(
+            path -> {
+              List<String> segments = PATH_SPLITTER.splitToList(path);
+              return excludePatterns.stream()
+                  .anyMatch(pattern -> matchesPath(pattern, 0, segments, 0));
+            });
+      }
+      return Optional.of(ImmutableSet.copyOf(matches));
+    }
+  }
+
+  /** @return the patterns split into segments, or {@code null} if one of them can't be handled. */
+  @Nullable
+  private static List<List<String>> parsePatterns(Collection<String> patterns) {
+    List<List<String>> parsed = new ArrayList<>(patterns.size());
+    for (String pattern : patterns) {
+      // Character classes, escapes and absolute patterns are left to Watchman.
+      if (pattern.startsWith("/") || pattern.indexOf('[') >= 0 || pattern.indexOf('\\') >= 0) {
+        return null;
+      }
+      parsed.add(PATH_SPLITTER.splitToList(pattern));
+    }
+    return parsed;
+  }
+
+  /** @return whether the path made of {@code segments} matches the segments of a pattern. */
+  private static boolean matchesPath(
+      List<String> pattern, int patternIndex, List<String> segments, int segmentIndex) {
+    if (patternIndex == pattern.size()) {
+      return segmentIndex == segments.size();
+    }
+    String patternSegment = pattern.get(patternIndex);
+    if (patternSegment.equals("**")) {
+      for (int i = segmentIndex; i <= segments.size(); i++) {
+        if (matchesPath(pattern, patternIndex + 1, segments, i)) {
+          return true;
+        }
+        if (i < segments.size() && segments.get(i).startsWith(".")) {
+          return false;
+        }
+      }
+      return false;
+    }
+    return segmentIndex < segments.size()
+        && matchesName(patternSegment, segments.get(segmentIndex))
+        && matchesPath(pattern, patternIndex + 1, segments, segmentIndex + 1);
+  }
+
+  /** @return whether a file or folder name matches a pattern segment without {@code /}. */
+  static boolean matchesName(String pattern, String name) {
+    if (name.startsWith(".") && !pattern.startsWith(".")) {
+      return false;
+    }
+    return matchesWildcards(pattern, name);
+  }
+
+  private static boolean matchesWildcards(String pattern, String name) {
+    // Iterative wildcard matching, backtracking to the last '*' on mismatch.
+    int p = 0;
+    int n = 0;
+    int starPattern = -1;
+    int starName = -1;
+    while (n < name.length()) {
+      if (p < pattern.length()
+          && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+        p++;
+        n++;
+      } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+        starPattern = p++;
+        starName = n;
+      } else if (starPattern >= 0) {
+        p = starPattern + 1;
+        n = ++starName;
+      } else {
+        return false;
+      }
+    }
+    while (p < pattern.length() && pattern.charAt(p) == '*') {
+      p++;
+    }
+    return p == pattern.length();
+  }
+
+  /** A folder of the index, whose entries are either folders or files. */
+  private static class Directory {
+    /** Entries by name, with {@code null} values for files. */
+    private final Map<String, Directory> entries = new HashMap<>();
+
+    @Nullable
+    Directory getDirectory(List<String> segments) {
+      Directory directory = this;
+      for (String segment : segments) {
+        directory = directory.entries.get(segment);
+        if (directory == null) {
+          return null;
+        }
+      }
+      return directory;
+    }
+
+    void addFile(List<String> segments) {
+      if (segments.isEmpty()) {
+        return;
+      }
+      Directory directory = this;
+      for (String segment : segments.subList(0, segments.size() - 1)) {
+        Directory child = directory.entries.get(segment);
+        if (child == null) {
+          // The entry may have been a file, which was replaced by a folder.
+          child = new Directory();
+          directory.entries.put(segment, child);
+        }
+        directory = child;
+      }
+      String name = segments.get(segments.size() - 1);
+      // A folder which was replaced by a file reports the deletion of each of its files, but not of
+      // the folder itself.
+      directory.entries.put(name, null);
+    }
+
+    void removeFile(List<String> segments) {
+      if (segments.isEmpty()) {
+        return;
+      }
+      Directory directory = getDirectory(segments.subList(0, segments.size() - 1));
+      String name = segments.get(segments.size() - 1);
+      if (directory != null
+          && directory.entries.containsKey(name)
+          && directory.entries.get(name) == null) {
+        directory.entries.remove(name);
+      }
+    }
+
+    void collectMatches(List<String> pattern, int index, String prefix, Collection<String> out) {
+      if (index == pattern.size()) {
+        return;
+      }
+      String segment = pattern.get(index);
+      boolean last = index == pattern.size() - 1;
+      if (segment.equals("**")) {
+        // '**' matches no folder at all, or any folder not starting with a dot and then '**' again.
+        collectMatches(pattern, index + 1, prefix, out);
+        if (last) {
+          collectAllFiles(prefix, out);
+          return;
+        }
+        for (Map.Entry<String, Directory> entry : entries.entrySet()) {
+          Directory child = entry.getValue();
+          if (child != null && !entry.getKey().startsWith(".")) {
+            child.collectMatches(pattern, index, prefix + entry.getKey() + "/", out);
+          }
+        }
+        return;
+      }
+      if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+        // Literal segments are looked up rather than matched against every entry.
+        if (entries.containsKey(segment)) {
+          collectEntry(pattern, index, last, segment, entries.get(segment), prefix, out);
+        }
+        return;
+      }
+      for (Map.Entry<String, Directory> entry : entries.entrySet()) {
+        if (matchesName(segment, entry.getKey())) {
+          collectEntry(pattern, index, last, entry.getKey(), entry.getValue(), prefix, out);
+        }
+      }
+    }
+
+    private static void collectEntry(
+        List<String> pattern,
+        int index,
+        boolean last,
+        String name,
+        @Nullable Directory child,
+        String prefix,
+        Collection<String> out) {
+      if (last) {
+        if (child == null) {
+          out.add(prefix + name);
+        }
+      } else if (child != null) {
+        child.collectMatches(pattern, index + 1, prefix + name + "/", out);
+      }
+    }
+
+    /** Collects all files below this folder, except those in folders starting with a dot. */
+    private void collectAllFiles(String prefix, Collection<String> out) {
+      for (Map.Entry<String, Directory> entry : entries.entrySet()) {
+        if (entry.getKey().startsWith(".")) {
+          continue;
+        }
+        Directory child = entry.getValue();
+        if (child == null) {
+          out.add(prefix + entry.getKey());
+        } else {
+          child.collectAllFiles(prefix + entry.getKey() + "/", out);
+        }
+      }
+    }
+  }
+}
@@ -91,16 +91,19 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
   private final Cache<com.google.devtools.build.lib.vfs.Path, ExtensionData> extensionDataCache;
   private final LoadingCache<LoadImport, IncludesData> includesDataCache;
   private final PackageImplicitIncludesFinder packageImplicitIncludeFinder;
+  protected final Optional<SkylarkExtensionCache> sharedExtensionCache;
 
   AbstractSkylarkFileParser(
       ProjectBuildFileParserOptions options,
       FileSystem fileSystem,
       BuckGlobals buckGlobals,
-      EventHandler eventHandler) {
+      EventHandler eventHandler,
+      Optional<SkylarkExtensionCache> sharedExtensionCache) {
     this.options = options;
     this.fileSystem = fileSystem;
     this.eventHandler = eventHandler;
     this.buckGlobals = buckGlobals;
+    this.sharedExtensionCache = sharedExtensionCache;
 
     this.astCache = CacheBuilder.newBuilder().build();
     this.extensionDataCache = CacheBuilder.newBuilder().build();
@@ -581,10 +584,51 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
    */
   private @Nullable ExtensionData lookupExtensionForImport(
       com.google.devtools.build.lib.vfs.Path path, String importString) {
-    ExtensionData ext = extensionDataCache.getIfPresent(path);
+    ExtensionData ext = lookupExtension(path);
     return ext == null ? ext : ext.withImportString(importString);
   }
 
+  /**
+   * Retrieves extension data from the cache of this parser, or from the cache shared with other
+   * parsers.
+   *
+   * @param path a path for the extension to lookup
+   * @return {@link ExtensionData} for the extension, or null if no such extension found.
+   */
+  private @Nullable ExtensionData lookupExtension(com.google.devtools.build.lib.vfs.Path path) {
+    ExtensionData ext = extensionDataCache.getIfPresent(path);
+    if (ext == null && sharedExtensionCache.isPresent()) {
+      ext = sharedExtensionCache.get().get(path.toString());
+      if (ext != null) {
+        adoptSharedExtension(ext);
+      }
+    }
+    return ext;
+  }
+
+  /**
+   * Adds an extension evaluated by another parser, along with the extensions it loads, to the
+   * cache of this parser. The user defined rules they export are registered with this parser, as
+   * they would have been if it had evaluated them.
+   */
+  private void adoptSharedExtension(ExtensionData extension) {
+    com.google.devtools.build.lib.vfs.Path path =
+        fileSystem.getPath(extension.getPath().toString());
+    if (extensionDataCache.getIfPresent(path) != null) {
+      return;
+    }
+    for (Object value : extension.getExtension().getBindings().values()) {
+      if (value instanceof SkylarkUserDefinedRule
+          && ((SkylarkUserDefinedRule) value).isExported()) {
+        buckGlobals.getKnownUserDefinedRuleTypes().addRule((SkylarkUserDefinedRule) value);
+      }
+    }
+    for (ExtensionData dependency : extension.getDependencies()) {
+      adoptSharedExtension(dependency);
+    }
+    extensionDataCache.put(path, extension);
+  }
+
   /**
    * Loads extensions abstract syntax tree if needed.
    *
@@ -620,7 +664,7 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
       load.addDependency(dependency);
       com.google.devtools.build.lib.vfs.Path extensionPath =
           getImportPath(dependency.getLabel(), dependency.getImport());
-      if (extensionDataCache.getIfPresent(extensionPath) == null) {
+      if (lookupExtension(extensionPath) == null) {
         // Schedule dependency to be loaded if needed.
         haveUnsatisfiedDeps = true;
         queue.push(new ExtensionLoadState(dependency, extensionPath));
@@ -726,6 +770,8 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
   private ExtensionData loadExtension(LoadImport loadImport)
       throws IOException, BuildFileParseException, InterruptedException {
     ExtensionData extension = null;
+    long sharedCacheGeneration =
+        sharedExtensionCache.map(SkylarkExtensionCache::getGeneration).orElse(0L);
     ArrayDeque<ExtensionLoadState> work = new ArrayDeque<>();
     work.push(
         new ExtensionLoadState(
@@ -756,6 +802,11 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
         work.removeFirst();
         extension = buildExtensionData(load);
         extensionDataCache.put(load.getPath(), extension);
+        if (sharedExtensionCache.isPresent()) {
+          sharedExtensionCache
+              .get()
+              .put(load.getPath().toString(), extension, sharedCacheGeneration);
+        }
       }
     }
 
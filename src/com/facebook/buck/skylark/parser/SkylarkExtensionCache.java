@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.parser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Extensions evaluated by the Skylark build file parsers of a cell, shared by all of them so that
+ * extensions loaded by many build files are only evaluated once until they change.
+ *
+ * <p>Evaluated extensions are frozen, so they can safely be used by many threads. Entries are keyed
+ * by the path of the extension file and are dropped when the extension or any of the files it
+ * loads change.
+ */
+@ThreadSafe
+public class SkylarkExtensionCache {
+  private final ConcurrentMap<String, ExtensionData> extensions = new ConcurrentHashMap<>();
+
+  @GuardedBy("this")
+  private long generation;
+
+  @Nullable
+  ExtensionData get(String path) {
+    return extensions.get(path);
+  }
+
+  /**
+   * @return a token to pass to {@link #put} after evaluating an extension, which makes sure that
+   *     extensions which changed while they were evaluated aren't cached.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Stores an extension evaluated from the files as they were when {@link #getGeneration()}
+   * returned {@code generation}.
+   */
+  synchronized void put(String path, ExtensionData extension, long generation) {
+    if (this.generation == generation) {
+      extensions.putIfAbsent(path, extension);
+    }
+  }
+
+  /** Drops the extensions which loaded {@code path}, directly or transitively. */
+  public synchronized void invalidate(String path) {
+    generation++;
+    extensions.values().removeIf(extension -> extension.getLoadTransitiveClosure().contains(path));
+  }
+
+  /** Drops all extensions. */
+  public synchronized void invalidateAll() {
+    generation++;
+    extensions.clear();
+  }
+
+  /** @return the number of cached extensions. */
+  public int size() {
+    return extensions.size();
+  }
+}
@@ -71,8 +71,9 @@ public class SkylarkProjectBuildFileParser extends AbstractSkylarkFileParser<Bui
       FileSystem fileSystem,
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
-      GlobberFactory globberFactory) {
-    super(options, fileSystem, buckGlobals, eventHandler);
+      GlobberFactory globberFactory,
+      Optional<SkylarkExtensionCache> sharedExtensionCache) {
+    super(options, fileSystem, buckGlobals, eventHandler, sharedExtensionCache);
     this.buckEventBus = buckEventBus;
     this.globberFactory = globberFactory;
   }
@@ -86,7 +87,35 @@ public class SkylarkProjectBuildFileParser extends AbstractSkylarkFileParser<Bui
       EventHandler eventHandler,
       GlobberFactory globberFactory) {
     return new SkylarkProjectBuildFileParser(
-        options, buckEventBus, fileSystem, buckGlobals, eventHandler, globberFactory);
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        Optional.empty());
+  }
+
+  /**
+   * Create an instance of Skylark project build file parser using provided options, which shares
+   * the extensions it evaluates with the other parsers using {@code sharedExtensionCache}.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      BuckGlobals buckGlobals,
+      EventHandler eventHandler,
+      GlobberFactory globberFactory,
+      SkylarkExtensionCache sharedExtensionCache) {
+    return new SkylarkProjectBuildFileParser(
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        Optional.of(sharedExtensionCache));
   }
 
   @VisibleForTesting
@@ -97,7 +126,8 @@ public class SkylarkProjectBuildFileParser extends AbstractSkylarkFileParser<Bui
         other.fileSystem,
         other.buckGlobals,
         other.eventHandler,
-        other.globberFactory);
+        other.globberFactory,
+        other.sharedExtensionCache);
   }
 
   @Override
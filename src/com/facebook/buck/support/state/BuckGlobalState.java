@@ -16,6 +16,7 @@
 
 package com.facebook.buck.support.state;
 
+import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
@@ -31,7 +32,9 @@ import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
+import com.facebook.buck.parser.SpeculativeBuildFileReparser;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
@@ -48,6 +51,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link BuckGlobalState} contains all the global state of Buck which is kept between invocations
@@ -67,6 +71,7 @@ public final class BuckGlobalState implements Closeable {
   private final Cell rootCell;
   private final TypeCoercerFactory typeCoercerFactory;
   private final DaemonicParserState daemonicParserState;
+  private final SpeculativeBuildFileReparser speculativeBuildFileReparser;
   private final ImmutableList<ProjectFileHashCache> hashCaches;
   private final LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot;
   private final LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot;
@@ -79,9 +84,11 @@ public final class BuckGlobalState implements Closeable {
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
   private final ImmutableMap<AbsPath, WatchmanCursor> cursor;
   private final KnownRuleTypesProvider knownRuleTypesProvider;
+  private final DaemonicRemoteExecutionState daemonicRemoteExecutionState;
   private final Clock clock;
   private final long startTime;
   private final boolean usesWatchman;
+  private long lastFileHashCacheSnapshotTime;
 
   BuckGlobalState(
       Cell rootCell,
@@ -99,11 +106,13 @@ public final class BuckGlobalState implements Closeable {
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
       ImmutableMap<AbsPath, WatchmanCursor> cursor,
       KnownRuleTypesProvider knownRuleTypesProvider,
+      DaemonicRemoteExecutionState daemonicRemoteExecutionState,
       Clock clock,
       boolean usesWatchman) {
     this.rootCell = rootCell;
     this.typeCoercerFactory = typeCoercerFactory;
     this.daemonicParserState = daemonicParserState;
+    this.speculativeBuildFileReparser = new SpeculativeBuildFileReparser(daemonicParserState);
     this.hashCaches = hashCaches;
     this.directoryListCachePerRoot = directoryListCachePerRoot;
     this.fileTreeCachePerRoot = fileTreeCachePerRoot;
@@ -116,10 +125,12 @@ public final class BuckGlobalState implements Closeable {
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
     this.cursor = cursor;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
+    this.daemonicRemoteExecutionState = daemonicRemoteExecutionState;
     this.clock = clock;
     this.usesWatchman = usesWatchman;
 
     this.startTime = clock.currentTimeMillis();
+    this.lastFileHashCacheSnapshotTime = startTime;
   }
 
   Cell getRootCell() {
@@ -184,6 +195,16 @@ public final class BuckGlobalState implements Closeable {
     return daemonicParserState;
   }
 
+  /** Remote execution input trees and known CAS digests, kept between builds. */
+  public DaemonicRemoteExecutionState getDaemonicRemoteExecutionState() {
+    return daemonicRemoteExecutionState;
+  }
+
+  /** Re-parses build files invalidated by file system changes once a command is done. */
+  public SpeculativeBuildFileReparser getSpeculativeBuildFileReparser() {
+    return speculativeBuildFileReparser;
+  }
+
   public void interruptOnClientExit(Thread threadToInterrupt) {
     // Synchronize on parser object so that the main command processing thread is not
     // interrupted mid way through a Parser cache update by the Thread.interrupt() call
@@ -202,6 +223,10 @@ public final class BuckGlobalState implements Closeable {
       WatchmanWatcher.FreshInstanceAction watchmanFreshInstanceAction)
       throws IOException, InterruptedException {
 
+    // Build files re-parsed in the background after the previous command may be invalidated by
+    // the changes about to be applied, so stop before applying them.
+    speculativeBuildFileReparser.cancel();
+
     // Synchronize on parser object so that all outstanding watch events are processed
     // as a single, atomic Parser cache update and are not interleaved with Parser cache
     // invalidations triggered by requests to parse build files or interrupted by client
@@ -227,6 +252,39 @@ public final class BuckGlobalState implements Closeable {
           }
         }
       }
+
+      // All file changes up to the current Watchman clock have been applied, so this is a
+      // consistent point to persist the file hash caches.
+      BuildBuckConfig buildBuckConfig = rootCell.getBuckConfig().getView(BuildBuckConfig.class);
+      if (buildBuckConfig.shouldSnapshotFileHashCache()
+          && clock.currentTimeMillis() - lastFileHashCacheSnapshotTime
+              >= TimeUnit.SECONDS.toMillis(
+                  buildBuckConfig.getFileHashCacheSnapshotIntervalSeconds())) {
+        snapshotFileHashCaches();
+      }
+    }
+  }
+
+  /**
+   * Persists all {@link WatchedFileHashCache}s whose cell is tracked with a Watchman clock, so that
+   * a future daemon can restore them. See {@link BuckGlobalStateFactory}.
+   */
+  private void snapshotFileHashCaches() {
+    lastFileHashCacheSnapshotTime = clock.currentTimeMillis();
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (!(hashCache instanceof WatchedFileHashCache)) {
+        continue;
+      }
+      WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
+      WatchmanCursor cellCursor = cursor.get(cache.getFilesystem().getRootPath());
+      if (cellCursor == null || !BuckGlobalStateFactory.isWatchmanClock(cellCursor.get())) {
+        continue;
+      }
+      try {
+        cache.saveSnapshot(cellCursor.get());
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save file hash cache snapshot to %s", cache.getSnapshotPath());
+      }
     }
   }
 
@@ -246,6 +304,12 @@ public final class BuckGlobalState implements Closeable {
 
   @Override
   public void close() {
+    if (rootCell.getBuckConfig().getView(BuildBuckConfig.class).shouldSnapshotFileHashCache()) {
+      synchronized (daemonicParserState) {
+        snapshotFileHashCaches();
+      }
+    }
+    speculativeBuildFileReparser.close();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
   }
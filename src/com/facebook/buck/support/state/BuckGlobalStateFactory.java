@@ -42,6 +42,8 @@ import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
+import com.facebook.buck.remoteexecution.util.DaemonicRemoteExecutionState;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
@@ -59,6 +61,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.OptionalInt;
@@ -117,6 +120,14 @@ public class BuckGlobalStateFactory {
         new DaemonicParserState(parserConfig.getNumParsingThreads());
     fileEventBus.register(daemonicParserState);
 
+    RemoteExecutionConfig remoteExecutionConfig =
+        rootCell.getRootCell().getBuckConfig().getView(RemoteExecutionConfig.class);
+    DaemonicRemoteExecutionState daemonicRemoteExecutionState =
+        new DaemonicRemoteExecutionState(
+            remoteExecutionConfig.getMerkleTreeCacheSize(),
+            remoteExecutionConfig.getKnownCasDigestsTtlSeconds());
+    fileEventBus.register(daemonicRemoteExecutionState);
+
     // Build the the rule key cache recycler.
     RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
         RuleKeyCacheRecycler.createAndRegister(
@@ -157,6 +168,9 @@ public class BuckGlobalStateFactory {
       cursor = watchman.buildNamedWatchmanCursorMap();
     }
     LOG.debug("Using Watchman Cursor: %s", cursor);
+    if (buildBuckConfig.shouldSnapshotFileHashCache()) {
+      restoreFileHashCacheSnapshots(hashCaches, cursor);
+    }
     ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools = new ConcurrentHashMap<>();
 
     return new BuckGlobalState(
@@ -175,10 +189,63 @@ public class BuckGlobalStateFactory {
         defaultRuleKeyFactoryCacheRecycler,
         cursor,
         knownRuleTypesProvider,
+        daemonicRemoteExecutionState,
         clock,
         watchman != WatchmanFactory.NULL_WATCHMAN);
   }
 
+  /**
+   * Restores the {@link WatchedFileHashCache}s from the snapshots written by a previous daemon, and
+   * rewinds the Watchman cursors to the clocks at which those were taken, so that the first query
+   * to Watchman invalidates everything which changed in between.
+   */
+  private static void restoreFileHashCacheSnapshots(
+      ImmutableList<ProjectFileHashCache> hashCaches,
+      ImmutableMap<AbsPath, WatchmanCursor> cursor) {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (!(hashCache instanceof WatchedFileHashCache)) {
+        continue;
+      }
+      WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
+      WatchmanCursor cellCursor = cursor.get(cache.getFilesystem().getRootPath());
+      if (cellCursor == null || !isWatchmanClock(cellCursor.get())) {
+        continue;
+      }
+      try {
+        Optional<String> snapshotClock = cache.loadSnapshot();
+        if (!snapshotClock.isPresent()) {
+          continue;
+        }
+        if (!isSameWatchmanInstance(snapshotClock.get(), cellCursor.get())) {
+          // Watchman can't tell us what changed since a clock of a different instance.
+          LOG.debug("Discarding file hash cache snapshot at %s", snapshotClock.get());
+          cache.invalidateAll();
+          continue;
+        }
+        cellCursor.set(snapshotClock.get());
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Failed to restore file hash cache snapshot from %s", cache.getSnapshotPath());
+        cache.invalidateAll();
+      }
+    }
+  }
+
+  /** @return whether the cursor is a Watchman clock, as opposed to a named cursor. */
+  static boolean isWatchmanClock(String cursor) {
+    return cursor.startsWith("c:") && !cursor.equals(WatchmanFactory.NULL_CLOCK);
+  }
+
+  /**
+   * Watchman clocks have the form {@code c:<start time>:<pid>:<root number>:<ticks>}, so two clocks
+   * come from the same Watchman instance and root iff everything but the ticks matches.
+   */
+  private static boolean isSameWatchmanInstance(String clock, String otherClock) {
+    int separator = clock.lastIndexOf(':');
+    int otherSeparator = otherClock.lastIndexOf(':');
+    return separator > 0
+        && clock.substring(0, separator).equals(otherClock.substring(0, otherSeparator));
+  }
+
   /** Create a number of instances of {@link DirectoryListCache}, one per each cell */
   private static LoadingCache<Path, DirectoryListCache> createDirectoryListCachePerCellMap(
       EventBus fileEventBus) {
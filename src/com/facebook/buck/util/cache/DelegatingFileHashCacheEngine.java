@@ -21,6 +21,7 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 
@@ -89,6 +90,11 @@ public class DelegatingFileHashCacheEngine implements FileHashCacheEngine {
     return delegate.asMap();
   }
 
+  @Override
+  public Map<Path, HashCodeAndFileType> getLoadedValues() {
+    return delegate.getLoadedValues();
+  }
+
   @Override
   public List<AbstractBuckEvent> getStatsEvents() {
     return delegate.getStatsEvents();
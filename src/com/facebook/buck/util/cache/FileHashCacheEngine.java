@@ -21,6 +21,7 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 
@@ -59,5 +60,11 @@ public interface FileHashCacheEngine {
 
   ConcurrentMap<Path, HashCodeAndFileType> asMap();
 
+  /**
+   * @return the values which are currently held by the engine. Unlike {@link #asMap()}, this never
+   *     triggers loading of values which have not been computed yet.
+   */
+  Map<Path, HashCodeAndFileType> getLoadedValues();
+
   List<AbstractBuckEvent> getStatsEvents();
 }
@@ -26,6 +26,7 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
@@ -175,6 +176,11 @@ class ComboFileHashCache implements FileHashCacheEngine {
         .asMap(); // Just return the old one as this is a support method
   }
 
+  @Override
+  public Map<Path, HashCodeAndFileType> getLoadedValues() {
+    return fileHashCacheEngines.get(0).getLoadedValues();
+  }
+
   @Override
   public List<AbstractBuckEvent> getStatsEvents() {
     List<AbstractBuckEvent> events =
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Compact on-disk representation of the file hashes held by a {@link WatchedFileHashCache}, so
+ * that a restarted daemon doesn't need to re-hash files which haven't changed since the snapshot
+ * was taken.
+ *
+ * <p>Each entry records the size and modification time of the file at the time the snapshot was
+ * written, which are used to revalidate the entry when loading. The Watchman clock recorded in the
+ * header allows the daemon to ask Watchman for all the changes which happened since the snapshot.
+ *
+ * <p>Layout: {@code magic:int version:int clock:utf entryCount:int} followed by entries of {@code
+ * path:utf type:byte hashLength:byte hash:byte[] size:long mtime:long}.
+ */
+final class FileHashCacheSnapshot {
+
+  private static final int MAGIC = 0x42464843; // "BFHC"
+  private static final int VERSION = 1;
+  /** The smallest size of an entry, whose path is empty and whose hash is a single byte. */
+  private static final int MIN_ENTRY_BYTES = 2 + 1 + 1 + 1 + 8 + 8;
+
+  private final String watchmanClock;
+  private final ImmutableList<Entry> entries;
+
+  FileHashCacheSnapshot(String watchmanClock, ImmutableList<Entry> entries) {
+    this.watchmanClock = watchmanClock;
+    this.entries = entries;
+  }
+
+  /** @return the Watchman clock at which the snapshot was taken. */
+  String getWatchmanClock() {
+    return watchmanClock;
+  }
+
+  ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /** Atomically writes the snapshot to the given file. */
+  static void write(Path snapshotFile, String watchmanClock, Collection<Entry> entries)
+      throws IOException {
+    Files.createDirectories(snapshotFile.getParent());
+    Path tempFile =
+        snapshotFile.resolveSibling("." + snapshotFile.getFileName() + ".tmp." + UUID.randomUUID());
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(watchmanClock);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+          out.writeUTF(entry.getPath().toString());
+          out.writeByte(entry.getType());
+          byte[] hash = entry.getHashCode().asBytes();
+          out.writeByte(hash.length);
+          out.write(hash);
+          out.writeLong(entry.getSize());
+          out.writeLong(entry.getLastModifiedTime());
+        }
+      }
+      Files.move(
+          tempFile,
+          snapshotFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Reads a snapshot previously written with {@link #write}.
+   *
+   * @return the snapshot, or {@link Optional#empty()} if the file is missing, was written by a
+   *     different version of buck or is corrupt.
+   */
+  static Optional<FileHashCacheSnapshot> read(Path snapshotFile) throws IOException {
+    if (!Files.isRegularFile(snapshotFile)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return Optional.empty();
+      }
+      String clock = readUTF(buffer);
+      int count = buffer.getInt();
+      if (count < 0 || count > buffer.remaining() / MIN_ENTRY_BYTES) {
+        return Optional.empty();
+      }
+      ImmutableList.Builder<Entry> entries = ImmutableList.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        Path path = snapshotFile.getFileSystem().getPath(readUTF(buffer));
+        byte type = buffer.get();
+        int hashLength = buffer.get() & 0xFF;
+        if (hashLength == 0) {
+          return Optional.empty();
+        }
+        byte[] hash = new byte[hashLength];
+        buffer.get(hash);
+        long size = buffer.getLong();
+        long mtime = buffer.getLong();
+        entries.add(new Entry(path, type, HashCode.fromBytes(hash), size, mtime));
+      }
+      return Optional.of(new FileHashCacheSnapshot(clock, entries.build()));
+    } catch (RuntimeException e) {
+      // Lengths which go past the end of a truncated file, invalid paths and the like.
+      return Optional.empty();
+    }
+  }
+
+  // Strings are written with DataOutput#writeUTF, which only differs from standard UTF-8 in the
+  // encoding of NUL and supplementary characters, neither of which we expect in project paths.
+  private static String readUTF(MappedByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** A cached hash together with the attributes used to validate it. */
+  static final class Entry {
+    private final Path path;
+    private final byte type;
+    private final HashCode hashCode;
+    private final long size;
+    private final long lastModifiedTime;
+
+    Entry(Path path, byte type, HashCode hashCode, long size, long lastModifiedTime) {
+      this.path = path;
+      this.type = type;
+      this.hashCode = hashCode;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /** @return one of the {@link HashCodeAndFileType} type constants. */
+    byte getType() {
+      return type;
+    }
+
+    HashCode getHashCode() {
+      return hashCode;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    long getLastModifiedTime() {
+      return lastModifiedTime;
+    }
+  }
+}
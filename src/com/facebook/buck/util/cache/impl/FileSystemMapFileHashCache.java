@@ -28,6 +28,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
@@ -120,6 +121,11 @@ class FileSystemMapFileHashCache implements FileHashCacheEngine {
     return new ConcurrentHashMap<>(loadingCache.asMap());
   }
 
+  @Override
+  public Map<Path, HashCodeAndFileType> getLoadedValues() {
+    return loadingCache.asMap();
+  }
+
   @Override
   public List<AbstractBuckEvent> getStatsEvents() {
     return Collections.emptyList();
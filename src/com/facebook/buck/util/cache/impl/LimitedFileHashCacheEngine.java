@@ -31,7 +31,9 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -263,6 +265,18 @@ class LimitedFileHashCacheEngine implements FileHashCacheEngine {
             fileSystemMap.asMap(), v -> Objects.requireNonNull(v).getHashCodeAndFileType()));
   }
 
+  @Override
+  public Map<Path, HashCodeAndFileType> getLoadedValues() {
+    Map<Path, HashCodeAndFileType> values = new HashMap<>();
+    for (Data data : fileSystemMap.asMap().values()) {
+      HashCodeAndFileType value = data.hashCodeAndFileType;
+      if (value != null) {
+        values.put(data.path, value);
+      }
+    }
+    return values;
+  }
+
   @Override
   public List<AbstractBuckEvent> getStatsEvents() {
     return Collections.emptyList();
@@ -205,6 +205,11 @@ class LoadingCacheFileHashCache implements FileHashCacheEngine {
     return loadingCache.asMap();
   }
 
+  @Override
+  public Map<Path, HashCodeAndFileType> getLoadedValues() {
+    return loadingCache.asMap();
+  }
+
   @Override
   public HashCodeAndFileType getIfPresent(Path path) {
     return loadingCache.getIfPresent(path);
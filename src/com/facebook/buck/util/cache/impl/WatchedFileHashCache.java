@@ -22,13 +22,24 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarHashCodeAndFileType;
 import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
+  private static final String SNAPSHOT_FILE_NAME = "file_hash_cache.snapshot";
+
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
     super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
@@ -54,4 +65,102 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     LOG.debug("Invalidating all");
     invalidateAll();
   }
+
+  /** @return the file used by {@link #saveSnapshot} and {@link #loadSnapshot}. */
+  public Path getSnapshotPath() {
+    return getFilesystem()
+        .resolve(getFilesystem().getBuckPaths().getBuckOut().resolve(SNAPSHOT_FILE_NAME));
+  }
+
+  /**
+   * Persists the hashes of all regular files currently in the cache, so that they can be restored
+   * by a future daemon with {@link #loadSnapshot()}. Directory hashes are not persisted, as they
+   * depend on the state of all their children.
+   *
+   * @param watchmanClock the Watchman clock up to which all file changes have been applied to this
+   *     cache.
+   * @return the number of persisted entries.
+   */
+  public synchronized int saveSnapshot(String watchmanClock) throws IOException {
+    List<FileHashCacheSnapshot.Entry> entries = new ArrayList<>();
+    for (Map.Entry<Path, HashCodeAndFileType> cached :
+        fileHashCacheEngine.getLoadedValues().entrySet()) {
+      byte type = cached.getValue().getType();
+      if (type != HashCodeAndFileType.TYPE_FILE && type != HashCodeAndFileType.TYPE_ARCHIVE) {
+        continue;
+      }
+      Optional<BasicFileAttributes> attributes = readRegularFileAttributes(cached.getKey());
+      if (!attributes.isPresent()) {
+        continue;
+      }
+      entries.add(
+          new FileHashCacheSnapshot.Entry(
+              cached.getKey(),
+              type,
+              cached.getValue().getHashCode(),
+              attributes.get().size(),
+              attributes.get().lastModifiedTime().toMillis()));
+    }
+    FileHashCacheSnapshot.write(getSnapshotPath(), watchmanClock, entries);
+    LOG.debug("Saved %d file hashes to %s", entries.size(), getSnapshotPath());
+    return entries.size();
+  }
+
+  /**
+   * Populates the cache from a snapshot written by {@link #saveSnapshot}. Entries whose file size
+   * or modification time no longer match are dropped; changes which don't affect either must be
+   * delivered by Watchman by querying for changes since the returned clock.
+   *
+   * @return the Watchman clock at which the snapshot was taken, or {@link Optional#empty()} if no
+   *     usable snapshot was found.
+   */
+  public synchronized Optional<String> loadSnapshot() throws IOException {
+    Optional<FileHashCacheSnapshot> snapshot = FileHashCacheSnapshot.read(getSnapshotPath());
+    if (!snapshot.isPresent()) {
+      return Optional.empty();
+    }
+    int restored = 0;
+    for (FileHashCacheSnapshot.Entry entry : snapshot.get().getEntries()) {
+      Path path = entry.getPath();
+      if (isIgnored(path)) {
+        continue;
+      }
+      Optional<BasicFileAttributes> attributes = readRegularFileAttributes(path);
+      if (!attributes.isPresent()
+          || attributes.get().size() != entry.getSize()
+          || attributes.get().lastModifiedTime().toMillis() != entry.getLastModifiedTime()) {
+        continue;
+      }
+      HashCodeAndFileType value;
+      switch (entry.getType()) {
+        case HashCodeAndFileType.TYPE_FILE:
+          value = HashCodeAndFileType.ofFile(entry.getHashCode());
+          break;
+        case HashCodeAndFileType.TYPE_ARCHIVE:
+          value =
+              JarHashCodeAndFileType.ofArchive(
+                  entry.getHashCode(), new DefaultJarContentHasher(getFilesystem(), path));
+          break;
+        default:
+          continue;
+      }
+      fileHashCacheEngine.put(path, value);
+      restored++;
+    }
+    LOG.debug(
+        "Restored %d of %d file hashes from %s",
+        restored, snapshot.get().getEntries().size(), getSnapshotPath());
+    return Optional.of(snapshot.get().getWatchmanClock());
+  }
+
+  private Optional<BasicFileAttributes> readRegularFileAttributes(Path path) {
+    try {
+      BasicFileAttributes attributes =
+          getFilesystem()
+              .readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      return attributes.isRegularFile() ? Optional.of(attributes) : Optional.empty();
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
 }
@@ -25,10 +25,14 @@ import com.google.common.util.concurrent.SettableFuture;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>Pending acquisitions are granted in order of decreasing priority, and in the order they were
+ * requested among those of the same priority.
  */
 public class ListeningMultiSemaphore {
 
@@ -54,7 +58,15 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+    return acquire(resources, 0);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if the resources have to be waited for, they are
+   * granted before those of pending acquisitions with a lower priority.
+   */
+  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(Unit.UNIT);
     }
@@ -62,13 +74,27 @@ public class ListeningMultiSemaphore {
     resources = capResourceAmounts(resources);
     if (!checkIfResourcesAvailable(resources)) {
       SettableFuture<Unit> pendingFuture = SettableFuture.create();
-      pending.add(ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
+      addPendingItem(
+          ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources, priority));
       return pendingFuture;
     }
     increaseUsedResources(resources);
     return Futures.immediateFuture(null);
   }
 
+  private synchronized void addPendingItem(ListeningSemaphoreArrayPendingItem item) {
+    // Items are usually added with the lowest priority, so look for their place from the end.
+    ListIterator<ListeningSemaphoreArrayPendingItem> iterator =
+        pending.listIterator(pending.size());
+    while (iterator.hasPrevious()) {
+      if (iterator.previous().getPriority() >= item.getPriority()) {
+        iterator.next();
+        break;
+      }
+    }
+    iterator.add(item);
+  }
+
   /**
    * Releases previously acquired resources.
    *
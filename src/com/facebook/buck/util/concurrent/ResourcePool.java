@@ -20,6 +20,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.types.Either;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -29,7 +30,9 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -56,13 +59,23 @@ import javax.annotation.concurrent.GuardedBy;
  * of errors when "using" a resource it is assumed to be defective, will be retired and a new
  * resource will be requested from the supplier. The Future associated with the failed attempt to
  * use the resource will contain the relevant exception.
+ *
+ * <p>Resources which can serve several requests at once, like processes accepting pipelined
+ * requests, may be shared by up to maxUsesPerResource operations. Idle resources are used first,
+ * then new resources are created, and only then are requests sent to the least used resource.
+ *
+ * <p>The maximum number of resources may be changed while the pool is in use. Resources above the
+ * new maximum are retired once they are no longer in use.
  */
 public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   private static final Logger LOG = Logger.get(ResourcePool.class);
 
-  private final int maxResources;
+  private final int maxUsesPerResource;
   private final ResourceUsageErrorPolicy resourceUsageErrorPolicy;
 
+  @GuardedBy("this")
+  private int maxResources;
+
   @GuardedBy("this")
   private final Supplier<R> resourceSupplier;
 
@@ -72,6 +85,14 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   @GuardedBy("this")
   private final Deque<R> parkedResources;
 
+  /** The number of operations using each resource which is in use. */
+  @GuardedBy("this")
+  private final Map<R, Integer> resourceUses;
+
+  /** Resources in use which are retired when they are returned by their last user. */
+  @GuardedBy("this")
+  private final Set<R> retiringResources;
+
   @GuardedBy("this")
   private final Deque<SettableFuture<Unit>> resourceRequests;
 
@@ -92,13 +113,31 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
       int maxResources,
       ResourceUsageErrorPolicy resourceUsageErrorPolicy,
       Supplier<R> resourceSupplier) {
+    this(maxResources, 1, resourceUsageErrorPolicy, resourceSupplier);
+  }
+
+  /**
+   * @param maxResources maximum number of resources to use concurrently.
+   * @param maxUsesPerResource maximum number of operations to use each resource concurrently.
+   * @param resourceSupplier function used to create a new resource. It should never block, it may
+   *     be called more than maxResources times if processing resources throws exceptions.
+   */
+  public ResourcePool(
+      int maxResources,
+      int maxUsesPerResource,
+      ResourceUsageErrorPolicy resourceUsageErrorPolicy,
+      Supplier<R> resourceSupplier) {
     Preconditions.checkArgument(maxResources > 0);
+    Preconditions.checkArgument(maxUsesPerResource > 0);
 
     this.maxResources = maxResources;
+    this.maxUsesPerResource = maxUsesPerResource;
     this.resourceUsageErrorPolicy = resourceUsageErrorPolicy;
     this.resourceSupplier = resourceSupplier;
     this.createdResources = new ArrayList<>();
     this.parkedResources = new ArrayDeque<>();
+    this.resourceUses = new IdentityHashMap<>();
+    this.retiringResources = Sets.newIdentityHashSet();
     this.resourceRequests = new ArrayDeque<>();
     this.closing = new AtomicBoolean(false);
     this.shutdownFuture = null;
@@ -165,7 +204,9 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   private synchronized ListenableFuture<Unit> initialSchedule() {
     // If we'll (potentially) be allowed to create a resource or there are some parked then we'll
     // take the chance and attempt to run immediately.
-    if (allowedToCreateResource() || !parkedResources.isEmpty()) {
+    if (allowedToCreateResource()
+        || !parkedResources.isEmpty()
+        || findSharedResource().isPresent()) {
       return Futures.immediateFuture(Unit.UNIT);
     }
     // All possible resources are currently occupied. Because we're in a synchronized block, even
@@ -195,27 +236,87 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     if (closing.get()) {
       return Optional.empty();
     }
-    R resource = parkedResources.pollFirst();
-    if (resource != null) {
-      return Optional.of(resource);
+    Optional<R> resource = Optional.ofNullable(parkedResources.pollFirst());
+    if (!resource.isPresent()) {
+      resource = createIfAllowed();
+    }
+    if (!resource.isPresent()) {
+      resource = findSharedResource();
     }
-    return createIfAllowed();
+    resource.ifPresent(r -> resourceUses.merge(r, 1, Integer::sum));
+    return resource;
+  }
+
+  /** @return the least used resource which may be used by one more operation, if any. */
+  private synchronized Optional<R> findSharedResource() {
+    if (maxUsesPerResource == 1) {
+      return Optional.empty();
+    }
+    @Nullable R leastUsed = null;
+    int leastUses = maxUsesPerResource;
+    for (Map.Entry<R, Integer> entry : resourceUses.entrySet()) {
+      if (entry.getValue() < leastUses && !retiringResources.contains(entry.getKey())) {
+        leastUsed = entry.getKey();
+        leastUses = entry.getValue();
+      }
+    }
+    return Optional.ofNullable(leastUsed);
   }
 
   private synchronized void returnResource(R resource, boolean resourceIsDefunct) {
     if (resourceIsDefunct) {
-      createdResources.remove(resource);
-      try {
-        resource.close();
-      } catch (Exception e) {
-        LOG.info(e, "Error shutting down a defunct resource.");
+      retiringResources.add(resource);
+    }
+    int uses = resourceUses.merge(resource, -1, Integer::sum);
+    if (uses == 0) {
+      resourceUses.remove(resource);
+      if (retiringResources.remove(resource)
+          || createdResources.size() - retiringResources.size() > maxResources) {
+        retireResource(resource);
+      } else {
+        parkedResources.add(resource);
       }
-    } else {
-      parkedResources.add(resource);
     }
     scheduleNextRequest();
   }
 
+  private synchronized void retireResource(R resource) {
+    createdResources.remove(resource);
+    try {
+      resource.close();
+    } catch (Exception e) {
+      LOG.info(e, "Error shutting down a defunct resource.");
+    }
+  }
+
+  /**
+   * Changes the maximum number of resources to use concurrently. Idle resources above the new
+   * maximum are retired right away, resources in use once they are returned.
+   */
+  public synchronized void setMaxResources(int maxResources) {
+    Preconditions.checkArgument(maxResources > 0);
+    if (closing.get()) {
+      return;
+    }
+    int addedResources = maxResources - this.maxResources;
+    this.maxResources = maxResources;
+    while (createdResources.size() - retiringResources.size() > maxResources) {
+      R resource = parkedResources.pollLast();
+      if (resource == null) {
+        break;
+      }
+      retireResource(resource);
+    }
+    // Requests waiting for a resource may now be allowed to create one.
+    for (int i = 0; i < addedResources * maxUsesPerResource; i++) {
+      scheduleNextRequest();
+    }
+  }
+
+  public synchronized int getMaxResources() {
+    return maxResources;
+  }
+
   private synchronized void scheduleNextRequest() {
     while (true) {
       SettableFuture<Unit> nextRequest = resourceRequests.pollFirst();
@@ -231,7 +332,8 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   }
 
   private synchronized boolean allowedToCreateResource() {
-    return !closing.get() && (createdResources.size() < maxResources);
+    return !closing.get()
+        && (createdResources.size() - retiringResources.size() < maxResources);
   }
 
   private synchronized Optional<R> createIfAllowed() {
@@ -25,6 +25,7 @@ import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
@@ -50,6 +51,8 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int requestedConcurrentJobs;
+  private volatile int maxConcurrentJobs = 1;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
   private final ConcurrentHashMap<Integer, SettableFuture<Integer>> commandExitCodes =
@@ -78,12 +81,29 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path stdErr,
       Path tmpPath) {
+    this(executor, processParams, filesystem, stdErr, tmpPath, 1);
+  }
+
+  /**
+   * Creates a worker process which may be asked to run up to {@code requestedConcurrentJobs} jobs
+   * at the same time. Whether it does is agreed on during the handshake, see {@link
+   * #getMaxConcurrentJobs()}.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path stdErr,
+      Path tmpPath,
+      int requestedConcurrentJobs) {
+    Preconditions.checkArgument(requestedConcurrentJobs > 0);
     this.executor = executor;
     this.stdErr = stdErr;
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
     this.filesystem = filesystem;
     this.tmpPath = tmpPath;
+    this.requestedConcurrentJobs = requestedConcurrentJobs;
     this.readerThread = new Thread(this::readerLoop);
     this.readerThread.setDaemon(true);
     this.readerThread.setName(
@@ -94,6 +114,15 @@ public class WorkerProcess implements Closeable {
     return launchedProcess != null && launchedProcess.isAlive() && !shutdownReaderThread;
   }
 
+  /**
+   * Returns how many jobs may be submitted to this process before earlier ones finish. This is 1
+   * unless more were requested and the process accepted the concurrent jobs capability during the
+   * handshake.
+   */
+  public int getMaxConcurrentJobs() {
+    return maxConcurrentJobs;
+  }
+
   public synchronized void ensureLaunchAndHandshake() throws IOException {
     if (handshakePerformed) {
       return;
@@ -115,7 +144,19 @@ public class WorkerProcess implements Closeable {
             () -> launchedProcess != null && launchedProcess.isAlive());
 
     LOG.debug("Handshaking with process %d", this.hashCode());
-    protocol.handshake(currentMessageID.getAndIncrement());
+    ImmutableSet<String> capabilities =
+        protocol.handshake(
+            currentMessageID.getAndIncrement(),
+            requestedConcurrentJobs > 1
+                ? ImmutableSet.of(WorkerProcessProtocol.CAPABILITY_CONCURRENT_JOBS)
+                : ImmutableSet.of());
+    if (capabilities.contains(WorkerProcessProtocol.CAPABILITY_CONCURRENT_JOBS)) {
+      maxConcurrentJobs = requestedConcurrentJobs;
+    } else if (requestedConcurrentJobs > 1) {
+      LOG.warn(
+          "Worker process '%s' does not support concurrent jobs, running one job at a time.",
+          Joiner.on(' ').join(processParams.getCommand()));
+    }
     handshakePerformed = true;
     readerThread.start();
   }
@@ -44,6 +44,12 @@ public interface WorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs that each tool may run at the same time, if the tool supports running
+   * concurrent jobs.
+   */
+  int getMaxJobsPerWorker();
+
   /**
    * Whether we use synchronous 1-command-at-a-time processes, or one process with a max number of
    * tasks
@@ -64,9 +70,16 @@ public interface WorkerProcessParams {
       ImmutableList<String> startupCommand,
       ImmutableMap<String, String> startupEnvironment,
       int maxWorkers,
+      int maxJobsPerWorker,
       boolean isAsync,
       Optional<WorkerProcessIdentity> workerProcessIdentity) {
     return ImmutableWorkerProcessParams.of(
-        tempDir, startupCommand, startupEnvironment, maxWorkers, isAsync, workerProcessIdentity);
+        tempDir,
+        startupCommand,
+        startupEnvironment,
+        maxWorkers,
+        maxJobsPerWorker,
+        isAsync,
+        workerProcessIdentity);
   }
 }
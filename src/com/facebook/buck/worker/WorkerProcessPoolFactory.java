@@ -87,13 +87,15 @@ public class WorkerProcessPoolFactory {
     }
 
     int poolCapacity = pool.getCapacity();
-    if (poolCapacity != paramsToUse.getMaxWorkers()) {
+    int requestedCapacity = paramsToUse.getMaxWorkers() * paramsToUse.getMaxJobsPerWorker();
+    if (poolCapacity != requestedCapacity) {
       context.postEvent(
           ConsoleEvent.warning(
               "There are two 'worker_tool' targets declared with the same command (%s), but "
-                  + "different 'max_worker' settings (%d and %d). Only the former capacity is applied. "
+                  + "different 'max_worker' or 'max_jobs_per_worker' settings (%d and %d jobs). "
+                  + "Only the former capacity is applied. "
                   + "Consolidate these workers to avoid this warning.",
-              key, poolCapacity, paramsToUse.getMaxWorkers()));
+              key, poolCapacity, requestedCapacity));
     }
     if ((pool instanceof WorkerProcessPoolAsync) != paramsToUse.isAsync()) {
       context.postEvent(
@@ -126,7 +128,8 @@ public class WorkerProcessPoolFactory {
           Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
           filesystem.mkdirs(tmpDir);
           WorkerProcess process =
-              WorkerProcessPoolFactory.this.createWorkerProcess(processParams, context, tmpDir);
+              WorkerProcessPoolFactory.this.createWorkerProcess(
+                  processParams, context, tmpDir, paramsToUse.getMaxJobsPerWorker());
           process.ensureLaunchAndHandshake();
           return process;
         };
@@ -135,6 +138,13 @@ public class WorkerProcessPoolFactory {
     if (paramsToUse.isAsync()) {
       newPool =
           new WorkerProcessPoolAsync(paramsToUse.getMaxWorkers(), workerHash, startWorkerProcess);
+    } else if (paramsToUse.getMaxJobsPerWorker() > 1) {
+      newPool =
+          new WorkerProcessPoolMultiplexed(
+              paramsToUse.getMaxWorkers(),
+              paramsToUse.getMaxJobsPerWorker(),
+              workerHash,
+              startWorkerProcess);
     } else {
       newPool =
           new WorkerProcessPoolSync(paramsToUse.getMaxWorkers(), workerHash, startWorkerProcess);
@@ -174,10 +184,18 @@ public class WorkerProcessPoolFactory {
 
   @VisibleForTesting
   public WorkerProcess createWorkerProcess(
-      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+      ProcessExecutorParams processParams,
+      ExecutionContext context,
+      Path tmpDir,
+      int maxConcurrentJobs)
       throws IOException {
     Path stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     return new WorkerProcess(
-        context.getProcessExecutor(), processParams, filesystem, stdErr, tmpDir);
+        context.getProcessExecutor(),
+        processParams,
+        filesystem,
+        stdErr,
+        tmpDir,
+        maxConcurrentJobs);
   }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A pool of up to {@code maxWorkers} {@link WorkerProcess} instances, each of which runs up to
+ * {@code maxJobsPerWorker} jobs at the same time.
+ *
+ * <p>Jobs are packed onto the processes which are already running before another one is started, so
+ * that as few processes as possible are kept around. Processes which don't accept concurrent jobs
+ * during the handshake are given one job at a time.
+ */
+@ThreadSafe
+public class WorkerProcessPoolMultiplexed implements WorkerProcessPool {
+  private static final Logger LOG = Logger.get(WorkerProcessPoolMultiplexed.class);
+
+  private final int maxWorkers;
+  private final int maxJobsPerWorker;
+  private final HashCode poolHash;
+  private final ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess;
+
+  @GuardedBy("this")
+  private final List<Worker> workers = new ArrayList<>();
+
+  @GuardedBy("this")
+  private int startingWorkers = 0;
+
+  @GuardedBy("this")
+  private boolean isClosed = false;
+
+  public WorkerProcessPoolMultiplexed(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(maxWorkers > 0);
+    Preconditions.checkArgument(maxJobsPerWorker > 0);
+    this.maxWorkers = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
+    this.poolHash = poolHash;
+    this.startWorkerProcess = startWorkerProcess;
+  }
+
+  @Override
+  public HashCode getPoolHash() {
+    return poolHash;
+  }
+
+  /**
+   * Returns the most jobs this pool runs at the same time. Fewer run if some processes don't
+   * accept concurrent jobs.
+   */
+  @Override
+  public int getCapacity() {
+    return maxWorkers * maxJobsPerWorker;
+  }
+
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
+  @Override
+  public ListenableFuture<WorkerJobResult> submitJob(String expandedJobArgs)
+      throws IOException, InterruptedException {
+    Worker worker = acquireWorker();
+    try {
+      ListenableFuture<WorkerJobResult> result = worker.process.submitJob(expandedJobArgs);
+      result.addListener(() -> releaseWorker(worker), MoreExecutors.directExecutor());
+      return result;
+    } catch (Throwable t) {
+      releaseWorker(worker);
+      throw t;
+    }
+  }
+
+  /**
+   * Reserves a job slot on the least busy running process, starting a new process if all of them
+   * are busy, or blocks until a slot becomes available.
+   */
+  private Worker acquireWorker() throws IOException, InterruptedException {
+    synchronized (this) {
+      while (true) {
+        Preconditions.checkState(!isClosed, "Submitting job to a closed worker pool");
+        removeDeadWorkers();
+        Worker leastBusy = null;
+        for (Worker worker : workers) {
+          if (worker.hasFreeSlot() && (leastBusy == null || worker.jobs < leastBusy.jobs)) {
+            leastBusy = worker;
+          }
+        }
+        if (leastBusy != null) {
+          leastBusy.jobs++;
+          return leastBusy;
+        }
+        if (workers.size() + startingWorkers < maxWorkers) {
+          startingWorkers++;
+          break;
+        }
+        wait();
+      }
+    }
+
+    // Start the process without holding the lock, so that finishing jobs can release their slots.
+    WorkerProcess process = null;
+    try {
+      process = startWorkerProcess.get();
+    } finally {
+      synchronized (this) {
+        startingWorkers--;
+        if (process == null) {
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized (this) {
+      Worker worker = new Worker(process);
+      worker.jobs++;
+      if (isClosed) {
+        process.close();
+        throw new IllegalStateException("Submitting job to a closed worker pool");
+      }
+      workers.add(worker);
+      // Other threads may be able to use the remaining slots of the new process.
+      notifyAll();
+      return worker;
+    }
+  }
+
+  private synchronized void releaseWorker(Worker worker) {
+    worker.jobs--;
+    notifyAll();
+  }
+
+  @GuardedBy("this")
+  private void removeDeadWorkers() {
+    Iterator<Worker> iterator = workers.iterator();
+    while (iterator.hasNext()) {
+      Worker worker = iterator.next();
+      // Jobs of a dead process fail on their own, and release their slots when they do.
+      if (worker.jobs == 0 && !worker.process.isAlive()) {
+        iterator.remove();
+        try {
+          worker.process.close();
+        } catch (Exception e) {
+          LOG.error(e, "Failed to close dead worker process; ignoring.");
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    isClosed = true;
+    Throwable caughtWhileClosing = null;
+    for (Worker worker : workers) {
+      try {
+        worker.process.close();
+      } catch (Throwable t) {
+        caughtWhileClosing = t;
+      }
+    }
+    workers.clear();
+    notifyAll();
+    if (caughtWhileClosing != null) {
+      throw new RuntimeException(caughtWhileClosing);
+    }
+  }
+
+  /** A running process along with the number of jobs it is currently running. */
+  private class Worker {
+    private final WorkerProcess process;
+
+    @GuardedBy("WorkerProcessPoolMultiplexed.this")
+    private int jobs = 0;
+
+    private Worker(WorkerProcess process) {
+      this.process = process;
+    }
+
+    @GuardedBy("WorkerProcessPoolMultiplexed.this")
+    private boolean hasFreeSlot() {
+      return process.isAlive()
+          && jobs < Math.min(maxJobsPerWorker, process.getMaxConcurrentJobs());
+    }
+  }
+}
@@ -16,10 +16,17 @@
 
 package com.facebook.buck.worker;
 
+import com.google.common.collect.ImmutableSet;
 import java.io.Closeable;
 import java.io.IOException;
 
 public interface WorkerProcessProtocol {
+  /**
+   * Capability which allows more than one command to be in flight on a worker process at a time.
+   * Responses may then arrive in any order, and are matched to their commands by id.
+   */
+  String CAPABILITY_CONCURRENT_JOBS = "concurrent_jobs";
+
   class CommandResponse {
     private final int commandId;
     private final int exitCode;
@@ -39,7 +46,13 @@ public interface WorkerProcessProtocol {
   }
 
   interface CommandSender extends Closeable {
-    void handshake(int messageId) throws IOException;
+    /**
+     * Performs the handshake with the worker process, offering it the given capabilities.
+     *
+     * @return the capabilities which the worker process accepted.
+     */
+    ImmutableSet<String> handshake(int messageId, ImmutableSet<String> capabilities)
+        throws IOException;
 
     void send(int messageId, WorkerProcessCommand command) throws IOException;
 
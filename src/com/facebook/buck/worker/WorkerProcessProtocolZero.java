@@ -19,6 +19,7 @@ package com.facebook.buck.worker;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.util.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import java.io.BufferedReader;
@@ -70,9 +71,10 @@ public class WorkerProcessProtocolZero {
     }
 
     @Override
-    public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+    public ImmutableSet<String> handshake(int messageId, ImmutableSet<String> capabilities)
+        throws IOException {
+      sendHandshake(processStdinWriter, messageId, capabilities);
+      return receiveHandshake(processStdoutReader, messageId, capabilities, stdErr);
     }
 
     /*
@@ -206,16 +208,21 @@ public class WorkerProcessProtocolZero {
          id: 0,
          type: 'handshake',
          protocol_version: '0',
-         capabilities: []
+         capabilities: [<capability>, ...]
        }
   */
-  private static void sendHandshake(JsonWriter writer, int messageId) throws IOException {
+  private static void sendHandshake(
+      JsonWriter writer, int messageId, ImmutableSet<String> capabilities) throws IOException {
     writer.beginArray();
     writer.beginObject();
     writer.name("id").value(messageId);
     writer.name("type").value(TYPE_HANDSHAKE);
     writer.name("protocol_version").value(PROTOCOL_VERSION);
-    writer.name("capabilities").beginArray().endArray();
+    writer.name("capabilities").beginArray();
+    for (String capability : capabilities) {
+      writer.value(capability);
+    }
+    writer.endArray();
     writer.endObject();
     writer.flush();
   }
@@ -227,14 +234,18 @@ public class WorkerProcessProtocolZero {
          id: 0,
          type: 'handshake',
          protocol_version: '0',
-         capabilities: []
+         capabilities: [<capability>, ...]
        }
+
+   where the capabilities are the subset of the offered ones which the worker supports.
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Path stdErr)
+  private static ImmutableSet<String> receiveHandshake(
+      JsonReader reader, int messageId, ImmutableSet<String> offeredCapabilities, Path stdErr)
       throws IOException {
     int id = -1;
     String type = "";
     String protocolVersion = "";
+    ImmutableSet.Builder<String> capabilities = ImmutableSet.builder();
 
     try {
       reader.beginArray();
@@ -250,10 +261,13 @@ public class WorkerProcessProtocolZero {
         } else if (property.equals("capabilities")) {
           try {
             reader.beginArray();
+            while (reader.hasNext()) {
+              capabilities.add(reader.nextString());
+            }
             reader.endArray();
           } catch (IllegalStateException e) {
             throw new HumanReadableException(
-                "Expected handshake response's \"capabilities\" to " + "be an empty array.");
+                "Expected handshake response's \"capabilities\" to be an array of strings.");
           }
         } else {
           reader.skipValue();
@@ -287,6 +301,15 @@ public class WorkerProcessProtocolZero {
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
               PROTOCOL_VERSION, protocolVersion));
     }
+    ImmutableSet<String> acceptedCapabilities = capabilities.build();
+    if (!offeredCapabilities.containsAll(acceptedCapabilities)) {
+      throw new HumanReadableException(
+          String.format(
+              "Expected handshake response's \"capabilities\" to be a subset of %s, "
+                  + "got %s instead.",
+              offeredCapabilities, acceptedCapabilities));
+    }
+    return acceptedCapabilities;
   }
 
   private static String getStdErrorOutput(Path stdErr) throws IOException {
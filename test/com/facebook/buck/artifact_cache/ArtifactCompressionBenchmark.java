@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares deflate with zstd at various levels for compressing and decompressing artifact
+ * payloads, to help pick {@code build.artifact_compression_level}.
+ *
+ * <p>Payloads are synthetic: "object" mimics native object files (symbol tables and relocations,
+ * which compress well, mixed with machine code, which doesn't), and "jar" mimics a jar of already
+ * deflated class files, which barely compresses at all.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArtifactCompressionBenchmark {
+  private static final int PAYLOAD_SIZE = 8 * 1024 * 1024;
+
+  @Param({"object", "jar"})
+  public String payloadType;
+
+  @Param({"deflate", "zstd-1", "zstd-3", "zstd-9"})
+  public String codec;
+
+  private byte[] payload;
+  private byte[] compressed;
+
+  @Setup
+  public void setUp() throws IOException {
+    payload = "jar".equals(payloadType) ? jarPayload() : objectPayload();
+    compressed = compress(payload);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public byte[] compress() throws IOException {
+    return compress(payload);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public long decompress() throws IOException {
+    try (InputStream in = newDecompressingStream(new ByteArrayInputStream(compressed))) {
+      return ByteStreams.exhaust(in);
+    }
+  }
+
+  private byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+    try (OutputStream out = newCompressingStream(bytes)) {
+      out.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private OutputStream newCompressingStream(OutputStream out) throws IOException {
+    if ("deflate".equals(codec)) {
+      return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION));
+    }
+    return new ZstdCompressorOutputStream(out, Integer.parseInt(codec.substring("zstd-".length())));
+  }
+
+  private InputStream newDecompressingStream(InputStream in) throws IOException {
+    if ("deflate".equals(codec)) {
+      return new InflaterInputStream(in);
+    }
+    return new ZstdCompressorInputStream(in);
+  }
+
+  private static byte[] objectPayload() {
+    Random random = new Random(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(PAYLOAD_SIZE);
+    byte[] code = new byte[256];
+    while (out.size() < PAYLOAD_SIZE) {
+      random.nextBytes(code);
+      out.write(code, 0, code.length);
+      for (int i = 0; i < 16; i++) {
+        byte[] symbol =
+            String.format("_ZN8facebook4buck%dRule%dEv", random.nextInt(64), random.nextInt(4096))
+                .getBytes(StandardCharsets.US_ASCII);
+        out.write(symbol, 0, symbol.length);
+        out.write(0);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] jarPayload() throws IOException {
+    // Class files are deflated inside jars, so what the cache sees is mostly deflate output.
+    Random random = new Random(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(PAYLOAD_SIZE);
+    while (out.size() < PAYLOAD_SIZE) {
+      ByteArrayOutputStream entry = new ByteArrayOutputStream();
+      try (DeflaterOutputStream deflater = new DeflaterOutputStream(entry)) {
+        for (int i = 0; i < 512; i++) {
+          deflater.write(
+              String.format("Lcom/facebook/buck/Class%d;", random.nextInt(100_000))
+                  .getBytes(StandardCharsets.US_ASCII));
+        }
+      }
+      entry.writeTo(out);
+    }
+    return out.toByteArray();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {ArtifactCompressionBenchmark.class.getName()});
+  }
+}
@@ -53,7 +53,8 @@ public class ArtifactUploaderIntegrationTest {
         ImmutableMap.of(),
         ImmutableSortedSet.of(),
         new FakeBuildRule(BUILD_TARGET, ImmutableSortedSet.of()),
-        1000);
+        1000,
+        3);
 
     assertTrue(
         cacheDir
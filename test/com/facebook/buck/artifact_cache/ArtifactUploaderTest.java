@@ -48,6 +48,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -133,7 +134,8 @@ public class ArtifactUploaderTest {
         ImmutableMap.of("metadata", "metadata", "build-metadata", "build-metadata"),
         ImmutableSortedSet.of(dir, file, dirFile, metadataFile),
         new FakeBuildRule(BUILD_TARGET, filesystem, TestBuildRuleParams.create()),
-        1000);
+        1000,
+        3);
 
     assertTrue(stored.get());
   }
@@ -151,7 +153,7 @@ public class ArtifactUploaderTest {
         ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
 
     // Compress
-    ArtifactUploader.compress(fs, ImmutableList.of(file.getPath()), out.getPath());
+    ArtifactUploader.compress(fs, ImmutableList.of(file.getPath()), out.getPath(), 3);
 
     // Decompress+unarchive, and check that the only file is an executable.
     try (TarArchiveInputStream fin =
@@ -170,4 +172,31 @@ public class ArtifactUploaderTest {
               .contains(PosixFilePermission.OWNER_EXECUTE));
     }
   }
+
+  @Test
+  public void compressUsesTheGivenLevel() throws Exception {
+    ProjectFilesystem fs = FakeProjectFilesystem.createJavaOnlyFilesystem("/");
+
+    AbsPath file = fs.getRootPath().resolve("file");
+    Random random = new Random(0);
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      contents.append("symbol_").append(random.nextInt(1000)).append('\n');
+    }
+    fs.writeContentsToPath(contents.toString(), file.getPath());
+
+    AbsPath fast = fs.getRootPath().resolve("fast");
+    AbsPath small = fs.getRootPath().resolve("small");
+    ArtifactUploader.compress(fs, ImmutableList.of(file.getPath()), fast.getPath(), 1);
+    ArtifactUploader.compress(fs, ImmutableList.of(file.getPath()), small.getPath(), 19);
+
+    assertThat(Files.size(small.getPath()), Matchers.lessThan(Files.size(fast.getPath())));
+    for (AbsPath archive : ImmutableList.of(fast, small)) {
+      try (TarArchiveInputStream fin =
+          new TarArchiveInputStream(
+              new ZstdCompressorInputStream(Files.newInputStream(archive.getPath())))) {
+        assertEquals(contents.length(), fin.getNextTarEntry().getSize());
+      }
+    }
+  }
 }
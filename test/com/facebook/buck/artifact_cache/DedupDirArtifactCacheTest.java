@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DedupDirArtifactCacheTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private final RuleKey ruleKeyX = new RuleKey("aaaaaaaaaaaaaaaa");
+  private final RuleKey ruleKeyY = new RuleKey("bbbbbbbbbbbbbbbb");
+
+  private ProjectFilesystem filesystem;
+  private Path cacheDir;
+  private DedupDirArtifactCache artifactCache;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmpDir.newFolder();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    artifactCache =
+        new DedupDirArtifactCache(
+            "dedup_dir",
+            filesystem,
+            cacheDir,
+            CacheReadMode.READWRITE,
+            Optional.empty(),
+            MoreExecutors.newDirectExecutorService(),
+            0,
+            1);
+  }
+
+  @After
+  public void tearDown() {
+    artifactCache.close();
+  }
+
+  @Test
+  public void fetchMiss() {
+    CacheResult result =
+        Futures.getUnchecked(
+            artifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(tmpDir.getRoot())));
+    assertEquals(CacheResultType.MISS, result.getType());
+  }
+
+  @Test
+  public void storeAndFetchHit() throws IOException {
+    Path artifact = tmpDir.newFile("artifact");
+    Files.write(artifact, "content".getBytes(UTF_8));
+    artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).putMetadata("key", "value").build(),
+        BorrowablePath.notBorrowablePath(artifact));
+
+    Path output = tmpDir.getRoot().resolve("output");
+    CacheResult result =
+        Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals("value", result.getMetadata().get("key"));
+    assertEquals("content", new String(Files.readAllBytes(output), UTF_8));
+    assertEquals(7, result.getArtifactSizeBytes());
+
+    // Fetching again overwrites the output.
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(output)))
+            .getType());
+  }
+
+  @Test
+  public void identicalArtifactsAreStoredOnce() throws IOException {
+    Path first = tmpDir.newFile("first");
+    Path second = tmpDir.newFile("second");
+    Files.write(first, "content".getBytes(UTF_8));
+    Files.write(second, "content".getBytes(UTF_8));
+    artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.borrowablePath(first));
+    artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(second));
+
+    try (Stream<Path> blobs = Files.walk(cacheDir.resolve("blobs"))) {
+      assertEquals(1, blobs.filter(Files::isRegularFile).count());
+    }
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyX, ruleKeyY)) {
+      Path output = tmpDir.getRoot().resolve("output-" + ruleKey);
+      assertEquals(
+          CacheResultType.HIT,
+          Futures.getUnchecked(
+                  artifactCache.fetchAsync(null, ruleKey, LazyPath.ofInstance(output)))
+              .getType());
+      assertEquals("content", new String(Files.readAllBytes(output), UTF_8));
+    }
+  }
+
+  @Test
+  public void evictedBlobIsAMissAndDropsTheIndexEntry() throws IOException {
+    Path artifact = tmpDir.newFile("artifact");
+    Files.write(artifact, "content".getBytes(UTF_8));
+    artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(artifact));
+    try (Stream<Path> blobs = Files.walk(cacheDir.resolve("blobs"))) {
+      for (Path blob : (Iterable<Path>) blobs.filter(Files::isRegularFile)::iterator) {
+        Files.delete(blob);
+      }
+    }
+
+    CacheResult result =
+        Futures.getUnchecked(
+            artifactCache.fetchAsync(
+                null, ruleKeyX, LazyPath.ofInstance(tmpDir.getRoot().resolve("output"))));
+    assertEquals(CacheResultType.MISS, result.getType());
+    assertFalse(Files.exists(artifactCache.getIndexPath(ruleKeyX)));
+  }
+
+  @Test
+  public void deleteRemovesIndexEntries() throws IOException {
+    Path artifact = tmpDir.newFile("artifact");
+    Files.write(artifact, "content".getBytes(UTF_8));
+    artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX, ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(artifact));
+    assertTrue(Files.exists(artifactCache.getIndexPath(ruleKeyX)));
+
+    Futures.getUnchecked(artifactCache.deleteAsync(ImmutableList.of(ruleKeyX)));
+
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                artifactCache.fetchAsync(
+                    null, ruleKeyX, LazyPath.ofInstance(tmpDir.getRoot().resolve("output"))))
+            .getType());
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                artifactCache.fetchAsync(
+                    null, ruleKeyY, LazyPath.ofInstance(tmpDir.getRoot().resolve("output"))))
+            .getType());
+  }
+}
@@ -152,6 +152,50 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testBatchedFetches() throws IOException {
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            projectFilesystem,
+            cacheDir,
+            CacheReadMode.READWRITE,
+            Optional.empty(),
+            MoreExecutors.newDirectExecutorService(),
+            2,
+            2);
+
+    RuleKey ruleKeyX = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbbbbbbbbbbbbbb");
+    RuleKey ruleKeyZ = new RuleKey("cccccccccccccccc");
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(fileY));
+
+    Path outputX = tmpDir.getRoot().resolve("output-x");
+    Path outputY = tmpDir.getRoot().resolve("output-y");
+    List<CacheResult> results =
+        Futures.getUnchecked(
+            Futures.allAsList(
+                dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(outputX)),
+                dirArtifactCache.fetchAsync(null, ruleKeyY, LazyPath.ofInstance(outputY)),
+                dirArtifactCache.fetchAsync(
+                    null, ruleKeyZ, LazyPath.ofInstance(tmpDir.getRoot().resolve("output-z")))));
+
+    assertEquals(CacheResultType.HIT, results.get(0).getType());
+    assertEquals("x", new String(Files.readAllBytes(outputX), UTF_8));
+    assertEquals(CacheResultType.HIT, results.get(1).getType());
+    assertEquals("y", new String(Files.readAllBytes(outputY), UTF_8));
+    assertEquals(CacheResultType.MISS, results.get(2).getType());
+  }
+
   @Test
   public void testCacheContainsMiss() throws IOException {
     Path fileX = tmpDir.newFile("x");
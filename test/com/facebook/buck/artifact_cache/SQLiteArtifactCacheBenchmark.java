@@ -154,6 +154,13 @@ public class SQLiteArtifactCacheBenchmark {
     runAllBenchmarks();
   }
 
+  @Ignore
+  @Test
+  public void testUnderEvictionPressure() throws IOException, SQLException {
+    executor = MoreExecutors.newDirectExecutorService();
+    benchStoreAndFetchUnderEvictionPressure();
+  }
+
   private void runAllBenchmarks() {
     benchMetadataStore();
     benchMetadataFetch();
@@ -192,4 +199,29 @@ public class SQLiteArtifactCacheBenchmark {
       Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
     }
   }
+
+  /**
+   * Stores and fetches back artifacts into a cache which only has room for a tenth of them, so
+   * that eviction runs all along.
+   */
+  @Benchmark
+  private void benchStoreAndFetchUnderEvictionPressure() throws IOException, SQLException {
+    artifactCache.close();
+    long largeFileSize = Files.size(largeFile);
+    artifactCache =
+        new SQLiteArtifactCache(
+            "sqlite",
+            filesystem,
+            cacheDir,
+            BuckEventBusForTests.newInstance(),
+            Optional.of(largeFileSize * Math.max(1, opCount / 10)),
+            Optional.of(MAX_INLINED_BYTES),
+            CacheReadMode.READWRITE);
+    artifactCache.start();
+
+    for (int i = 0; i < contentInfo.size(); i++) {
+      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(largeFile));
+      Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashes.get(i), output));
+    }
+  }
 }
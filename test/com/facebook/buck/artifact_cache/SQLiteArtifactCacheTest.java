@@ -29,14 +29,17 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -46,6 +49,8 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -68,6 +73,8 @@ public class SQLiteArtifactCacheTest {
   private Path cacheDir;
   private LazyPath output;
   private SQLiteArtifactCache artifactCache;
+  private BuckEventBus eventBus;
+  private ExplicitRunExecutorService evictionExecutor;
 
   @Before
   public void setUp() throws IOException {
@@ -91,6 +98,9 @@ public class SQLiteArtifactCacheTest {
 
     cacheDir = tmpDir.newFolder();
     output = LazyPath.ofInstance(cacheDir.resolve(".output"));
+
+    eventBus = BuckEventBusForTests.newInstance();
+    evictionExecutor = new ExplicitRunExecutorService();
   }
 
   @After
@@ -102,14 +112,28 @@ public class SQLiteArtifactCacheTest {
 
   private SQLiteArtifactCache cache(Optional<Long> maxCacheSizeBytes)
       throws IOException, SQLException {
-    return new SQLiteArtifactCache(
-        "sqlite",
-        filesystem,
-        cacheDir,
-        BuckEventBusForTests.newInstance(),
-        maxCacheSizeBytes,
-        Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+    return cache(maxCacheSizeBytes, Optional.empty());
+  }
+
+  /** Creates a cache whose eviction passes only run when {@link #evictionExecutor} is run. */
+  private SQLiteArtifactCache cache(
+      Optional<Long> maxCacheSizeBytes, Optional<Long> maxInlinedCacheSizeBytes)
+      throws IOException, SQLException {
+    SQLiteArtifactCache cache =
+        new SQLiteArtifactCache(
+            "sqlite",
+            filesystem,
+            cacheDir,
+            eventBus,
+            maxCacheSizeBytes,
+            Optional.of(MAX_INLINED_BYTES),
+            maxInlinedCacheSizeBytes,
+            CacheReadMode.READWRITE,
+            0,
+            1,
+            evictionExecutor);
+    cache.start();
+    return cache;
   }
 
   /**
@@ -239,6 +263,48 @@ public class SQLiteArtifactCacheTest {
     assertEquals(filesystem.getFileSize(fileA), result.getArtifactSizeBytes());
   }
 
+  @Test
+  public void testBatchedFetches() throws IOException, SQLException {
+    artifactCache =
+        new SQLiteArtifactCache(
+            "sqlite",
+            filesystem,
+            cacheDir,
+            BuckEventBusForTests.newInstance(),
+            Optional.empty(),
+            Optional.of(MAX_INLINED_BYTES),
+            Optional.empty(),
+            CacheReadMode.READWRITE,
+            2,
+            2);
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+    artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+
+    LazyPath outputA = LazyPath.ofInstance(cacheDir.resolve(".outputA"));
+    LazyPath outputB = LazyPath.ofInstance(cacheDir.resolve(".outputB"));
+    LazyPath outputC = LazyPath.ofInstance(cacheDir.resolve(".outputC"));
+    ImmutableList<CacheResult> results =
+        ImmutableList.copyOf(
+            Futures.getUnchecked(
+                Futures.allAsList(
+                    artifactCache.fetchAsync(null, contentHashA, outputA),
+                    artifactCache.fetchAsync(null, contentHashB, outputB),
+                    artifactCache.fetchAsync(null, contentHashC, outputC))));
+
+    assertEquals(CacheResultType.HIT, results.get(0).getType());
+    assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(outputA.get()));
+    assertEquals(CacheResultType.HIT, results.get(1).getType());
+    assertArrayEquals(Files.readAllBytes(fileB), Files.readAllBytes(outputB.get()));
+    assertEquals(CacheResultType.MISS, results.get(2).getType());
+
+    artifactCache.skipPendingAndFutureAsyncFetches();
+    assertEquals(
+        CacheResultType.SKIPPED,
+        Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashA, outputA)).getType());
+  }
+
   @Test
   public void testContentStoreAlreadyExists() throws IOException, SQLException {
     artifactCache = cache(Optional.empty());
@@ -388,6 +454,86 @@ public class SQLiteArtifactCacheTest {
     assertThat(filesNotDeleted, Matchers.hasItem(contentHashC));
   }
 
+  @Test
+  public void testStoreOverBudgetEvictsInTheBackground() throws Exception {
+    artifactCache = cache(Optional.of(3 * MAX_INLINED_BYTES));
+    List<SQLiteArtifactCacheEvictionEvent> events = new ArrayList<>();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void onEviction(SQLiteArtifactCacheEvictionEvent event) {
+            events.add(event);
+          }
+        });
+
+    writeFileArtifact(fileA);
+    writeFileArtifact(fileB);
+    writeFileArtifact(fileC);
+    long evictedBytes = Files.size(fileA) + Files.size(fileB);
+    artifactCache.insertContent(
+        contentHashA,
+        BorrowablePath.notBorrowablePath(fileA),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(3))));
+    artifactCache.insertContent(
+        contentHashB,
+        BorrowablePath.notBorrowablePath(fileB),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+
+    // the first pass finds the cache within its budget
+    evictionExecutor.run();
+    assertThat(events, Matchers.empty());
+
+    // storing fileC goes over budget, but eviction is left to the eviction thread
+    artifactCache.store(artifactInfoC, BorrowablePath.notBorrowablePath(fileC));
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.hasSize(3));
+
+    evictionExecutor.run();
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.contains(contentHashC));
+    assertThat(events.get(0), Matchers.instanceOf(SQLiteArtifactCacheEvictionEvent.Started.class));
+    SQLiteArtifactCacheEvictionEvent.Progress progress =
+        (SQLiteArtifactCacheEvictionEvent.Progress) events.get(1);
+    assertEquals("disk", progress.getStore());
+    assertEquals(2, progress.getEvictedArtifacts());
+    SQLiteArtifactCacheEvictionEvent.Finished finished =
+        (SQLiteArtifactCacheEvictionEvent.Finished) events.get(events.size() - 1);
+    assertEquals(2, finished.getEvictedArtifacts());
+    assertEquals(evictedBytes, finished.getEvictedBytes());
+  }
+
+  @Test
+  public void testInlinedContentHasItsOwnBudget() throws Exception {
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+    writeInlinedArtifact(fileC);
+    artifactCache =
+        cache(Optional.of(100 * MAX_INLINED_BYTES), Optional.of(2 * Files.size(fileA) - 1));
+
+    Timestamp old = Timestamp.from(Instant.now().minus(Duration.ofDays(1)));
+    artifactCache.insertContent(contentHashA, BorrowablePath.notBorrowablePath(fileA), old);
+    artifactCache.insertContent(contentHashB, BorrowablePath.notBorrowablePath(fileB), old);
+    evictionExecutor.run();
+    artifactCache.store(artifactInfoC, BorrowablePath.notBorrowablePath(fileC));
+
+    evictionExecutor.run();
+    assertThat(artifactCache.inlinedArtifactContentHashes(), Matchers.contains(contentHashC));
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.contains(contentHashB));
+  }
+
+  @Test
+  public void testInlinedContentGetsATenthOfTheBudgetByDefault() throws Exception {
+    writeInlinedArtifact(fileA);
+    writeInlinedArtifact(fileC);
+    artifactCache = cache(Optional.of(10 * (2 * Files.size(fileA) - 1)));
+
+    Timestamp old = Timestamp.from(Instant.now().minus(Duration.ofDays(1)));
+    artifactCache.insertContent(contentHashA, BorrowablePath.notBorrowablePath(fileA), old);
+    evictionExecutor.run();
+    artifactCache.store(artifactInfoC, BorrowablePath.notBorrowablePath(fileC));
+
+    evictionExecutor.run();
+    assertThat(artifactCache.inlinedArtifactContentHashes(), Matchers.contains(contentHashC));
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException, SQLException {
     artifactCache = cache(Optional.empty());
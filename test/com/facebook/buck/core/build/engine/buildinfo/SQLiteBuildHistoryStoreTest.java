@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.ConfigurationBuildTargetFactoryForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SQLiteBuildHistoryStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void historyIsEmptyForRulesNeverBuilt() throws IOException {
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      assertEquals(Optional.empty(), store.readHistory(target));
+    }
+  }
+
+  @Test
+  public void buildsAreMergedIntoTheHistory() throws IOException {
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("aa", 1000, 4000, 800, 1)));
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("aa", 1000, 4000, 800, 1)), store.readHistory(target));
+
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("bb", 3000, 2000, 400, 1)));
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("bb", 2000, 3000, 700, 2)), store.readHistory(target));
+    }
+  }
+
+  @Test
+  public void historyIsKeptPerConfiguration() throws IOException {
+    BuildTarget configuredTarget =
+        BuildTargetFactory.newInstance(
+            "//foo:bar", ConfigurationBuildTargetFactoryForTests.newConfiguration("//config:arm"));
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("aa", 1000, 4000, 800, 1)));
+      store.recordBuilds(
+          ImmutableMap.of(configuredTarget, BuildRuleHistory.of("bb", 3000, 2000, 400, 1)));
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("aa", 1000, 4000, 800, 1)), store.readHistory(target));
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("bb", 3000, 2000, 400, 1)),
+          store.readHistory(configuredTarget));
+    }
+  }
+
+  @Test
+  public void unmeasuredCpuTimeIsLeftOutOfTheHistory() throws IOException {
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("aa", 1000, 0, 0, 1)));
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("bb", 3000, 4000, 0, 1)));
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("cc", 2000, 0, 0, 1)));
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("cc", 2000, 4000, 0, 3)), store.readHistory(target));
+    }
+  }
+
+  @Test
+  public void historyIsKeptAlongsideTheBuildMetadata() throws IOException {
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      store.recordBuilds(ImmutableMap.of(target, BuildRuleHistory.of("aa", 1000, 4000, 800, 1)));
+    }
+    try (BuildInfoStore buildInfoStore = new SQLiteBuildInfoStore(filesystem)) {
+      buildInfoStore.updateMetadata(target, ImmutableMap.of("key", "value"));
+    }
+    try (BuildHistoryStore store = new SQLiteBuildHistoryStore(filesystem)) {
+      assertEquals(
+          Optional.of(BuildRuleHistory.of("aa", 1000, 4000, 800, 1)), store.readHistory(target));
+    }
+  }
+}
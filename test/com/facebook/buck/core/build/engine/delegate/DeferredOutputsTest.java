@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.delegate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.core.build.engine.delegate.DeferredOutputs.DeferredFile;
+import com.facebook.buck.core.io.ArchiveMemberPath;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class DeferredOutputsTest {
+  private final BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+  private final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private final Path relativeOutput = Paths.get("buck-out/gen/foo/bar.jar");
+  private final Path output = filesystem.resolve(relativeOutput);
+  private final DeferredFile file = new DeferredFile(HashCode.fromString("abcdef01"), 42, false);
+
+  @Test
+  public void hashCacheAnswersForDeferredOutputs() throws Exception {
+    DeferredOutputs deferredOutputs = new DeferredOutputs();
+    Path other = Paths.get("/root/other").toAbsolutePath();
+    HashCode otherHash = HashCode.fromString("12345678");
+    HashMap<Path, HashCode> hashes = new HashMap<>();
+    hashes.put(other, otherHash);
+    FileHashCache hashCache =
+        deferredOutputs.wrap(new FakeFileHashCache(hashes, false, ImmutableMap.of(other, 7L)));
+
+    deferredOutputs.defer(
+        target,
+        filesystem,
+        ImmutableMap.of(output, file),
+        () -> Futures.immediateFuture(Unit.UNIT));
+
+    assertEquals(file.getHash(), hashCache.get(output));
+    assertEquals(42, hashCache.getSize(output));
+    assertEquals(otherHash, hashCache.get(other));
+    assertEquals(7, hashCache.getSize(other));
+  }
+
+  @Test
+  public void archiveMembersOfDeferredOutputsAreReadOnceMaterialized() throws Exception {
+    DeferredOutputs deferredOutputs = new DeferredOutputs();
+    Path member = Paths.get("com/example/Foo.class");
+    HashCode memberHash = HashCode.fromString("fedcba98");
+    FileHashCache hashCache =
+        deferredOutputs.wrap(
+            new FakeFileHashCache(
+                new HashMap<>(),
+                ImmutableMap.of(ArchiveMemberPath.of(relativeOutput, member), memberHash),
+                new HashMap<>()));
+    AtomicInteger calls = new AtomicInteger();
+    deferredOutputs.defer(
+        target,
+        filesystem,
+        ImmutableMap.of(output, file),
+        () -> {
+          calls.incrementAndGet();
+          return Futures.immediateFuture(Unit.UNIT);
+        });
+
+    assertEquals(memberHash, hashCache.getForArchiveMember(relativeOutput, member));
+    assertEquals(1, calls.get());
+    assertTrue(deferredOutputs.isEmpty());
+  }
+
+  @Test
+  public void materializationIsOnlyStartedOnceAndClearsTheOutputs() throws Exception {
+    DeferredOutputs deferredOutputs = new DeferredOutputs();
+    AtomicInteger calls = new AtomicInteger();
+    SettableFuture<Unit> download = SettableFuture.create();
+    deferredOutputs.defer(
+        target,
+        filesystem,
+        ImmutableMap.of(output, file),
+        () -> {
+          calls.incrementAndGet();
+          return download;
+        });
+    assertEquals(ImmutableSet.of(output), deferredOutputs.getDeferredPaths(target));
+
+    deferredOutputs.materialize(target);
+    deferredOutputs.materialize(target);
+    assertEquals(1, calls.get());
+
+    download.set(Unit.UNIT);
+    assertTrue(deferredOutputs.isEmpty());
+    assertFalse(deferredOutputs.getFile(output).isPresent());
+    assertEquals(ImmutableSet.of(), deferredOutputs.getDeferredPaths(target));
+  }
+
+  @Test
+  public void failedMaterializationIsRetried() throws Exception {
+    DeferredOutputs deferredOutputs = new DeferredOutputs();
+    AtomicInteger calls = new AtomicInteger();
+    deferredOutputs.defer(
+        target,
+        filesystem,
+        ImmutableMap.of(output, file),
+        () ->
+            calls.incrementAndGet() == 1
+                ? Futures.immediateFailedFuture(new RuntimeException("unavailable"))
+                : Futures.immediateFuture(Unit.UNIT));
+
+    try {
+      deferredOutputs.materialize(target).get();
+      fail("Expected the first materialization to fail.");
+    } catch (ExecutionException e) {
+      assertTrue(deferredOutputs.getFile(output).isPresent());
+    }
+
+    deferredOutputs.materialize(target).get();
+    assertEquals(2, calls.get());
+    assertTrue(deferredOutputs.isEmpty());
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildCachePrefetcherTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private final RuleKey unknownRuleKey = new RuleKey("ffffffffffffffff");
+
+  private ActionGraphBuilder graphBuilder;
+  private InMemoryArtifactCache cache;
+  private BuildRule ruleA;
+  private BuildRule ruleB;
+  private BuildRule ruleC;
+  private BuildRule ruleD;
+  private ImmutableMap<BuildRule, RuleKey> ruleKeys;
+
+  @Before
+  public void setUp() {
+    // a -> b -> c -> d
+    graphBuilder = new TestActionGraphBuilder();
+    ruleD = graphBuilder.addToIndex(new FakeBuildRule("//:d"));
+    ruleC = graphBuilder.addToIndex(new FakeBuildRule("//:c", ruleD));
+    ruleB = graphBuilder.addToIndex(new FakeBuildRule("//:b", ruleC));
+    ruleA = graphBuilder.addToIndex(new FakeBuildRule("//:a", ruleB));
+    ruleKeys =
+        ImmutableMap.of(
+            ruleA, new RuleKey("aaaaaaaaaaaaaaaa"),
+            ruleB, new RuleKey("bbbbbbbbbbbbbbbb"),
+            ruleC, new RuleKey("cccccccccccccccc"),
+            ruleD, new RuleKey("dddddddddddddddd"));
+    cache = new InMemoryArtifactCache();
+    ruleKeys.forEach(
+        (rule, ruleKey) ->
+            cache.store(
+                ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+                rule.getBuildTarget().getShortName().getBytes(UTF_8)));
+  }
+
+  @Test
+  public void prefetchedArtifactsAreServedWithoutTheCache() throws IOException {
+    BuildCachePrefetcher prefetcher = prefetcher(2);
+    prefetcher.prefetchDeps(ruleA, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    evictEverything();
+
+    ArtifactCache prefetched = prefetcher.withPrefetchedArtifacts(cache);
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleA));
+    assertEquals(CacheResultType.HIT, fetch(prefetched, ruleB));
+    assertEquals("b", new String(Files.readAllBytes(output(ruleB)), UTF_8));
+    assertEquals(CacheResultType.HIT, fetch(prefetched, ruleC));
+    assertEquals("c", new String(Files.readAllBytes(output(ruleC)), UTF_8));
+    // Beyond the prefetch depth.
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleD));
+
+    // A prefetch is only picked up once.
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleB));
+    prefetcher.close();
+  }
+
+  @Test
+  public void nothingIsPrefetchedBelowSkippedDeps() {
+    BuildCachePrefetcher prefetcher = prefetcher(3);
+    prefetcher.prefetchDeps(
+        ruleA,
+        cache,
+        rule -> rule == ruleB ? Optional.empty() : Optional.of(ruleKeys.get(rule)));
+    evictEverything();
+
+    ArtifactCache prefetched = prefetcher.withPrefetchedArtifacts(cache);
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleB));
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleC));
+    prefetcher.close();
+  }
+
+  @Test
+  public void releasingTheRequesterDropsItsPrefetches() {
+    BuildCachePrefetcher prefetcher = prefetcher(3);
+    prefetcher.prefetchDeps(ruleA, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    evictEverything();
+
+    // a was fetched from the cache, so none of its deps will be looked up.
+    prefetcher.release(ruleA.getBuildTarget());
+
+    ArtifactCache prefetched = prefetcher.withPrefetchedArtifacts(cache);
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleB));
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleC));
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleD));
+    prefetcher.close();
+  }
+
+  @Test
+  public void prefetchesAreKeptWhileAnyRequesterIsOutstanding() {
+    BuildCachePrefetcher prefetcher = prefetcher(1);
+    prefetcher.prefetchDeps(ruleA, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    prefetcher.prefetchDeps(ruleB, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    evictEverything();
+
+    // b is still outstanding, so c is kept for it.
+    prefetcher.release(ruleA.getBuildTarget());
+
+    ArtifactCache prefetched = prefetcher.withPrefetchedArtifacts(cache);
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleB));
+    assertEquals(CacheResultType.HIT, fetch(prefetched, ruleC));
+    prefetcher.close();
+  }
+
+  @Test
+  public void prefetchesAreBoundedBySize() {
+    BuildCachePrefetcher prefetcher = prefetcher(1, 1);
+    prefetcher.prefetchDeps(ruleA, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    waitForPrefetches();
+    // b is held, which uses up the whole budget.
+    prefetcher.prefetchDeps(ruleC, cache, rule -> Optional.of(ruleKeys.get(rule)));
+    evictEverything();
+
+    ArtifactCache prefetched = prefetcher.withPrefetchedArtifacts(cache);
+    assertEquals(CacheResultType.HIT, fetch(prefetched, ruleB));
+    assertEquals(CacheResultType.MISS, fetch(prefetched, ruleD));
+    prefetcher.close();
+  }
+
+  private BuildCachePrefetcher prefetcher(int depth) {
+    return prefetcher(depth, Long.MAX_VALUE);
+  }
+
+  private BuildCachePrefetcher prefetcher(int depth, long maxBytes) {
+    return new BuildCachePrefetcher(
+        depth,
+        maxBytes,
+        new DefaultRuleDepsCache(graphBuilder, new BuildEngineActionToBuildRuleResolver()));
+  }
+
+  private void waitForPrefetches() {
+    // The in-memory cache fetches on a single thread, in order.
+    Futures.getUnchecked(
+        cache.fetchAsync(null, unknownRuleKey, LazyPath.ofInstance(tmpDir.getRoot())));
+  }
+
+  /** Waits for the prefetches issued so far, then removes all artifacts from the cache. */
+  private void evictEverything() {
+    waitForPrefetches();
+    Futures.getUnchecked(cache.deleteAsync(ImmutableList.copyOf(ruleKeys.values())));
+  }
+
+  private CacheResultType fetch(ArtifactCache artifactCache, BuildRule rule) {
+    return Futures.getUnchecked(
+            artifactCache.fetchAsync(
+                rule.getBuildTarget(), ruleKeys.get(rule), LazyPath.ofInstance(output(rule))))
+        .getType();
+  }
+
+  private Path output(BuildRule rule) {
+    return tmpDir.getRoot().resolve(rule.getBuildTarget().getShortName());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.engine.buildinfo.BuildHistoryStore;
+import com.facebook.buck.core.build.engine.buildinfo.BuildRuleHistory;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.perf.ProcessTracker.ProcessResourceConsumptionEvent;
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildHistoryTrackerTest {
+
+  private static final ResourceAmounts CONFIGURED_AMOUNTS = ResourceAmounts.of(1, 1, 2, 3);
+
+  private final BuildRule rule = new FakeBuildRule("//:rule");
+  private final RuleKey ruleKey = new RuleKey("aaaaaaaaaaaaaaaa");
+  private FakeBuildHistoryStore store;
+  private BuildHistoryTracker tracker;
+
+  @Before
+  public void setUp() {
+    store = new FakeBuildHistoryStore();
+    tracker = new BuildHistoryTracker(buildRule -> store);
+  }
+
+  @Test
+  public void rulesWithoutHistoryUseTheConfiguredAmounts() {
+    assertEquals(CONFIGURED_AMOUNTS, tracker.estimateResourceAmounts(rule, CONFIGURED_AMOUNTS));
+  }
+
+  @Test
+  public void amountsAreEstimatedFromTheHistory() {
+    store.histories.put(
+        rule.getBuildTarget(),
+        BuildRuleHistory.of(
+            ruleKey.toString(), 1000, 3900, 5 * ResourceAmountsEstimator.MEMORY_UNIT_BYTES + 1, 4));
+    assertEquals(
+        ResourceAmounts.of(4, 6, 2, 3), tracker.estimateResourceAmounts(rule, CONFIGURED_AMOUNTS));
+  }
+
+  @Test
+  public void unmeasuredAmountsFallBackToTheConfiguredAmounts() {
+    store.histories.put(
+        rule.getBuildTarget(), BuildRuleHistory.of(ruleKey.toString(), 1000, 0, 0, 1));
+    assertEquals(CONFIGURED_AMOUNTS, tracker.estimateResourceAmounts(rule, CONFIGURED_AMOUNTS));
+  }
+
+  @Test
+  public void resourceFreeRulesStayResourceFree() {
+    store.histories.put(
+        rule.getBuildTarget(), BuildRuleHistory.of(ruleKey.toString(), 1000, 3900, 1000, 1));
+    assertEquals(
+        ResourceAmounts.zero(), tracker.estimateResourceAmounts(rule, ResourceAmounts.zero()));
+  }
+
+  @Test
+  public void processesAreAttributedToTheRulesWhichRanThem() {
+    tracker.processResourceConsumption(processEvent(rule, 2000, 300));
+    tracker.processResourceConsumption(processEvent(rule, 1000, 500));
+    tracker.processResourceConsumption(processEvent(new FakeBuildRule("//:other"), 7000, 900));
+    tracker.recordBuild(rule, ruleKey, 1500, 250);
+    tracker.flush();
+
+    assertEquals(
+        ImmutableMap.of(
+            rule.getBuildTarget(), BuildRuleHistory.of(ruleKey.toString(), 1500, 3250, 500, 1)),
+        store.histories);
+  }
+
+  private static ProcessResourceConsumptionEvent processEvent(
+      BuildRule rule, long cpuTotalMs, long memResidentBytes) {
+    return new ProcessResourceConsumptionEvent(
+        "javac",
+        Optional.empty(),
+        Optional.of(
+            ImmutableMap.of(
+                CachingBuildEngine.BUILD_TARGET_CONTEXT_KEY, rule.getFullyQualifiedName())),
+        Optional.of(
+            ProcessResourceConsumption.of(
+                memResidentBytes, 0, 0, cpuTotalMs, 0, cpuTotalMs, 0, 0, 0)));
+  }
+
+  private static class FakeBuildHistoryStore implements BuildHistoryStore {
+    private final Map<BuildTarget, BuildRuleHistory> histories = new HashMap<>();
+
+    @Override
+    public Optional<BuildRuleHistory> readHistory(BuildTarget buildTarget) {
+      return Optional.ofNullable(histories.get(buildTarget));
+    }
+
+    @Override
+    public void recordBuilds(Map<BuildTarget, BuildRuleHistory> latestBuilds) {
+      latestBuilds.forEach(
+          (target, latest) ->
+              histories.merge(target, latest, BuildRuleHistory::withLatestBuild));
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -45,10 +45,16 @@ import java.util.Optional;
 /** Handy way to create new {@link CachingBuildEngine} instances for test purposes. */
 public class CachingBuildEngineFactory {
 
+  private static final int ARTIFACT_COMPRESSION_LEVEL = 3;
+  private static final long CACHE_PREFETCH_MAX_BYTES = 1024L * 1024 * 1024;
+
   private BuildType buildMode = BuildType.SHALLOW;
   private DepFiles depFiles = DepFiles.ENABLED;
   private long maxDepFileCacheEntries = 256L;
   private Optional<Long> artifactCacheSizeLimit = Optional.empty();
+  private int cachePrefetchDepth = 0;
+  private boolean criticalPathScheduling = false;
+  private boolean buildHistory = false;
   private long inputFileSizeLimit = Long.MAX_VALUE;
   private Optional<RuleKeyFactories> ruleKeyFactories = Optional.empty();
   private CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -93,6 +99,21 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setCachePrefetchDepth(int cachePrefetchDepth) {
+    this.cachePrefetchDepth = cachePrefetchDepth;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setCriticalPathScheduling(boolean criticalPathScheduling) {
+    this.criticalPathScheduling = criticalPathScheduling;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setBuildHistory(boolean buildHistory) {
+    this.buildHistory = buildHistory;
+    return this;
+  }
+
   public CachingBuildEngineFactory setCachingBuildEngineDelegate(
       CachingBuildEngineDelegate cachingBuildEngineDelegate) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
@@ -145,6 +166,11 @@ public class CachingBuildEngineFactory {
           depFiles,
           maxDepFileCacheEntries,
           artifactCacheSizeLimit,
+          ARTIFACT_COMPRESSION_LEVEL,
+          cachePrefetchDepth,
+          CACHE_PREFETCH_MAX_BYTES,
+          criticalPathScheduling,
+          buildHistory,
           buildRuleResolver,
           buildInfoStoreManager,
           actionToBuildRuleResolver,
@@ -163,6 +189,11 @@ public class CachingBuildEngineFactory {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        ARTIFACT_COMPRESSION_LEVEL,
+        cachePrefetchDepth,
+        CACHE_PREFETCH_MAX_BYTES,
+        criticalPathScheduling,
+        buildHistory,
         buildRuleResolver,
         actionToBuildRuleResolver,
         targetConfigurationSerializer,
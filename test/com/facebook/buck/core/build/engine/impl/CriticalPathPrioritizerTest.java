@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.event.CriticalPathPredictionEvent;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CriticalPathPrioritizerTest {
+
+  //     apk
+  //    /    \
+  //  dex   resources
+  //   |        |
+  //  lib     assets
+  private BuildRule lib;
+  private BuildRule dex;
+  private BuildRule assets;
+  private BuildRule resources;
+  private BuildRule apk;
+  private CriticalPathPrioritizer prioritizer;
+
+  @Before
+  public void setUp() {
+    lib = new FakeBuildRule("//:lib");
+    dex = new FakeBuildRule("//:dex", lib);
+    assets = new FakeBuildRule("//:assets");
+    resources = new FakeBuildRule("//:resources", assets);
+    apk = new FakeBuildRule("//:apk", dex, resources);
+    ImmutableMap<BuildRule, Long> history =
+        ImmutableMap.of(lib, 10L, dex, 100L, assets, 50L, resources, 20L, apk, 5L);
+    prioritizer = new CriticalPathPrioritizer(rule -> Optional.ofNullable(history.get(rule)));
+  }
+
+  @Test
+  public void priorityIsTheLongestPathToATopLevelRule() {
+    prioritizer.registerTopLevelRule(apk);
+    prioritizer.registerDeps(apk, apk.getBuildDeps());
+    prioritizer.registerDeps(dex, dex.getBuildDeps());
+    prioritizer.registerDeps(resources, resources.getBuildDeps());
+
+    assertEquals(5, prioritizer.getPriority(apk));
+    assertEquals(105, prioritizer.getPriority(dex));
+    assertEquals(25, prioritizer.getPriority(resources));
+    assertEquals(115, prioritizer.getPriority(lib));
+    assertEquals(75, prioritizer.getPriority(assets));
+  }
+
+  @Test
+  public void priorityAccountsForTheLongestDependent() {
+    BuildRule test = new FakeBuildRule("//:test", lib);
+    prioritizer.registerTopLevelRule(test);
+    prioritizer.registerDeps(test, test.getBuildDeps());
+    assertEquals(10, prioritizer.getPriority(lib));
+
+    prioritizer.registerTopLevelRule(apk);
+    prioritizer.registerDeps(apk, apk.getBuildDeps());
+    prioritizer.registerDeps(dex, dex.getBuildDeps());
+    assertEquals(115, prioritizer.getPriority(lib));
+  }
+
+  @Test
+  public void rulesWithoutHistoryArePredictedToTakeNoTime() {
+    BuildRule unknown = new FakeBuildRule("//:unknown", apk);
+    prioritizer.registerTopLevelRule(unknown);
+    prioritizer.registerDeps(unknown, unknown.getBuildDeps());
+    assertEquals(0, prioritizer.getPriority(unknown));
+    assertEquals(5, prioritizer.getPriority(apk));
+  }
+
+  @Test
+  public void predictedCriticalPathFollowsTheLongestPath() {
+    prioritizer.registerTopLevelRule(apk);
+    prioritizer.registerDeps(apk, apk.getBuildDeps());
+    prioritizer.registerDeps(dex, dex.getBuildDeps());
+    prioritizer.registerDeps(resources, resources.getBuildDeps());
+    prioritizer.recordActualDuration(lib.getBuildTarget(), 12);
+    prioritizer.recordActualDuration(dex.getBuildTarget(), 80);
+
+    ImmutableList<CriticalPathPredictionEvent.Node> criticalPath =
+        prioritizer.getPredictedCriticalPath();
+    assertEquals(
+        ImmutableList.of(lib.getBuildTarget(), dex.getBuildTarget(), apk.getBuildTarget()),
+        criticalPath.stream()
+            .map(CriticalPathPredictionEvent.Node::getBuildTarget)
+            .collect(ImmutableList.toImmutableList()));
+    assertEquals(
+        ImmutableList.of(Optional.of(12L), Optional.of(80L), Optional.<Long>empty()),
+        criticalPath.stream()
+            .map(CriticalPathPredictionEvent.Node::getActualDurationMs)
+            .collect(ImmutableList.toImmutableList()));
+
+    CriticalPathPredictionEvent event = CriticalPathPredictionEvent.of(criticalPath);
+    assertEquals(115, event.getPredictedDurationMs());
+    assertEquals(92, event.getActualDurationMs());
+  }
+
+  @Test
+  public void predictedCriticalPathIsEmptyWithoutRules() {
+    assertEquals(
+        ImmutableList.<BuildTarget>of(),
+        prioritizer.getPredictedCriticalPath().stream()
+            .map(CriticalPathPredictionEvent.Node::getBuildTarget)
+            .collect(ImmutableList.toImmutableList()));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.manifest;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures looking up, serializing and deserializing manifests shaped like those of C++ rules:
+ * thousands of headers, of which a few change between entries.
+ *
+ * <p>The files on disk match the last entry, so lookups go through every entry.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManifestBenchmark {
+  private static final SourcePathResolverAdapter RESOLVER =
+      new TestActionGraphBuilder().getSourcePathResolver();
+
+  @Param({"1000", "5000"})
+  public int numberOfInputs;
+
+  @Param({"10", "200"})
+  public int numberOfEntries;
+
+  private Manifest manifest;
+  private byte[] serialized;
+  private ImmutableSet<SourcePath> universe;
+  private FakeFileHashCache fileHashLoader;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(0);
+    ImmutableSet.Builder<SourcePath> universeBuilder = ImmutableSet.builder();
+    String[] headers = new String[numberOfInputs];
+    for (int input = 0; input < numberOfInputs; input++) {
+      SourcePath path =
+          FakeSourcePath.of(String.format("include/dir%d/header%d.h", input % 50, input));
+      universeBuilder.add(path);
+      headers[input] = RESOLVER.getRelativePath(path).toString();
+    }
+    universe = universeBuilder.build();
+
+    // Each entry changes about 5% of the headers from the previous one.
+    manifest = new Manifest(new RuleKey("cc"));
+    int[] versions = new int[numberOfInputs];
+    for (int entry = 0; entry < numberOfEntries; entry++) {
+      int[] hashIndices = new int[numberOfInputs];
+      for (int input = 0; input < numberOfInputs; input++) {
+        if (random.nextInt(20) == 0) {
+          versions[input]++;
+        }
+        hashIndices[input] = manifest.addHash(headers[input], hash(input, versions[input]));
+      }
+      manifest.addEntry(new RuleKey(Hashing.sha1().hashInt(entry)), hashIndices);
+    }
+
+    Map<Path, HashCode> onDiskHashes = new HashMap<>();
+    int input = 0;
+    for (SourcePath path : universe) {
+      onDiskHashes.put(RESOLVER.getAbsolutePath(path), hash(input, versions[input]));
+      input++;
+    }
+    fileHashLoader = new FakeFileHashCache(onDiskHashes);
+
+    serialized = serialize();
+  }
+
+  private static HashCode hash(int input, int version) {
+    return Hashing.sha1().newHasher().putInt(input).putInt(version).hash();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Optional<RuleKey> lookup() throws IOException {
+    return manifest.lookup(fileHashLoader, RESOLVER, universe);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public byte[] serialize() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    manifest.serialize(output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Manifest deserialize() throws IOException {
+    return new Manifest(new ByteArrayInputStream(serialized));
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {ManifestBenchmark.class.getName()});
+  }
+}
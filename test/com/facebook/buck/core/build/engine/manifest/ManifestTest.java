@@ -38,11 +38,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -77,6 +80,49 @@ public class ManifestTest {
     assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
   }
 
+  @Test
+  public void deserializeLegacyVersion() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+    output.writeInt(0);
+    output.writeUTF("cc");
+    output.writeInt(1);
+    output.writeUTF("foo/bar.h");
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF(HashCode.fromInt(20).toString());
+    output.writeInt(1);
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF("aa");
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(
+        ManifestUtil.toMap(deserialized),
+        Matchers.equalTo(
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20)))));
+  }
+
+  @Test
+  public void serializeManyEntries() throws IOException {
+    ImmutableMap.Builder<RuleKey, ImmutableMap<String, HashCode>> entries = ImmutableMap.builder();
+    for (int entry = 0; entry < 20; entry++) {
+      ImmutableMap.Builder<String, HashCode> hashes = ImmutableMap.builder();
+      for (int header = entry; header < 1000; header += entry + 1) {
+        hashes.put(
+            String.format("some/include/dir/header%d.h", header),
+            HashCode.fromInt(header * 31 + entry % 3));
+      }
+      entries.put(new RuleKey(HashCode.fromInt(entry)), hashes.build());
+    }
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(new RuleKey("cc"), entries.build()).serialize(byteArrayOutputStream);
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries.build()));
+  }
+
   @Test
   public void addEntry() throws IOException {
     Manifest manifest = new Manifest(new RuleKey("cc"));
@@ -293,6 +339,56 @@ public class ManifestTest {
         Matchers.equalTo(Optional.of(key2)));
   }
 
+  @Test
+  public void lookupHashesEachInputOnce() throws IOException {
+    SourcePath common = FakeSourcePath.of("common.h");
+    SourcePath input = FakeSourcePath.of("input.h");
+    String commonHeader = RESOLVER.getRelativePath(common).toString();
+    String inputHeader = RESOLVER.getRelativePath(input).toString();
+    ImmutableMap.Builder<RuleKey, ImmutableMap<String, HashCode>> entries = ImmutableMap.builder();
+    for (int entry = 0; entry < 10; entry++) {
+      entries.put(
+          new RuleKey(HashCode.fromInt(entry)),
+          ImmutableMap.of(
+              commonHeader, HashCode.fromInt(entry), inputHeader, HashCode.fromInt(100 + entry)));
+    }
+    Manifest manifest = ManifestUtil.fromMap(new RuleKey("cc"), entries.build());
+    List<Path> hashedPaths = new ArrayList<>();
+    FileHashLoader delegate =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(common),
+                HashCode.fromInt(7),
+                RESOLVER.getAbsolutePath(input),
+                HashCode.fromInt(107)));
+    FileHashLoader fileHashLoader =
+        new FileHashLoader() {
+          @Override
+          public HashCode get(Path path) throws IOException {
+            hashedPaths.add(path);
+            return delegate.get(path);
+          }
+
+          @Override
+          public long getSize(Path path) throws IOException {
+            return delegate.getSize(path);
+          }
+
+          @Override
+          public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
+              throws IOException {
+            return delegate.getForArchiveMember(relativeArchivePath, memberPath);
+          }
+        };
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(common, input)),
+        Matchers.equalTo(Optional.of(new RuleKey(HashCode.fromInt(7)))));
+    assertThat(
+        hashedPaths,
+        Matchers.containsInAnyOrder(
+            RESOLVER.getAbsolutePath(common), RESOLVER.getAbsolutePath(input)));
+  }
+
   @Test
   public void size() {
     assertThat(new Manifest(new RuleKey("cc")).size(), Matchers.equalTo(0));
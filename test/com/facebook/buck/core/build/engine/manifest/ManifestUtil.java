@@ -53,7 +53,7 @@ public class ManifestUtil {
         entryHashIndices[entryHashIndex++] =
             manifest.addHash(innerEntry.getKey(), innerEntry.getValue());
       }
-      manifest.entries.add(new Pair<RuleKey, int[]>(entry.getKey(), entryHashIndices));
+      manifest.addEntry(entry.getKey(), entryHashIndices);
     }
     return manifest;
   }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.targetgraph.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.model.RuleType;
+import com.facebook.buck.core.model.UnconfiguredBuildTarget;
+import com.facebook.buck.core.model.UnconfiguredBuildTargetFactoryForTests;
+import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import java.util.Optional;
+import org.junit.Test;
+
+public class AttributeValueInternerTest {
+
+  @Test
+  public void nodesShareEqualAttributeValues() {
+    UnconfiguredTargetNode first = createNode("first");
+    UnconfiguredTargetNode second = createNode("second");
+
+    assertSame(first.getAttributes().get("labels"), second.getAttributes().get("labels"));
+    assertSame(first.getAttributes().get("deps"), second.getAttributes().get("deps"));
+    assertSame(first.getAttributes().get("srcs"), second.getAttributes().get("srcs"));
+    assertSame(first.getCompatibleWith(), second.getCompatibleWith());
+    assertSame(
+        getKey(first.getAttributes(), "labels"), getKey(second.getAttributes(), "labels"));
+  }
+
+  @Test
+  public void setsKeepTheirIterationOrder() {
+    ImmutableSet<String> ab = ImmutableSet.of(copy("a"), copy("b"));
+    ImmutableSet<String> ba = ImmutableSet.of(copy("b"), copy("a"));
+
+    Object internedAb = AttributeValueInterner.intern(ab);
+    Object internedBa = AttributeValueInterner.intern(ba);
+
+    assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf((Iterable<?>) internedAb));
+    assertEquals(ImmutableList.of("b", "a"), ImmutableList.copyOf((Iterable<?>) internedBa));
+    assertNotSame(internedAb, internedBa);
+  }
+
+  @Test
+  public void setsWithOtherOrderingsAreNotShared() {
+    ImmutableSortedSet<String> reversed =
+        ImmutableSortedSet.orderedBy(Ordering.<String>natural().reverse()).add("a", "b").build();
+    ImmutableSortedSet<String> natural = ImmutableSortedSet.of("a", "b");
+
+    Object internedReversed = AttributeValueInterner.intern(reversed);
+
+    assertSame(reversed, internedReversed);
+    assertSame(
+        AttributeValueInterner.intern(natural),
+        AttributeValueInterner.intern(ImmutableSortedSet.of(copy("b"), copy("a"))));
+  }
+
+  @Test
+  public void listsOfMapsKeepTheOrderOfTheirMaps() {
+    ImmutableList<ImmutableMap<String, String>> ab =
+        ImmutableList.of(ImmutableMap.of(copy("a"), copy("1"), copy("b"), copy("2")));
+    ImmutableList<ImmutableMap<String, String>> ba =
+        ImmutableList.of(ImmutableMap.of(copy("b"), copy("2"), copy("a"), copy("1")));
+
+    Object internedAb = AttributeValueInterner.intern(ab);
+    Object internedBa = AttributeValueInterner.intern(ba);
+
+    assertEquals(
+        ImmutableList.of("a", "b"),
+        ((ImmutableMap<?, ?>) ((ImmutableList<?>) internedAb).get(0)).keySet().asList());
+    assertEquals(
+        ImmutableList.of("b", "a"),
+        ((ImmutableMap<?, ?>) ((ImmutableList<?>) internedBa).get(0)).keySet().asList());
+  }
+
+  @Test
+  public void nestedValuesAreShared() {
+    Object first =
+        AttributeValueInterner.intern(
+            ImmutableMap.of(copy("key"), Optional.of(ImmutableList.of(copy("value")))));
+    Object second =
+        AttributeValueInterner.intern(
+            ImmutableMap.of(copy("key"), Optional.of(ImmutableList.of(copy("value")))));
+
+    ImmutableMap<?, ?> firstMap = (ImmutableMap<?, ?>) first;
+    ImmutableMap<?, ?> secondMap = (ImmutableMap<?, ?>) second;
+    assertSame(
+        ((Optional<?>) firstMap.get("key")).get(), ((Optional<?>) secondMap.get("key")).get());
+    assertSame(firstMap.keySet().asList().get(0), secondMap.keySet().asList().get(0));
+  }
+
+  private static UnconfiguredTargetNode createNode(String name) {
+    UnconfiguredBuildTarget target =
+        UnconfiguredBuildTargetFactoryForTests.newInstance("//example:" + name);
+    return ImmutableUnconfiguredTargetNode.of(
+        target,
+        RuleType.of("java_library", RuleType.Kind.BUILD),
+        ImmutableMap.of(
+            copy("name"),
+            name,
+            copy("labels"),
+            ImmutableList.of(copy("team:example"), copy("language:java")),
+            copy("deps"),
+            ImmutableSortedSet.of(
+                UnconfiguredBuildTargetFactoryForTests.newInstance("//lib:a"),
+                UnconfiguredBuildTargetFactoryForTests.newInstance("//lib:b")),
+            copy("srcs"),
+            ImmutableSortedSet.of(copy("A.java"), copy("B.java"))),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        Optional.empty(),
+        ImmutableList.of(UnconfiguredBuildTargetFactoryForTests.newInstance("//platforms:linux")));
+  }
+
+  private static Object getKey(ImmutableMap<String, Object> map, String key) {
+    return map.keySet().stream().filter(key::equals).findFirst().get();
+  }
+
+  /** @return a string equal to {@code value} which is not the same instance. */
+  private static String copy(String value) {
+    return new String(value);
+  }
+}
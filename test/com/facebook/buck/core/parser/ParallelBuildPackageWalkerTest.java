@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.cell.name.CanonicalCellName;
+import com.facebook.buck.core.files.DirectoryListComputation;
+import com.facebook.buck.core.files.FileTreeComputation;
+import com.facebook.buck.core.graph.transformation.GraphTransformationEngine;
+import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.impl.DefaultGraphTransformationEngine;
+import com.facebook.buck.core.graph.transformation.impl.GraphComputationStage;
+import com.facebook.buck.core.parser.buildtargetpattern.BuildTargetPattern.Kind;
+import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.environment.PlatformType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import junitparams.JUnitParamsRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Runs the build package discovery tests against the walker for recursive patterns. */
+@RunWith(JUnitParamsRunner.class)
+public class ParallelBuildPackageWalkerTest extends AbstractBuildPackageComputationTest {
+  @Override
+  protected boolean isBuildFileCaseSensitive() {
+    return Platform.detect().getType() != PlatformType.WINDOWS;
+  }
+
+  @Override
+  protected ImmutableList<GraphComputationStage<?, ?>> getComputationStages(String buildFileName) {
+    return ImmutableList.of(
+        new GraphComputationStage<>(
+            BuildTargetPatternToBuildPackagePathComputation.of(buildFileName, filesystem.asView())),
+        new GraphComputationStage<>(DirectoryListComputation.of(filesystem.asView())),
+        new GraphComputationStage<>(FileTreeComputation.of()));
+  }
+
+  @Override
+  public BuildPackagePaths transform(
+      String buildFileName, BuildTargetPatternToBuildPackagePathKey key)
+      throws ExecutionException, InterruptedException {
+    if (key.getPattern().getKind() != Kind.RECURSIVE) {
+      return super.transform(buildFileName, key);
+    }
+    ConcurrentSkipListSet<Path> packageRoots = new ConcurrentSkipListSet<>();
+    Path basePath =
+        key.getPattern().getCellRelativeBasePath().getPath().toPath(filesystem.getFileSystem());
+    try (GraphTransformationEngine engine =
+        new DefaultGraphTransformationEngine(
+            getComputationStages(buildFileName), 0, DefaultDepsAwareExecutor.of(4))) {
+      new ParallelBuildPackageWalker(4).walk(engine, basePath, buildFileName, packageRoots::add);
+    } catch (RuntimeException e) {
+      Throwable cause = e;
+      while (cause instanceof UncheckedExecutionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      throw new ExecutionException(cause);
+    }
+    return ImmutableBuildPackagePaths.of(ImmutableSortedSet.copyOf(packageRoots));
+  }
+
+  @Test
+  public void discoversPackagesOfWideAndDeepTrees()
+      throws ExecutionException, IOException, InterruptedException {
+    ImmutableSortedSet.Builder<Path> expected = ImmutableSortedSet.naturalOrder();
+    for (int i = 0; i < 20; i++) {
+      Path deep = Paths.get("dir" + i, "a", "b", "c");
+      filesystem.mkdirs(deep);
+      filesystem.createNewFile(deep.resolve("BUCK"));
+      expected.add(deep);
+      if (i % 2 == 0) {
+        filesystem.createNewFile(Paths.get("dir" + i, "BUCK"));
+        expected.add(Paths.get("dir" + i));
+      }
+    }
+
+    BuildPackagePaths paths =
+        transform("BUCK", key(CanonicalCellName.rootCell(), Kind.RECURSIVE, "", ""));
+
+    assertEquals(expected.build(), paths.getPackageRoots());
+  }
+}
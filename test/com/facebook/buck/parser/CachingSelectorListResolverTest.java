@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.config.FakeBuckConfig;
+import com.facebook.buck.core.exceptions.DependencyStack;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.ConfigurationBuildTargetFactoryForTests;
+import com.facebook.buck.core.model.RuleBasedTargetConfiguration;
+import com.facebook.buck.core.model.TargetConfiguration;
+import com.facebook.buck.core.model.platform.impl.UnconfiguredPlatform;
+import com.facebook.buck.core.select.NonCopyingSelectableConfigurationContext;
+import com.facebook.buck.core.select.SelectableConfigurationContext;
+import com.facebook.buck.core.select.Selector;
+import com.facebook.buck.core.select.SelectorKey;
+import com.facebook.buck.core.select.SelectorList;
+import com.facebook.buck.core.select.SelectorListResolver;
+import com.facebook.buck.rules.coercer.concat.Concatable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingSelectorListResolverTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//a:b");
+  private static final Concatable<ImmutableList<String>> CONCATABLE = elements -> null;
+
+  private CountingResolver delegate;
+  private CachingSelectorListResolver.ResolvedSelectorLists resolvedSelectorLists;
+  private CachingSelectorListResolver resolver;
+
+  @Before
+  public void setUp() {
+    delegate = new CountingResolver();
+    resolvedSelectorLists = new CachingSelectorListResolver.ResolvedSelectorLists();
+    resolver = new CachingSelectorListResolver(delegate, resolvedSelectorLists);
+  }
+
+  @Test
+  public void resolvesSelectExpressionOncePerConfiguration() {
+    ImmutableList<String> first = resolve(createSelectorList("a", "b"), "//platforms:arm");
+    ImmutableList<String> second = resolve(createSelectorList("a", "b"), "//platforms:arm");
+
+    assertEquals(ImmutableList.of("a", "b"), first);
+    assertSame(first, second);
+    assertEquals(1, delegate.calls);
+
+    resolve(createSelectorList("a", "b"), "//platforms:x86");
+
+    assertEquals(2, delegate.calls);
+  }
+
+  @Test
+  public void sharesEqualValuesBetweenConfigurations() {
+    ImmutableList<String> arm = resolve(createSelectorList("a", "b"), "//platforms:arm");
+    ImmutableList<String> x86 = resolve(createSelectorList("a", "b"), "//platforms:x86");
+
+    assertEquals(2, delegate.calls);
+    assertSame(arm, x86);
+  }
+
+  @Test
+  public void memoizesAbsentValues() {
+    assertNull(resolve(createSelectorList(), "//platforms:arm"));
+    assertNull(resolve(createSelectorList(), "//platforms:arm"));
+
+    assertEquals(1, delegate.calls);
+  }
+
+  @Test
+  public void resolvesAgainAfterInvalidation() {
+    resolve(createSelectorList("a"), "//platforms:arm");
+    resolvedSelectorLists.invalidateAll();
+    resolve(createSelectorList("a"), "//platforms:arm");
+
+    assertEquals(2, delegate.calls);
+  }
+
+  @Test
+  public void doesNotMemoizeWithoutTargetConfiguration() {
+    SelectorList<ImmutableList<String>> selectorList = createSelectorList("a");
+    for (int i = 0; i < 2; i++) {
+      resolver.resolveList(
+          NonCopyingSelectableConfigurationContext.INSTANCE,
+          TARGET,
+          "attr",
+          selectorList,
+          CONCATABLE,
+          DependencyStack.root());
+    }
+
+    assertEquals(2, delegate.calls);
+    assertEquals(0, resolvedSelectorLists.size());
+  }
+
+  @Nullable
+  private ImmutableList<String> resolve(
+      SelectorList<ImmutableList<String>> selectorList, String platform) {
+    TargetConfiguration targetConfiguration =
+        RuleBasedTargetConfiguration.of(
+            ConfigurationBuildTargetFactoryForTests.newInstance(platform));
+    return resolver.resolveList(
+        DefaultSelectableConfigurationContext.of(
+            FakeBuckConfig.builder().build(),
+            targetConfiguration,
+            (configuration, dependencyStack) -> UnconfiguredPlatform.INSTANCE),
+        TARGET,
+        "attr",
+        selectorList,
+        CONCATABLE,
+        DependencyStack.root());
+  }
+
+  /** Creates a select expression with an empty default, where {@code values} is selected. */
+  private static SelectorList<ImmutableList<String>> createSelectorList(String... values) {
+    return new SelectorList<>(
+        ImmutableList.of(
+            new Selector<>(
+                ImmutableMap.of(
+                    SelectorKey.DEFAULT,
+                    ImmutableList.of(),
+                    new SelectorKey(ConfigurationBuildTargetFactoryForTests.newInstance("//c:c")),
+                    ImmutableList.copyOf(values)),
+                ImmutableSet.of(),
+                "")));
+  }
+
+  /**
+   * Resolves to a new copy of the non-default value of the first selector, or to {@code null} when
+   * it is empty.
+   */
+  private static class CountingResolver implements SelectorListResolver {
+    private int calls;
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T resolveList(
+        SelectableConfigurationContext configurationContext,
+        BuildTarget buildTarget,
+        String attributeName,
+        SelectorList<T> selectorList,
+        Concatable<T> concatable,
+        DependencyStack dependencyStack) {
+      calls++;
+      List<Object> values = new ArrayList<>();
+      for (T value : selectorList.getSelectors().get(0).getConditions().values()) {
+        values.addAll((List<?>) value);
+      }
+      return values.isEmpty() ? null : (T) ImmutableList.copyOf(values);
+    }
+  }
+}
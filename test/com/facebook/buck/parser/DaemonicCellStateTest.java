@@ -38,6 +38,7 @@ import com.facebook.buck.core.parser.buildtargetpattern.UnconfiguredBuildTargetP
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.parser.DaemonicCellState.Cache;
+import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.BuildFileManifestFactory;
 import com.facebook.buck.parser.api.PackageFileManifest;
 import com.facebook.buck.parser.api.PackageMetadata;
@@ -204,6 +205,22 @@ public class DaemonicCellStateTest {
     assertNotSame(secondaryManifest, cachedManifest);
   }
 
+  @Test
+  public void staleBuildFileManifestIsNotCached() {
+    AbsPath buildFile = AbsPath.of(filesystem.resolve("path/to/BUCK"));
+    BuildFileManifest manifest =
+        BuildFileManifestFactory.create(
+            ImmutableMap.of(
+                "target", ImmutableMap.of("name", "target", "buck.base_path", "path/to")));
+
+    BuildFileManifest cachedManifest =
+        state.putBuildFileManifestIfNotPresent(
+            buildFile, manifest, ImmutableSet.of(), ImmutableMap.of(), () -> true);
+
+    assertSame(manifest, cachedManifest);
+    assertFalse(state.lookupBuildFileManifest(buildFile).isPresent());
+  }
+
   @Test
   public void lookupPackage() {
     AbsPath packageFile = dummyPackageFile();
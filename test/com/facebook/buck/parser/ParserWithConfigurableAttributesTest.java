@@ -27,6 +27,8 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
@@ -61,6 +63,7 @@ import com.facebook.buck.core.model.UnconfiguredBuildTargetFactoryForTests;
 import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
 import com.facebook.buck.core.model.actiongraph.computation.ActionGraphProviderBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphCreationResult;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.TestTargetGraphCreationResultFactory;
 import com.facebook.buck.core.model.targetgraph.impl.TargetNodes;
@@ -1731,6 +1734,80 @@ public class ParserWithConfigurableAttributesTest {
     parser.buildTargetGraph(parsingContext, buildTargets);
   }
 
+  @Test
+  public void incrementalTargetGraphReusesNodesOfUnchangedBuildFiles() throws Exception {
+    tempDir.newFolder("foo");
+    tempDir.newFolder("bar");
+    tempDir.newFolder("baz");
+    Files.write(
+        tempDir.newFile("foo/BUCK"),
+        "java_library(name = 'foo', visibility=['PUBLIC'])\n".getBytes(UTF_8));
+    Path testBarBuckFile = tempDir.newFile("bar/BUCK");
+    Files.write(
+        testBarBuckFile,
+        "java_library(name = 'bar', deps = ['//foo:foo'], visibility=['PUBLIC'])\n"
+            .getBytes(UTF_8));
+    Files.write(
+        tempDir.newFile("baz/BUCK"),
+        "java_library(name = 'baz', deps = ['//bar:bar'])\n".getBytes(UTF_8));
+
+    BuckConfig config =
+        FakeBuckConfig.builder()
+            .setFilesystem(filesystem)
+            .setSections(
+                ImmutableMap.of("parser", ImmutableMap.of("incremental_target_graph", "true")))
+            .build();
+    Cell incrementalCell =
+        new TestCellBuilder().setFilesystem(filesystem).setBuckConfig(config).build().getRootCell();
+    Parser incrementalParser =
+        TestParserFactory.create(executor.get(), incrementalCell, knownRuleTypesProvider, eventBus);
+    ParsingContext incrementalParsingContext = parsingContext.withCell(incrementalCell);
+
+    BuildTarget fooTarget = BuildTargetFactory.newInstance("//foo:foo");
+    BuildTarget barTarget = BuildTargetFactory.newInstance("//bar:bar");
+    BuildTarget bazTarget = BuildTargetFactory.newInstance("//baz:baz");
+    ImmutableSet<BuildTarget> buildTargets = ImmutableSet.of(bazTarget);
+
+    TargetGraphCreationResult firstResult =
+        incrementalParser.buildTargetGraph(incrementalParsingContext, buildTargets);
+    assertSame(
+        firstResult, incrementalParser.buildTargetGraph(incrementalParsingContext, buildTargets));
+    TargetGraph firstGraph = firstResult.getTargetGraph();
+
+    // Rewrite //bar:bar so it doesn't depend on //foo:foo any more.
+    Files.write(
+        testBarBuckFile, "java_library(name = 'bar', visibility=['PUBLIC'])\n".getBytes(UTF_8));
+    incrementalParser
+        .getPermState()
+        .invalidateBasedOn(
+            WatchmanPathEvent.of(
+                filesystem.getRootPath(),
+                Kind.MODIFY,
+                RelPath.of(Paths.get("bar").resolve("BUCK"))));
+
+    TargetGraph secondGraph =
+        incrementalParser
+            .buildTargetGraph(incrementalParsingContext, buildTargets)
+            .getTargetGraph();
+    assertEquals(
+        ImmutableSet.of(barTarget, bazTarget),
+        secondGraph.getNodes().stream()
+            .map(TargetNode::getBuildTarget)
+            .collect(ImmutableSet.toImmutableSet()));
+    assertNotSame(firstGraph.get(barTarget), secondGraph.get(barTarget));
+    assertSame(firstGraph.get(bazTarget), secondGraph.get(bazTarget));
+    assertEquals(
+        ImmutableSet.of(secondGraph.get(barTarget)),
+        secondGraph.getOutgoingNodesFor(secondGraph.get(bazTarget)));
+
+    // //foo:foo didn't change, so it is copied from the first graph.
+    TargetGraph fooGraph =
+        incrementalParser
+            .buildTargetGraph(incrementalParsingContext, ImmutableSet.of(fooTarget))
+            .getTargetGraph();
+    assertEquals(ImmutableSet.of(firstGraph.get(fooTarget)), fooGraph.getNodes());
+  }
+
   @Test
   public void depsetCanBeUsedForSpecifyingDeps() throws Exception {
     tempDir.newFolder("foo");
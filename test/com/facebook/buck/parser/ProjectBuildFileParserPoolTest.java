@@ -51,6 +51,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
@@ -291,7 +293,8 @@ public class ProjectBuildFileParserPoolTest {
 
               @Override
               public void onFailure(Throwable t) {}
-            });
+            },
+            MoreExecutors.directExecutor());
       }
       firstJobRunning.await(1, TimeUnit.SECONDS);
     }
@@ -348,6 +351,96 @@ public class ProjectBuildFileParserPoolTest {
     }
   }
 
+  @Test
+  public void sharesParsersBetweenRequestsWhenPipelined() throws Exception {
+    Cells cell = new TestCellBuilder().build();
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+    AtomicInteger createCount = new AtomicInteger(0);
+    CountDownLatch allRequestsParsing = new CountDownLatch(4);
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsersPerCell */ 2,
+            /* pipelineDepth */ 2,
+            /* adaptivePoolSize */ false,
+            (eventBus, input, watchman, threadSafe) -> {
+              createCount.incrementAndGet();
+              return createMockParser(
+                  () -> {
+                    allRequestsParsing.countDown();
+                    assertThat(allRequestsParsing.await(1, TimeUnit.SECONDS), Matchers.is(true));
+                    return EMPTY_BUILD_FILE_MANIFEST;
+                  },
+                  /* threadSafe */ false);
+            },
+            false)) {
+
+      Futures.allAsList(scheduleWork(cell.getRootCell(), parserPool, executorService, 4)).get();
+      assertThat(createCount.get(), Matchers.equalTo(2));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void followsCpuUtilizationWhenAdaptive() throws Exception {
+    Cells cell = new TestCellBuilder().build();
+    ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+    AtomicLong nanoTime = new AtomicLong(0);
+    AtomicReference<Double> cpuUtilization = new AtomicReference<>(1.0);
+
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsersPerCell */ 4,
+            /* pipelineDepth */ 1,
+            Optional.of(cpuUtilization::get),
+            nanoTime::get,
+            createMockParserFactory(() -> EMPTY_BUILD_FILE_MANIFEST),
+            false)) {
+      Runnable parseForASecond =
+          () -> {
+            try {
+              Futures.allAsList(scheduleWork(cell.getRootCell(), parserPool, executorService, 1))
+                  .get();
+            } catch (InterruptedException | ExecutionException e) {
+              throw new RuntimeException(e);
+            }
+            nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+          };
+
+      // A parser is retired once CPUs have been saturated for three seconds in a row.
+      parseForASecond.run();
+      parseForASecond.run();
+      assertThat(parserPool.getParsersPerCell(), Matchers.equalTo(4));
+      parseForASecond.run();
+      assertThat(parserPool.getParsersPerCell(), Matchers.equalTo(3));
+
+      // Moderate utilization starts the count again.
+      parseForASecond.run();
+      parseForASecond.run();
+      cpuUtilization.set(0.85);
+      parseForASecond.run();
+      cpuUtilization.set(1.0);
+      parseForASecond.run();
+      parseForASecond.run();
+      assertThat(parserPool.getParsersPerCell(), Matchers.equalTo(3));
+
+      // Half of the configured parsers are kept however long CPUs are saturated.
+      for (int i = 0; i < 10; i++) {
+        parseForASecond.run();
+      }
+      assertThat(parserPool.getParsersPerCell(), Matchers.equalTo(2));
+
+      // Idle CPUs add a parser every three seconds.
+      cpuUtilization.set(0.5);
+      for (int i = 0; i < 3; i++) {
+        parseForASecond.run();
+      }
+      assertThat(parserPool.getParsersPerCell(), Matchers.equalTo(3));
+    }
+  }
+
   private static ImmutableSet<ListenableFuture<?>> scheduleWork(
       Cell cell,
       ProjectBuildFileParserPool pool,
@@ -367,7 +460,14 @@ public class ProjectBuildFileParserPoolTest {
   }
 
   private ProjectBuildFileParser createMockParser(IAnswer<BuildFileManifest> parseFn) {
+    return createMockParser(parseFn, true);
+  }
+
+  private ProjectBuildFileParser createMockParser(
+      IAnswer<BuildFileManifest> parseFn, boolean threadSafe) {
     ProjectBuildFileParser mock = EasyMock.createMock(ProjectBuildFileParser.class);
+    // Thread safe mocks serialize calls, which would keep pipelined requests from overlapping.
+    EasyMock.makeThreadSafe(mock, threadSafe);
     try {
       EasyMock.expect(mock.getManifest(EasyMock.anyObject(Path.class)))
           .andAnswer(parseFn)
@@ -388,8 +488,11 @@ public class ProjectBuildFileParserPoolTest {
       AssertScopeExclusiveAccess exclusiveAccess = new AssertScopeExclusiveAccess();
       return createMockParser(
           () -> {
-            try (AssertScopeExclusiveAccess.Scope scope = exclusiveAccess.scope()) {
+            AssertScopeExclusiveAccess.Scope scope = exclusiveAccess.scope();
+            try {
               return parseFn.answer();
+            } finally {
+              scope.close();
             }
           });
     };
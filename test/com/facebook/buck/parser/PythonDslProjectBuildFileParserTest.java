@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
 import com.facebook.buck.core.cell.Cell;
@@ -534,6 +535,59 @@ public class PythonDslProjectBuildFileParserTest {
    * ProjectBuildFileParser test double which counts the number of times rules are parsed to test
    * caching logic in Parser.
    */
+  @Test
+  public void pipelinedParserKeepsItsProcessAfterParseErrors()
+      throws IOException, BuildFileParseException, InterruptedException {
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    results.write(
+        ObjectMappers.WRITER.writeValueAsBytes(
+            ImmutableMap.of(
+                "values",
+                ImmutableList.of(),
+                "diagnostics",
+                ImmutableList.of(
+                    ImmutableMap.of(
+                        "level", "fatal", "message", "This is an error", "source", "parse")))));
+    results.write(
+        ObjectMappers.WRITER.writeValueAsBytes(
+            ImmutableMap.of(
+                "values",
+                ImmutableList.of(
+                    ImmutableMap.of(MetaRules.INCLUDES, ImmutableList.of()),
+                    ImmutableMap.of(MetaRules.CONFIGS, ImmutableMap.of()),
+                    ImmutableMap.of(MetaRules.ENV, ImmutableMap.of())))));
+    List<ImmutableList<String>> launchedCommands = new ArrayList<>();
+    FakeProcessExecutor processExecutor =
+        new FakeProcessExecutor(
+            params -> {
+              launchedCommands.add(params.getCommand());
+              return new FakeProcess(
+                  0,
+                  new ByteArrayOutputStream(),
+                  new ByteArrayInputStream(results.toByteArray()),
+                  new ByteArrayInputStream(new byte[0]));
+            },
+            new TestConsole());
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(cell.getRootCell().getRoot(), knownNativeRuleTypes);
+
+    try (PythonDslProjectBuildFileParser buildFileParser =
+        buildFileParserFactory.createPipelinedParser(processExecutor)) {
+      try {
+        buildFileParser.getManifest(cell.getRootCell().getRoot().resolve("foo/BUCK").getPath());
+        fail("Expected BuildFileParseException to be thrown.");
+      } catch (BuildFileParseException e) {
+        assertThat(e.getMessage(), Matchers.containsString("This is an error"));
+      }
+      BuildFileManifest manifest =
+          buildFileParser.getManifest(cell.getRootCell().getRoot().resolve("bar/BUCK").getPath());
+      assertEquals(ImmutableMap.of(), manifest.getTargets());
+    }
+
+    assertEquals(1, launchedCommands.size());
+    assertThat(launchedCommands.get(0), Matchers.hasItem("--pipelined"));
+  }
+
   private static class TestProjectBuildFileParserFactory {
     private final AbsPath projectRoot;
     private final KnownNativeRuleTypes ruleTypes;
@@ -665,6 +719,20 @@ public class PythonDslProjectBuildFileParserTest {
           buckEventBus);
     }
 
+    PythonDslProjectBuildFileParser createPipelinedParser(ProcessExecutor processExecutor) {
+      return new PythonDslProjectBuildFileParser(
+          ProjectBuildFileParserOptions.builder()
+              .from(getOptions("fake-python"))
+              .setEnablePipelining(true)
+              .build(),
+          new DefaultTypeCoercerFactory(),
+          ImmutableMap.of(),
+          BuckEventBusForTests.newInstance(),
+          processExecutor,
+          Optional.empty(),
+          Optional.empty());
+    }
+
     TestSkylarkParser createSkylarkParser(Cell cell) {
       return new TestSkylarkParser(getOptions("fake-python"), cell.getFilesystem(), cell);
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.MutableDirectedGraph;
+import com.facebook.buck.parser.temporarytargetuniquenesschecker.TemporaryUnconfiguredTargetToTargetUniquenessChecker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReusableTargetGraphTest {
+  private TargetNode<?> leaf;
+  private TargetNode<?> middle;
+  private TargetNode<?> top;
+  private TargetNode<?> other;
+  private TargetGraph previousGraph;
+  private Map<BuildTarget, TargetNode<?>> cachedNodes;
+
+  @Before
+  public void setUp() {
+    leaf = FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance("//leaf:leaf")).build();
+    middle =
+        FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance("//middle:middle"))
+            .setDeps(leaf)
+            .build();
+    top =
+        FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance("//top:top"))
+            .setDeps(middle)
+            .build();
+    other =
+        FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance("//other:other")).build();
+    previousGraph = TargetGraphFactory.newInstance(leaf, middle, top, other);
+
+    cachedNodes = new HashMap<>();
+    for (TargetNode<?> node : previousGraph.getNodes()) {
+      cachedNodes.put(node.getBuildTarget(), node);
+    }
+  }
+
+  private ReusableTargetGraph createReusableGraph() {
+    return new ReusableTargetGraph(
+        previousGraph, target -> Optional.ofNullable(cachedNodes.get(target)));
+  }
+
+  @Test
+  public void reusesNodesWhichAreStillCached() {
+    ReusableTargetGraph reusableGraph = createReusableGraph();
+
+    assertSame(top, reusableGraph.getReusableNode(top.getBuildTarget()).get());
+    assertSame(leaf, reusableGraph.getReusableNode(leaf.getBuildTarget()).get());
+  }
+
+  @Test
+  public void doesNotReuseNodesWithChangedTransitiveDependencies() {
+    // An equal node is still a different node, as it was created by parsing its build file again.
+    cachedNodes.put(
+        leaf.getBuildTarget(), FakeTargetNodeBuilder.newBuilder(leaf.getBuildTarget()).build());
+    ReusableTargetGraph reusableGraph = createReusableGraph();
+
+    assertFalse(reusableGraph.getReusableNode(top.getBuildTarget()).isPresent());
+    assertFalse(reusableGraph.getReusableNode(middle.getBuildTarget()).isPresent());
+    assertFalse(reusableGraph.getReusableNode(leaf.getBuildTarget()).isPresent());
+    assertSame(other, reusableGraph.getReusableNode(other.getBuildTarget()).get());
+  }
+
+  @Test
+  public void doesNotReuseNodesWhichAreNotCached() {
+    cachedNodes.remove(middle.getBuildTarget());
+    ReusableTargetGraph reusableGraph = createReusableGraph();
+
+    assertFalse(reusableGraph.getReusableNode(top.getBuildTarget()).isPresent());
+    assertSame(leaf, reusableGraph.getReusableNode(leaf.getBuildTarget()).get());
+  }
+
+  @Test
+  public void doesNotReuseTargetsMissingFromPreviousGraph() {
+    assertFalse(
+        createReusableGraph()
+            .getReusableNode(BuildTargetFactory.newInstance("//new:new"))
+            .isPresent());
+  }
+
+  @Test
+  public void copiesTransitiveDependenciesOfReusedNodes() {
+    MutableDirectedGraph<TargetNode<?>> graph = new MutableDirectedGraph<>();
+    Map<BuildTarget, TargetNode<?>> index = new HashMap<>();
+
+    createReusableGraph()
+        .copySubgraphs(
+            ImmutableList.of(top),
+            graph,
+            index,
+            TemporaryUnconfiguredTargetToTargetUniquenessChecker.create(false));
+
+    assertEquals(ImmutableSet.of(top, middle, leaf), graph.getNodes());
+    assertTrue(graph.containsEdge(top, middle));
+    assertTrue(graph.containsEdge(middle, leaf));
+    assertEquals(2, graph.getEdgeCount());
+    assertEquals(
+        ImmutableMap.of(
+            top.getBuildTarget(), top,
+            middle.getBuildTarget(), middle,
+            leaf.getBuildTarget(), leaf),
+        index);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.cell.TestCellBuilder;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.FakeBuckConfig;
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.CloseableResource;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SpeculativeBuildFileReparserTest {
+  @Rule public TemporaryPaths tempDir = new TemporaryPaths();
+
+  @Rule
+  public CloseableResource<DepsAwareExecutor<? super ComputeResult, ?>> executor =
+      CloseableResource.of(() -> DefaultDepsAwareExecutor.of(4));
+
+  private BuckEventBus eventBus;
+  private Cell cell;
+  private Parser parser;
+  private SpeculativeBuildFileReparser reparser;
+  private AbsPath fooBuildFile;
+  private AbsPath barBuildFile;
+
+  @Before
+  public void setUp() throws IOException {
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot());
+    AbsPath cellRoot = filesystem.getRootPath();
+    Files.write(cellRoot.resolve("defs.bzl").getPath(), "NAME = 'bar'\n".getBytes(UTF_8));
+    tempDir.newFolder("foo");
+    fooBuildFile = cellRoot.resolve("foo/BUCK");
+    Files.write(
+        fooBuildFile.getPath(),
+        "genrule(name = 'foo', out = 'foo.txt', cmd = 'touch $OUT')\n".getBytes(UTF_8));
+    tempDir.newFolder("bar");
+    barBuildFile = cellRoot.resolve("bar/BUCK");
+    Files.write(
+        barBuildFile.getPath(),
+        ("load('//:defs.bzl', 'NAME')\n"
+                + "genrule(name = NAME, out = 'bar.txt', cmd = 'touch $OUT')\n")
+            .getBytes(UTF_8));
+
+    BuckConfig config =
+        FakeBuckConfig.builder()
+            .setFilesystem(filesystem)
+            .setSections("[parser]", "default_build_file_syntax=skylark")
+            .build();
+    cell =
+        new TestCellBuilder().setFilesystem(filesystem).setBuckConfig(config).build().getRootCell();
+    eventBus = BuckEventBusForTests.newInstance();
+    parser = TestParserFactory.create(executor.get(), cell);
+    reparser = new SpeculativeBuildFileReparser(parser.getPermState());
+
+    try (PerBuildState state = TestPerBuildStateFactory.create(parser, cell)) {
+      state.getBuildFileManifest(cell, fooBuildFile);
+      state.getBuildFileManifest(cell, barBuildFile);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    reparser.close();
+  }
+
+  @Test
+  public void reparsesBuildFilesInvalidatedByExtensionsTheyLoad() throws InterruptedException {
+    parser.getPermState().invalidatePath(cell.getRoot().resolve("defs.bzl"));
+    assertFalse(isCached(barBuildFile));
+
+    reparser.start(cell, parser.getPerBuildStateFactory(), 2);
+    waitUntilDone();
+
+    assertTrue(isCached(barBuildFile));
+    assertTrue(isCached(fooBuildFile));
+  }
+
+  @Test
+  public void doesNotReparseBuildFilesInvalidatedBeforeCancellation() throws InterruptedException {
+    parser.getPermState().invalidatePath(fooBuildFile);
+    reparser.cancel();
+
+    reparser.start(cell, parser.getPerBuildStateFactory(), 2);
+    waitUntilDone();
+
+    assertFalse(isCached(fooBuildFile));
+  }
+
+  @Test
+  public void doesNotReparseDeletedBuildFiles() throws InterruptedException, IOException {
+    parser.getPermState().invalidatePath(fooBuildFile);
+    Files.delete(fooBuildFile.getPath());
+
+    reparser.start(cell, parser.getPerBuildStateFactory(), 2);
+    waitUntilDone();
+
+    assertFalse(isCached(fooBuildFile));
+  }
+
+  private boolean isCached(AbsPath buildFile) {
+    return parser
+        .getPermState()
+        .getRawNodeCache()
+        .lookupComputedNode(cell, buildFile, eventBus)
+        .isPresent();
+  }
+
+  private void waitUntilDone() throws InterruptedException {
+    for (int i = 0; i < 500 && reparser.isRunning(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(reparser.isRunning());
+  }
+}
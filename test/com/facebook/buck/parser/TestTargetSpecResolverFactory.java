@@ -53,6 +53,7 @@ public class TestTargetSpecResolverFactory {
                   public FileTreeCache load(Path path) {
                     return FileTreeCache.of(path);
                   }
-                }));
+                }),
+        Runtime.getRuntime().availableProcessors());
   }
 }
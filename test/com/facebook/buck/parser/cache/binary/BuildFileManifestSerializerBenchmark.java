@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.RunnerException;
+
+/** Compares the binary and JSON serializations of the manifest of a build file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BuildFileManifestSerializerBenchmark {
+  @Param({"100", "2000"})
+  public int numberOfTargets;
+
+  private BuildFileManifest manifest;
+  private byte[] binary;
+  private byte[] json;
+
+  @Setup
+  public void setUp() throws IOException {
+    manifest = manifestWithJavaLibraries(numberOfTargets);
+    binary = serializeBinary();
+    json = serializeJson();
+  }
+
+  /**
+   * Creates a manifest of similar targets, each with a handful of sources and dependencies on
+   * targets of a few other packages.
+   */
+  private static BuildFileManifest manifestWithJavaLibraries(int numberOfTargets) {
+    ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets = ImmutableMap.builder();
+    ImmutableSet.Builder<String> globResult = ImmutableSet.builder();
+    for (int target = 0; target < numberOfTargets; target++) {
+      String name = "target" + target;
+      ImmutableList.Builder<String> srcs = ImmutableList.builder();
+      for (int src = 0; src < 5; src++) {
+        String path = String.format("src/%s/Source%d.java", name, src);
+        srcs.add(path);
+        globResult.add(path);
+      }
+      ImmutableList.Builder<String> deps = ImmutableList.builder();
+      for (int dep = 0; dep < 10; dep++) {
+        deps.add(String.format("//java/com/example/package%d:target%d", dep, (target + dep) % 50));
+      }
+      targets.put(
+          name,
+          ImmutableMap.<String, Object>builder()
+              .put("buck.type", "java_library")
+              .put("buck.base_path", "java/com/example/app")
+              .put("name", name)
+              .put("srcs", srcs.build())
+              .put("deps", deps.build())
+              .put("visibility", ImmutableList.of("PUBLIC"))
+              .put("labels", ImmutableList.of("team:example", "language:java"))
+              .put("source", "8")
+              .put("target", "8")
+              .build());
+    }
+    return BuildFileManifest.of(
+        targets.build(),
+        ImmutableSortedSet.of("//tools/build_defs/java.bzl"),
+        ImmutableMap.of(),
+        Optional.empty(),
+        ImmutableList.of(
+            GlobSpecWithResult.of(
+                GlobSpec.of(ImmutableList.of("src/**/*.java"), ImmutableList.of(), true),
+                globResult.build())),
+        ImmutableList.of());
+  }
+
+  @Benchmark
+  public byte[] serializeBinary() throws IOException {
+    return BuildFileManifestSerializer.serialize(manifest);
+  }
+
+  @Benchmark
+  public BuildFileManifest deserializeBinary() throws IOException {
+    return BuildFileManifestSerializer.deserialize(binary);
+  }
+
+  @Benchmark
+  public byte[] serializeJson() throws IOException {
+    return com.facebook.buck.parser.cache.json.BuildFileManifestSerializer.serialize(manifest);
+  }
+
+  @Benchmark
+  public BuildFileManifest deserializeJson() throws IOException {
+    return com.facebook.buck.parser.cache.json.BuildFileManifestSerializer.deserialize(json);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {BuildFileManifestSerializerBenchmark.class.getName()});
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.devtools.build.lib.syntax.Runtime;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BuildFileManifestSerializerTest {
+  @Rule public ExpectedException expectedException = ExpectedException.none();
+
+  private static BuildFileManifest createManifest(
+      ImmutableMap<String, ImmutableMap<String, Object>> targets) {
+    return BuildFileManifest.of(
+        targets,
+        ImmutableSortedSet.of("//defs.bzl", "//lib/macros.bzl"),
+        ImmutableMap.of(
+            "cxx", ImmutableMap.of("cxxflags", Optional.of("-O2"), "ldflags", Optional.empty())),
+        Optional.of(ImmutableMap.of("HOME", Optional.of("/home"), "EMPTY", Optional.empty())),
+        ImmutableList.of(
+            GlobSpecWithResult.of(
+                GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of("Test*.java"), true),
+                ImmutableSet.of("Foo.java", "Bar.java")),
+            GlobSpecWithResult.of(
+                GlobSpec.of(ImmutableList.of("res/**"), ImmutableList.of(), false),
+                ImmutableSet.of())),
+        ImmutableList.of(ParsingError.of("error", ImmutableList.of("frame1", "frame2"))));
+  }
+
+  @Test
+  public void roundTripsAllAttributeTypes() throws Exception {
+    ImmutableMap<String, Object> target =
+        ImmutableMap.<String, Object>builder()
+            .put("name", "lib")
+            .put("buck.type", "java_library")
+            .put("srcs", ImmutableList.of("Foo.java", "Bar.java"))
+            .put("resources", ImmutableSortedSet.of("b.txt", "a.txt"))
+            .put("labels", ImmutableSet.of("z", "a"))
+            .put("env", ImmutableSortedMap.of("B", "2", "A", "1"))
+            .put("extra", ImmutableMap.of("z", 1, "a", 2))
+            .put("count", -42)
+            .put("size", Long.MAX_VALUE)
+            .put("ratio", 0.5)
+            .put("enabled", true)
+            .put("disabled", false)
+            .put("optional", Optional.of("value"))
+            .put("absent", Optional.empty())
+            .put("none", Runtime.NONE)
+            .put(
+                "deps",
+                ListWithSelects.of(
+                    ImmutableList.of(
+                        ImmutableList.of(":a"),
+                        SelectorValue.of(
+                            ImmutableMap.of(
+                                "//config:linux",
+                                ImmutableList.of(":b"),
+                                "DEFAULT",
+                                Runtime.NONE),
+                            "no match")),
+                    List.class))
+            .build();
+    BuildFileManifest manifest = createManifest(ImmutableMap.of("lib", target));
+
+    BuildFileManifest deserialized =
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest));
+
+    assertEquals(manifest, deserialized);
+    ImmutableMap<String, Object> deserializedTarget = deserialized.getTargets().get("lib");
+    assertEquals(
+        ImmutableList.copyOf(target.keySet()), ImmutableList.copyOf(deserializedTarget.keySet()));
+    assertEquals(
+        ImmutableList.of("z", "a"),
+        ImmutableList.copyOf((Iterable<?>) deserializedTarget.get("labels")));
+    assertTrue(deserializedTarget.get("resources") instanceof ImmutableSortedSet);
+    assertTrue(deserializedTarget.get("env") instanceof ImmutableSortedMap);
+    assertEquals(Integer.valueOf(-42), deserializedTarget.get("count"));
+    assertEquals(Long.valueOf(Long.MAX_VALUE), deserializedTarget.get("size"));
+  }
+
+  @Test
+  public void listsWithSelectsKeepOnlyTheKindOfTheirType() throws Exception {
+    BuildFileManifest manifest =
+        createManifest(
+            ImmutableMap.of(
+                "lib",
+                ImmutableMap.of(
+                    "deps",
+                    ListWithSelects.of(ImmutableList.of(ImmutableList.of(":a")), ArrayList.class),
+                    "name",
+                    ListWithSelects.of(ImmutableList.of("lib"), String.class))));
+
+    ImmutableMap<String, Object> deserialized =
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest))
+            .getTargets()
+            .get("lib");
+
+    assertEquals(List.class, ((ListWithSelects) deserialized.get("deps")).getType());
+    assertEquals(String.class, ((ListWithSelects) deserialized.get("name")).getType());
+  }
+
+  @Test
+  public void rejectsListsWithSelectsOfUnsupportedTypes() throws Exception {
+    expectedException.expect(IllegalArgumentException.class);
+    BuildFileManifestSerializer.serialize(
+        createManifest(
+            ImmutableMap.of(
+                "lib",
+                ImmutableMap.of(
+                    "name", ListWithSelects.of(ImmutableList.of("lib"), Object.class)))));
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() throws Exception {
+    ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets = ImmutableMap.builder();
+    String label = "//some/very/long/path/to/a/package/with/many/targets:dependency";
+    for (int i = 0; i < 100; i++) {
+      targets.put(
+          "target" + i,
+          ImmutableMap.of(
+              "name", "target" + i, "deps", ImmutableList.of(label), "visibility", "PUBLIC"));
+    }
+    BuildFileManifest manifest = createManifest(targets.build());
+
+    byte[] serialized = BuildFileManifestSerializer.serialize(manifest);
+    BuildFileManifest deserialized = BuildFileManifestSerializer.deserialize(serialized);
+
+    assertTrue(serialized.length < 100 * label.length());
+    Object firstDeps = deserialized.getTargets().get("target0").get("deps");
+    Object lastDeps = deserialized.getTargets().get("target99").get("deps");
+    assertSame(((ImmutableList<?>) firstDeps).get(0), ((ImmutableList<?>) lastDeps).get(0));
+  }
+
+  @Test
+  public void rejectsUnknownVersion() throws Exception {
+    byte[] serialized = BuildFileManifestSerializer.serialize(createManifest(ImmutableMap.of()));
+    serialized[0]++;
+
+    expectedException.expect(IOException.class);
+    BuildFileManifestSerializer.deserialize(serialized);
+  }
+
+  @Test
+  public void malformedManifestsOnlyFailWithIOException() throws Exception {
+    byte[] serialized =
+        BuildFileManifestSerializer.serialize(
+            createManifest(
+                ImmutableMap.of(
+                    "lib",
+                    ImmutableMap.of(
+                        "name", "lib", "deps", ImmutableList.of(":a", ":b"), "size", 12))));
+    List<byte[]> malformedManifests = new ArrayList<>();
+    for (int i = 1; i < serialized.length; i++) {
+      malformedManifests.add(Arrays.copyOf(serialized, i));
+      for (int value = Byte.MIN_VALUE; value <= Byte.MAX_VALUE; value++) {
+        byte[] corrupted = serialized.clone();
+        corrupted[i] = (byte) value;
+        malformedManifests.add(corrupted);
+      }
+    }
+    for (byte[] malformed : malformedManifests) {
+      try {
+        BuildFileManifestSerializer.deserialize(malformed);
+      } catch (IOException e) {
+        // Expected, unless the change happened to still make a valid manifest.
+      }
+    }
+  }
+
+  @Test
+  public void rejectsUnsupportedAttributeTypes() throws Exception {
+    expectedException.expect(IllegalArgumentException.class);
+    BuildFileManifestSerializer.serialize(
+        createManifest(ImmutableMap.of("lib", ImmutableMap.of("name", new Object()))));
+  }
+}
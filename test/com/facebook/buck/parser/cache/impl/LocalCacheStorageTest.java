@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.parser.cache.ParserCacheException;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalCacheStorageTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final HashCode FINGERPRINT = HashCode.fromString("0123456789abcdef");
+
+  @Test
+  public void missingEntryIsEmpty() throws ParserCacheException {
+    LocalCacheStorage storage =
+        new LocalCacheStorage(tmp.getRoot().resolve("cache"), Long.MAX_VALUE);
+    assertFalse(storage.getCacheEntry(FINGERPRINT).isPresent());
+  }
+
+  @Test
+  public void storedEntryIsReadBackAndReplaced() throws ParserCacheException {
+    LocalCacheStorage storage =
+        new LocalCacheStorage(tmp.getRoot().resolve("cache"), Long.MAX_VALUE);
+    storage.storeCacheEntry(FINGERPRINT, "first".getBytes(StandardCharsets.UTF_8));
+    assertArrayEquals(
+        "first".getBytes(StandardCharsets.UTF_8), storage.getCacheEntry(FINGERPRINT).get());
+
+    storage.storeCacheEntry(FINGERPRINT, "second".getBytes(StandardCharsets.UTF_8));
+    assertArrayEquals(
+        "second".getBytes(StandardCharsets.UTF_8),
+        new LocalCacheStorage(tmp.getRoot().resolve("cache"), Long.MAX_VALUE)
+            .getCacheEntry(FINGERPRINT)
+            .get());
+  }
+
+  @Test
+  public void leastRecentlyAccessedEntriesAreDeletedWhenTheCacheIsFull() throws Exception {
+    HashCode older = HashCode.fromString("1123456789abcdef");
+    LocalCacheStorage storage = new LocalCacheStorage(tmp.getRoot().resolve("cache"), 30);
+    storage.storeCacheEntry(older, "123456789012".getBytes(StandardCharsets.UTF_8));
+    Path olderPath = tmp.getRoot().resolve("cache/11").resolve(older.toString());
+    Files.getFileAttributeView(olderPath, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(0), null);
+
+    storage.storeCacheEntry(FINGERPRINT, "12345678901234567890".getBytes(StandardCharsets.UTF_8));
+
+    assertFalse(storage.getCacheEntry(older).isPresent());
+    assertTrue(storage.getCacheEntry(FINGERPRINT).isPresent());
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.cache.ParserCacheAccessMode;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParserCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path buildFile;
+  private Path extension;
+  private LocalCacheStorage storage;
+
+  @Before
+  public void setUp() throws IOException {
+    buildFile = tmp.newFile("BUCK");
+    extension = tmp.newFile("defs.bzl");
+    Files.write(buildFile, "load(':defs.bzl', 'rule')".getBytes(StandardCharsets.UTF_8));
+    Files.write(extension, "def rule(): pass".getBytes(StandardCharsets.UTF_8));
+    storage = new LocalCacheStorage(tmp.getRoot().resolve("parser_cache"), Long.MAX_VALUE);
+  }
+
+  private BuildFileManifest createManifest(ImmutableList<ParsingError> errors) {
+    return createManifest(buildFile, extension, errors);
+  }
+
+  private BuildFileManifest createManifest(
+      Path buildFile, Path extension, ImmutableList<ParsingError> errors) {
+    return BuildFileManifest.of(
+        ImmutableMap.of("foo", ImmutableMap.of("name", "foo", "buck.type", "java_library")),
+        ImmutableSortedSet.of(buildFile.toString(), extension.toString()),
+        ImmutableMap.of(),
+        Optional.empty(),
+        ImmutableList.of(
+            GlobSpecWithResult.of(
+                GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of(), true),
+                ImmutableSet.of("Foo.java"))),
+        errors);
+  }
+
+  private ParserCache createParserCache(ParserCacheAccessMode accessMode) {
+    return createParserCache(accessMode, tmp.getRoot());
+  }
+
+  private ParserCache createParserCache(ParserCacheAccessMode accessMode, Path cellRoot) {
+    return new ParserCache(
+        storage, accessMode, ParserCache.getConfigFingerprint(ImmutableMap.of()), cellRoot);
+  }
+
+  @Test
+  public void manifestIsReadBackWhileItsFilesAreUnchanged() throws Exception {
+    BuildFileManifest manifest = createManifest(ImmutableList.of());
+    createParserCache(ParserCacheAccessMode.READWRITE).storeBuildFileManifest(buildFile, manifest);
+
+    assertEquals(
+        Optional.of(manifest),
+        createParserCache(ParserCacheAccessMode.READONLY)
+            .getBuildFileManifest(buildFile, new FakeParser(true)));
+  }
+
+  @Test
+  public void manifestIsSharedBetweenCellsInDifferentPlaces() throws Exception {
+    Path otherRoot = tmp.newFolder("other");
+    Path otherBuildFile = Files.copy(buildFile, otherRoot.resolve("BUCK"));
+    Path otherExtension = Files.copy(extension, otherRoot.resolve("defs.bzl"));
+    createParserCache(ParserCacheAccessMode.READWRITE)
+        .storeBuildFileManifest(buildFile, createManifest(ImmutableList.of()));
+
+    assertEquals(
+        Optional.of(createManifest(otherBuildFile, otherExtension, ImmutableList.of())),
+        createParserCache(ParserCacheAccessMode.READONLY, otherRoot)
+            .getBuildFileManifest(otherBuildFile, new FakeParser(true)));
+  }
+
+  @Test
+  public void changedExtensionInvalidatesManifest() throws Exception {
+    createParserCache(ParserCacheAccessMode.READWRITE)
+        .storeBuildFileManifest(buildFile, createManifest(ImmutableList.of()));
+    Files.write(extension, "def rule(): return 1".getBytes(StandardCharsets.UTF_8));
+
+    assertFalse(
+        createParserCache(ParserCacheAccessMode.READWRITE)
+            .getBuildFileManifest(buildFile, new FakeParser(true))
+            .isPresent());
+  }
+
+  @Test
+  public void changedGlobResultsInvalidateManifest() throws Exception {
+    ParserCache parserCache = createParserCache(ParserCacheAccessMode.READWRITE);
+    parserCache.storeBuildFileManifest(buildFile, createManifest(ImmutableList.of()));
+
+    assertFalse(parserCache.getBuildFileManifest(buildFile, new FakeParser(false)).isPresent());
+  }
+
+  @Test
+  public void manifestsWithErrorsAreNotStored() throws Exception {
+    ParserCache parserCache = createParserCache(ParserCacheAccessMode.READWRITE);
+    parserCache.storeBuildFileManifest(
+        buildFile, createManifest(ImmutableList.of(ParsingError.of("error", ImmutableList.of()))));
+
+    assertFalse(parserCache.getBuildFileManifest(buildFile, new FakeParser(true)).isPresent());
+  }
+
+  @Test
+  public void readOnlyCacheIsNotWritten() throws Exception {
+    createParserCache(ParserCacheAccessMode.READONLY)
+        .storeBuildFileManifest(buildFile, createManifest(ImmutableList.of()));
+
+    assertFalse(
+        createParserCache(ParserCacheAccessMode.READWRITE)
+            .getBuildFileManifest(buildFile, new FakeParser(true))
+            .isPresent());
+  }
+
+  @Test
+  public void corruptEntryIsAMiss() throws Exception {
+    ParserCache parserCache = createParserCache(ParserCacheAccessMode.READWRITE);
+    parserCache.storeBuildFileManifest(buildFile, createManifest(ImmutableList.of()));
+    try (Stream<Path> entries = Files.walk(tmp.getRoot().resolve("parser_cache"))) {
+      for (Path entry : entries.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        byte[] bytes = Files.readAllBytes(entry);
+        // Make the length of the strong fingerprint negative.
+        bytes[4] = (byte) 0xFF;
+        Files.write(entry, bytes);
+      }
+    }
+
+    assertFalse(parserCache.getBuildFileManifest(buildFile, new FakeParser(true)).isPresent());
+  }
+
+  @Test
+  public void configChangesFingerprint() {
+    HashCode fingerprint =
+        ParserCache.getConfigFingerprint(ImmutableMap.of("foo", ImmutableMap.of("bar", "1")));
+    assertEquals(
+        fingerprint,
+        ParserCache.getConfigFingerprint(ImmutableMap.of("foo", ImmutableMap.of("bar", "1"))));
+    assertNotEquals(
+        fingerprint,
+        ParserCache.getConfigFingerprint(ImmutableMap.of("foo", ImmutableMap.of("bar", "2"))));
+  }
+
+  /** Parser that only knows whether globs are up to date. */
+  private static class FakeParser implements ProjectBuildFileParser {
+    private final boolean globsMatch;
+
+    private FakeParser(boolean globsMatch) {
+      this.globsMatch = globsMatch;
+    }
+
+    @Override
+    public BuildFileManifest getManifest(Path parseFile) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSortedSet<String> getIncludedFiles(Path parseFile) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void reportProfile() {}
+
+    @Override
+    public boolean globResultsMatchCurrentState(
+        Path buildFile, ImmutableList<GlobSpecWithResult> existingGlobsWithResults) {
+      return globsMatch;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
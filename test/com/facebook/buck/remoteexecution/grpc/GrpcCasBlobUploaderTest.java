@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.grpc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.proto.RemoteExecutionMetadata;
+import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.bytestream.ByteStreamGrpc;
+import com.google.bytestream.ByteStreamProto.WriteRequest;
+import com.google.bytestream.ByteStreamProto.WriteResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GrpcCasBlobUploaderTest {
+  private static final int CHUNK_SIZE = 65536;
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  private final BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+  private LocalContentAddressedStorage storage;
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws IOException {
+    storage =
+        new LocalContentAddressedStorage(
+            temporaryPaths.newFolder("cas"), GrpcRemoteExecutionClients.PROTOCOL, eventBus);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    channel.shutdownNow();
+    server.shutdownNow().awaitTermination(3, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void largeBlobIsStreamedInChunks() throws Exception {
+    List<Long> writeOffsets = new CopyOnWriteArrayList<>();
+    GrpcCasBlobUploader uploader =
+        startServer(
+            new LocalBackedByteStreamServer(storage) {
+              @Override
+              public StreamObserver<WriteRequest> write(
+                  StreamObserver<WriteResponse> responseObserver) {
+                StreamObserver<WriteRequest> delegate = super.write(responseObserver);
+                return new ForwardingStreamObserver(delegate) {
+                  @Override
+                  public void onNext(WriteRequest request) {
+                    writeOffsets.add(request.getWriteOffset());
+                    super.onNext(request);
+                  }
+                };
+              }
+            });
+    byte[] data = randomBytes(3 * CHUNK_SIZE + 100);
+
+    UploadResult result = uploader.uploadFromStream(toUploadData(data));
+
+    assertEquals(Status.Code.OK.value(), result.status);
+    assertEquals(
+        ImmutableList.of(0L, (long) CHUNK_SIZE, 2L * CHUNK_SIZE, 3L * CHUNK_SIZE, (long) data.length),
+        writeOffsets);
+    assertArrayEquals(data, readFromStorage(result.digest));
+  }
+
+  @Test
+  public void interruptedWriteIsResumedFromTheCommittedOffset() throws Exception {
+    List<Long> firstOffsets = new CopyOnWriteArrayList<>();
+    AtomicBoolean interrupted = new AtomicBoolean(false);
+    GrpcCasBlobUploader uploader =
+        startServer(
+            new LocalBackedByteStreamServer(storage) {
+              @Override
+              public StreamObserver<WriteRequest> write(
+                  StreamObserver<WriteResponse> responseObserver) {
+                StreamObserver<WriteRequest> delegate = super.write(responseObserver);
+                boolean interruptThisWrite = !interrupted.getAndSet(true);
+                return new ForwardingStreamObserver(delegate) {
+                  private int received = 0;
+                  private boolean failed = false;
+
+                  @Override
+                  public void onNext(WriteRequest request) {
+                    if (failed) {
+                      return;
+                    }
+                    if (received++ == 0) {
+                      firstOffsets.add(request.getWriteOffset());
+                    }
+                    super.onNext(request);
+                    if (interruptThisWrite && received == 2) {
+                      // Drop the connection after two chunks were received.
+                      failed = true;
+                      super.onError(Status.UNAVAILABLE.asException());
+                      responseObserver.onError(Status.UNAVAILABLE.asException());
+                    }
+                  }
+
+                  @Override
+                  public void onCompleted() {
+                    if (!failed) {
+                      super.onCompleted();
+                    }
+                  }
+                };
+              }
+            });
+    byte[] data = randomBytes(5 * CHUNK_SIZE);
+
+    UploadResult result = uploader.uploadFromStream(toUploadData(data));
+
+    assertEquals(Status.Code.OK.value(), result.status);
+    assertEquals(ImmutableList.of(0L, 2L * CHUNK_SIZE), firstOffsets);
+    assertArrayEquals(data, readFromStorage(result.digest));
+  }
+
+  private GrpcCasBlobUploader startServer(BindableService byteStream) throws IOException {
+    String serverName = "uniquish-" + new Random().nextLong();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(byteStream)
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    return new GrpcCasBlobUploader(
+        "",
+        ContentAddressableStorageGrpc.newFutureStub(channel),
+        ByteStreamGrpc.newStub(channel),
+        eventBus,
+        RemoteExecutionMetadata.getDefaultInstance());
+  }
+
+  private byte[] readFromStorage(Digest digest) throws IOException {
+    try (InputStream stream = storage.getData(digest)) {
+      return ByteStreams.toByteArray(stream);
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] data = new byte[size];
+    new Random(0).nextBytes(data);
+    return data;
+  }
+
+  private static UploadDataSupplier toUploadData(byte[] data) {
+    return UploadDataSupplier.of(
+        "data",
+        GrpcRemoteExecutionClients.PROTOCOL.computeDigest(data),
+        () -> new ByteArrayInputStream(data));
+  }
+
+  private static class ForwardingStreamObserver implements StreamObserver<WriteRequest> {
+    private final StreamObserver<WriteRequest> delegate;
+
+    ForwardingStreamObserver(StreamObserver<WriteRequest> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onNext(WriteRequest value) {
+      delegate.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      delegate.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      delegate.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.util.timing.SettableFakeClock;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+  private final SettableFakeClock clock = new SettableFakeClock(0, TimeUnit.SECONDS.toNanos(100));
+  private final AdaptiveConcurrencyLimit limit =
+      new AdaptiveConcurrencyLimit(1, 3, 1, TimeUnit.SECONDS, clock);
+
+  @Test
+  public void limitGrowsWhileThroughputImproves() {
+    completeWindow(100);
+    assertEquals(2, limit.getLimit());
+    completeWindow(200);
+    assertEquals(3, limit.getLimit());
+    completeWindow(300);
+    assertEquals(3, limit.getLimit());
+  }
+
+  @Test
+  public void limitTurnsAroundWhenThroughputDrops() {
+    completeWindow(100);
+    completeWindow(200);
+    assertEquals(3, limit.getLimit());
+    completeWindow(150);
+    assertEquals(2, limit.getLimit());
+    completeWindow(200);
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void limitIsKeptWhenThroughputIsStable() {
+    completeWindow(100);
+    assertEquals(2, limit.getLimit());
+    completeWindow(102);
+    assertEquals(2, limit.getLimit());
+  }
+
+  @Test
+  public void limitIsOnlyUpdatedAtTheEndOfAWindow() {
+    clock.advanceTimeNanos(TimeUnit.MILLISECONDS.toNanos(500));
+    limit.onBytesTransferred(100);
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void failuresHalveTheLimit() {
+    completeWindow(100);
+    completeWindow(200);
+    assertEquals(3, limit.getLimit());
+    limit.onFailure();
+    assertEquals(1, limit.getLimit());
+    limit.onFailure();
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void fixedLimitIgnoresThroughputAndFailures() {
+    AdaptiveConcurrencyLimit fixed = AdaptiveConcurrencyLimit.fixed(4);
+    fixed.onBytesTransferred(100);
+    fixed.onFailure();
+    assertEquals(4, fixed.getLimit());
+  }
+
+  private void completeWindow(long bytes) {
+    clock.advanceTimeNanos(TimeUnit.SECONDS.toNanos(1));
+    limit.onBytesTransferred(bytes);
+  }
+}
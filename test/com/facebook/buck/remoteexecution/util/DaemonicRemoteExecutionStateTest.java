@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.filesystems.RelPath;
+import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
+import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
+import com.facebook.buck.io.watchman.WatchmanPathEvent;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Test;
+
+public class DaemonicRemoteExecutionStateTest {
+  private final GrpcProtocol protocol = new GrpcProtocol();
+  private final Path cellRoot = Paths.get("/cell").toAbsolutePath();
+  private final Path file = cellRoot.resolve("foo/bar.jar");
+  private final HashCode hash = HashCode.fromString("abcdef01");
+  private final FileNode fileNode =
+      protocol.newFileNode(protocol.newDigest(hash.toString(), 10), "bar.jar", false);
+
+  @Test
+  public void nodeCacheIsSharedBetweenBuilds() {
+    DaemonicRemoteExecutionState state = new DaemonicRemoteExecutionState(100, 0);
+    assertSame(state.getMerkleTreeNodeCache(protocol), state.getMerkleTreeNodeCache(protocol));
+  }
+
+  @Test
+  public void nodeCacheIsNotSharedWhenDisabled() {
+    DaemonicRemoteExecutionState state = DaemonicRemoteExecutionState.disabled();
+    assertNotSame(
+        state.getMerkleTreeNodeCache(protocol), state.getMerkleTreeNodeCache(protocol));
+  }
+
+  @Test
+  public void fileNodeIsOnlyReturnedForTheSameHash() {
+    DaemonicRemoteExecutionState state = new DaemonicRemoteExecutionState(100, 0);
+    state.putFileNode(file, hash, fileNode);
+    assertEquals(Optional.of(fileNode), state.getFileNode(file, hash));
+    assertEquals(Optional.empty(), state.getFileNode(file, HashCode.fromString("12345678")));
+  }
+
+  @Test
+  public void fileNodeIsInvalidatedByWatchmanEvents() {
+    DaemonicRemoteExecutionState state = new DaemonicRemoteExecutionState(100, 0);
+    state.putFileNode(file, hash, fileNode);
+    state.invalidateBasedOn(
+        WatchmanPathEvent.of(
+            AbsPath.of(cellRoot), Kind.MODIFY, RelPath.of(Paths.get("foo/bar.jar"))));
+    assertEquals(Optional.empty(), state.getFileNode(file, hash));
+
+    state.putFileNode(file, hash, fileNode);
+    state.invalidateBasedOn(WatchmanOverflowEvent.of(AbsPath.of(cellRoot), "overflow"));
+    assertEquals(Optional.empty(), state.getFileNode(file, hash));
+  }
+
+  @Test
+  public void knownDigestsAreForgottenAfterFailures() {
+    DaemonicRemoteExecutionState state = new DaemonicRemoteExecutionState(0, 60);
+    Digest digest = protocol.computeDigest(new byte[] {1, 2, 3});
+    assertFalse(state.isKnownToCas(digest));
+    state.recordKnownToCas(digest);
+    assertTrue(state.isKnownToCas(digest));
+    state.forgetKnownToCas();
+    assertFalse(state.isKnownToCas(digest));
+  }
+
+  @Test
+  public void digestsAreNotRememberedWhenDisabled() {
+    DaemonicRemoteExecutionState state = DaemonicRemoteExecutionState.disabled();
+    Digest digest = protocol.computeDigest(new byte[] {1, 2, 3});
+    state.recordKnownToCas(digest);
+    assertFalse(state.isKnownToCas(digest));
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalCachingContentAddressedStorageTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+  private RemoteStorage remote;
+  private Path cacheDir;
+  private Path outputRoot;
+
+  @Before
+  public void setUp() throws IOException {
+    remote = new RemoteStorage();
+    cacheDir = tmp.newFolder("cache");
+    outputRoot = tmp.newFolder("out");
+  }
+
+  @Test
+  public void blobsAreOnlyFetchedOnce() throws Exception {
+    Digest digest = remote.add("hello");
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+
+    assertEquals("hello", toString(storage.fetch(digest).get()));
+    assertEquals("hello", toString(storage.fetch(digest).get()));
+    assertEquals(ImmutableList.of(digest.getHash()), remote.fetchedHashes);
+  }
+
+  @Test
+  public void concurrentFetchesOfTheSameBlobAreDeduplicated() throws Exception {
+    Digest digest = remote.add("hello");
+    remote.pendingFetch = SettableFuture.create();
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+
+    ListenableFuture<ByteBuffer> first = storage.fetch(digest);
+    ListenableFuture<ByteBuffer> second = storage.fetch(digest);
+    assertFalse(first.isDone());
+    remote.pendingFetch.set(null);
+
+    assertEquals("hello", toString(first.get()));
+    assertEquals("hello", toString(second.get()));
+    assertEquals(ImmutableList.of(digest.getHash()), remote.fetchedHashes);
+  }
+
+  @Test
+  public void outputsAreLinkedFromTheCache() throws Exception {
+    Digest digest = remote.add("output");
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(
+                protocol.newOutputFile(Paths.get("a/one"), digest, false),
+                protocol.newOutputFile(Paths.get("b/two"), digest, true)),
+            new FilesystemFileMaterializer(outputRoot))
+        .get();
+
+    assertEquals("output", readOutput("a/one"));
+    assertEquals("output", readOutput("b/two"));
+    assertTrue(Files.isExecutable(outputRoot.resolve("b/two")));
+    assertEquals(getFileKey(cachedBlob(digest)), getFileKey(outputRoot.resolve("a/one")));
+    assertEquals(ImmutableList.of(digest.getHash()), remote.fetchedHashes);
+  }
+
+  @Test
+  public void cachedBlobsAreReadOnly() throws Exception {
+    Digest digest = remote.add("output");
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newOutputFile(Paths.get("exe"), digest, true)),
+            new FilesystemFileMaterializer(outputRoot))
+        .get();
+
+    for (Path blob : ImmutableList.of(cachedBlob(digest), outputRoot.resolve("exe"))) {
+      Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(blob);
+      assertFalse(permissions.contains(PosixFilePermission.OWNER_WRITE));
+      assertFalse(permissions.contains(PosixFilePermission.GROUP_WRITE));
+      assertFalse(permissions.contains(PosixFilePermission.OTHERS_WRITE));
+    }
+  }
+
+  @Test
+  public void linkingDoesNotChangeTheModificationTimeOfOutputs() throws Exception {
+    Digest digest = remote.add("output");
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+    FilesystemFileMaterializer materializer = new FilesystemFileMaterializer(outputRoot);
+
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newOutputFile(Paths.get("one"), digest, false)),
+            materializer)
+        .get();
+    Files.setLastModifiedTime(outputRoot.resolve("one"), FileTime.fromMillis(1000));
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newOutputFile(Paths.get("two"), digest, false)),
+            materializer)
+        .get();
+
+    assertEquals(FileTime.fromMillis(1000), Files.getLastModifiedTime(outputRoot.resolve("one")));
+  }
+
+  @Test
+  public void blobsEvictedBeforeTheyAreLinkedAreFetchedAgain() throws Exception {
+    Digest digest = remote.add("output");
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+    storage.fetch(digest).get();
+    FilesystemFileMaterializer evictingMaterializer =
+        new FilesystemFileMaterializer(outputRoot) {
+          @Override
+          public void materializeFrom(Path path, Path source, boolean executable)
+              throws IOException {
+            Files.delete(source);
+            super.materializeFrom(path, source, executable);
+          }
+        };
+
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newOutputFile(Paths.get("out"), digest, false)),
+            evictingMaterializer)
+        .get();
+
+    assertEquals("output", readOutput("out"));
+    assertEquals(ImmutableList.of(digest.getHash(), digest.getHash()), remote.fetchedHashes);
+  }
+
+  @Test
+  public void outputDirectoriesAreMaterializedFromTheCache() throws Exception {
+    Digest fileDigest = remote.add("file");
+    Protocol.Directory root =
+        protocol.newDirectory(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newFileNode(fileDigest, "file", false)),
+            ImmutableList.of());
+    Digest treeDigest =
+        remote.add(protocol.toByteArray(protocol.newTree(root, ImmutableList.of())));
+    OutputDirectory directory = protocol.newOutputDirectory(Paths.get("dir"), treeDigest);
+    LocalCachingContentAddressedStorage storage = newStorage(1024);
+
+    storage
+        .materializeOutputs(
+            ImmutableList.of(directory),
+            ImmutableList.of(),
+            new FilesystemFileMaterializer(outputRoot))
+        .get();
+
+    assertEquals("file", readOutput("dir/file"));
+  }
+
+  @Test
+  public void leastRecentlyUsedBlobsAreEvicted() throws Exception {
+    Digest old = remote.add("0123456789");
+    Digest recent = remote.add("abcdefghij");
+    LocalCachingContentAddressedStorage storage = newStorage(15);
+
+    storage.fetch(old).get();
+    Files.getFileAttributeView(cachedBlob(old), BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(0), null);
+    storage.fetch(recent).get();
+
+    assertFalse(Files.exists(cachedBlob(old)));
+    assertTrue(Files.exists(cachedBlob(recent)));
+  }
+
+  @Test
+  public void blobsCachedByPreviousBuildsAreEvicted() throws Exception {
+    Digest old = remote.add("0123456789");
+    Digest recent = remote.add("abcdefghij");
+    try (LocalCachingContentAddressedStorage previous = newStorage(15)) {
+      previous.fetch(old).get();
+    }
+    Files.getFileAttributeView(cachedBlob(old), BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(0), null);
+
+    newStorage(15).fetch(recent).get();
+
+    assertFalse(Files.exists(cachedBlob(old)));
+    assertTrue(Files.exists(cachedBlob(recent)));
+  }
+
+  private LocalCachingContentAddressedStorage newStorage(long maxSizeBytes) {
+    return new LocalCachingContentAddressedStorage(
+        remote, protocol, cacheDir, maxSizeBytes, MoreExecutors.newDirectExecutorService());
+  }
+
+  private Path cachedBlob(Digest digest) {
+    String hash = digest.getHash();
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  private String readOutput(String path) throws IOException {
+    return new String(Files.readAllBytes(outputRoot.resolve(path)), StandardCharsets.UTF_8);
+  }
+
+  private static Object getFileKey(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** An in-memory CAS which records the blobs that were fetched from it. */
+  private class RemoteStorage implements ContentAddressedStorageClient {
+    private final Map<String, byte[]> blobs = new HashMap<>();
+    private final List<String> fetchedHashes = new ArrayList<>();
+    private SettableFuture<Unit> pendingFetch = SettableFuture.create();
+
+    RemoteStorage() {
+      pendingFetch.set(null);
+    }
+
+    Digest add(String data) {
+      return add(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Digest add(byte[] data) {
+      Digest digest = protocol.computeDigest(data);
+      blobs.put(digest.getHash(), data);
+      return digest;
+    }
+
+    @Override
+    public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<Unit> materializeOutputs(
+        List<OutputDirectory> outputDirectories,
+        List<OutputFile> outputFiles,
+        FileMaterializer materializer) {
+      return Futures.transform(
+          pendingFetch,
+          ignored -> {
+            for (OutputFile file : outputFiles) {
+              fetchedHashes.add(file.getDigest().getHash());
+              try (WritableByteChannel channel =
+                  materializer.getOutputChannel(Paths.get(file.getPath()), false)) {
+                channel.write(ByteBuffer.wrap(blobs.get(file.getDigest().getHash())));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            }
+            return null;
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public boolean containsDigest(Digest digest) {
+      return blobs.containsKey(digest.getHash());
+    }
+
+    @Override
+    public ListenableFuture<ByteBuffer> fetch(Digest digest) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -21,7 +21,9 @@ import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -31,6 +33,8 @@ import io.grpc.StatusRuntimeException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -136,8 +140,63 @@ public class MultiThreadedBlobUploaderTest {
     EasyMock.verify(casBlobUploader);
   }
 
+  @Test
+  public void testSmallBlobsAreNotBlockedByLargeBlobs() throws Exception {
+    ImmutableMap<Digest, UploadDataSupplier> largeData = createUploadData("a large blob");
+    ImmutableMap<Digest, UploadDataSupplier> smallData = createUploadData("small");
+    Digest smallDigest = smallData.keySet().asList().get(0);
+    CountDownLatch smallUploaded = new CountDownLatch(1);
+    // EasyMock serializes calls to a mock, which would prevent the uploads from overlapping.
+    CasBlobUploader casBlobUploader =
+        new CasBlobUploader() {
+          @Override
+          public ImmutableSet<String> getMissingHashes(Set<Digest> requiredDigests) {
+            return requiredDigests.stream()
+                .map(Digest::getHash)
+                .collect(ImmutableSet.toImmutableSet());
+          }
+
+          @Override
+          public ImmutableList<UploadResult> batchUpdateBlobs(
+              ImmutableList<UploadDataSupplier> blobs) {
+            smallUploaded.countDown();
+            return blobs.stream()
+                .map(blob -> new UploadResult(blob.getDigest(), 0, ""))
+                .collect(ImmutableList.toImmutableList());
+          }
+
+          @Override
+          public UploadResult uploadFromStream(UploadDataSupplier blob) {
+            try {
+              Assert.assertTrue(smallUploaded.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            return new UploadResult(blob.getDigest(), 0, "");
+          }
+        };
+    MultiThreadedBlobUploader uploader =
+        new MultiThreadedBlobUploader(
+            MISSING_CHECK_LIMIT,
+            smallDigest.getSize(),
+            Executors.newSingleThreadExecutor(),
+            Executors.newSingleThreadExecutor(),
+            new AdaptiveConcurrencyLimit(1, 1, 1, TimeUnit.SECONDS, new DefaultClock()),
+            casBlobUploader);
+
+    ListenableFuture<Unit> largeFuture = uploader.addMissing(largeData.values().stream());
+    ListenableFuture<Unit> smallFuture = uploader.addMissing(smallData.values().stream());
+
+    smallFuture.get(5, TimeUnit.SECONDS);
+    largeFuture.get(5, TimeUnit.SECONDS);
+  }
+
   private ImmutableMap<Digest, UploadDataSupplier> createUploadData() {
-    byte[] buffer = "topspin".getBytes();
+    return createUploadData("topspin");
+  }
+
+  private ImmutableMap<Digest, UploadDataSupplier> createUploadData(String data) {
+    byte[] buffer = data.getBytes();
     Digest digest = PROTOCOL.computeDigest(buffer);
     UploadDataSupplier supplier =
         new UploadDataSupplier() {
@@ -165,6 +165,47 @@ public class DefaultRuleKeyCacheTest {
     assertFalse(internalCache.isCached(ruleD));
   }
 
+  @Test
+  public void invalidationOnlyReachesCurrentDependents() {
+    DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput depInput = ImmutableRuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("dep"));
+    RuleKeyInput ruleInput = ImmutableRuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("rule"));
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(depInput)));
+    TestRule rule = new TestRule();
+    cache.get(
+        rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of(ruleInput)));
+
+    // The rule no longer uses the dep once it is recalculated.
+    cache.invalidateInputs(ImmutableList.of(ruleInput));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(ruleInput)));
+
+    cache.invalidateInputs(ImmutableList.of(depInput));
+    assertFalse(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(rule));
+  }
+
+  @Test
+  public void invalidatedKeysAreUnlinkedFromTheirInputs() {
+    DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input1 = ImmutableRuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input1"));
+    RuleKeyInput input2 = ImmutableRuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input2"));
+    TestRule rule = new TestRule();
+    cache.get(
+        rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input1, input2)));
+
+    cache.invalidateInputs(ImmutableList.of(input1));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input1)));
+
+    cache.invalidateInputs(ImmutableList.of(input2));
+    assertTrue(internalCache.isCached(rule));
+    assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(1L));
+  }
+
   @Test
   public void testHitMissStats() {
     TrackedRuleKeyCache<String> cache =
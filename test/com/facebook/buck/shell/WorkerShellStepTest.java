@@ -122,6 +122,7 @@ public class WorkerShellStepTest {
             startupCommand,
             startupEnv,
             maxWorkers,
+            1,
             isAsync,
             persistentWorkerKey == null || workerHash == null
                 ? Optional.empty()
@@ -426,7 +427,10 @@ public class WorkerShellStepTest {
             new WorkerProcessPoolFactory(new FakeProjectFilesystem()) {
               @Override
               public WorkerProcess createWorkerProcess(
-                  ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+                  ProcessExecutorParams processParams,
+                  ExecutionContext context,
+                  Path tmpDir,
+                  int maxConcurrentJobs)
                   throws IOException {
                 try {
                   sleep(5);
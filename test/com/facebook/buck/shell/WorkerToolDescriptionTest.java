@@ -127,6 +127,30 @@ public class WorkerToolDescriptionTest {
     createWorkerTool(builder -> builder.setMaxWorkers(123).setMaxWorkersPerThreadPercent(45));
   }
 
+  @Test
+  public void testDefaultGetMaxJobsPerWorker() {
+    WorkerTool workerTool = createWorkerToolWithDefaultSettings();
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(1));
+  }
+
+  @Test
+  public void testGetMaxJobsPerWorkerWhenSet() {
+    WorkerTool workerTool =
+        createWorkerTool(builder -> builder.setMaxWorkers(2).setMaxJobsPerWorker(4));
+    assertThat(workerTool.getMaxWorkers(), equalTo(2));
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxJobsPerWorkerMustBePositive() {
+    createWorkerTool(builder -> builder.setMaxJobsPerWorker(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSoloAsyncAndMaxJobsPerWorkerCannotBeUsedTogether() {
+    createWorkerTool(builder -> builder.setSoloAsync(true).setMaxJobsPerWorker(2));
+  }
+
   private static WorkerTool createWorkerToolWithPercent(int maxWorkersPerThreadPercent) {
     return createWorkerTool(
         builder -> builder.setMaxWorkersPerThreadPercent(maxWorkersPerThreadPercent),
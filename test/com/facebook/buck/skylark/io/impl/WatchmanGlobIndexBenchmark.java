@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.io.watchman.ProjectWatch;
+import com.facebook.buck.io.watchman.Watchman;
+import com.facebook.buck.io.watchman.WatchmanClient;
+import com.facebook.buck.io.watchman.WatchmanFactory;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.timing.FakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares answering a recursive glob of a package from a {@link WatchmanGlobIndex} with querying
+ * Watchman for it with a {@link WatchmanGlobber}, in a cell with many packages.
+ *
+ * <p>Needs a Watchman installation.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WatchmanGlobIndexBenchmark {
+  private static final ImmutableList<String> INCLUDE = ImmutableList.of("**/*.java");
+  private static final ImmutableList<String> EXCLUDE = ImmutableList.of("**/*Test.java");
+
+  @Param({"100", "1000"})
+  public int numberOfPackages;
+
+  private final TemporaryPaths temporaryPaths = new TemporaryPaths();
+  private WatchmanClient watchmanClient;
+  private WatchmanGlobIndex index;
+  private WatchmanGlobber globber;
+  private String packagePath;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    temporaryPaths.before();
+    Path root = temporaryPaths.getRoot();
+    for (int pkg = 0; pkg < numberOfPackages; pkg++) {
+      for (String folder : ImmutableList.of("", "/impl", "/test")) {
+        Path directory = root.resolve(String.format("java/package%d%s", pkg, folder));
+        Files.createDirectories(directory);
+        for (int file = 0; file < 10; file++) {
+          Files.createFile(directory.resolve(String.format("Source%d.java", file)));
+          Files.createFile(directory.resolve(String.format("Source%dTest.java", file)));
+        }
+      }
+      Files.createFile(root.resolve(String.format("java/package%d/BUCK", pkg)));
+    }
+
+    Watchman watchman =
+        new WatchmanFactory()
+            .build(
+                ImmutableSet.of(AbsPath.of(root)),
+                ImmutableMap.of(),
+                new TestConsole(),
+                FakeClock.doNotCare(),
+                Optional.empty());
+    if (!watchman.getTransportPath().isPresent()) {
+      throw new IllegalStateException("Watchman is not available");
+    }
+    watchmanClient = watchman.createClient();
+    ProjectWatch projectWatch = watchman.getProjectWatches().get(AbsPath.of(root));
+    packagePath = String.format("java/package%d", numberOfPackages / 2);
+
+    globber =
+        WatchmanGlobber.create(
+            watchmanClient,
+            new SyncCookieState(),
+            projectWatch.getProjectPrefix().map(prefix -> prefix + "/").orElse("") + packagePath,
+            projectWatch.getWatchRoot());
+    index = new WatchmanGlobIndex();
+    if (!index.populate(
+        watchmanClient,
+        projectWatch.getWatchRoot(),
+        projectWatch.getProjectPrefix(),
+        ImmutableList.of())) {
+      throw new IllegalStateException("Unable to index files");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    watchmanClient.close();
+    temporaryPaths.after();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Optional<ImmutableSet<String>> globFromIndex() {
+    return index.glob(packagePath, INCLUDE, EXCLUDE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Optional<ImmutableSet<String>> globWithWatchmanQuery()
+      throws IOException, InterruptedException {
+    return globber.run(INCLUDE, EXCLUDE, true);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {WatchmanGlobIndexBenchmark.class.getName()});
+  }
+}
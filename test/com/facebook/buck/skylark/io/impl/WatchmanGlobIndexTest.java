@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.watchman.StubWatchmanClient;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WatchmanGlobIndexTest {
+  private WatchmanGlobIndex index;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    index = new WatchmanGlobIndex();
+    assertTrue(
+        index.populate(
+            new StubWatchmanClient(
+                Optional.of(
+                    ImmutableMap.of(
+                        "files",
+                        ImmutableList.of(
+                            "BUCK",
+                            "README",
+                            "src/BUCK",
+                            "src/Main.java",
+                            "src/MainTest.java",
+                            "src/util/Strings.java",
+                            "src/util/.Hidden.java",
+                            "src/.generated/Generated.java",
+                            "src/resources/strings.txt")))),
+            "/repo",
+            Optional.empty(),
+            ImmutableList.of()));
+  }
+
+  @Test
+  public void isNotPopulatedUntilQueried() {
+    assertFalse(new WatchmanGlobIndex().isPopulated());
+    assertEquals(
+        Optional.empty(),
+        new WatchmanGlobIndex().glob("", ImmutableList.of("*"), ImmutableList.of()));
+  }
+
+  @Test
+  public void isNotPopulatedAgainRightAfterATimeout() throws Exception {
+    WatchmanGlobIndex timedOut = new WatchmanGlobIndex();
+    StubWatchmanClient timingOut = new StubWatchmanClient(Optional.empty());
+    StubWatchmanClient answering =
+        new StubWatchmanClient(Optional.of(ImmutableMap.of("files", ImmutableList.of("BUCK"))));
+
+    assertFalse(timedOut.populate(timingOut, "/repo", Optional.empty(), ImmutableList.of()));
+    assertFalse(timedOut.populate(answering, "/repo", Optional.empty(), ImmutableList.of()));
+
+    timedOut.invalidate();
+    assertTrue(timedOut.populate(answering, "/repo", Optional.empty(), ImmutableList.of()));
+  }
+
+  @Test
+  public void matchesWildcardsInSingleFolder() {
+    assertEquals(
+        Optional.of(ImmutableSet.of("Main.java", "MainTest.java")),
+        index.glob("src", ImmutableList.of("*.java"), ImmutableList.of()));
+    assertEquals(
+        Optional.of(ImmutableSet.of("Main.java")),
+        index.glob("src", ImmutableList.of("Mai?.java"), ImmutableList.of()));
+  }
+
+  @Test
+  public void recursiveWildcardsSkipHiddenFiles() {
+    assertEquals(
+        Optional.of(ImmutableSet.of("Main.java", "MainTest.java", "util/Strings.java")),
+        index.glob("src", ImmutableList.of("**/*.java"), ImmutableList.of()));
+    assertEquals(
+        Optional.of(
+            ImmutableSet.of(
+                "BUCK",
+                "Main.java",
+                "MainTest.java",
+                "resources/strings.txt",
+                "util/Strings.java")),
+        index.glob("src", ImmutableList.of("**"), ImmutableList.of()));
+  }
+
+  @Test
+  public void literalPatternsMatchHiddenFiles() {
+    assertEquals(
+        Optional.of(ImmutableSet.of(".generated/Generated.java", "util/.Hidden.java")),
+        index.glob(
+            "src",
+            ImmutableList.of(".generated/*.java", "util/.Hidden.java"),
+            ImmutableList.of()));
+  }
+
+  @Test
+  public void excludesMatchWholePaths() {
+    assertEquals(
+        Optional.of(ImmutableSet.of("Main.java", "util/Strings.java")),
+        index.glob("src", ImmutableList.of("**/*.java"), ImmutableList.of("**/*Test.java")));
+    assertEquals(
+        Optional.of(ImmutableSet.of("Main.java", "MainTest.java")),
+        index.glob("src", ImmutableList.of("**/*.java"), ImmutableList.of("util/*")));
+  }
+
+  @Test
+  public void foldersAreNotReturned() {
+    assertEquals(
+        Optional.of(ImmutableSet.of("README")),
+        index.glob("", ImmutableList.of("*E*"), ImmutableList.of()));
+  }
+
+  @Test
+  public void tracksCreatedAndDeletedFiles() {
+    index.onFileCreated("src/util/Lists.java");
+    index.onFileCreated("src/new/New.java");
+    index.onFileDeleted("src/MainTest.java");
+
+    assertEquals(
+        Optional.of(
+            ImmutableSet.of("Main.java", "new/New.java", "util/Lists.java", "util/Strings.java")),
+        index.glob("src", ImmutableList.of("**/*.java"), ImmutableList.of()));
+  }
+
+  @Test
+  public void forgetsFilesWhenInvalidated() {
+    index.invalidate();
+
+    assertFalse(index.isPopulated());
+    assertEquals(
+        Optional.empty(), index.glob("src", ImmutableList.of("*.java"), ImmutableList.of()));
+  }
+
+  @Test
+  public void leavesCharacterClassesToWatchman() {
+    assertEquals(
+        Optional.empty(), index.glob("src", ImmutableList.of("[A-Z]*.java"), ImmutableList.of()));
+  }
+
+  @Test
+  public void missingBaseFolderMatchesNothing() {
+    assertEquals(
+        Optional.of(ImmutableSet.of()),
+        index.glob("missing", ImmutableList.of("**/*.java"), ImmutableList.of()));
+  }
+}
@@ -116,6 +116,16 @@ public class SkylarkProjectBuildFileParserTest {
     return createParserWithOptions(eventHandler, getDefaultParserOptions().build());
   }
 
+  private SkylarkProjectBuildFileParser createParser(SkylarkExtensionCache extensionCache) {
+    return SkylarkProjectBuildFileParserTestUtils.createParserWithOptions(
+        skylarkFilesystem,
+        new PrintingEventHandler(EventKind.ALL_EVENTS),
+        getDefaultParserOptions().build(),
+        knownRuleTypesProvider,
+        cell.getRootCell(),
+        extensionCache);
+  }
+
   private com.google.devtools.build.lib.vfs.Path vfs_path(Path p) {
     return skylarkFilesystem.getPath(p.toString());
   }
@@ -567,6 +577,69 @@ public class SkylarkProjectBuildFileParserTest {
         equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
   }
 
+  @Test
+  public void sharesEvaluatedExtensionsBetweenParsers() throws Exception {
+    Path buildFile = projectFilesystem.resolve("BUCK");
+    Files.write(
+        buildFile,
+        Arrays.asList("load('//:ext_1.bzl', 'ext_1')", "prebuilt_jar(name=ext_1, binary_jar='a')"));
+
+    Path ext1 = projectFilesystem.resolve("ext_1.bzl");
+    Files.write(ext1, Arrays.asList("load(':ext_2.bzl', 'ext_2')", "ext_1 = ext_2"));
+
+    Path ext2 = projectFilesystem.resolve("ext_2.bzl");
+    Files.write(ext2, Arrays.asList("ext_2 = 'hello'"));
+
+    SkylarkExtensionCache extensionCache = new SkylarkExtensionCache();
+    RecordingParser firstParser = new RecordingParser(createParser(extensionCache));
+    BuildFileManifest firstManifest = firstParser.getManifest(buildFile);
+    RecordingParser secondParser = new RecordingParser(createParser(extensionCache));
+    BuildFileManifest secondManifest = secondParser.getManifest(buildFile);
+
+    assertThat(
+        firstParser.buildCounts,
+        equalTo(firstParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
+    assertThat(secondParser.buildCounts, equalTo(secondParser.expectedCounts()));
+    assertEquals(firstManifest.getTargets(), secondManifest.getTargets());
+    assertEquals(firstManifest.getIncludes(), secondManifest.getIncludes());
+    assertEquals(2, extensionCache.size());
+  }
+
+  @Test
+  public void reevaluatesSharedExtensionsWhenFilesTheyLoadChange() throws Exception {
+    Path buildFile = projectFilesystem.resolve("BUCK");
+    Files.write(
+        buildFile,
+        Arrays.asList("load('//:ext_1.bzl', 'ext_1')", "prebuilt_jar(name=ext_1, binary_jar='a')"));
+
+    Path ext1 = projectFilesystem.resolve("ext_1.bzl");
+    Files.write(ext1, Arrays.asList("load(':ext_2.bzl', 'ext_2')", "ext_1 = ext_2"));
+
+    Path ext2 = projectFilesystem.resolve("ext_2.bzl");
+    Files.write(ext2, Arrays.asList("ext_2 = 'hello'"));
+
+    Path otherBuildFile = projectFilesystem.resolve("other").resolve("BUCK");
+    Files.createDirectories(otherBuildFile.getParent());
+    Files.write(otherBuildFile, Arrays.asList("load('//:ext_3.bzl', 'ext_3')"));
+    Files.write(projectFilesystem.resolve("ext_3.bzl"), Arrays.asList("ext_3 = 'unrelated'"));
+
+    SkylarkExtensionCache extensionCache = new SkylarkExtensionCache();
+    createParser(extensionCache).getManifest(buildFile);
+    createParser(extensionCache).getManifest(otherBuildFile);
+    assertEquals(3, extensionCache.size());
+
+    Files.write(ext2, Arrays.asList("ext_2 = 'world'"));
+    extensionCache.invalidate(ext2.toString());
+    assertEquals(1, extensionCache.size());
+    RecordingParser recordingParser = new RecordingParser(createParser(extensionCache));
+
+    assertEquals(
+        ImmutableSet.of("world"), recordingParser.getManifest(buildFile).getTargets().keySet());
+    assertThat(
+        recordingParser.buildCounts,
+        equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
+  }
+
   @Test
   public void doesNotReadSameBuildFileMultipleTimes() throws Exception {
     // Verifies BUILD file is accessed for IO and AST construction only once.
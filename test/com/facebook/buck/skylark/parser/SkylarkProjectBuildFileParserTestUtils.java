@@ -102,19 +102,44 @@ public class SkylarkProjectBuildFileParserTestUtils {
         options,
         BuckEventBusForTests.newInstance(),
         skylarkFilesystem,
-        BuckGlobals.of(
-            SkylarkBuildModule.BUILD_MODULE,
-            options.getDescriptions(),
-            options.getUserDefinedRulesState(),
-            options.getImplicitNativeRulesState(),
-            new RuleFunctionFactory(new DefaultTypeCoercerFactory()),
-            LabelCache.newLabelCache(),
-            knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
-            options.getPerFeatureProviders()),
+        createBuckGlobals(options, knownRuleTypesProvider, cell),
         eventHandler,
         NativeGlobber::create);
   }
 
+  /** Creates a parser which shares the extensions it evaluates using {@code extensionCache}. */
+  public static SkylarkProjectBuildFileParser createParserWithOptions(
+      SkylarkFilesystem skylarkFilesystem,
+      EventHandler eventHandler,
+      ProjectBuildFileParserOptions options,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      Cell cell,
+      SkylarkExtensionCache extensionCache) {
+    return SkylarkProjectBuildFileParser.using(
+        options,
+        BuckEventBusForTests.newInstance(),
+        skylarkFilesystem,
+        createBuckGlobals(options, knownRuleTypesProvider, cell),
+        eventHandler,
+        NativeGlobber::create,
+        extensionCache);
+  }
+
+  private static BuckGlobals createBuckGlobals(
+      ProjectBuildFileParserOptions options,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      Cell cell) {
+    return BuckGlobals.of(
+        SkylarkBuildModule.BUILD_MODULE,
+        options.getDescriptions(),
+        options.getUserDefinedRulesState(),
+        options.getImplicitNativeRulesState(),
+        new RuleFunctionFactory(new DefaultTypeCoercerFactory()),
+        LabelCache.newLabelCache(),
+        knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
+        options.getPerFeatureProviders());
+  }
+
   static Map<String, Object> getSingleRule(
       SkylarkProjectBuildFileParser parser, java.nio.file.Path buildFile)
       throws BuildFileParseException, InterruptedException, IOException {
@@ -93,6 +93,20 @@ public class SkylarkUserDefinedRulesParserTest {
         cell.getRootCell());
   }
 
+  private SkylarkProjectBuildFileParser createParser(
+      KnownRuleTypesProvider knownRuleTypesProvider, SkylarkExtensionCache extensionCache) {
+    return SkylarkProjectBuildFileParserTestUtils.createParserWithOptions(
+        skylarkFilesystem,
+        new PrintingEventHandler(EventKind.ALL_EVENTS),
+        SkylarkProjectBuildFileParserTestUtils.getDefaultParserOptions(
+                cell.getRootCell(), knownRuleTypesProvider)
+            .setUserDefinedRulesState(UserDefinedRulesState.of(true))
+            .build(),
+        knownRuleTypesProvider,
+        cell.getRootCell(),
+        extensionCache);
+  }
+
   private Map<String, Object> getSingleRule(Path buildFile)
       throws BuildFileParseException, InterruptedException, IOException {
     return SkylarkProjectBuildFileParserTestUtils.getSingleRule(parser, buildFile);
@@ -771,6 +785,26 @@ public class SkylarkUserDefinedRulesParserTest {
     assertEquals(Integer.class, rule2.getAllParamInfo().get("attr2").getResultClass());
   }
 
+  @Test
+  public void addsKnownUserDefinedRuleTypesOfSharedExtensions()
+      throws IOException, InterruptedException {
+    setupWorkspace("basic_rule");
+    Path buildFile = projectFilesystem.resolve("subdir").resolve("BUCK");
+    SkylarkExtensionCache extensionCache = new SkylarkExtensionCache();
+    createParser(knownRuleTypesProvider, extensionCache).getManifest(buildFile);
+
+    KnownRuleTypesProvider otherKnownRuleTypesProvider =
+        TestKnownRuleTypesProvider.create(BuckPluginManagerFactory.createPluginManager());
+    BuildFileManifest rules =
+        createParser(otherKnownRuleTypesProvider, extensionCache).getManifest(buildFile);
+    assertEquals(2, rules.getTargets().size());
+
+    KnownUserDefinedRuleTypes knownUserDefinedRuleTypes =
+        otherKnownRuleTypesProvider.getUserDefinedRuleTypes(cell.getRootCell());
+    assertNotNull(knownUserDefinedRuleTypes.getRule("//subdir:defs.bzl:some_rule"));
+    assertNotNull(knownUserDefinedRuleTypes.getRule("//subdir:defs.bzl:some_other_rule"));
+  }
+
   @Test
   public void builtInProvidersAreExportedWhenEnabled() throws IOException, InterruptedException {
     setupWorkspace("builtin_providers_exported");
@@ -17,6 +17,7 @@
 package com.facebook.buck.util.cache.impl;
 
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
@@ -42,6 +43,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Optional;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
 import org.junit.Test;
@@ -242,4 +244,62 @@ public class WatchedFileHashCacheTest {
     assertFalse(cache.willGet(filesystem.getPath("buck-out/file.txt")));
     assertTrue(cache.willGet(filesystem.getPath("file.txt")));
   }
+
+  @Test
+  public void snapshotRestoresHashesOfUnchangedFiles() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path unchanged = Paths.get("Unchanged.java");
+    Path modified = Paths.get("Modified.java");
+    Path deleted = Paths.get("Deleted.java");
+    filesystem.writeContentsToPath("unchanged", unchanged);
+    filesystem.writeContentsToPath("modified", modified);
+    filesystem.writeContentsToPath("deleted", deleted);
+
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    HashCode unchangedHash = cache.get(unchanged);
+    cache.get(modified);
+    cache.get(deleted);
+    assertEquals(3, cache.saveSnapshot("c:123:456:1:7"));
+
+    filesystem.writeContentsToPath("modified with different size", modified);
+    filesystem.deleteFileAtPath(deleted);
+
+    WatchedFileHashCache restored = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    assertEquals(Optional.of("c:123:456:1:7"), restored.loadSnapshot());
+    assertEquals(Optional.of(unchangedHash), restored.getIfPresent(unchanged));
+    assertFalse(restored.getIfPresent(modified).isPresent());
+    assertFalse(restored.getIfPresent(deleted).isPresent());
+  }
+
+  @Test
+  public void corruptSnapshotIsDiscarded() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    filesystem.writeContentsToPath("contents", Paths.get("File.java"));
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    cache.get(Paths.get("File.java"));
+    String clock = "c:123:456:1:7";
+    cache.saveSnapshot(clock);
+    byte[] snapshot = Files.readAllBytes(cache.getSnapshotPath());
+    int countOffset = 4 + 4 + 2 + clock.length();
+    int pathLength = ((snapshot[countOffset + 4] & 0xFF) << 8) | (snapshot[countOffset + 5] & 0xFF);
+
+    // A hash length which reads as negative.
+    byte[] corruptHashLength = snapshot.clone();
+    corruptHashLength[countOffset + 4 + 2 + pathLength + 1] = (byte) 0x80;
+    Files.write(cache.getSnapshotPath(), corruptHashLength);
+    assertFalse(new WatchedFileHashCache(filesystem, fileHashCacheMode).loadSnapshot().isPresent());
+
+    // An entry count which can't fit in the file.
+    byte[] corruptCount = snapshot.clone();
+    corruptCount[countOffset] = (byte) 0x7F;
+    Files.write(cache.getSnapshotPath(), corruptCount);
+    assertFalse(new WatchedFileHashCache(filesystem, fileHashCacheMode).loadSnapshot().isPresent());
+  }
+
+  @Test
+  public void loadSnapshotWithoutSnapshotFileIsEmpty() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    assertFalse(cache.loadSnapshot().isPresent());
+  }
 }
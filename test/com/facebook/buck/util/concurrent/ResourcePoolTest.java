@@ -20,6 +20,8 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -27,6 +29,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -153,6 +156,106 @@ public class ResourcePoolTest {
     }
   }
 
+  @Test
+  public void sharesResourcesBetweenOperations() throws Exception {
+    try (Fixture f =
+        new Fixture(
+            /* maxResources */ 2,
+            /* maxUsesPerResource */ 2,
+            (id) -> {},
+            ResourcePool.ResourceUsageErrorPolicy.RECYCLE)) {
+      CountDownLatch waitTillAllThreadsAreBusy = new CountDownLatch(4);
+      CountDownLatch unblockAllThreads = new CountDownLatch(1);
+      List<ListenableFuture<TestResource>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(
+            f.getPool()
+                .scheduleOperationWithResource(
+                    r -> {
+                      waitTillAllThreadsAreBusy.countDown();
+                      unblockAllThreads.await();
+                      return r;
+                    },
+                    f.getExecutorService()));
+      }
+      // Four operations at once are only possible if both resources are used twice.
+      assertThat(waitTillAllThreadsAreBusy.await(1, TimeUnit.SECONDS), equalTo(true));
+      unblockAllThreads.countDown();
+
+      Map<Integer, Long> usesPerResource =
+          Futures.allAsList(futures).get().stream()
+              .collect(
+                  Collectors.groupingBy(TestResource::getTestResourceId, Collectors.counting()));
+      assertThat(f.getCreatedResources().get(), equalTo(2));
+      assertThat(usesPerResource, equalTo(ImmutableMap.of(0, 2L, 1, 2L)));
+    }
+  }
+
+  @Test
+  public void retiresResourcesAboveReducedMaximum() throws Exception {
+    try (Fixture f = new Fixture(/* maxResources */ 2)) {
+      CountDownLatch waitTillAllThreadsAreBusy = new CountDownLatch(2);
+      CountDownLatch unblockAllThreads = new CountDownLatch(1);
+      List<ListenableFuture<TestResource>> futures = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        futures.add(
+            f.getPool()
+                .scheduleOperationWithResource(
+                    r -> {
+                      waitTillAllThreadsAreBusy.countDown();
+                      unblockAllThreads.await();
+                      return r;
+                    },
+                    f.getExecutorService()));
+      }
+      waitTillAllThreadsAreBusy.await();
+      f.getPool().setMaxResources(1);
+      unblockAllThreads.countDown();
+      Futures.allAsList(futures).get();
+
+      ImmutableSet.Builder<Integer> usedResources = ImmutableSet.builder();
+      for (int i = 0; i < 4; i++) {
+        usedResources.add(
+            f.getPool()
+                .scheduleOperationWithResource(r -> r, f.getExecutorService())
+                .get()
+                .getTestResourceId());
+      }
+      assertThat(usedResources.build().size(), equalTo(1));
+      assertThat(f.getCreatedResources().get(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void createsResourcesUpToIncreasedMaximum() throws Exception {
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    try (Fixture f = new Fixture(/* maxResources */ 1)) {
+      CountDownLatch firstOperationStarted = new CountDownLatch(1);
+      CountDownLatch unblockFirstOperation = new CountDownLatch(1);
+      ListenableFuture<TestResource> first =
+          f.getPool()
+              .scheduleOperationWithResource(
+                  r -> {
+                    firstOperationStarted.countDown();
+                    unblockFirstOperation.await();
+                    return r;
+                  },
+                  executorService);
+      firstOperationStarted.await();
+      ListenableFuture<TestResource> second =
+          f.getPool().scheduleOperationWithResource(r -> r, executorService);
+
+      f.getPool().setMaxResources(2);
+
+      assertThat(second.get(1, TimeUnit.SECONDS).getTestResourceId(), equalTo(1));
+      unblockFirstOperation.countDown();
+      assertThat(first.get().getTestResourceId(), equalTo(0));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   private static class TestResource implements AutoCloseable {
     private final int id;
 
@@ -194,6 +297,14 @@ public class ResourcePoolTest {
         int maxResources,
         Consumer<Integer> beforeResourceCreatedFunction,
         ResourcePool.ResourceUsageErrorPolicy errorPolicy) {
+      this(maxResources, 1, beforeResourceCreatedFunction, errorPolicy);
+    }
+
+    public Fixture(
+        int maxResources,
+        int maxUsesPerResource,
+        Consumer<Integer> beforeResourceCreatedFunction,
+        ResourcePool.ResourceUsageErrorPolicy errorPolicy) {
       this.maxResources = maxResources;
       this.createdResources = new AtomicInteger(0);
       this.createdResourcesSet = new HashSet<>();
@@ -201,6 +312,7 @@ public class ResourcePoolTest {
       this.pool =
           new ResourcePool<>(
               /* maxResources */ maxResources,
+              maxUsesPerResource,
               errorPolicy,
               () -> {
                 int id = createdResources.getAndIncrement();
@@ -220,7 +332,8 @@ public class ResourcePoolTest {
                 return testResource;
               });
       executorService =
-          MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(maxResources));
+          MoreExecutors.listeningDecorator(
+              Executors.newFixedThreadPool(maxResources * maxUsesPerResource));
     }
 
     public ListeningExecutorService getExecutorService() {
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.worker;
 
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -27,7 +28,9 @@ public class FakeWorkerProcessProtocol {
     private final ArrayBlockingQueue<Integer> messageIds = new ArrayBlockingQueue<>(10);
 
     @Override
-    public void handshake(int messageId) {}
+    public ImmutableSet<String> handshake(int messageId, ImmutableSet<String> capabilities) {
+      return ImmutableSet.of();
+    }
 
     @Override
     public void send(int messageId, WorkerProcessCommand command) throws IOException {
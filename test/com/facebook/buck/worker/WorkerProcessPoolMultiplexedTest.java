@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+public class WorkerProcessPoolMultiplexedTest {
+
+  private final List<ConcurrentFakeWorkerProcess> startedProcesses = new ArrayList<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testFillsRunningProcessesBeforeStartingNewOnes() throws Exception {
+    WorkerProcessPoolMultiplexed pool = createPool(2, 3, 3);
+
+    pool.submitJob("a");
+    pool.submitJob("b");
+    pool.submitJob("c");
+    assertEquals(1, startedProcesses.size());
+    assertEquals(3, startedProcesses.get(0).jobs.size());
+
+    pool.submitJob("d");
+    assertEquals(2, startedProcesses.size());
+    assertEquals(1, startedProcesses.get(1).jobs.size());
+    assertEquals(6, pool.getCapacity());
+  }
+
+  @Test(timeout = 5000)
+  public void testBlocksUntilASlotIsReleased() throws Exception {
+    WorkerProcessPoolMultiplexed pool = createPool(1, 2, 2);
+
+    ListenableFuture<WorkerJobResult> first = pool.submitJob("a");
+    pool.submitJob("b");
+    Future<ListenableFuture<WorkerJobResult>> third = executor.submit(() -> pool.submitJob("c"));
+    try {
+      third.get(100, TimeUnit.MILLISECONDS);
+      throw new AssertionError("Expected the third job to wait for a free slot.");
+    } catch (TimeoutException e) {
+      // expected
+    }
+
+    ConcurrentFakeWorkerProcess process = startedProcesses.get(0);
+    process.jobs.get(0).set(WorkerJobResult.of(0, Optional.empty(), Optional.empty()));
+    assertTrue(first.isDone());
+    third.get();
+    assertEquals(1, startedProcesses.size());
+    assertEquals(3, process.jobs.size());
+  }
+
+  @Test
+  public void testRunsOneJobPerProcessIfConcurrentJobsAreNotAccepted() throws Exception {
+    WorkerProcessPoolMultiplexed pool = createPool(2, 4, 1);
+
+    pool.submitJob("a");
+    pool.submitJob("b");
+    assertEquals(2, startedProcesses.size());
+    assertEquals(1, startedProcesses.get(0).jobs.size());
+    assertEquals(1, startedProcesses.get(1).jobs.size());
+  }
+
+  @Test
+  public void testReplacesDeadProcesses() throws Exception {
+    WorkerProcessPoolMultiplexed pool = createPool(1, 2, 2);
+
+    pool.submitJob("a");
+    ConcurrentFakeWorkerProcess first = startedProcesses.get(0);
+    first.jobs.get(0).set(WorkerJobResult.of(0, Optional.empty(), Optional.empty()));
+    first.isAlive = false;
+
+    pool.submitJob("b");
+    assertEquals(2, startedProcesses.size());
+    assertTrue(first.isClosed);
+    assertEquals(1, startedProcesses.get(1).jobs.size());
+  }
+
+  @Test
+  public void testClosesProcesses() throws Exception {
+    WorkerProcessPoolMultiplexed pool = createPool(2, 1, 1);
+
+    pool.submitJob("a");
+    pool.submitJob("b");
+    pool.close();
+
+    assertTrue(startedProcesses.get(0).isClosed);
+    assertTrue(startedProcesses.get(1).isClosed);
+    assertFalse(startedProcesses.get(0).isAlive());
+  }
+
+  private WorkerProcessPoolMultiplexed createPool(
+      int maxWorkers, int maxJobsPerWorker, int acceptedConcurrentJobs) {
+    return new WorkerProcessPoolMultiplexed(
+        maxWorkers,
+        maxJobsPerWorker,
+        Hashing.sha256().hashLong(0),
+        () -> {
+          ConcurrentFakeWorkerProcess process =
+              new ConcurrentFakeWorkerProcess(acceptedConcurrentJobs);
+          synchronized (startedProcesses) {
+            startedProcesses.add(process);
+          }
+          return process;
+        });
+  }
+
+  /** A worker process which keeps its jobs running until the test completes them. */
+  private static class ConcurrentFakeWorkerProcess extends WorkerProcess {
+    private final int acceptedConcurrentJobs;
+    private final List<SettableFuture<WorkerJobResult>> jobs = new ArrayList<>();
+    private volatile boolean isAlive = true;
+    private volatile boolean isClosed = false;
+
+    ConcurrentFakeWorkerProcess(int acceptedConcurrentJobs) throws IOException {
+      super(
+          new FakeProcessExecutor(),
+          ProcessExecutorParams.builder().setCommand(ImmutableList.of()).build(),
+          new FakeProjectFilesystem(),
+          Files.createTempFile("buck-worker-", "-stderr.log"),
+          Paths.get("tmp").toAbsolutePath().normalize());
+      this.acceptedConcurrentJobs = acceptedConcurrentJobs;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return isAlive && !isClosed;
+    }
+
+    @Override
+    public int getMaxConcurrentJobs() {
+      return acceptedConcurrentJobs;
+    }
+
+    @Override
+    public synchronized void ensureLaunchAndHandshake() {}
+
+    @Override
+    public synchronized ListenableFuture<WorkerJobResult> submitJob(String jobArgs) {
+      SettableFuture<WorkerJobResult> job = SettableFuture.create();
+      jobs.add(job);
+      return job;
+    }
+
+    @Override
+    public void close() {
+      isClosed = true;
+    }
+  }
+}
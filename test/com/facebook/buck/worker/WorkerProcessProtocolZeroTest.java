@@ -23,6 +23,7 @@ import static org.junit.Assert.fail;
 
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableSet;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -67,7 +68,30 @@ public class WorkerProcessProtocolZeroTest {
         new WorkerProcessProtocolZero.CommandSender(
             jsonSentToWorkerProcess, dummyJsonReader, newTempFile(), () -> {}, () -> true);
 
-    protocol.handshake(handshakeID);
+    protocol.handshake(handshakeID, ImmutableSet.of());
+    assertThat(jsonSentToWorkerProcess.toString(), Matchers.containsString(expectedJson));
+  }
+
+  @Test
+  public void testSendHandshakeWithCapabilities() throws IOException {
+    int handshakeID = 123;
+    String expectedJson =
+        String.format(
+            "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\","
+                + "\"capabilities\":[\"concurrent_jobs\"]}",
+            handshakeID);
+
+    ByteArrayOutputStream jsonSentToWorkerProcess = new ByteArrayOutputStream();
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            jsonSentToWorkerProcess,
+            inputStream(expectedJson),
+            newTempFile(),
+            () -> {},
+            () -> true);
+
+    protocol.handshake(
+        handshakeID, ImmutableSet.of(WorkerProcessProtocol.CAPABILITY_CONCURRENT_JOBS));
     assertThat(jsonSentToWorkerProcess.toString(), Matchers.containsString(expectedJson));
   }
 
@@ -108,7 +132,46 @@ public class WorkerProcessProtocolZeroTest {
         new WorkerProcessProtocolZero.CommandSender(
             dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
 
-    protocol.handshake(handshakeID);
+    assertEquals(ImmutableSet.of(), protocol.handshake(handshakeID, ImmutableSet.of()));
+  }
+
+  @Test
+  public void testReceiveHandshakeWithAcceptedCapabilities() throws IOException {
+    int handshakeID = 123;
+    InputStream jsonReader =
+        inputStream(
+            String.format(
+                "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\","
+                    + "\"capabilities\":[\"concurrent_jobs\"]}",
+                handshakeID));
+
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+
+    ImmutableSet<String> offered =
+        ImmutableSet.of(WorkerProcessProtocol.CAPABILITY_CONCURRENT_JOBS);
+    assertEquals(offered, protocol.handshake(handshakeID, offered));
+  }
+
+  @Test
+  public void testReceiveHandshakeWithCapabilitiesWhichWereNotOffered() throws IOException {
+    expectedException.expect(HumanReadableException.class);
+    expectedException.expectMessage("to be a subset of");
+
+    int handshakeID = 123;
+    InputStream jsonReader =
+        inputStream(
+            String.format(
+                "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\","
+                    + "\"capabilities\":[\"concurrent_jobs\"]}",
+                handshakeID));
+
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+
+    protocol.handshake(handshakeID, ImmutableSet.of());
   }
 
   private InputStream createMockJsonReaderForReceiveCommandResponse(
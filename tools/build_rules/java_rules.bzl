@@ -152,10 +152,11 @@ def standard_java_test(
 
 def standard_java_benchmark(
         name,
-        deps):
+        deps,
+        srcs = None):
     native.java_library(
         name = name,
-        srcs = native.glob(["*Benchmark.java"]),
+        srcs = srcs if srcs != None else native.glob(["*Benchmark.java"]),
         plugins = ["//third-party/java/jmh:jmh-generator-annprocess-plugin"],
         deps = deps + [
             "//third-party/java/jmh:jmh",